@@ -0,0 +1,61 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.reference.server.EventConflictResolver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link EventConflictResolver#resolveConflicts} in older-wins and newer-wins mode. Every
+ * tenth pending event touches a {@code doc/} key written in the delta, so both the accept and
+ * the reject branch are taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventConflictResolverBenchmark {
+
+    @Param({"10", "100"})
+    public int pending;
+
+    @Param({"100", "1000"})
+    public int delta;
+
+    @Param({"false", "true"})
+    public boolean newerWins;
+
+    private List<ClientEvent> pendingEvents;
+    private List<ServerEvent> newEvents;
+
+    @Setup
+    public void setUp() {
+        pendingEvents = new ArrayList<>(pending);
+        for (int i = 0; i < pending; i++) {
+            pendingEvents.add(i % 10 == 0
+                    ? new ClientEvent("c" + i, "doc.edited", Fixtures.payload(i), List.of("doc/" + i % Fixtures.DOC_KEYS), 0L)
+                    : Fixtures.ownEvent("c", i));
+        }
+        newEvents = Fixtures.serverEvents(1, delta);
+    }
+
+    @Benchmark
+    public EventConflictResolver.ConflictResolutionResult resolveConflicts() {
+        return EventConflictResolver.resolveConflicts(pendingEvents, newEvents, newerWins);
+    }
+}
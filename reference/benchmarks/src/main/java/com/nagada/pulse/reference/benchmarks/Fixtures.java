@@ -0,0 +1,53 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Deterministic events shared by the benchmarks, so every run measures the same data.
+ * Other devices write to {@code doc/<n>} keys; the benchmarked device writes to its own
+ * {@code mine/<n>} keys unless a benchmark asks for overlap.
+ */
+final class Fixtures {
+
+    static final int PAYLOAD_BYTES = 128;
+    static final int DOC_KEYS = 64;
+
+    private Fixtures() {
+    }
+
+    static byte[] payload(int seed) {
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        Arrays.fill(payload, (byte) seed);
+        return payload;
+    }
+
+    static ClientEvent foreignEvent(int i) {
+        return new ClientEvent("other-" + i, "doc.edited", payload(i), List.of("doc/" + (i % DOC_KEYS)), 1_700_000_000_000L + i);
+    }
+
+    static ClientEvent ownEvent(String prefix, int i) {
+        return new ClientEvent(prefix + i, "doc.edited", payload(i), List.of("mine/" + i), 1_700_000_000_000L + i);
+    }
+
+    static List<ClientEvent> ownEvents(String prefix, int count) {
+        List<ClientEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(ownEvent(prefix, i));
+        }
+        return events;
+    }
+
+    static List<ServerEvent> serverEvents(long firstId, int count) {
+        List<ServerEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ClientEvent source = foreignEvent(i);
+            events.add(new ServerEvent(firstId + i, source.getClientEventId(), "device-" + (i % 8), source.getPayload(),
+                    source.getPayloadManifest(), source.getCreatedAt()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,67 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read paths of {@link InMemoryEventStore}: {@code listAfter} a cursor {@code lag} events
+ * behind the head, and {@code exists} for an event that was stored (recent and old) or never was.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InMemoryEventStoreBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"10", "1000"})
+    public int lag;
+
+    private InMemoryEventStore eventStore;
+
+    @Setup
+    public void setUp() {
+        eventStore = new InMemoryEventStore();
+        for (int i = 0; i < size; i++) {
+            eventStore.append("device-" + (i % 8), Fixtures.foreignEvent(i));
+        }
+    }
+
+    @Benchmark
+    public List<ServerEvent> listAfter() {
+        return eventStore.listAfter(size - lag);
+    }
+
+    @Benchmark
+    public boolean existsRecent() {
+        int i = size - 1;
+        return eventStore.exists("device-" + (i % 8), "other-" + i);
+    }
+
+    @Benchmark
+    public boolean existsOld() {
+        return eventStore.exists("device-0", "other-0");
+    }
+
+    @Benchmark
+    public boolean existsMissing() {
+        return eventStore.exists("device-0", "never-stored");
+    }
+}
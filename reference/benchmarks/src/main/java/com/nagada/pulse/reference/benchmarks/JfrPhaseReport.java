@@ -0,0 +1,107 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Per-phase latency percentiles from a JFR recording of the reference server.
+ * <p>
+ * Reads every {@code com.nagada.pulse.*} event and groups it by type. Store operations are
+ * grouped by store and operation as well. It prints one row per group, plus the mean lag and
+ * payload size where the event carries them.
+ * <pre>
+ * java -XX:StartFlightRecording:filename=sync.jfr ... (run the server, apply load, stop it)
+ * java -cp benchmarks/target/benchmarks.jar com.nagada.pulse.reference.benchmarks.JfrPhaseReport sync.jfr
+ * </pre>
+ */
+public class JfrPhaseReport {
+
+    private static final String PREFIX = "com.nagada.pulse.";
+    private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(10);
+
+    /**
+     * Durations and sizes of one group of events.
+     */
+    public static class Phase {
+        public final Histogram durations = new Histogram(HIGHEST_TRACKABLE, 3);
+        long lagSum;
+        long lagCount;
+        long bytesSum;
+        long bytesCount;
+
+        void add(RecordedEvent event) {
+            durations.recordValue(Math.min(Math.max(0, event.getDuration().toNanos()), HIGHEST_TRACKABLE));
+            if (event.hasField("lag") && event.getLong("lag") >= 0) {
+                lagSum += event.getLong("lag");
+                lagCount++;
+            }
+            if (event.hasField("payloadBytes") && event.getLong("payloadBytes") >= 0) {
+                bytesSum += event.getLong("payloadBytes");
+                bytesCount++;
+            }
+        }
+
+        public double meanLag() {
+            return lagCount == 0 ? Double.NaN : (double) lagSum / lagCount;
+        }
+
+        public double meanPayloadBytes() {
+            return bytesCount == 0 ? Double.NaN : (double) bytesSum / bytesCount;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: JfrPhaseReport <recording.jfr>");
+            System.exit(2);
+        }
+        print(read(Paths.get(args[0])), System.out);
+    }
+
+    /**
+     * Group the recording's sync events by phase, in name order.
+     */
+    public static Map<String, Phase> read(Path recording) throws IOException {
+        Map<String, Phase> phases = new TreeMap<>();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (!name.startsWith(PREFIX)) {
+                    continue;
+                }
+                String phase = name.substring(PREFIX.length());
+                if (event.hasField("operation")) {
+                    phase += " " + event.getString("store") + "." + event.getString("operation");
+                }
+                phases.computeIfAbsent(phase, p -> new Phase()).add(event);
+            }
+        }
+        return phases;
+    }
+
+    public static void print(Map<String, Phase> phases, PrintStream out) {
+        out.printf("%-44s %9s %9s %9s %9s %9s %9s %10s %10s%n",
+                "phase (ms)", "count", "p50", "p90", "p99", "p99.9", "max", "mean lag", "mean bytes");
+        for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+            Histogram histogram = entry.getValue().durations;
+            out.printf("%-44s %9d %9.3f %9.3f %9.3f %9.3f %9.3f %10.1f %10.1f%n", entry.getKey(),
+                    histogram.getTotalCount(),
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()), entry.getValue().meanLag(), entry.getValue().meanPayloadBytes());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
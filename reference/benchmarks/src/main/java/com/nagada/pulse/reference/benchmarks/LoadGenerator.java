@@ -0,0 +1,155 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.reference.client.HttpSyncTransport;
+import com.nagada.pulse.reference.server.http.Application;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Simulates many devices syncing against one HTTP node, to find where it saturates.
+ * <p>
+ * Each device is a {@code SyncEngine} over a real {@link HttpSyncTransport} that adds events to
+ * its outbox at {@code --rate} per second and syncs every {@code --heartbeat-ms}. Without
+ * {@code --url}, the reference {@link Application} is started in-process on a random port, and
+ * any {@code --nagada.*}, {@code --server.*}, {@code --spring.*} or {@code --logging.*}
+ * argument is passed on to it. After {@code --warmup} seconds the counters are reset, and after
+ * another {@code --duration} seconds a {@link LoadReport} is printed.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.nagada.pulse.reference.benchmarks.LoadGenerator \
+ *     --devices=200 --rate=2 --payload-bytes=512 --overlap=0.05 --heartbeat-ms=1000
+ * </pre>
+ */
+public class LoadGenerator {
+
+    /**
+     * Run settings; every field has a command-line flag of the same name in kebab case.
+     */
+    public static class Options {
+        public int devices = 10;
+        /** Events each device adds to its outbox per second; 0 for pull-only devices. */
+        public double rate = 1;
+        public int payloadBytes = 256;
+        /** Share of events that write a key shared by all devices, and so may conflict. */
+        public double overlap = 0;
+        public int sharedKeys = 100;
+        public long heartbeatMs = 1000;
+        public int warmup = 5;
+        public int duration = 30;
+        public HttpSyncTransport.WireFormat format = HttpSyncTransport.WireFormat.JSON;
+        public long timeoutMs = 30_000;
+        /** Sync endpoint of a running server; when null one is started in-process. */
+        public String url;
+        /** Device threads; defaults to one per device, since each blocks on its request. */
+        public int threads;
+        public final List<String> serverArgs = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "devices": options.devices = Integer.parseInt(value); break;
+                    case "rate": options.rate = Double.parseDouble(value); break;
+                    case "payload-bytes": options.payloadBytes = Integer.parseInt(value); break;
+                    case "overlap": options.overlap = Double.parseDouble(value); break;
+                    case "shared-keys": options.sharedKeys = Integer.parseInt(value); break;
+                    case "heartbeat-ms": options.heartbeatMs = Long.parseLong(value); break;
+                    case "warmup": options.warmup = Integer.parseInt(value); break;
+                    case "duration": options.duration = Integer.parseInt(value); break;
+                    case "format": options.format = HttpSyncTransport.WireFormat.valueOf(value.toUpperCase()); break;
+                    case "timeout-ms": options.timeoutMs = Long.parseLong(value); break;
+                    case "url": options.url = value; break;
+                    case "threads": options.threads = Integer.parseInt(value); break;
+                    default:
+                        if (name.startsWith("nagada.") || name.startsWith("server.") || name.startsWith("spring.")
+                                || name.startsWith("logging.")) {
+                            options.serverArgs.add(arg);
+                        } else {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                }
+            }
+            return options;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LoadReport report = run(options);
+        report.print(System.out);
+        System.exit(0);
+    }
+
+    /**
+     * Run the load described by {@code options} and return what was measured.
+     */
+    public static LoadReport run(Options options) throws InterruptedException {
+        ConfigurableApplicationContext server = null;
+        URI syncUri;
+        if (options.url == null) {
+            server = startServer(options.serverArgs);
+            int port = ((WebServerApplicationContext) server).getWebServer().getPort();
+            syncUri = URI.create("http://localhost:" + port + "/sync");
+        } else {
+            syncUri = URI.create(options.url);
+        }
+
+        int threads = options.threads > 0 ? options.threads : options.devices;
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(threads);
+        ExecutorService httpExecutor = Executors.newCachedThreadPool();
+        HttpClient httpClient = HttpClient.newBuilder().executor(httpExecutor).build();
+        LoadReport report = new LoadReport();
+        try {
+            for (int i = 0; i < options.devices; i++) {
+                SimulatedDevice device = new SimulatedDevice("load-device-" + i, options,
+                        new HttpSyncTransport(httpClient, syncUri, options.format, options.timeoutMs), report);
+                // Spread first heartbeats and events over one interval so devices do not sync in lockstep.
+                long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(options.heartbeatMs);
+                scheduler.scheduleAtFixedRate(device::heartbeat, ThreadLocalRandom.current().nextLong(heartbeatNanos),
+                        heartbeatNanos, TimeUnit.NANOSECONDS);
+                if (options.rate > 0) {
+                    long produceNanos = (long) (1e9 / options.rate);
+                    scheduler.scheduleAtFixedRate(device::produce, ThreadLocalRandom.current().nextLong(produceNanos),
+                            produceNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            TimeUnit.SECONDS.sleep(options.warmup);
+            report.reset();
+            TimeUnit.SECONDS.sleep(options.duration);
+            report.finish();
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(options.timeoutMs, TimeUnit.MILLISECONDS);
+            httpExecutor.shutdownNow();
+            if (server != null) {
+                server.close();
+            }
+        }
+        return report;
+    }
+
+    private static ConfigurableApplicationContext startServer(List<String> serverArgs) {
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--nagada.store.type=memory");
+        // SyncHandler logs every request at INFO, which would dominate a load test.
+        args.add("--logging.level.com.nagada=WARN");
+        args.addAll(serverArgs);
+        return SpringApplication.run(Application.class, args.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,153 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.SyncResponse;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency histograms and counters of a {@link LoadGenerator} run, recorded from many device
+ * threads at once.
+ * <p>
+ * Phases, all in nanoseconds as seen by the devices:
+ * <ul>
+ *   <li>{@code upload}: one {@code POST /sync} that carried pending events</li>
+ *   <li>{@code poll}: one {@code POST /sync} with an empty outbox</li>
+ *   <li>{@code heartbeat}: a whole {@code SyncEngine.sync()}, including follow-up pages. A
+ *       heartbeat that overruns its interval also records the heartbeats it delayed, so a
+ *       saturated server is not hidden by coordinated omission.</li>
+ *   <li>{@code propagation}: from an event being added on one device to it arriving on another</li>
+ * </ul>
+ * {@link #reset()} discards everything recorded so far, e.g. at the end of the warm-up.
+ */
+public class LoadReport {
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(10);
+
+    private final Recorder upload = new Recorder(HIGHEST_TRACKABLE, 3);
+    private final Recorder poll = new Recorder(HIGHEST_TRACKABLE, 3);
+    private final Recorder heartbeat = new Recorder(HIGHEST_TRACKABLE, 3);
+    private final Recorder propagation = new Recorder(HIGHEST_TRACKABLE, 3);
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long startNanos = System.nanoTime();
+
+    private Histogram uploadResult;
+    private Histogram pollResult;
+    private Histogram heartbeatResult;
+    private Histogram propagationResult;
+    private long elapsedNanos;
+
+    void request(boolean isUpload, long nanos, SyncResponse response) {
+        (isUpload ? upload : poll).recordValue(Math.min(nanos, HIGHEST_TRACKABLE));
+        if (response.getSuccessClientEventIds() != null) {
+            accepted.add(response.getSuccessClientEventIds().size());
+        }
+        if (response.getErrorClientEventIds() != null) {
+            rejected.add(response.getErrorClientEventIds().size());
+        }
+        if (response.getNewServerEvents() != null) {
+            received.add(response.getNewServerEvents().size());
+        }
+    }
+
+    void heartbeat(long nanos, long expectedIntervalNanos) {
+        heartbeat.recordValueWithExpectedInterval(Math.min(nanos, HIGHEST_TRACKABLE), expectedIntervalNanos);
+    }
+
+    void propagation(long nanos) {
+        if (nanos >= 0) {
+            propagation.recordValue(Math.min(nanos, HIGHEST_TRACKABLE));
+        }
+    }
+
+    void failure(Exception e) {
+        failures.increment();
+    }
+
+    void reset() {
+        upload.reset();
+        poll.reset();
+        heartbeat.reset();
+        propagation.reset();
+        accepted.reset();
+        rejected.reset();
+        received.reset();
+        failures.reset();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Take the histograms recorded since the last {@link #reset()}; call once, at the end of the run.
+     */
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        uploadResult = upload.getIntervalHistogram();
+        pollResult = poll.getIntervalHistogram();
+        heartbeatResult = heartbeat.getIntervalHistogram();
+        propagationResult = propagation.getIntervalHistogram();
+    }
+
+    public Histogram getUpload() {
+        return uploadResult;
+    }
+
+    public Histogram getPoll() {
+        return pollResult;
+    }
+
+    public Histogram getHeartbeat() {
+        return heartbeatResult;
+    }
+
+    public Histogram getPropagation() {
+        return propagationResult;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public double getElapsedSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = getElapsedSeconds();
+        out.printf("Measured %.1f s%n", seconds);
+        out.printf("%-12s %10s %10s %10s %10s %10s %10s %10s%n", "phase (ms)", "count", "p50", "p90", "p99", "p99.9", "max", "per s");
+        row(out, "upload", uploadResult, seconds);
+        row(out, "poll", pollResult, seconds);
+        row(out, "heartbeat", heartbeatResult, seconds);
+        row(out, "propagation", propagationResult, seconds);
+        out.printf("events accepted %d (%.1f/s), rejected %d, received %d (%.1f/s), failed heartbeats %d%n",
+                getAccepted(), getAccepted() / seconds, getRejected(), getReceived(), getReceived() / seconds, getFailures());
+    }
+
+    private static void row(PrintStream out, String phase, Histogram histogram, double seconds) {
+        out.printf("%-12s %10d %10.2f %10.2f %10.2f %10.2f %10.2f %10.1f%n", phase, histogram.getTotalCount(),
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()), histogram.getTotalCount() / seconds);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,65 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryReactiveEventStore;
+import com.nagada.pulse.reference.server.InMemoryReactiveOffsetStore;
+import com.nagada.pulse.reference.server.ReactiveSyncHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link SyncHandlerBenchmark} for {@link ReactiveSyncHandler#handle}, blocking on the result.
+ * The in-memory reactive store completes synchronously, so this measures the cost of the
+ * pipeline itself on top of the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReactiveSyncHandlerBenchmark {
+
+    @Param({"0", "100", "1000"})
+    public int lag;
+
+    @Param({"0", "10", "100"})
+    public int outbox;
+
+    private ReactiveSyncHandler syncHandler;
+    private long head;
+    private int round;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        InMemoryReactiveEventStore eventStore = new InMemoryReactiveEventStore();
+        for (int i = 0; i < SyncHandlerBenchmark.HISTORY; i++) {
+            eventStore.append("device-" + (i % 8), Fixtures.foreignEvent(i)).block();
+        }
+        syncHandler = new ReactiveSyncHandler(eventStore, new InMemoryReactiveOffsetStore());
+        head = SyncHandlerBenchmark.HISTORY;
+        round = 0;
+    }
+
+    @Benchmark
+    public SyncResponse handle() {
+        List<ClientEvent> pending = Fixtures.ownEvents("r" + (round++) + "-", outbox);
+        SyncResponse response = syncHandler.handle(new SyncRequest("bench-device", pending, head - lag)).block();
+        head += outbox;
+        return response;
+    }
+}
@@ -0,0 +1,162 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.client.LocalProjectionStore;
+import com.nagada.pulse.reference.client.PendingOutbox;
+import com.nagada.pulse.reference.client.SyncEngine;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One device of a {@link LoadGenerator} run: a {@link SyncEngine} over a real transport, with an
+ * outbox that events are added to on one thread while the engine drains it on another.
+ * <p>
+ * Every payload starts with the {@link System#nanoTime()} at which its event was added, so a
+ * device receiving it can record how long it took to propagate. The projection keeps only the
+ * cursor, never the events, so a long run does not grow the heap.
+ */
+class SimulatedDevice {
+
+    private final String deviceId;
+    private final LoadGenerator.Options options;
+    private final LoadReport report;
+    private final Outbox outbox = new Outbox();
+    private final Projection projection = new Projection();
+    private final SyncEngine engine;
+    private long sequence;
+
+    SimulatedDevice(String deviceId, LoadGenerator.Options options, SyncEngine.SyncTransport transport, LoadReport report) {
+        this.deviceId = deviceId;
+        this.options = options;
+        this.report = report;
+        this.engine = new SyncEngine(deviceId, outbox, projection, new TimedTransport(transport));
+    }
+
+    /**
+     * Add one event to the outbox. With probability {@code overlap} it touches a key shared by
+     * all devices, otherwise a key only this device writes.
+     */
+    void produce() {
+        long seq = sequence++;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = random.nextDouble() < options.overlap
+                ? "shared/" + random.nextInt(options.sharedKeys)
+                : deviceId + "/" + seq;
+        byte[] payload = new byte[Math.max(Long.BYTES, options.payloadBytes)];
+        ByteBuffer.wrap(payload).putLong(System.nanoTime());
+        outbox.add(deviceId + "-" + seq, payload, Collections.singletonList(key), System.currentTimeMillis());
+    }
+
+    /**
+     * One heartbeat, paging until the server has no more events.
+     */
+    void heartbeat() {
+        long start = System.nanoTime();
+        try {
+            engine.sync();
+            report.heartbeat(System.nanoTime() - start, options.heartbeatMs * 1_000_000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            report.failure(e);
+        }
+    }
+
+    /**
+     * Times each request and counts its outcome before handing the response to the engine.
+     */
+    private final class TimedTransport implements SyncEngine.SyncTransport {
+        private final SyncEngine.SyncTransport delegate;
+
+        TimedTransport(SyncEngine.SyncTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SyncResponse sync(SyncRequest request) throws Exception {
+            boolean upload = request.getPendingEvents() != null && !request.getPendingEvents().isEmpty();
+            long start = System.nanoTime();
+            SyncResponse response;
+            try {
+                response = delegate.sync(request);
+            } catch (Exception e) {
+                // Put the events back so they are retried with the next heartbeat, as a real outbox would.
+                if (upload) {
+                    outbox.requeue(request.getPendingEvents());
+                }
+                throw e;
+            }
+            report.request(upload, System.nanoTime() - start, response);
+            return response;
+        }
+    }
+
+    private static final class Outbox implements PendingOutbox {
+        private final Queue<ClientEvent> pending = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void add(String clientEventId, byte[] payload, List<String> payloadManifest, long createdAt) {
+            pending.add(new ClientEvent(clientEventId, "load.test", payload, payloadManifest, createdAt));
+        }
+
+        void requeue(List<ClientEvent> events) {
+            pending.addAll(events);
+        }
+
+        @Override
+        public List<ClientEvent> drainPending() {
+            List<ClientEvent> events = new ArrayList<>();
+            ClientEvent event;
+            while ((event = pending.poll()) != null) {
+                events.add(event);
+            }
+            return events;
+        }
+
+        @Override
+        public boolean hasPending() {
+            return !pending.isEmpty();
+        }
+    }
+
+    private final class Projection implements LocalProjectionStore {
+        private volatile long lastKnownServerEventId;
+
+        @Override
+        public void recordEvents(List<ServerEvent> events) {
+            long now = System.nanoTime();
+            for (ServerEvent event : events) {
+                lastKnownServerEventId = Math.max(lastKnownServerEventId, event.getServerEventId());
+                byte[] payload = event.getPayload();
+                if (!deviceId.equals(event.getOriginClientDeviceId()) && payload != null && payload.length >= Long.BYTES) {
+                    report.propagation(now - ByteBuffer.wrap(payload).getLong());
+                }
+            }
+        }
+
+        @Override
+        public void installSnapshot(Snapshot snapshot) {
+            // Propagation is only measured for events that arrive one by one
+            lastKnownServerEventId = snapshot.getServerEventId();
+        }
+
+        @Override
+        public long getLastKnownServerEventId() {
+            return lastKnownServerEventId;
+        }
+
+        @Override
+        public List<ServerEvent> getAllEvents() {
+            return Collections.emptyList();
+        }
+    }
+}
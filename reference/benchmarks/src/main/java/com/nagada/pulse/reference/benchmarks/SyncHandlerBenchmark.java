@@ -0,0 +1,71 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import com.nagada.pulse.reference.server.SyncHandler;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One sync heartbeat through {@link SyncHandler#handle} against an in-memory store.
+ * <p>
+ * {@code lag} is how many events the client is behind the head and {@code outbox} how many
+ * pending events it uploads. Each call uploads fresh events, so the log grows by {@code outbox}
+ * per call; the client's cursor is kept {@code lag} behind the moving head so every call reads
+ * the same amount. The store is rebuilt each iteration to keep that growth bounded.
+ * Building the request is part of the measurement, as it would be after deserialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncHandlerBenchmark {
+
+    static final int HISTORY = 10_000;
+
+    @Param({"0", "100", "1000"})
+    public int lag;
+
+    @Param({"0", "10", "100"})
+    public int outbox;
+
+    private SyncHandler syncHandler;
+    private long head;
+    private int round;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        InMemoryEventStore eventStore = new InMemoryEventStore();
+        for (int i = 0; i < HISTORY; i++) {
+            eventStore.append("device-" + (i % 8), Fixtures.foreignEvent(i));
+        }
+        syncHandler = new SyncHandler(eventStore, new InMemoryOffsetStore());
+        head = HISTORY;
+        round = 0;
+    }
+
+    @Benchmark
+    public SyncResponse handle() {
+        List<ClientEvent> pending = Fixtures.ownEvents("r" + (round++) + "-", outbox);
+        SyncResponse response = syncHandler.handle(new SyncRequest("bench-device", pending, head - lag));
+        head += outbox;
+        return response;
+    }
+}
@@ -0,0 +1,56 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.SyncResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jackson (de)serialization of a {@link SyncResponse} page of {@code events} events with
+ * {@value Fixtures#PAYLOAD_BYTES}-byte payloads, using a default {@link ObjectMapper}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncResponseJsonBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int events;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SyncResponse response;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = new SyncResponse(List.of("c-1", "c-2"), Fixtures.serverEvents(1, events), -1,
+                Map.of("c-3", "Client event manifest overlaps with server event manifest."), false, events);
+        json = objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public SyncResponse deserialize() throws IOException {
+        return objectMapper.readValue(json, SyncResponse.class);
+    }
+}
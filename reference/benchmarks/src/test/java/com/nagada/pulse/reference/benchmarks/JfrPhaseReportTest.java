@@ -0,0 +1,58 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import com.nagada.pulse.reference.server.JfrEventStore;
+import com.nagada.pulse.reference.server.JfrOffsetStore;
+import com.nagada.pulse.reference.server.SyncHandler;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JfrPhaseReportTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void percentilesPerPhase() throws Exception {
+        // Given a recording of ten syncs from scratch, each uploading one event
+        SyncHandler handler = new SyncHandler(new JfrEventStore(new InMemoryEventStore()), new JfrOffsetStore(new InMemoryOffsetStore()));
+        Path file = tempDir.resolve("sync.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.nagada.pulse.*");
+            recording.start();
+            for (int i = 0; i < 10; i++) {
+                ClientEvent event = new ClientEvent("e-" + i, "doc.edited", Fixtures.payload(i), List.of("device-" + i + "/doc"), 0L);
+                handler.handle(new SyncRequest("device-" + i, List.of(event), 0L));
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        // When the report reads it
+        Map<String, JfrPhaseReport.Phase> phases = JfrPhaseReport.read(file);
+
+        // Then each phase and store operation has one sample per sync
+        assertEquals(10, phases.get("Sync").durations.getTotalCount());
+        assertEquals(10, phases.get("Systole").durations.getTotalCount());
+        assertEquals(10, phases.get("Diastole").durations.getTotalCount());
+        assertEquals(10, phases.get("StoreOperation InMemoryEventStore.appendAll").durations.getTotalCount());
+        assertEquals(Fixtures.PAYLOAD_BYTES, phases.get("Systole").meanPayloadBytes());
+        assertEquals(4.5, phases.get("Sync").meanLag());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JfrPhaseReport.print(phases, new PrintStream(out, true));
+        assertTrue(out.toString().contains("StoreOperation InMemoryOffsetStore.update"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.nagada.pulse.reference.benchmarks;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Short run of the load generator against an in-process server, so the tool keeps working.
+ */
+public class LoadGeneratorTest {
+
+    @Test
+    void devicesSyncAndSeeEachOthersEvents() throws Exception {
+        // Given four devices writing mostly shared keys, twenty events a second each
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[]{
+                "--devices=4", "--rate=20", "--payload-bytes=64", "--overlap=0.8", "--shared-keys=2",
+                "--heartbeat-ms=100", "--warmup=1", "--duration=2"});
+
+        // When they run for two seconds after warm-up
+        LoadReport report = LoadGenerator.run(options);
+
+        // Then every phase was recorded and some uploads lost a conflict
+        assertEquals(0, report.getFailures());
+        assertTrue(report.getUpload().getTotalCount() > 0);
+        assertTrue(report.getHeartbeat().getTotalCount() > 0);
+        assertTrue(report.getPropagation().getTotalCount() > 0);
+        assertTrue(report.getAccepted() > 0);
+        assertTrue(report.getRejected() > 0);
+        assertTrue(report.getReceived() >= report.getPropagation().getTotalCount());
+    }
+
+    @Test
+    void unknownOptionsAreRejectedAndServerOptionsPassedOn() {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[]{"--nagada.sync.diastole.max-events=50"});
+
+        assertEquals(1, options.serverArgs.size());
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[]{"--devcies=3"}));
+    }
+}
@@ -0,0 +1,78 @@
+package com.nagada.pulse.reference.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.BinaryCodec;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * SyncTransport over {@code POST /sync}, in JSON or the compact {@link BinaryCodec} format.
+ * <p>
+ * The chosen format is sent as both {@code Content-Type} and {@code Accept}; the response is
+ * decoded according to the {@code Content-Type} the server actually answered with, so a server
+ * that only speaks JSON still works.
+ */
+public class HttpSyncTransport implements SyncEngine.SyncTransport {
+
+    public enum WireFormat {
+        JSON("application/json"),
+        BINARY(BinaryCodec.MEDIA_TYPE);
+
+        final String mediaType;
+
+        WireFormat(String mediaType) {
+            this.mediaType = mediaType;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final HttpClient httpClient;
+    private final URI syncUri;
+    private final WireFormat format;
+    private final Duration timeout;
+
+    /**
+     * @param syncUri the server's sync endpoint, e.g. {@code http://host:8080/sync}
+     */
+    public HttpSyncTransport(URI syncUri, WireFormat format, long timeoutMillis) {
+        this(HttpClient.newHttpClient(), syncUri, format, timeoutMillis);
+    }
+
+    /**
+     * @param httpClient shared client, e.g. one connection pool for many simulated devices
+     */
+    public HttpSyncTransport(HttpClient httpClient, URI syncUri, WireFormat format, long timeoutMillis) {
+        this.httpClient = httpClient;
+        this.syncUri = syncUri;
+        this.format = format;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+    }
+
+    @Override
+    public SyncResponse sync(SyncRequest request) throws Exception {
+        byte[] body = format == WireFormat.BINARY ? BinaryCodec.encode(request) : objectMapper.writeValueAsBytes(request);
+        HttpRequest httpRequest = HttpRequest.newBuilder(syncUri)
+                .timeout(timeout)
+                .header("Content-Type", format.mediaType)
+                .header("Accept", format.mediaType)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        HttpResponse<byte[]> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IOException("Sync failed with HTTP " + response.statusCode());
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse("");
+        if (contentType.startsWith(BinaryCodec.MEDIA_TYPE)) {
+            return BinaryCodec.decodeResponse(response.body());
+        }
+        return objectMapper.readValue(response.body(), SyncResponse.class);
+    }
+}
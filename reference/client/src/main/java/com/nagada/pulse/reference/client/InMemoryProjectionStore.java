@@ -1,6 +1,7 @@
 package com.nagada.pulse.reference.client;
 
 import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
 
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -24,6 +25,13 @@ public class InMemoryProjectionStore extends LocalProjectionStoreImpl {
         }
     }
 
+    @Override
+    public void installSnapshot(Snapshot snapshot) {
+        receivedEvents.clear();
+        receivedEvents.addAll(snapshot.getEvents());
+        lastKnownServerEventId = snapshot.getServerEventId();
+    }
+
     @Override
     public long getLastKnownServerEventId() {
         return lastKnownServerEventId;
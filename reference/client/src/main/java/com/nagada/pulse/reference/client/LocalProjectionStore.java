@@ -1,6 +1,7 @@
 package com.nagada.pulse.reference.client;
 
 import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
 import java.util.List;
 
 /**
@@ -14,6 +15,13 @@ public interface LocalProjectionStore {
      */
     void recordEvents(List<ServerEvent> events);
 
+    /**
+     * Replace the local projection with a server snapshot. Afterwards the projection holds
+     * exactly the snapshot's events and its last known server event id is the snapshot's.
+     * @param snapshot snapshot received ahead of the events that follow it
+     */
+    void installSnapshot(Snapshot snapshot);
+
     /**
      * Returns the last known server event id the local projection has observed.
      */
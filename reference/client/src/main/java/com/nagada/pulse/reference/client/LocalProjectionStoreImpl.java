@@ -1,6 +1,7 @@
 package com.nagada.pulse.reference.client;
 
 import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,17 @@ public class LocalProjectionStoreImpl implements LocalProjectionStore {
         }
     }
 
+    /**
+     * Replace everything received so far with the snapshot's events.
+     */
+    public void installSnapshot(Snapshot snapshot) {
+        receivedEvents.clear();
+        for (ServerEvent event : snapshot.getEvents()) {
+            receivedEvents.put(event.serverEventId, event);
+        }
+        lastKnownServerEventId = snapshot.getServerEventId();
+    }
+
     /**
      * Get the last known server event ID.
      */
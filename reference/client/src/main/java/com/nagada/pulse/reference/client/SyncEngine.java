@@ -4,6 +4,7 @@ import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.SyncRequest;
 import com.nagada.pulse.protocol.SyncResponse;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Sync engine: orchestrates the heartbeat cycle with server.
@@ -15,6 +16,9 @@ public class SyncEngine {
     private final LocalProjectionStore projectionStore;
     private final SyncTransport transport;
     private final BackoffStrategy backoff;
+    private volatile List<String> manifestPrefixes;
+    /** Cursor the server last returned; may be past the last recorded event for a subscription. */
+    private final AtomicLong nextCursor = new AtomicLong();
 
     public SyncEngine(String deviceId, PendingOutbox outbox, LocalProjectionStore projectionStore, BackoffStrategy backoff) {
         this.deviceId = deviceId;
@@ -32,34 +36,56 @@ public class SyncEngine {
         this.backoff = new BackoffStrategy();
     }
 
+    /**
+     * Receive only events with a manifest key under one of {@code manifestPrefixes}, or every
+     * event if null.
+     */
+    public void setManifestPrefixes(List<String> manifestPrefixes) {
+        this.manifestPrefixes = manifestPrefixes;
+    }
+
     /**
      * Build a sync request from current state.
      */
     public SyncRequest buildSyncRequest() {
-        return new SyncRequest(
+        SyncRequest request = new SyncRequest(
             deviceId,
             outbox.drainPending(),
-            projectionStore.getLastKnownServerEventId()
+            Math.max(nextCursor.get(), projectionStore.getLastKnownServerEventId())
         );
+        request.manifestPrefixes = manifestPrefixes;
+        return request;
     }
 
     /**
-     * Record received events in local projection.
+     * Record received events in local projection, after installing the snapshot if the
+     * server sent one.
      */
     public void recordResponse(SyncResponse response) {
+        if (response != null && response.snapshot != null) {
+            projectionStore.installSnapshot(response.snapshot);
+        }
         if (response != null && response.newServerEvents != null) {
             projectionStore.recordEvents(response.newServerEvents);
         }
+        // A subscribed device is moved past the events it did not receive
+        if (response != null) {
+            nextCursor.accumulateAndGet(response.nextCursor, Math::max);
+        }
     }
 
     /**
      * Perform a single heartbeat sync: send pending, receive new.
+     * If the server pages its response, keeps syncing until it reports no more events.
      */
     public void sync() throws Exception {
         try {
-            SyncRequest request = buildSyncRequest();
-            SyncResponse response = transport.sync(request);
-            recordResponse(response);
+            SyncResponse response;
+            do {
+                SyncRequest request = buildSyncRequest();
+                response = transport.sync(request);
+                recordResponse(response);
+            } while (response != null && response.hasMore);
             backoff.reset();
         } catch (Exception e) {
             backoff.waitBeforeRetry();
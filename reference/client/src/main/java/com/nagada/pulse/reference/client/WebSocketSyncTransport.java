@@ -0,0 +1,135 @@
+package com.nagada.pulse.reference.client;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * SyncTransport over a WebSocket (see {@code extensions/websocket-transport.md}).
+ * <p>
+ * {@link #sync} sends a {@code sync-request} tagged with a fresh {@code id} and waits for the
+ * {@code sync-response} echoing it. A reply arriving after its sync timed out matches no waiting
+ * request and is dropped, so it can never be taken for the answer to a later sync. Events the
+ * server pushes between syncs are handed to the push listener, typically
+ * {@link SyncEngine#recordResponse}.
+ */
+public class WebSocketSyncTransport implements SyncEngine.SyncTransport, AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final long responseTimeoutMillis;
+    private final WebSocket webSocket;
+    private volatile Consumer<SyncResponse> pushListener = response -> { };
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final Map<Long, CompletableFuture<SyncResponse>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Open a connection to the server's sync endpoint, e.g. {@code ws://host:8080/sync/ws}.
+     */
+    public WebSocketSyncTransport(URI uri, long responseTimeoutMillis) {
+        this.responseTimeoutMillis = responseTimeoutMillis;
+        this.webSocket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(uri, new Listener())
+                .join();
+    }
+
+    /**
+     * Called with every server push: a SyncResponse holding only {@code newServerEvents}.
+     */
+    public void setPushListener(Consumer<SyncResponse> pushListener) {
+        this.pushListener = pushListener;
+    }
+
+    @Override
+    public SyncResponse sync(SyncRequest request) throws Exception {
+        long id = nextRequestId.incrementAndGet();
+        CompletableFuture<SyncResponse> response = new CompletableFuture<>();
+        pending.put(id, response);
+        try {
+            ObjectNode envelope = objectMapper.createObjectNode();
+            envelope.put("type", "sync-request");
+            envelope.put("id", id);
+            envelope.set("payload", objectMapper.valueToTree(request));
+            // The WebSocket allows one outstanding send at a time
+            synchronized (webSocket) {
+                webSocket.sendText(objectMapper.writeValueAsString(envelope), true).join();
+            }
+            return response.get(responseTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    @Override
+    public void close() {
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    private void dispatch(String text) throws IOException {
+        JsonNode envelope = objectMapper.readTree(text);
+        SyncResponse response = objectMapper.treeToValue(envelope.get("payload"), SyncResponse.class);
+        String type = envelope.path("type").asText();
+        if ("push".equals(type)) {
+            pushListener.accept(response);
+        } else if ("sync-response".equals(type) && envelope.hasNonNull("id")) {
+            CompletableFuture<SyncResponse> waiting = pending.get(envelope.get("id").asLong());
+            if (waiting != null) {
+                waiting.complete(response);
+            }
+        }
+    }
+
+    private void fail(Throwable error) {
+        for (CompletableFuture<SyncResponse> waiting : pending.values()) {
+            waiting.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Reassembles fragmented text frames and routes each message.
+     */
+    private final class Listener implements WebSocket.Listener {
+        private final StringBuilder buffer = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            buffer.append(data);
+            if (last) {
+                String text = buffer.toString();
+                buffer.setLength(0);
+                try {
+                    dispatch(text);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            fail(new IOException("WebSocket closed: " + statusCode + " " + reason));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            fail(error);
+        }
+    }
+}
@@ -2,11 +2,14 @@ package com.nagada.pulse.reference.client;
 
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
 import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -32,6 +35,73 @@ public class SyncEngineTest {
         assertThat(outbox.isEmpty()).isTrue();
     }
 
+    @Test
+    void syncShouldKeepPagingUntilServerHasNoMore() throws Exception {
+        // Given a server that returns one event per page out of three
+        InMemoryOutbox outbox = new InMemoryOutbox();
+        InMemoryProjectionStore projectionStore = new InMemoryProjectionStore();
+        List<Long> requestedCursors = new ArrayList<>();
+        SyncEngine.SyncTransport transport = request -> {
+            long cursor = request.getLastKnownServerEventId();
+            requestedCursors.add(cursor);
+            long next = cursor + 1;
+            ServerEvent event = new ServerEvent(next, "c" + next, "d", "p".getBytes(), List.of(), 0);
+            return new SyncResponse(List.of(), List.of(event), -1, Map.of(), next < 3, next);
+        };
+        SyncEngine syncEngine = new SyncEngine("device-1", outbox, projectionStore, transport);
+
+        // When
+        syncEngine.sync();
+
+        // Then
+        assertThat(requestedCursors).containsExactly(0L, 1L, 2L);
+        assertThat(projectionStore.getLastKnownServerEventId()).isEqualTo(3L);
+        assertThat(projectionStore.getAllEvents()).hasSize(3);
+    }
+
+    @Test
+    void subscribedSyncShouldResumeFromTheServersCursor() throws Exception {
+        // Given a server that sends one matching event and moves the cursor past ten others
+        InMemoryProjectionStore projectionStore = new InMemoryProjectionStore();
+        List<SyncRequest> requests = new ArrayList<>();
+        SyncEngine.SyncTransport transport = request -> {
+            requests.add(request);
+            ServerEvent event = new ServerEvent(1L, "c1", "d", "p".getBytes(), List.of("user/42/todo"), 0);
+            return new SyncResponse(List.of(), request.getLastKnownServerEventId() == 0 ? List.of(event) : List.of(),
+                    -1, Map.of(), false, 11L);
+        };
+        SyncEngine syncEngine = new SyncEngine("device-1", new InMemoryOutbox(), projectionStore, transport);
+        syncEngine.setManifestPrefixes(List.of("user/42/"));
+
+        // When it syncs twice
+        syncEngine.sync();
+        syncEngine.sync();
+
+        // Then both requests carry the subscription and the second starts past the skipped events
+        assertThat(requests).extracting(SyncRequest::getManifestPrefixes).containsOnly(List.of("user/42/"));
+        assertThat(requests).extracting(SyncRequest::getLastKnownServerEventId).containsExactly(0L, 11L);
+        assertThat(projectionStore.getAllEvents()).hasSize(1);
+    }
+
+    @Test
+    void recordResponseShouldInstallSnapshotBeforeTheTail() {
+        // Given a projection with events the snapshot supersedes
+        InMemoryProjectionStore projectionStore = new InMemoryProjectionStore();
+        projectionStore.recordEvents(List.of(new ServerEvent(2L, "c2", "d", "old".getBytes(), List.of("p"), 0)));
+        SyncEngine syncEngine = new SyncEngine("device-1", new InMemoryOutbox(), projectionStore, request -> null);
+        ServerEvent kept = new ServerEvent(40L, "c40", "d", "state".getBytes(), List.of("p"), 0);
+        ServerEvent tail = new ServerEvent(51L, "c51", "d", "next".getBytes(), List.of("q"), 0);
+        SyncResponse response = new SyncResponse(List.of(), List.of(tail), -1, Map.of(), false, 51L);
+        response.snapshot = new Snapshot("snapshot-50", 50L, 0, List.of(kept));
+
+        // When
+        syncEngine.recordResponse(response);
+
+        // Then the projection is the snapshot followed by the tail
+        assertThat(projectionStore.getAllEvents()).containsExactly(kept, tail);
+        assertThat(projectionStore.getLastKnownServerEventId()).isEqualTo(51L);
+    }
+
     // Helper classes for testing
     private static class InMemoryOutbox implements PendingOutbox {
         private final List<ClientEvent> events = new ArrayList<>();
@@ -78,6 +148,13 @@ public class SyncEngineTest {
             }
         }
 
+        @Override
+        public void installSnapshot(Snapshot snapshot) {
+            receivedEvents.clear();
+            receivedEvents.addAll(snapshot.getEvents());
+            lastKnownServerEventId = snapshot.getServerEventId();
+        }
+
         @Override
         public List<ServerEvent> getAllEvents() {
             return new ArrayList<>(receivedEvents);
@@ -0,0 +1,396 @@
+package com.nagada.pulse.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link SyncRequest} and {@link SyncResponse}, served as
+ * {@value #MEDIA_TYPE}.
+ * <p>
+ * A message starts with a magic byte, a format version and a message type. Integers are
+ * LEB128 varints (zigzag for signed values), payloads are raw length-prefixed bytes rather than
+ * base64, and serverEventIds are delta-encoded against the previous event. Strings that repeat
+ * across events (event types, device ids, manifest keys, error messages) go through a
+ * per-message string table: the first occurrence is written inline and later ones as an index.
+ * <p>
+ * Nullable values are distinguished from empty ones: a null list, string or payload decodes
+ * back to null.
+ * <p>
+ * Version 2 adds a {@link Snapshot} after the fields of a response. Version 3 adds the
+ * subscribed manifest prefixes at the end of a request. Each message is written in the lowest
+ * version that can hold it, so readers that only know version 1 can read any response without
+ * a snapshot and any request without a subscription.
+ */
+public final class BinaryCodec {
+
+    public static final String MEDIA_TYPE = "application/vnd.nagada.pulse+binary";
+
+    static final int MAGIC = 0x4E;
+    static final int VERSION = 1;
+    static final int SNAPSHOT_VERSION = 2;
+    static final int SUBSCRIPTION_VERSION = 3;
+    static final int TYPE_SYNC_REQUEST = 1;
+    static final int TYPE_SYNC_RESPONSE = 2;
+
+    private BinaryCodec() {
+    }
+
+    public static byte[] encode(SyncRequest request) {
+        Writer writer = new Writer();
+        List<String> prefixes = request.getManifestPrefixes();
+        writer.header(prefixes == null ? VERSION : SUBSCRIPTION_VERSION, TYPE_SYNC_REQUEST);
+        writer.tabled(request.getDeviceId());
+        writer.signed(request.getLastKnownServerEventId());
+        List<ClientEvent> events = request.getPendingEvents();
+        writer.count(events);
+        if (events != null) {
+            for (ClientEvent event : events) {
+                writer.string(event.getClientEventId());
+                writer.tabled(event.getType());
+                writer.bytes(event.getPayload());
+                writer.manifest(event.getPayloadManifest());
+                writer.signed(event.getCreatedAt());
+            }
+        }
+        if (prefixes != null) {
+            writer.manifest(prefixes);
+        }
+        return writer.toByteArray();
+    }
+
+    public static byte[] encode(SyncResponse response) {
+        Writer writer = new Writer();
+        Snapshot snapshot = response.getSnapshot();
+        writer.header(snapshot == null ? VERSION : SNAPSHOT_VERSION, TYPE_SYNC_RESPONSE);
+        List<String> successIds = response.getSuccessClientEventIds();
+        writer.count(successIds);
+        if (successIds != null) {
+            for (String id : successIds) {
+                writer.string(id);
+            }
+        }
+        writer.events(response.getNewServerEvents());
+        writer.signed(response.getNextHeartbeatMs());
+        Map<String, String> errors = response.getErrorClientEventIds();
+        writer.count(errors == null ? null : errors.keySet());
+        if (errors != null) {
+            for (Map.Entry<String, String> error : errors.entrySet()) {
+                writer.string(error.getKey());
+                writer.tabled(error.getValue());
+            }
+        }
+        writer.write(response.isHasMore() ? 1 : 0);
+        writer.signed(response.getNextCursor());
+        if (snapshot != null) {
+            writer.string(snapshot.getSnapshotId());
+            writer.signed(snapshot.getServerEventId());
+            writer.signed(snapshot.getCreatedAt());
+            writer.events(snapshot.getEvents());
+        }
+        return writer.toByteArray();
+    }
+
+    public static void encode(SyncRequest request, OutputStream out) throws IOException {
+        out.write(encode(request));
+    }
+
+    public static void encode(SyncResponse response, OutputStream out) throws IOException {
+        out.write(encode(response));
+    }
+
+    public static SyncRequest decodeRequest(byte[] data) throws ValidationException {
+        Reader reader = new Reader(data);
+        int version = reader.header(TYPE_SYNC_REQUEST);
+        String deviceId = reader.tabled();
+        long lastKnownServerEventId = reader.signed();
+        int count = reader.count();
+        List<ClientEvent> events = null;
+        if (count >= 0) {
+            events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String clientEventId = reader.string();
+                String type = reader.tabled();
+                byte[] payload = reader.bytes();
+                List<String> manifest = reader.manifest();
+                events.add(new ClientEvent(clientEventId, type, payload, manifest, reader.signed()));
+            }
+        }
+        List<String> prefixes = version >= SUBSCRIPTION_VERSION ? reader.manifest() : null;
+        reader.end();
+        SyncRequest request = new SyncRequest(deviceId, events, lastKnownServerEventId);
+        request.manifestPrefixes = prefixes;
+        return request;
+    }
+
+    public static SyncResponse decodeResponse(byte[] data) throws ValidationException {
+        Reader reader = new Reader(data);
+        int version = reader.header(TYPE_SYNC_RESPONSE);
+        int count = reader.count();
+        List<String> successIds = null;
+        if (count >= 0) {
+            successIds = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                successIds.add(reader.string());
+            }
+        }
+        List<ServerEvent> events = reader.events();
+        long nextHeartbeatMs = reader.signed();
+        count = reader.count();
+        Map<String, String> errors = null;
+        if (count >= 0) {
+            errors = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String clientEventId = reader.string();
+                errors.put(clientEventId, reader.tabled());
+            }
+        }
+        boolean hasMore = reader.read() != 0;
+        long nextCursor = reader.signed();
+        Snapshot snapshot = null;
+        if (version >= SNAPSHOT_VERSION) {
+            String snapshotId = reader.string();
+            long serverEventId = reader.signed();
+            long createdAt = reader.signed();
+            snapshot = new Snapshot(snapshotId, serverEventId, createdAt, reader.events());
+        }
+        reader.end();
+        SyncResponse response = new SyncResponse(successIds, events, (int) nextHeartbeatMs, errors, hasMore, nextCursor);
+        response.snapshot = snapshot;
+        return response;
+    }
+
+    public static SyncRequest decodeRequest(InputStream in) throws IOException, ValidationException {
+        return decodeRequest(in.readAllBytes());
+    }
+
+    public static SyncResponse decodeResponse(InputStream in) throws IOException, ValidationException {
+        return decodeResponse(in.readAllBytes());
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+        private final Map<String, Integer> table = new HashMap<>();
+
+        Writer() {
+            super(256);
+        }
+
+        void header(int version, int type) {
+            write(MAGIC);
+            write(version);
+            write(type);
+        }
+
+        void unsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void signed(long value) {
+            unsigned((value << 1) ^ (value >> 63));
+        }
+
+        /** Element count plus one, or 0 for null. */
+        void count(Collection<?> values) {
+            unsigned(values == null ? 0 : values.size() + 1L);
+        }
+
+        /** Byte length plus one, or 0 for null. */
+        void bytes(byte[] value) {
+            if (value == null) {
+                unsigned(0);
+                return;
+            }
+            unsigned(value.length + 1L);
+            write(value, 0, value.length);
+        }
+
+        void string(String value) {
+            bytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** 0 for null, 1 followed by the string for a new entry, or index + 2 for a repeat. */
+        void tabled(String value) {
+            if (value == null) {
+                unsigned(0);
+                return;
+            }
+            Integer index = table.get(value);
+            if (index != null) {
+                unsigned(index + 2L);
+                return;
+            }
+            table.put(value, table.size());
+            unsigned(1);
+            string(value);
+        }
+
+        void manifest(List<String> manifest) {
+            count(manifest);
+            if (manifest != null) {
+                for (String key : manifest) {
+                    tabled(key);
+                }
+            }
+        }
+
+        /** ServerEvents with each id delta-encoded against the one before. */
+        void events(List<ServerEvent> events) {
+            count(events);
+            if (events != null) {
+                long previousId = 0;
+                for (ServerEvent event : events) {
+                    signed(event.getServerEventId() - previousId);
+                    previousId = event.getServerEventId();
+                    string(event.getOriginClientEventId());
+                    tabled(event.getOriginClientDeviceId());
+                    bytes(event.getPayload());
+                    manifest(event.getPayloadManifest());
+                    signed(event.getCreatedAt());
+                }
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final List<String> table = new ArrayList<>();
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        /** Checks the magic byte and message type and returns the format version. */
+        int header(int expectedType) throws ValidationException {
+            if (read() != MAGIC) {
+                throw new ValidationException("Not a Nagada Pulse binary message");
+            }
+            int version = read();
+            if (version < VERSION || version > SUBSCRIPTION_VERSION) {
+                throw new ValidationException("Unsupported binary format version: " + version);
+            }
+            int type = read();
+            if (type != expectedType) {
+                throw new ValidationException("Expected message type " + expectedType + " but got " + type);
+            }
+            return version;
+        }
+
+        int read() throws ValidationException {
+            if (position >= data.length) {
+                throw new ValidationException("Truncated binary message at byte " + position);
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long unsigned() throws ValidationException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new ValidationException("Malformed varint at byte " + position);
+        }
+
+        long signed() throws ValidationException {
+            long value = unsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /** Element count, or -1 for null. Every element takes at least one byte. */
+        int count() throws ValidationException {
+            long value = unsigned();
+            // A 10-byte varint can decode to a negative long
+            if (value < 0 || value - 1 > data.length - position) {
+                throw new ValidationException("Element count " + (value - 1) + " exceeds message size");
+            }
+            return (int) (value - 1);
+        }
+
+        byte[] bytes() throws ValidationException {
+            int length = count();
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            System.arraycopy(data, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        String string() throws ValidationException {
+            byte[] value = bytes();
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        String tabled() throws ValidationException {
+            long marker = unsigned();
+            if (marker == 0) {
+                return null;
+            }
+            if (marker == 1) {
+                String value = string();
+                if (value == null) {
+                    throw new ValidationException("Null string table entry at byte " + position);
+                }
+                table.add(value);
+                return value;
+            }
+            if (marker < 0 || marker - 2 >= table.size()) {
+                throw new ValidationException("Unknown string table index " + (marker - 2));
+            }
+            return table.get((int) (marker - 2));
+        }
+
+        List<String> manifest() throws ValidationException {
+            int count = count();
+            if (count < 0) {
+                return null;
+            }
+            List<String> manifest = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                manifest.add(tabled());
+            }
+            return manifest;
+        }
+
+        List<ServerEvent> events() throws ValidationException {
+            int count = count();
+            if (count < 0) {
+                return null;
+            }
+            List<ServerEvent> events = new ArrayList<>(count);
+            long serverEventId = 0;
+            for (int i = 0; i < count; i++) {
+                serverEventId += signed();
+                String originClientEventId = string();
+                String originDeviceId = tabled();
+                byte[] payload = bytes();
+                List<String> manifest = manifest();
+                events.add(new ServerEvent(serverEventId, originClientEventId, originDeviceId, payload, manifest, signed()));
+            }
+            return events;
+        }
+
+        void end() throws ValidationException {
+            if (position != data.length) {
+                throw new ValidationException((data.length - position) + " trailing bytes after message");
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.nagada.pulse.protocol;
+
+import java.util.List;
+
+/**
+ * Compacted state of the log as of {@code serverEventId}: for each manifest key the latest event
+ * that wrote it, plus every event without a manifest, in serverEventId order.
+ * A client installs it in place of its projection, sets its cursor to {@code serverEventId} and
+ * applies the tail that follows in the same response.
+ */
+public class Snapshot {
+    public String snapshotId;
+    public long serverEventId;
+    public long createdAt;
+    public List<ServerEvent> events;
+
+    public Snapshot(String snapshotId, long serverEventId, long createdAt, List<ServerEvent> events) {
+        this.snapshotId = snapshotId;
+        this.serverEventId = serverEventId;
+        this.createdAt = createdAt;
+        this.events = events;
+    }
+
+    public Snapshot() {
+        // for deserialization
+    }
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public long getServerEventId() {
+        return serverEventId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public List<ServerEvent> getEvents() {
+        return events;
+    }
+}
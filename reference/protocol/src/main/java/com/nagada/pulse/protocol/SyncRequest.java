@@ -4,11 +4,17 @@ import java.util.List;
 
 /**
  * Sync request from client: pending events + last known server event ID.
+ * The pending events are declared last so they are serialized last: a server can then process
+ * them while still reading the request.
+ * A device that only needs part of the log lists the {@code manifestPrefixes} it subscribes to:
+ * it then receives only events with a manifest key starting with one of them, and its cursor
+ * still advances past everything else. Null subscribes to every event.
  */
 public class SyncRequest {
     public String deviceId;
-    public List<ClientEvent> pendingEvents;
     public long lastKnownServerEventId;
+    public List<String> manifestPrefixes;
+    public List<ClientEvent> pendingEvents;
 
     public SyncRequest() {
     }
@@ -27,5 +33,8 @@ public class SyncRequest {
     public long getLastKnownServerEventId() {
         return lastKnownServerEventId;
     }
+    public List<String> getManifestPrefixes() {
+        return manifestPrefixes;
+    }
     
 }
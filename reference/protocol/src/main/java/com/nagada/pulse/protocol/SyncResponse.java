@@ -5,12 +5,19 @@ import java.util.Map;
 
 /**
  * Sync response from server: acknowledgments + new server events.
+ * When the server pages a large delta, {@code hasMore} is set and the client should sync
+ * again from {@code nextCursor} until it is caught up.
+ * A client far behind the head may get a {@link Snapshot} to install first; the events then
+ * continue from the snapshot's serverEventId.
  */
 public class SyncResponse {
     public List<String> successClientEventIds;
     public List<ServerEvent> newServerEvents;
     public int nextHeartbeatMs;
     public Map<String,String> errorClientEventIds;
+    public boolean hasMore;
+    public long nextCursor;
+    public Snapshot snapshot;
     public SyncResponse() {
     }
 
@@ -24,6 +31,18 @@ public class SyncResponse {
         this.nextHeartbeatMs=nextHeartbeatMs;
         this.errorClientEventIds=errorClientEventIds;
     }
+
+    public SyncResponse(
+        List<String> successClientEventIds,
+        List<ServerEvent> newServerEvents,
+        int nextHeartbeatMs,
+        Map<String,String> errorClientEventIds,
+        boolean hasMore,
+        long nextCursor) {
+        this(successClientEventIds, newServerEvents, nextHeartbeatMs, errorClientEventIds);
+        this.hasMore = hasMore;
+        this.nextCursor = nextCursor;
+    }
     //add getters 
     public List<String> getSuccessClientEventIds() {
         return successClientEventIds;
@@ -37,4 +56,13 @@ public class SyncResponse {
     public Map<String, String> getErrorClientEventIds() {
         return errorClientEventIds;
     }
+    public boolean isHasMore() {
+        return hasMore;
+    }
+    public long getNextCursor() {
+        return nextCursor;
+    }
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
 }
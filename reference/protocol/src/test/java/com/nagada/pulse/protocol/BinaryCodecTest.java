@@ -0,0 +1,131 @@
+package com.nagada.pulse.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BinaryCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testSyncRequest() throws Exception {
+        ClientEvent first = new ClientEvent("c-event-1", "test-type", "payload".getBytes(), List.of("item1", "item2"), 42L);
+        ClientEvent second = new ClientEvent("c-event-2", "test-type", new byte[0], List.of("item2"), -1L);
+        SyncRequest original = new SyncRequest("device-1", List.of(first, second), 17L);
+
+        SyncRequest decoded = BinaryCodec.decodeRequest(BinaryCodec.encode(original));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(original);
+    }
+
+    @Test
+    void testSyncResponse() throws Exception {
+        ServerEvent first = new ServerEvent(100L, "c-event-1", "device-1", "payload".getBytes(), List.of("p", "q"), System.currentTimeMillis());
+        ServerEvent second = new ServerEvent(103L, "c-event-2", "device-1", new byte[]{0, -1, 127}, List.of("p"), 0L);
+        SyncResponse original = new SyncResponse(List.of("c-event-1"), List.of(first, second), 15000,
+                Map.of("c-event-9", "Conflict on manifest key: p"), true, 103L);
+
+        SyncResponse decoded = BinaryCodec.decodeResponse(BinaryCodec.encode(original));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(original);
+    }
+
+    @Test
+    void testSnapshotRoundTripOnlyRaisesTheVersionWhenPresent() throws Exception {
+        // Given a response carrying a snapshot and one without
+        ServerEvent kept = new ServerEvent(40L, "c-event-4", "device-2", "state".getBytes(), List.of("p"), 7L);
+        ServerEvent tail = new ServerEvent(51L, "c-event-5", "device-2", "next".getBytes(), List.of("p"), 8L);
+        SyncResponse withSnapshot = new SyncResponse(List.of(), List.of(tail), 0, Map.of(), false, 51L);
+        withSnapshot.snapshot = new Snapshot("snapshot-50", 50L, 1_700_000_000_000L, List.of(kept));
+        SyncResponse without = new SyncResponse(List.of(), List.of(tail), 0, Map.of(), false, 51L);
+
+        // When both are encoded
+        byte[] encoded = BinaryCodec.encode(withSnapshot);
+
+        // Then the snapshot survives and only its message is written as version 2
+        assertThat(BinaryCodec.decodeResponse(encoded)).usingRecursiveComparison().isEqualTo(withSnapshot);
+        assertThat(encoded[1]).isEqualTo((byte) BinaryCodec.SNAPSHOT_VERSION);
+        assertThat(BinaryCodec.encode(without)[1]).isEqualTo((byte) BinaryCodec.VERSION);
+    }
+
+    @Test
+    void testManifestPrefixesRoundTrip() throws Exception {
+        // Given a subscribed request and one without a subscription
+        SyncRequest subscribed = new SyncRequest("device-1", List.of(), 17L);
+        subscribed.manifestPrefixes = List.of("site/7/", "user/42/");
+        SyncRequest everything = new SyncRequest("device-1", List.of(), 17L);
+
+        // When encoded
+        byte[] encoded = BinaryCodec.encode(subscribed);
+
+        // Then the prefixes survive and only the subscribed request is written as version 3
+        assertThat(BinaryCodec.decodeRequest(encoded)).usingRecursiveComparison().isEqualTo(subscribed);
+        assertThat(encoded[1]).isEqualTo((byte) BinaryCodec.SUBSCRIPTION_VERSION);
+        assertThat(BinaryCodec.encode(everything)[1]).isEqualTo((byte) BinaryCodec.VERSION);
+    }
+
+    @Test
+    void testNullsSurviveRoundTrip() throws Exception {
+        ClientEvent event = new ClientEvent("c-event-1", null, null, null, 0L);
+        SyncRequest request = new SyncRequest(null, List.of(event), -1L);
+        SyncResponse response = new SyncResponse(null, null, 0, null);
+
+        assertThat(BinaryCodec.decodeRequest(BinaryCodec.encode(request))).usingRecursiveComparison().isEqualTo(request);
+        assertThat(BinaryCodec.decodeResponse(BinaryCodec.encode(response))).usingRecursiveComparison().isEqualTo(response);
+    }
+
+    @Test
+    void testSmallerThanJson() throws Exception {
+        // Given a page of events sharing devices and manifest keys, with binary payloads
+        List<ServerEvent> events = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            byte[] payload = new byte[64];
+            Arrays.fill(payload, (byte) i);
+            events.add(new ServerEvent(i, "ce-" + i, "device-" + (i % 4), payload,
+                    List.of("todo/" + (i % 10), "list/main"), 1_700_000_000_000L + i));
+        }
+        SyncResponse response = new SyncResponse(List.of(), events, 15000, Map.of(), false, 200L);
+
+        // Then the binary form is well under two thirds of the JSON one
+        int json = objectMapper.writeValueAsBytes(response).length;
+        int binary = BinaryCodec.encode(response).length;
+        assertThat(binary).isLessThan(json * 2 / 3);
+    }
+
+    @Test
+    void testRejectsMalformedInput() {
+        byte[] encoded = BinaryCodec.encode(new SyncRequest("device-1", List.of(), 0L));
+
+        assertThatThrownBy(() -> BinaryCodec.decodeResponse(encoded)).isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> BinaryCodec.decodeRequest(Arrays.copyOf(encoded, encoded.length - 1)))
+                .isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> BinaryCodec.decodeRequest(new byte[]{'{', '}'})).isInstanceOf(ValidationException.class);
+        // A count larger than the message cannot make the decoder allocate it
+        assertThatThrownBy(() -> BinaryCodec.decodeRequest(new byte[]{BinaryCodec.MAGIC, BinaryCodec.VERSION,
+                BinaryCodec.TYPE_SYNC_REQUEST, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F}))
+                .isInstanceOf(ValidationException.class);
+        // So can a count or table index whose varint decodes to a negative long
+        byte[] negative = {(byte) 0xFB, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertThatThrownBy(() -> BinaryCodec.decodeRequest(concat(new byte[]{BinaryCodec.MAGIC, BinaryCodec.VERSION,
+                BinaryCodec.TYPE_SYNC_REQUEST}, negative)))
+                .isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> BinaryCodec.decodeRequest(concat(new byte[]{BinaryCodec.MAGIC, BinaryCodec.VERSION,
+                BinaryCodec.TYPE_SYNC_REQUEST, 0, 0}, negative)))
+                .isInstanceOf(ValidationException.class);
+    }
+
+    private static byte[] concat(byte[] head, byte[] tail) {
+        byte[] joined = Arrays.copyOf(head, head.length + tail.length);
+        System.arraycopy(tail, 0, joined, head.length, tail.length);
+        return joined;
+    }
+}
@@ -0,0 +1,192 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only, chunked log of server events ordered by serverEventId.
+ * <p>
+ * Events live in fixed-size chunks that are never copied or moved once allocated, so a
+ * reader can take a snapshot of the published size and walk the chunks without locking.
+ * Appends are serialized among writers only; reads never block them.
+ */
+public class ChunkedEventLog {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Object writeLock = new Object();
+    private volatile ServerEvent[][] chunks = new ServerEvent[16][];
+    private volatile int size;
+
+    /**
+     * Append an event. Callers must append in ascending serverEventId order.
+     */
+    public void append(ServerEvent event) {
+        synchronized (writeLock) {
+            int index = size;
+            place(index, event);
+            // Publishing the size makes the new slot (and any new chunk) visible to readers.
+            size = index + 1;
+        }
+    }
+
+    /**
+     * Append several events; readers see either none or all of them.
+     */
+    public void appendAll(List<ServerEvent> batch) {
+        synchronized (writeLock) {
+            int index = size;
+            for (ServerEvent event : batch) {
+                place(index++, event);
+            }
+            size = index;
+        }
+    }
+
+    private void place(int index, ServerEvent event) {
+        int chunkIndex = index >>> CHUNK_SHIFT;
+        ServerEvent[][] current = chunks;
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        if (current[chunkIndex] == null) {
+            current[chunkIndex] = new ServerEvent[CHUNK_SIZE];
+        }
+        current[chunkIndex][index & CHUNK_MASK] = event;
+        chunks = current;
+    }
+
+    /**
+     * Number of events visible to readers.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Event at the given position (0-based, in append order).
+     */
+    public ServerEvent get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Oldest event in the log, or null when empty.
+     */
+    public ServerEvent first() {
+        return size == 0 ? null : get(0);
+    }
+
+    /**
+     * Newest event in the log, or null when empty.
+     */
+    public ServerEvent last() {
+        int end = size;
+        return end == 0 ? null : chunks[(end - 1) >>> CHUNK_SHIFT][(end - 1) & CHUNK_MASK];
+    }
+
+    /**
+     * Position of the first event with serverEventId > afterId among the first {@code end}
+     * events of the snapshot. Returns {@code end} when there is none.
+     */
+    private static int indexAfter(ServerEvent[][] snapshot, long afterId, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (snapshot[mid >>> CHUNK_SHIFT][mid & CHUNK_MASK].getServerEventId() > afterId) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Read-only view of all events with serverEventId > afterId that were published when
+     * this method was called. The view is backed by the log and does not copy events.
+     */
+    public List<ServerEvent> viewAfter(long afterId) {
+        int end = size;
+        ServerEvent[][] snapshot = chunks;
+        int from = indexAfter(snapshot, afterId, end);
+        if (from == end) {
+            return Collections.emptyList();
+        }
+        return new RangeView(snapshot, from, end);
+    }
+
+    /**
+     * True if the log holds an event from the device with the given clientEventId.
+     * Scans newest to oldest; used as the exact fallback of an {@link IdempotencyIndex}.
+     */
+    public boolean containsOrigin(String deviceId, String clientEventId) {
+        int end = size;
+        ServerEvent[][] snapshot = chunks;
+        for (int i = end - 1; i >= 0; i--) {
+            ServerEvent event = snapshot[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+            if (clientEventId.equals(event.getOriginClientEventId()) && deviceId.equals(event.getOriginClientDeviceId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pass the clientEventId of every event from the device to {@code clientEventIds}; used to
+     * rebuild the filter of a device an {@link IdempotencyIndex} evicted.
+     */
+    public void forEachOrigin(String deviceId, Consumer<String> clientEventIds) {
+        int end = size;
+        ServerEvent[][] snapshot = chunks;
+        for (int i = 0; i < end; i++) {
+            ServerEvent event = snapshot[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+            if (deviceId.equals(event.getOriginClientDeviceId())) {
+                clientEventIds.accept(event.getOriginClientEventId());
+            }
+        }
+    }
+
+    /**
+     * Immutable window [from, to) over a snapshot of the chunk table.
+     */
+    private static final class RangeView extends AbstractList<ServerEvent> {
+        private final ServerEvent[][] chunks;
+        private final int from;
+        private final int to;
+
+        RangeView(ServerEvent[][] chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public ServerEvent get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+            }
+            int position = from + index;
+            return chunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only log of deflated event blocks in segment files; the cold tier of
+ * {@link TieredEventStore}.
+ * <p>
+ * A block is a run of consecutive events in {@link EventRecordCodec} layout, compressed as a
+ * whole and appended to the current segment file until it reaches {@code segmentBytes}. Blocks
+ * are found through an in-memory index of their id range and file position, a few dozen bytes
+ * per block whatever the size of the events. Reads use positional I/O and never wait for the
+ * writer; a block is visible once its index entry is published.
+ * <p>
+ * The files are scratch space: existing ones are deleted on open and all of them on close.
+ */
+final class CompressedSegmentLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".cold";
+
+    /**
+     * Index entry of one compressed block.
+     */
+    static final class Block {
+        final long firstId;
+        final long lastId;
+        final int events;
+        final int file;
+        final long position;
+        final int length;
+        final int rawLength;
+
+        Block(long firstId, long lastId, int events, int file, long position, int length, int rawLength) {
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.events = events;
+            this.file = file;
+            this.position = position;
+            this.length = length;
+            this.rawLength = rawLength;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final List<FileChannel> files = new CopyOnWriteArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private long writePosition;
+
+    // Published by the writer after the block is on disk.
+    private volatile Block[] blocks = new Block[16];
+    private volatile int blockCount;
+    private volatile long eventCount;
+    private volatile long compressedBytes;
+
+    CompressedSegmentLog(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        try (Stream<Path> listing = Files.list(directory)) {
+            for (Path stale : listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                Files.delete(stale);
+            }
+        }
+    }
+
+    /**
+     * Compress and append a run of events in ascending id order. Single writer only.
+     */
+    void append(List<ServerEvent> events) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(events.size() * 128);
+        for (ServerEvent event : events) {
+            raw.write(EventRecordCodec.encode(event));
+        }
+        byte[] input = raw.toByteArray();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        byte[] output = compressed.toByteArray();
+
+        if (files.isEmpty() || (writePosition > 0 && writePosition + output.length > segmentBytes)) {
+            Path path = directory.resolve(String.format("%020d%s", events.get(0).getServerEventId(), SEGMENT_SUFFIX));
+            files.add(FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            writePosition = 0;
+        }
+        int file = files.size() - 1;
+        FileChannel channel = files.get(file);
+        ByteBuffer out = ByteBuffer.wrap(output);
+        long position = writePosition;
+        while (out.hasRemaining()) {
+            position += channel.write(out, position);
+        }
+        Block block = new Block(events.get(0).getServerEventId(), events.get(events.size() - 1).getServerEventId(),
+                events.size(), file, writePosition, output.length, input.length);
+        writePosition = position;
+
+        int count = blockCount;
+        Block[] table = blocks;
+        if (count == table.length) {
+            table = Arrays.copyOf(table, count * 2);
+        }
+        table[count] = block;
+        blocks = table;
+        eventCount += events.size();
+        compressedBytes += output.length;
+        blockCount = count + 1;
+    }
+
+    /**
+     * Position of the first block holding an id greater than {@code afterId}, or
+     * {@link #blockCount()} when there is none.
+     */
+    int blockAfter(long afterId) {
+        int count = blockCount;
+        Block[] table = blocks;
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (table[mid].lastId > afterId) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    Block block(int index) {
+        return blocks[index];
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    long eventCount() {
+        return eventCount;
+    }
+
+    long compressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Read and decompress every event of a block.
+     */
+    List<ServerEvent> read(Block block) {
+        try {
+            ByteBuffer in = ByteBuffer.allocate(block.length);
+            FileChannel channel = files.get(block.file);
+            long position = block.position;
+            while (in.hasRemaining()) {
+                int read = channel.read(in, position + in.position());
+                if (read < 0) {
+                    throw new IOException("Cold block at " + block.position + " is truncated");
+                }
+            }
+            Inflater inflater = new Inflater();
+            byte[] raw = new byte[block.rawLength];
+            try {
+                inflater.setInput(in.array());
+                int inflated = 0;
+                while (inflated < raw.length && !inflater.finished()) {
+                    inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+                }
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer records = ByteBuffer.wrap(raw);
+            List<ServerEvent> events = new ArrayList<>(block.events);
+            while (records.hasRemaining()) {
+                events.add(EventRecordCodec.decode(records));
+            }
+            return events;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read cold block of events " + block.firstId + ".." + block.lastId, e);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt cold block of events " + block.firstId + ".." + block.lastId, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        for (FileChannel channel : files) {
+            channel.close();
+        }
+        try (Stream<Path> listing = Files.list(directory)) {
+            for (Path file : listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
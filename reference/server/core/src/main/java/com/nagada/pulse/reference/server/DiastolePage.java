@@ -0,0 +1,67 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One bounded page of a diastole: the events to send back to the client, whether more
+ * remain after them, and the cursor the client should resume from.
+ */
+public class DiastolePage {
+
+    /** Events returned in this response, ascending by serverEventId. */
+    public final List<ServerEvent> events;
+    /** Events after the client's offset when the page reached the head, -1 when it was cut short. */
+    public final long lag;
+    /** True when the page was cut short by a limit. */
+    public final boolean hasMore;
+    /** serverEventId of the last event in the page, or the requested offset if empty. */
+    public final long nextCursor;
+
+    public DiastolePage(List<ServerEvent> events, long lag, boolean hasMore, long nextCursor) {
+        this.events = events;
+        this.lag = lag;
+        this.hasMore = hasMore;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Read a page from the front of {@code delta}. The page holds at most {@code maxEvents}
+     * events and stops before the payload total exceeds {@code maxBytes}, but always holds at
+     * least one event so a single oversized event cannot stall the client. At most one event
+     * past the page is read, to learn whether more remain.
+     * A limit of 0 or less means unlimited.
+     */
+    public static DiastolePage of(Iterator<ServerEvent> delta, long afterId, int maxEvents, long maxBytes) {
+        List<ServerEvent> events = new ArrayList<>();
+        long bytes = 0;
+        boolean hasMore = false;
+        while (delta.hasNext()) {
+            if (maxEvents > 0 && events.size() == maxEvents) {
+                hasMore = true;
+                break;
+            }
+            ServerEvent event = delta.next();
+            byte[] payload = event.getPayload();
+            bytes += payload == null ? 0 : payload.length;
+            if (maxBytes > 0 && bytes > maxBytes && !events.isEmpty()) {
+                hasMore = true;
+                break;
+            }
+            events.add(event);
+        }
+        long nextCursor = events.isEmpty() ? afterId : events.get(events.size() - 1).getServerEventId();
+        return new DiastolePage(events, hasMore ? -1 : events.size(), hasMore, nextCursor);
+    }
+
+    /**
+     * Read a page from the events a subscription matched. A last page moves the cursor on to
+     * where the index had read, past the events that did not match.
+     */
+    public static DiastolePage of(SubscriptionIndex.Match subscribed, long afterId, int maxEvents, long maxBytes) {
+        DiastolePage page = of(subscribed.iterator(), afterId, maxEvents, maxBytes);
+        return page.hasMore ? page : new DiastolePage(page.events, page.lag, false, Math.max(page.nextCursor, subscribed.coveredTo));
+    }
+}
@@ -1,37 +1,76 @@
 package com.nagada.pulse.reference.server;
 
-import com.nagada.pulse.protocol.ServerEvent;
-import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Diastole (downstroke) processor: fetches new server events since last known offset.
  * Returns events the client has not yet seen, updates the client's offset.
+ * Responses are cut into pages bounded by event count and payload bytes; a limit of 0 disables it.
+ * Only the events of the page are read from the store.
  */
 @Slf4j
 public class DiastoleProcessor {
 
     private final EventStore eventStore;
     private final OffsetStore offsetStore;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final SyncMetrics metrics;
 
     public DiastoleProcessor(EventStore eventStore, OffsetStore offsetStore) {
+        this(eventStore, offsetStore, 0, 0);
+    }
+
+    public DiastoleProcessor(EventStore eventStore, OffsetStore offsetStore, int maxEvents, long maxBytes) {
+        this(eventStore, offsetStore, maxEvents, maxBytes, SyncMetrics.NOOP);
+    }
+
+    public DiastoleProcessor(EventStore eventStore, OffsetStore offsetStore, int maxEvents, long maxBytes, SyncMetrics metrics) {
         this.eventStore = eventStore;
         this.offsetStore = offsetStore;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
     }
 
     /**
-     * Process diastole: fetch new events since the given offset, update stored offset.
+     * Process diastole: fetch the next page of events since the given offset, update stored offset.
      */
-    public List<ServerEvent> process(String deviceId, long lastKnownServerEventId) {
+    public DiastolePage process(String deviceId, long lastKnownServerEventId) {
+        return process(deviceId, lastKnownServerEventId, null);
+    }
+
+    /**
+     * Process diastole for a device that subscribed to some manifest prefixes: the page holds only
+     * the {@code subscribed} events, and a last page moves the cursor to where the index had read.
+     */
+    public DiastolePage process(String deviceId, long lastKnownServerEventId, SubscriptionIndex.Match subscribed) {
         log.debug("Processing diastole for device: {} from server event ID: {}", deviceId, lastKnownServerEventId);
 
         // Fetch new events
+        JfrDiastoleEvent jfr = new JfrDiastoleEvent();
+        jfr.begin();
+        long start = System.nanoTime();
         offsetStore.update(deviceId, lastKnownServerEventId);
+        metrics.deviceOffset(deviceId, lastKnownServerEventId);
         log.trace("Updated offset for device {} to {}", deviceId, lastKnownServerEventId);
-        
-        List<ServerEvent> newEvents = eventStore.listAfter(lastKnownServerEventId);
-        log.debug("Found {} new events for device: {}", newEvents.size(), deviceId);
 
-        return newEvents;
+        DiastolePage page = subscribed == null
+                ? DiastolePage.of(eventStore.iterateAfter(lastKnownServerEventId), lastKnownServerEventId, maxEvents, maxBytes)
+                : DiastolePage.of(subscribed, lastKnownServerEventId, maxEvents, maxBytes);
+        metrics.diastole(System.nanoTime() - start);
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = deviceId;
+            jfr.afterId = lastKnownServerEventId;
+            jfr.lag = page.lag;
+            jfr.returnedEvents = page.events.size();
+            jfr.payloadBytes = JfrStoreEvent.payloadBytes(page.events);
+            jfr.hasMore = page.hasMore;
+            jfr.commit();
+        }
+        log.debug("Returning {} new events to device: {} (hasMore: {})", page.events.size(), deviceId, page.hasMore);
+
+        return page;
     }
 }
@@ -13,6 +13,11 @@ import java.util.stream.Collectors;
 
 public class EventConflictResolver {
 
+    /** Error for a pending event whose manifest overlaps an event the client has not seen (older wins). */
+    public static final String OVERLAP = "Client event manifest overlaps with server event manifest.";
+    /** Error for a pending event created no later than an unseen event on the same key (newer wins). */
+    public static final String NEWER_WINS = "CONFLICT|NEWER_WINS";
+
     // Helper class to return both success and error client event IDs
     public static class ConflictResolutionResult {
         public final List<String> successClientEventIds;
@@ -52,7 +57,7 @@ public class EventConflictResolver {
                     for (String manifest : pendingEvent.getPayloadManifest()) {
                         if (manifestToTimestamp.containsKey(manifest)) {
                             if (pendingEvent.getCreatedAt() <= manifestToTimestamp.get(manifest)) {
-                                errorClientEventIds.put(pendingEvent.getClientEventId(), "CONFLICT|"+(newerWins?"NEWER_WINS":"OLDER_WINS"));
+                                errorClientEventIds.put(pendingEvent.getClientEventId(), NEWER_WINS);
                                 isConflict = true;
                                 break;
                             }
@@ -74,7 +79,7 @@ public class EventConflictResolver {
                 if (pendingEvent.getPayloadManifest() != null) {
                     for (String clientManifestItem : pendingEvent.getPayloadManifest()) {
                         if (newServerPayloadManifestItems.contains(clientManifestItem)) {
-                            errorClientEventIds.put(pendingEvent.getClientEventId(), "Client event manifest overlaps with server event manifest.");
+                            errorClientEventIds.put(pendingEvent.getClientEventId(), OVERLAP);
                             isError = true;
                             break; 
                         }
@@ -0,0 +1,123 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary record layout used by file-backed event stores.
+ * <pre>
+ * long   serverEventId
+ * long   createdAt
+ * string originClientEventId
+ * string originClientDeviceId
+ * int    manifest count (-1 = null), followed by that many strings
+ * int    payload length (-1 = null), followed by the payload bytes
+ * </pre>
+ * Strings are an int byte length (-1 = null) followed by UTF-8 bytes. The serverEventId comes
+ * first so a reader can skip records by id without decoding them.
+ */
+final class EventRecordCodec {
+
+    private EventRecordCodec() {
+    }
+
+    static byte[] encode(ServerEvent event) {
+        byte[] clientEventId = utf8(event.getOriginClientEventId());
+        byte[] deviceId = utf8(event.getOriginClientDeviceId());
+        List<String> manifest = event.getPayloadManifest();
+        byte[][] manifestBytes = null;
+        int size = 8 + 8 + stringSize(clientEventId) + stringSize(deviceId) + 4;
+        if (manifest != null) {
+            manifestBytes = new byte[manifest.size()][];
+            for (int i = 0; i < manifestBytes.length; i++) {
+                manifestBytes[i] = utf8(manifest.get(i));
+                size += stringSize(manifestBytes[i]);
+            }
+        }
+        byte[] payload = event.getPayload();
+        size += 4 + (payload == null ? 0 : payload.length);
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putLong(event.getServerEventId());
+        out.putLong(event.getCreatedAt());
+        putString(out, clientEventId);
+        putString(out, deviceId);
+        if (manifestBytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(manifestBytes.length);
+            for (byte[] item : manifestBytes) {
+                putString(out, item);
+            }
+        }
+        if (payload == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(payload.length);
+            out.put(payload);
+        }
+        return out.array();
+    }
+
+    /**
+     * Decode one record from the buffer's current position, advancing it past the record.
+     */
+    static ServerEvent decode(ByteBuffer in) {
+        long serverEventId = in.getLong();
+        long createdAt = in.getLong();
+        String clientEventId = getString(in);
+        String deviceId = getString(in);
+        int manifestCount = in.getInt();
+        List<String> manifest = null;
+        if (manifestCount >= 0) {
+            manifest = new ArrayList<>(manifestCount);
+            for (int i = 0; i < manifestCount; i++) {
+                manifest.add(getString(in));
+            }
+        }
+        int payloadLength = in.getInt();
+        byte[] payload = null;
+        if (payloadLength >= 0) {
+            payload = new byte[payloadLength];
+            in.get(payload);
+        }
+        return new ServerEvent(serverEventId, clientEventId, deviceId, payload, manifest, createdAt);
+    }
+
+    /**
+     * Read the serverEventId of the record starting at {@code position} without moving the buffer.
+     */
+    static long peekServerEventId(ByteBuffer in, int position) {
+        return in.getLong(position);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static void putString(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(value.length);
+            out.put(value);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
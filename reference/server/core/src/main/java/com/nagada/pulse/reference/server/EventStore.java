@@ -2,7 +2,11 @@ package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Pluggable interface for persisting and querying server events.
@@ -13,13 +17,96 @@ public interface EventStore {
      */
     ServerEvent append(String deviceId, ClientEvent clientEvent);
 
+    /**
+     * Append a batch of client events from one device in a single operation.
+     * Events already stored for the device, and repeats within the batch, are skipped.
+     * The rest receive a contiguous serverEventId range in batch order and are persisted together.
+     * Returns the newly stored events, ascending.
+     * <p>
+     * The default implementation falls back to one exists/append round-trip per event;
+     * stores should override it to dedup and persist in one step.
+     */
+    default List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        List<ServerEvent> appended = new ArrayList<>();
+        Set<String> batchIds = new HashSet<>();
+        for (ClientEvent clientEvent : clientEvents) {
+            if (batchIds.add(clientEvent.getClientEventId()) && !exists(deviceId, clientEvent.getClientEventId())) {
+                appended.add(append(deviceId, clientEvent));
+            }
+        }
+        return appended;
+    }
+
     /**
      * List server events with id > afterId, ordered ascending.
+     * <p>
+     * Stores that decode events from disk or a database materialize the whole delta here, so
+     * read paths whose delta can be long use {@link #iterateAfter} instead.
      */
     List<ServerEvent> listAfter(long afterId);
 
+    /**
+     * Iterate server events with id > afterId, ascending, reading them only as the caller
+     * advances. Events appended after the call need not be included.
+     * <p>
+     * The default implementation wraps {@link #listAfter}; stores that decode events from disk
+     * override it so a large delta is never held in memory at once.
+     */
+    default Iterator<ServerEvent> iterateAfter(long afterId) {
+        return listAfter(afterId).iterator();
+    }
+
+    /**
+     * The event with this serverEventId, or null if there is none.
+     * <p>
+     * The default implementation takes the first event of {@link #iterateAfter}; stores whose
+     * iterator is not lazy override it with a direct lookup.
+     */
+    default ServerEvent get(long serverEventId) {
+        Iterator<ServerEvent> events = iterateAfter(serverEventId - 1);
+        if (events.hasNext()) {
+            ServerEvent event = events.next();
+            if (event.getServerEventId() == serverEventId) {
+                return event;
+            }
+        }
+        return null;
+    }
+
     /**
      * Check if an event with the given client event ID has been stored for this device.
      */
     boolean exists(String deviceId, String clientEventId);
+
+    /**
+     * Make every appended event durable. Stores that persist on append need not override it.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Append several devices' batches as one group, as {@link #appendAll} would one by one, and
+     * return what was appended for each batch. Called once per group by {@link SyncSequencer}.
+     * <p>
+     * The default appends each batch and then flushes once, which suits stores whose appends are
+     * not made durable later. A store that defers durability overrides it to write the whole
+     * group in one transaction and publish its head only once the group is durable.
+     */
+    default List<List<ServerEvent>> appendGroup(List<String> deviceIds, List<List<ClientEvent>> batches) {
+        List<List<ServerEvent>> appended = new ArrayList<>(batches.size());
+        for (int i = 0; i < batches.size(); i++) {
+            appended.add(appendAll(deviceIds.get(i), batches.get(i)));
+        }
+        flush();
+        return appended;
+    }
+
+    /**
+     * Register a listener called whenever appended events become visible to {@link #listAfter}.
+     * Every store publishes its head, typically through a {@link HeadNotifier}: long-polls,
+     * pushes, metrics and caches all depend on it.
+     */
+    void addHeadListener(HeadListener listener);
+
+    void removeHeadListener(HeadListener listener);
 }
@@ -0,0 +1,14 @@
+package com.nagada.pulse.reference.server;
+
+/**
+ * Callback for stores that announce when new events become readable.
+ */
+@FunctionalInterface
+public interface HeadListener {
+    /**
+     * Called after events up to {@code headServerEventId} are visible to {@code listAfter}.
+     * Runs on the appending thread, so implementations must return quickly. The head only
+     * moves backwards when the store is reset and its ids will be handed out again.
+     */
+    void onHeadAdvanced(long headServerEventId);
+}
@@ -0,0 +1,36 @@
+package com.nagada.pulse.reference.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Listener registry shared by the EventStore implementations for head-advance notifications.
+ */
+@Slf4j
+public class HeadNotifier {
+
+    private final List<HeadListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void add(HeadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void remove(HeadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Tell every listener that the head moved to {@code headServerEventId}. A failing listener
+     * is logged and does not affect the append or the other listeners.
+     */
+    public void publish(long headServerEventId) {
+        for (HeadListener listener : listeners) {
+            try {
+                listener.onHeadAdvanced(headServerEventId);
+            } catch (RuntimeException e) {
+                log.warn("Head listener failed for serverEventId: {}", headServerEventId, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded-memory index of the clientEventIds each device has stored, giving exact answers.
+ * <p>
+ * Per device it keeps a {@link ScalableBloomFilter} of every id plus an exact set of the most
+ * recent ids. A lookup is answered from memory when the Bloom filter says "absent" or the recent
+ * window says "present"; anything else (an older id, or a Bloom false positive) needs the
+ * {@link DurableLookup} of the backing store. Stores call {@link #prepare} before taking their
+ * append lock so that lookup, which may scan the whole log, happens outside it.
+ * <p>
+ * Heap use is estimated per device and capped by a budget. Over budget, the least recently
+ * active device among a small random sample is evicted, and its id goes into a global Bloom
+ * filter of evicted devices. When an evicted device returns, its filter is rebuilt once from the
+ * store's {@link DeviceHistory} by whichever of {@link #prepare}, {@link #exists} or
+ * {@link #record} sees it first, after which it is answered from memory again; a false positive
+ * in that filter only costs a new device one rebuild that finds nothing.
+ */
+@Slf4j
+public class IdempotencyIndex {
+
+    /**
+     * Exact lookup against the system of record, used when memory cannot answer.
+     */
+    @FunctionalInterface
+    public interface DurableLookup {
+        boolean exists(String deviceId, String clientEventId);
+    }
+
+    /**
+     * Every clientEventId the system of record holds for a device, used to rebuild the filter
+     * of a device that was evicted.
+     */
+    @FunctionalInterface
+    public interface DeviceHistory {
+        void forEachOrigin(String deviceId, Consumer<String> clientEventIds);
+    }
+
+    public static final int DEFAULT_RECENT_WINDOW = 256;
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private static final int INITIAL_BLOOM_CAPACITY = 64;
+    private static final int EVICTION_SAMPLE = 16;
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+    private static final long WINDOW_ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int recentWindow;
+    private final long memoryBudgetBytes;
+    private final DurableLookup durableLookup;
+    private final DeviceHistory deviceHistory;
+    private final Map<String, DeviceEntry> devices = new ConcurrentHashMap<>();
+    /** The entries of {@link #devices} by slot, so eviction can sample them at random. */
+    private final List<DeviceEntry> slots = new ArrayList<>();
+    private final ScalableBloomFilter evictedDevices = new ScalableBloomFilter(1024);
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong durableLookups = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    public IdempotencyIndex(DurableLookup durableLookup, DeviceHistory deviceHistory) {
+        this(DEFAULT_RECENT_WINDOW, DEFAULT_MEMORY_BUDGET_BYTES, durableLookup, deviceHistory);
+    }
+
+    public IdempotencyIndex(int recentWindow, long memoryBudgetBytes, DurableLookup durableLookup,
+                            DeviceHistory deviceHistory) {
+        this.recentWindow = recentWindow;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.durableLookup = durableLookup;
+        this.deviceHistory = deviceHistory;
+    }
+
+    /**
+     * Settle now whatever {@link #exists} could not answer from memory for these ids: rebuild
+     * the filter of a returning evicted device, and look up ids the filter cannot rule out,
+     * keeping the answer until the id is recorded. Call it before taking the append lock.
+     */
+    public void prepare(String deviceId, List<ClientEvent> clientEvents) {
+        DeviceEntry entry = devices.get(deviceId);
+        if (entry == null) {
+            if (!wasEvicted(deviceId)) {
+                return;
+            }
+            entry = entryFor(deviceId);
+        }
+        rebuild(entry);
+        for (ClientEvent clientEvent : clientEvents) {
+            String clientEventId = clientEvent.getClientEventId();
+            if (entry.answer(clientEventId) == null) {
+                boolean stored = lookupDurable(deviceId, clientEventId);
+                usedBytes.addAndGet(stored
+                        ? entry.record(clientEventId, recentWindow)
+                        : entry.markUnseen(clientEventId, recentWindow));
+            }
+        }
+        if (usedBytes.get() > memoryBudgetBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * True if the device has stored an event with this clientEventId. After {@link #prepare}
+     * this is answered from memory unless the device was evicted again in between; a returning
+     * device not prepared is rebuilt here.
+     */
+    public boolean exists(String deviceId, String clientEventId) {
+        DeviceEntry entry = devices.get(deviceId);
+        if (entry == null) {
+            if (!wasEvicted(deviceId)) {
+                return false;
+            }
+            entry = entryFor(deviceId);
+        }
+        rebuild(entry);
+        Boolean answer = entry.answer(clientEventId);
+        return answer != null ? answer : lookupDurable(deviceId, clientEventId);
+    }
+
+    /**
+     * Record a clientEventId that has just been stored for the device.
+     */
+    public void record(String deviceId, String clientEventId) {
+        DeviceEntry entry = entryFor(deviceId);
+        usedBytes.addAndGet(entry.record(clientEventId, recentWindow));
+        rebuild(entry);
+        if (usedBytes.get() > memoryBudgetBytes) {
+            evict();
+        }
+    }
+
+    public void clear() {
+        devices.clear();
+        synchronized (slots) {
+            slots.clear();
+        }
+        usedBytes.set(0);
+        synchronized (evictedDevices) {
+            evictedDevices.clear();
+        }
+    }
+
+    /**
+     * Estimated heap held by the per-device filters and windows.
+     */
+    public long estimatedBytes() {
+        return usedBytes.get();
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Number of lookups that had to go to the durable store.
+     */
+    public long durableLookupCount() {
+        return durableLookups.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of evicted devices whose filter was rebuilt from their history.
+     */
+    public long rebuildCount() {
+        return rebuilds.get();
+    }
+
+    private DeviceEntry entryFor(String deviceId) {
+        DeviceEntry entry = devices.get(deviceId);
+        if (entry != null) {
+            return entry;
+        }
+        DeviceEntry created = new DeviceEntry(deviceId, !wasEvicted(deviceId));
+        entry = devices.putIfAbsent(deviceId, created);
+        if (entry != null) {
+            return entry;
+        }
+        usedBytes.addAndGet(created.bytes);
+        synchronized (slots) {
+            created.slot = slots.size();
+            slots.add(created);
+        }
+        return created;
+    }
+
+    /**
+     * Refill the filter of an entry created after its device was evicted. The entry is already
+     * in the map, so ids stored while the history is read are recorded into it as well.
+     */
+    private void rebuild(DeviceEntry entry) {
+        if (entry.complete || !entry.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            deviceHistory.forEachOrigin(entry.deviceId, clientEventId -> usedBytes.addAndGet(entry.addToFilter(clientEventId)));
+            entry.complete = true;
+            rebuilds.incrementAndGet();
+            log.debug("Rebuilt idempotency entry for returning device: {} ({} bytes)", entry.deviceId, entry.bytes);
+        } finally {
+            entry.rebuilding.set(false);
+        }
+    }
+
+    private boolean lookupDurable(String deviceId, String clientEventId) {
+        durableLookups.incrementAndGet();
+        return durableLookup.exists(deviceId, clientEventId);
+    }
+
+    private boolean wasEvicted(String deviceId) {
+        synchronized (evictedDevices) {
+            return evictedDevices.mightContain(deviceId);
+        }
+    }
+
+    private void evict() {
+        while (usedBytes.get() > memoryBudgetBytes) {
+            DeviceEntry oldest = null;
+            synchronized (slots) {
+                if (slots.size() <= 1) {
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                    DeviceEntry candidate = slots.get(random.nextInt(slots.size()));
+                    if (oldest == null || candidate.lastAccess < oldest.lastAccess) {
+                        oldest = candidate;
+                    }
+                }
+                DeviceEntry moved = slots.remove(slots.size() - 1);
+                if (moved != oldest) {
+                    slots.set(oldest.slot, moved);
+                    moved.slot = oldest.slot;
+                }
+            }
+            if (!devices.remove(oldest.deviceId, oldest)) {
+                continue;
+            }
+            synchronized (evictedDevices) {
+                evictedDevices.add(oldest.deviceId);
+            }
+            long released = oldest.evict();
+            usedBytes.addAndGet(-released);
+            evictions.incrementAndGet();
+            log.debug("Evicted idempotency entry for device: {} ({} bytes)", oldest.deviceId, released);
+        }
+    }
+
+    /**
+     * Bloom filter of every id the entry has seen, plus an exact window of the latest ones.
+     * Each change returns its delta in estimated bytes for {@link #usedBytes}, or 0 once the
+     * entry is evicted and its bytes no longer counted.
+     */
+    private static final class DeviceEntry {
+        final String deviceId;
+        final ScalableBloomFilter bloom = new ScalableBloomFilter(INITIAL_BLOOM_CAPACITY);
+        final LinkedHashSet<String> recent = new LinkedHashSet<>();
+        /** Ids {@link #prepare} found absent from the store and that are not recorded yet. */
+        final Set<String> unseen = new HashSet<>();
+        final AtomicBoolean rebuilding = new AtomicBoolean();
+        /** False while the device was evicted before and its filter is not rebuilt yet. */
+        volatile boolean complete;
+        /** Set when the entry leaves {@link #devices}, guarded by the entry. */
+        boolean evicted;
+        volatile long lastAccess = System.nanoTime();
+        volatile long bytes;
+        /** Position in {@link #slots}, guarded by it. */
+        int slot;
+
+        DeviceEntry(String deviceId, boolean complete) {
+            this.deviceId = deviceId;
+            this.complete = complete;
+            this.bytes = ENTRY_OVERHEAD_BYTES + 2L * deviceId.length() + bloom.sizeInBytes();
+        }
+
+        /**
+         * Stop counting the entry; returns the bytes it held.
+         */
+        synchronized long evict() {
+            evicted = true;
+            return bytes;
+        }
+
+        /**
+         * TRUE or FALSE when memory is conclusive, null when the durable store must decide.
+         */
+        synchronized Boolean answer(String clientEventId) {
+            lastAccess = System.nanoTime();
+            if (recent.contains(clientEventId)) {
+                return Boolean.TRUE;
+            }
+            if (unseen.contains(clientEventId)) {
+                return Boolean.FALSE;
+            }
+            if (complete && !bloom.mightContain(clientEventId)) {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+
+        synchronized long addToFilter(String clientEventId) {
+            long bloomBefore = bloom.sizeInBytes();
+            bloom.add(clientEventId);
+            long delta = bloom.sizeInBytes() - bloomBefore;
+            bytes += delta;
+            return evicted ? 0 : delta;
+        }
+
+        /**
+         * Over the window the pending answers are dropped, and those ids go back to the
+         * durable store.
+         */
+        synchronized long markUnseen(String clientEventId, int window) {
+            long delta = 0;
+            if (unseen.size() >= window) {
+                for (String dropped : unseen) {
+                    delta -= WINDOW_ENTRY_OVERHEAD_BYTES + 2L * dropped.length();
+                }
+                unseen.clear();
+            }
+            if (unseen.add(clientEventId)) {
+                delta += WINDOW_ENTRY_OVERHEAD_BYTES + 2L * clientEventId.length();
+            }
+            bytes += delta;
+            return evicted ? 0 : delta;
+        }
+
+        synchronized long record(String clientEventId, int window) {
+            lastAccess = System.nanoTime();
+            long filterDelta = addToFilter(clientEventId);
+            long delta = 0;
+            if (unseen.remove(clientEventId)) {
+                delta -= WINDOW_ENTRY_OVERHEAD_BYTES + 2L * clientEventId.length();
+            }
+            if (recent.add(clientEventId)) {
+                delta += WINDOW_ENTRY_OVERHEAD_BYTES + 2L * clientEventId.length();
+                if (recent.size() > window) {
+                    Iterator<String> eldest = recent.iterator();
+                    String evicted = eldest.next();
+                    eldest.remove();
+                    delta -= WINDOW_ENTRY_OVERHEAD_BYTES + 2L * evicted.length();
+                }
+            }
+            bytes += delta;
+            return evicted ? 0 : filterDelta + delta;
+        }
+    }
+}
@@ -3,63 +3,133 @@ package com.nagada.pulse.reference.server;
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * In-memory implementation of EventStore for reference and testing.
+ * Events are kept in a {@link ChunkedEventLog}: appends are serialized so that
+ * serverEventIds enter the log in order, while reads run lock-free.
+ * Duplicate detection goes through a bounded {@link IdempotencyIndex} that falls back to
+ * scanning the log before the append lock is taken.
  */
 @Slf4j
 public class InMemoryEventStore implements EventStore {
 
+    private final Object appendLock = new Object();
     private final AtomicLong nextId = new AtomicLong(1);
-    private final List<ServerEvent> events = new ArrayList<>();
-    private final Map<String, Map<String, Boolean>> seenClientEvents = new ConcurrentHashMap<>();
+    private volatile ChunkedEventLog events = new ChunkedEventLog();
+    private final IdempotencyIndex seenClientEvents;
+    private final HeadNotifier headNotifier = new HeadNotifier();
+
+    public InMemoryEventStore() {
+        this(IdempotencyIndex.DEFAULT_RECENT_WINDOW, IdempotencyIndex.DEFAULT_MEMORY_BUDGET_BYTES);
+    }
+
+    public InMemoryEventStore(int recentWindowPerDevice, long idempotencyMemoryBudgetBytes) {
+        this.seenClientEvents = new IdempotencyIndex(recentWindowPerDevice, idempotencyMemoryBudgetBytes,
+                (deviceId, clientEventId) -> events.containsOrigin(deviceId, clientEventId),
+                (deviceId, clientEventIds) -> events.forEachOrigin(deviceId, clientEventIds));
+    }
 
     @Override
     public ServerEvent append(String deviceId, ClientEvent clientEvent) {
-        long id = nextId.getAndIncrement();
-        log.debug("Appending event from device: {} with clientEventId: {} as serverEventId: {}", deviceId, clientEvent.getClientEventId(), id);
-        ServerEvent event = new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(),clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
-        event.payloadManifest = clientEvent.getPayloadManifest();
-        events.add(event);
-        
-        // Track that we've seen this client event
-        seenClientEvents
-            .computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>())
-            .put(clientEvent.getClientEventId(), true);
-        
+        ServerEvent event;
+        synchronized (appendLock) {
+            long id = nextId.getAndIncrement();
+            log.debug("Appending event from device: {} with clientEventId: {} as serverEventId: {}", deviceId, clientEvent.getClientEventId(), id);
+            event = new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(),clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
+            event.payloadManifest = clientEvent.getPayloadManifest();
+            events.append(event);
+
+            // Track that we've seen this client event
+            seenClientEvents.record(deviceId, clientEvent.getClientEventId());
+        }
+        headNotifier.publish(event.getServerEventId());
+
         return event;
     }
 
+    /**
+     * Dedups, assigns a contiguous id range and publishes the batch to readers in one step.
+     */
     @Override
-    public List<ServerEvent> listAfter(long afterId) {
-        log.debug("Listing events after serverEventId: {}", afterId);
-        List<ServerEvent> result = new ArrayList<>();
-        for (ServerEvent event : events) {
-            if (event.getServerEventId() > afterId) {
-                result.add(event);
+    public List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        List<ServerEvent> appended = new ArrayList<>(clientEvents.size());
+        seenClientEvents.prepare(deviceId, clientEvents);
+        synchronized (appendLock) {
+            Set<String> batchIds = new HashSet<>();
+            for (ClientEvent clientEvent : clientEvents) {
+                String clientEventId = clientEvent.getClientEventId();
+                if (seenClientEvents.exists(deviceId, clientEventId) || !batchIds.add(clientEventId)) {
+                    log.trace("Ignoring duplicate event {} from device {}", clientEventId, deviceId);
+                    continue;
+                }
+                ServerEvent event = new ServerEvent(nextId.getAndIncrement(), clientEventId, deviceId, clientEvent.getPayload(), clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
+                appended.add(event);
+            }
+            if (!appended.isEmpty()) {
+                log.debug("Appending {} events from device: {} as serverEventIds {}..{}", appended.size(), deviceId,
+                        appended.get(0).getServerEventId(), appended.get(appended.size() - 1).getServerEventId());
+                events.appendAll(appended);
+                for (ServerEvent event : appended) {
+                    seenClientEvents.record(deviceId, event.getOriginClientEventId());
+                }
             }
         }
+        if (!appended.isEmpty()) {
+            headNotifier.publish(appended.get(appended.size() - 1).getServerEventId());
+        }
+        return appended;
+    }
+
+    /**
+     * Returns a read-only view of the log from the first event after {@code afterId}.
+     * The start position is found by binary search; events are not copied.
+     */
+    @Override
+    public List<ServerEvent> listAfter(long afterId) {
+        log.debug("Listing events after serverEventId: {}", afterId);
+        List<ServerEvent> result = events.viewAfter(afterId);
         log.debug("Found {} events after serverEventId: {}", result.size(), afterId);
         return result;
     }
 
     @Override
     public boolean exists(String deviceId, String originClientEventId) {
-        Map<String, Boolean> deviceSeenEvents = seenClientEvents.get(deviceId);
-        boolean exists = deviceSeenEvents != null && deviceSeenEvents.containsKey(originClientEventId);
+        boolean exists = seenClientEvents.exists(deviceId, originClientEventId);
         log.trace("Checking existence of clientEventId: {} for device: {}. Exists: {}", originClientEventId, deviceId, exists);
         return exists;
     }
 
+    @Override
+    public void addHeadListener(HeadListener listener) {
+        headNotifier.add(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+        headNotifier.remove(listener);
+    }
+
     public void clear() {
         log.warn("Clearing all events from InMemoryEventStore.");
-        nextId.set(1);
-        events.clear();
-        seenClientEvents.clear();
+        synchronized (appendLock) {
+            nextId.set(1);
+            events = new ChunkedEventLog();
+            seenClientEvents.clear();
+        }
+        // The head moving backwards tells caches keyed by serverEventId that ids will be reused.
+        headNotifier.publish(0);
+    }
+
+    /**
+     * The index answering {@link #exists}, exposed for memory and fallback statistics.
+     */
+    public IdempotencyIndex getIdempotencyIndex() {
+        return seenClientEvents;
     }
 }
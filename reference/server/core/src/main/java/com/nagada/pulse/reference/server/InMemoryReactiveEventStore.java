@@ -4,11 +4,12 @@ import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -16,48 +17,83 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class InMemoryReactiveEventStore implements ReactiveEventStore {
 
+    private final Object appendLock = new Object();
     private final AtomicLong nextId = new AtomicLong(1);
-    private final List<ServerEvent> events = new CopyOnWriteArrayList<>();
-    private final Map<String, Map<String, Boolean>> seenClientEvents = new ConcurrentHashMap<>();
+    private final ChunkedEventLog events = new ChunkedEventLog();
+    private final IdempotencyIndex seenClientEvents = new IdempotencyIndex(events::containsOrigin, events::forEachOrigin);
+    /** Emissions happen under appendLock, so they are serialized. */
+    private final Sinks.Many<Long> heads = Sinks.many().replay().latestOrDefault(0L);
 
     @Override
     public Mono<ServerEvent> append(String deviceId, ClientEvent clientEvent) {
         return Mono.fromCallable(() -> {
-            long id = nextId.getAndIncrement();
-            ServerEvent event = new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(),clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
-            event.payloadManifest = clientEvent.getPayloadManifest();
-            
-            events.add(event);
-            
-            seenClientEvents
-                .computeIfAbsent(deviceId, k -> new ConcurrentHashMap<>())
-                .put(clientEvent.getClientEventId(), true);
-            
+            ServerEvent event;
+            synchronized (appendLock) {
+                long id = nextId.getAndIncrement();
+                event = new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(),clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
+                event.payloadManifest = clientEvent.getPayloadManifest();
+
+                events.append(event);
+
+                seenClientEvents.record(deviceId, clientEvent.getClientEventId());
+                heads.tryEmitNext(id);
+            }
+
             return event;
         });
     }
 
+    @Override
+    public Flux<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        return Mono.fromCallable(() -> {
+            List<ServerEvent> appended = new ArrayList<>(clientEvents.size());
+            seenClientEvents.prepare(deviceId, clientEvents);
+            synchronized (appendLock) {
+                Set<String> batchIds = new HashSet<>();
+                for (ClientEvent clientEvent : clientEvents) {
+                    String clientEventId = clientEvent.getClientEventId();
+                    if (seenClientEvents.exists(deviceId, clientEventId) || !batchIds.add(clientEventId)) {
+                        continue;
+                    }
+                    appended.add(new ServerEvent(nextId.getAndIncrement(), clientEventId, deviceId, clientEvent.getPayload(), clientEvent.getPayloadManifest(), clientEvent.getCreatedAt()));
+                }
+                events.appendAll(appended);
+                for (ServerEvent event : appended) {
+                    seenClientEvents.record(deviceId, event.getOriginClientEventId());
+                }
+                if (!appended.isEmpty()) {
+                    heads.tryEmitNext(appended.get(appended.size() - 1).getServerEventId());
+                }
+            }
+            return appended;
+        }).flatMapIterable(appended -> appended);
+    }
+
     @Override
     public Flux<ServerEvent> listAfter(long afterId) {
-        return Flux.fromIterable(events)
-                .filter(e -> e.getServerEventId() > afterId);
+        return Flux.defer(() -> Flux.fromIterable(events.viewAfter(afterId)));
     }
 
     @Override
     public Mono<Boolean> exists(String deviceId, String clientEventId) {
-        return Mono.fromCallable(() -> {
-            Map<String, Boolean> deviceSeen = seenClientEvents.get(deviceId);
-            return deviceSeen != null && deviceSeen.containsKey(clientEventId);
-        });
+        return Mono.fromCallable(() -> seenClientEvents.exists(deviceId, clientEventId));
+    }
+
+    @Override
+    public Flux<Long> headUpdates() {
+        return heads.asFlux();
     }
 
     @Override
     public Mono<Long> getEarliestServerEventId() {
-        return Mono.just(events.isEmpty() ? 0L : events.get(0).getServerEventId());
+        return Mono.fromCallable(() -> events.isEmpty() ? 0L : events.first().getServerEventId());
     }
 
     @Override
     public Mono<Long> getLatestServerEventId() {
-        return Mono.just(events.isEmpty() ? 0L : events.get(events.size() - 1).getServerEventId());
+        return Mono.fromCallable(() -> {
+            ServerEvent last = events.last();
+            return last == null ? 0L : last.getServerEventId();
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,207 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One sync whose pending events arrive one at a time, e.g. from a request body still being
+ * parsed. Events are committed in batches of {@code batchSize} as soon as a batch fills, so a
+ * large offline backlog is never held in memory as a whole and its first events are durable
+ * before the last ones have been read.
+ * <p>
+ * Each batch is checked the way {@link EventConflictResolver} checks a whole request (older
+ * wins): events already stored for the device are acknowledged again without a check, and an
+ * event touching a manifest key written by someone else after {@code lastKnownServerEventId} is
+ * rejected. Events committed by earlier batches of this sync never conflict with later ones.
+ * The manifest keys written by others are collected incrementally up to the head before each
+ * batch. With a {@link SyncSequencer}, the batch is then submitted as if its client had seen
+ * that head, so the writer checks it against whatever was appended since, at commit time.
+ * <p>
+ * Not thread-safe; created by {@link SyncHandler#beginIncremental}.
+ */
+@Slf4j
+public class IncrementalSync {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final EventStore eventStore;
+    private final SystoleProcessor systole;
+    private final SyncSequencer sequencer;
+    private final String deviceId;
+    private final long lastKnownServerEventId;
+    private final int batchSize;
+    private final int maxEventsPerResponse;
+    private final long maxBytesPerResponse;
+    private final SyncMetrics metrics;
+    private final Snapshot snapshot;
+    private final SubscriptionIndex subscriptions;
+    private final List<String> manifestPrefixes;
+
+    private final List<ClientEvent> batch = new ArrayList<>();
+    private final Set<String> batchIds = new HashSet<>();
+    private final Set<String> foreignManifestKeys = new HashSet<>();
+    private long scannedTo;
+    private final List<String> successClientEventIds = new ArrayList<>();
+    private final Map<String, String> errorClientEventIds = new HashMap<>();
+    private int committedEvents;
+    private int offeredEvents;
+    private final JfrSyncEvent jfr = new JfrSyncEvent();
+
+    IncrementalSync(EventStore eventStore, SystoleProcessor systole, SyncSequencer sequencer, String deviceId,
+                    long lastKnownServerEventId, int batchSize, int maxEventsPerResponse, long maxBytesPerResponse,
+                    SyncMetrics metrics, Snapshot snapshot, SubscriptionIndex subscriptions, List<String> manifestPrefixes) {
+        this.eventStore = eventStore;
+        this.systole = systole;
+        this.sequencer = sequencer;
+        this.deviceId = deviceId;
+        this.lastKnownServerEventId = lastKnownServerEventId;
+        this.batchSize = batchSize;
+        this.maxEventsPerResponse = maxEventsPerResponse;
+        this.maxBytesPerResponse = maxBytesPerResponse;
+        this.metrics = metrics;
+        this.snapshot = snapshot;
+        this.subscriptions = subscriptions;
+        this.manifestPrefixes = manifestPrefixes;
+        this.scannedTo = lastKnownServerEventId;
+        jfr.begin();
+    }
+
+    /**
+     * Add the next pending event; commits the current batch once it is full.
+     * Repeats of an event already in the open batch are ignored.
+     */
+    public void offer(ClientEvent event) {
+        offeredEvents++;
+        if (!batchIds.add(event.getClientEventId())) {
+            return;
+        }
+        batch.add(event);
+        if (batch.size() >= batchSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Commit what is left and return the response. Events come back exactly as from
+     * {@link SyncHandler#handleStreaming}, after the snapshot chosen when the sync began if any,
+     * or only those matching the device's manifest prefixes when it subscribed to some.
+     */
+    public StreamingSyncResponse finish() {
+        commit();
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = deviceId;
+            jfr.lastKnownServerEventId = lastKnownServerEventId;
+            jfr.lag = -1;
+            jfr.pendingEvents = offeredEvents;
+            jfr.acceptedEvents = successClientEventIds.size();
+            jfr.rejectedEvents = errorClientEventIds.size();
+            jfr.returnedEvents = -1;
+            jfr.payloadBytes = -1;
+            jfr.commit();
+        }
+        log.debug("Incremental sync for device {} finished: {} acked, {} rejected, {} appended",
+                deviceId, successClientEventIds.size(), errorClientEventIds.size(), committedEvents);
+        long afterId = snapshot == null ? lastKnownServerEventId : snapshot.getServerEventId();
+        StreamingSyncResponse response = new StreamingSyncResponse(successClientEventIds, errorClientEventIds, -1, eventStore,
+                afterId, maxEventsPerResponse, maxBytesPerResponse, metrics,
+                manifestPrefixes == null ? null : subscriptions.match(manifestPrefixes, afterId));
+        response.snapshot = snapshot;
+        return response;
+    }
+
+    /**
+     * Number of events acknowledged or rejected so far, not counting the open batch.
+     */
+    public int resolvedCount() {
+        return successClientEventIds.size() + errorClientEventIds.size();
+    }
+
+    /**
+     * Number of events offered and not yet committed.
+     */
+    public int openCount() {
+        return batch.size();
+    }
+
+    private void commit() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        scanForeign(0, -1);
+        List<ClientEvent> accepted = new ArrayList<>(batch.size());
+        int duplicates = 0;
+        for (ClientEvent event : batch) {
+            String clientEventId = event.getClientEventId();
+            if (eventStore.exists(deviceId, clientEventId)) {
+                successClientEventIds.add(clientEventId);
+                duplicates++;
+            } else if (overlapsForeignWrite(event)) {
+                errorClientEventIds.put(clientEventId, EventConflictResolver.OVERLAP);
+                metrics.conflictRejected(EventConflictResolver.OVERLAP);
+            } else {
+                accepted.add(event);
+            }
+        }
+        metrics.conflictResolution(System.nanoTime() - start);
+        if (duplicates > 0) {
+            metrics.duplicatesDropped(duplicates);
+        }
+        List<ServerEvent> appended;
+        if (sequencer != null && !accepted.isEmpty()) {
+            SyncSequencer.Result result = sequencer.submit(deviceId, accepted, scannedTo);
+            successClientEventIds.addAll(result.resolution.successClientEventIds);
+            errorClientEventIds.putAll(result.resolution.errorClientEventIds);
+            appended = result.appendedEvents;
+        } else {
+            for (ClientEvent event : accepted) {
+                successClientEventIds.add(event.getClientEventId());
+            }
+            appended = systole.process(deviceId, accepted);
+        }
+        committedEvents += appended.size();
+        if (!appended.isEmpty()) {
+            // Our own ids are a contiguous range; step over them while picking up anyone else's.
+            scanForeign(appended.get(0).getServerEventId(), appended.get(appended.size() - 1).getServerEventId());
+        }
+        batch.clear();
+        batchIds.clear();
+    }
+
+    private boolean overlapsForeignWrite(ClientEvent event) {
+        if (event.getPayloadManifest() == null) {
+            return false;
+        }
+        for (String key : event.getPayloadManifest()) {
+            if (foreignManifestKeys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collect manifest keys of events after {@link #scannedTo}, skipping ids in [ownFrom, ownTo].
+     */
+    private void scanForeign(long ownFrom, long ownTo) {
+        Iterator<ServerEvent> events = eventStore.iterateAfter(scannedTo);
+        while (events.hasNext()) {
+            ServerEvent event = events.next();
+            long id = event.getServerEventId();
+            if ((id < ownFrom || id > ownTo) && event.getPayloadManifest() != null) {
+                foreignManifestKeys.addAll(event.getPayloadManifest());
+            }
+            scannedTo = id;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.nagada.pulse.reference.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for reading one page of events a device has not seen, in {@link DiastoleProcessor}
+ * or while a {@link StreamingSyncResponse} is written. A streamed page does not know its
+ * device, and knows its lag only when it reached the head.
+ */
+@Name("com.nagada.pulse.Diastole")
+@Label("Diastole")
+@Category({"Nagada Pulse", "Sync"})
+@Description("Reading the events a device has not seen yet")
+@StackTrace(false)
+final class JfrDiastoleEvent extends Event {
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("After Id")
+    long afterId;
+
+    @Label("Lag")
+    @Description("Events after the device's offset, -1 if not counted")
+    long lag;
+
+    @Label("Returned Events")
+    int returnedEvents;
+
+    @Label("Returned Payload Bytes")
+    @DataAmount
+    long payloadBytes;
+
+    @Label("Has More")
+    boolean hasMore;
+}
@@ -0,0 +1,143 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link EventStore} that emits a {@link JfrStoreEvent} around every call to {@code delegate}.
+ * Without a recording that enables the event, the cost is one short-lived object per call.
+ * {@code iterateAfter} is recorded up to the iterator being returned. The events read through
+ * it show up in the {@link JfrDiastoleEvent} of the response that drains it.
+ */
+public class JfrEventStore implements EventStore {
+
+    private final EventStore delegate;
+    private final String store;
+
+    public JfrEventStore(EventStore delegate) {
+        this.delegate = delegate;
+        this.store = delegate.getClass().getSimpleName();
+    }
+
+    public EventStore getDelegate() {
+        return delegate;
+    }
+
+    private JfrStoreEvent begin(String operation, String deviceId) {
+        JfrStoreEvent event = new JfrStoreEvent();
+        event.begin();
+        event.operation = operation;
+        event.deviceId = deviceId;
+        return event;
+    }
+
+    private void commit(JfrStoreEvent event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.commit();
+        }
+    }
+
+    @Override
+    public ServerEvent append(String deviceId, ClientEvent clientEvent) {
+        JfrStoreEvent event = begin("append", deviceId);
+        ServerEvent appended = delegate.append(deviceId, clientEvent);
+        event.events = 1;
+        event.payloadBytes = clientEvent.getPayload() == null ? 0 : clientEvent.getPayload().length;
+        commit(event);
+        return appended;
+    }
+
+    @Override
+    public List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        JfrStoreEvent event = begin("appendAll", deviceId);
+        List<ServerEvent> appended = delegate.appendAll(deviceId, clientEvents);
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.events = appended.size();
+            event.payloadBytes = JfrStoreEvent.payloadBytes(appended);
+            event.commit();
+        }
+        return appended;
+    }
+
+    @Override
+    public List<ServerEvent> listAfter(long afterId) {
+        JfrStoreEvent event = begin("listAfter", null);
+        List<ServerEvent> events = delegate.listAfter(afterId);
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.serverEventId = afterId;
+            event.events = events.size();
+            event.payloadBytes = JfrStoreEvent.payloadBytes(events);
+            event.commit();
+        }
+        return events;
+    }
+
+    @Override
+    public Iterator<ServerEvent> iterateAfter(long afterId) {
+        JfrStoreEvent event = begin("iterateAfter", null);
+        Iterator<ServerEvent> events = delegate.iterateAfter(afterId);
+        event.serverEventId = afterId;
+        commit(event);
+        return events;
+    }
+
+    @Override
+    public ServerEvent get(long serverEventId) {
+        JfrStoreEvent event = begin("get", null);
+        ServerEvent found = delegate.get(serverEventId);
+        event.serverEventId = serverEventId;
+        event.events = found == null ? 0 : 1;
+        commit(event);
+        return found;
+    }
+
+    @Override
+    public boolean exists(String deviceId, String clientEventId) {
+        JfrStoreEvent event = begin("exists", deviceId);
+        boolean exists = delegate.exists(deviceId, clientEventId);
+        event.events = exists ? 1 : 0;
+        commit(event);
+        return exists;
+    }
+
+    @Override
+    public List<List<ServerEvent>> appendGroup(List<String> deviceIds, List<List<ClientEvent>> batches) {
+        JfrStoreEvent event = begin("appendGroup", null);
+        List<List<ServerEvent>> appended = delegate.appendGroup(deviceIds, batches);
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            for (List<ServerEvent> batch : appended) {
+                event.events += batch.size();
+                event.payloadBytes += JfrStoreEvent.payloadBytes(batch);
+            }
+            event.commit();
+        }
+        return appended;
+    }
+
+    @Override
+    public void flush() {
+        JfrStoreEvent event = begin("flush", null);
+        delegate.flush();
+        commit(event);
+    }
+
+    @Override
+    public void addHeadListener(HeadListener listener) {
+        delegate.addHeadListener(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+        delegate.removeHeadListener(listener);
+    }
+}
@@ -0,0 +1,50 @@
+package com.nagada.pulse.reference.server;
+
+/**
+ * {@link OffsetStore} that emits a {@link JfrStoreEvent} around every call to {@code delegate}.
+ */
+public class JfrOffsetStore implements OffsetStore {
+
+    private final OffsetStore delegate;
+    private final String store;
+
+    public JfrOffsetStore(OffsetStore delegate) {
+        this.delegate = delegate;
+        this.store = delegate.getClass().getSimpleName();
+    }
+
+    public OffsetStore getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public long get(String deviceId) {
+        JfrStoreEvent event = new JfrStoreEvent();
+        event.begin();
+        long offset = delegate.get(deviceId);
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.operation = "get";
+            event.deviceId = deviceId;
+            event.serverEventId = offset;
+            event.commit();
+        }
+        return offset;
+    }
+
+    @Override
+    public void update(String deviceId, long offset) {
+        JfrStoreEvent event = new JfrStoreEvent();
+        event.begin();
+        delegate.update(deviceId, offset);
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = store;
+            event.operation = "update";
+            event.deviceId = deviceId;
+            event.serverEventId = offset;
+            event.commit();
+        }
+    }
+}
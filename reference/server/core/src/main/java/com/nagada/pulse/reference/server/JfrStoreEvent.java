@@ -0,0 +1,53 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one {@link EventStore} or {@link OffsetStore} call, emitted by
+ * {@link JfrEventStore} and {@link JfrOffsetStore}. Fields that do not apply to the operation
+ * are left empty or -1.
+ */
+@Name("com.nagada.pulse.StoreOperation")
+@Label("Store Operation")
+@Category({"Nagada Pulse", "Store"})
+@Description("One event store or offset store call")
+@StackTrace(false)
+final class JfrStoreEvent extends Event {
+
+    @Label("Store")
+    String store;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Server Event Id")
+    @Description("afterId for reads, the offset for offset store calls")
+    long serverEventId = -1;
+
+    @Label("Events")
+    int events = -1;
+
+    @Label("Payload Bytes")
+    @DataAmount
+    long payloadBytes = -1;
+
+    static long payloadBytes(List<ServerEvent> events) {
+        long bytes = 0;
+        for (int i = 0; i < events.size(); i++) {
+            byte[] payload = events.get(i).getPayload();
+            bytes += payload == null ? 0 : payload.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,48 @@
+package com.nagada.pulse.reference.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one sync handled by {@link SyncHandler}, from the request to the response being
+ * ready. A streamed response reads its events later, under a {@link JfrDiastoleEvent}, so
+ * {@code returnedEvents}, {@code payloadBytes} and {@code lag} are -1 here. An {@link IncrementalSync} spans the whole upload.
+ */
+@Name("com.nagada.pulse.Sync")
+@Label("Sync")
+@Category({"Nagada Pulse", "Sync"})
+@Description("One sync request handled by SyncHandler")
+@StackTrace(false)
+final class JfrSyncEvent extends Event {
+
+    @Label("Device")
+    String deviceId;
+
+    @Label("Last Known Server Event Id")
+    long lastKnownServerEventId;
+
+    @Label("Lag")
+    @Description("Events between the device's offset and the head, -1 if not read")
+    long lag;
+
+    @Label("Pending Events")
+    int pendingEvents;
+
+    @Label("Accepted Events")
+    int acceptedEvents;
+
+    @Label("Rejected Events")
+    int rejectedEvents;
+
+    @Label("Returned Events")
+    int returnedEvents;
+
+    @Label("Returned Payload Bytes")
+    @DataAmount
+    long payloadBytes;
+}
@@ -0,0 +1,46 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for appending one device's accepted events, or one {@link SyncSequencer} group, in
+ * {@link SystoleProcessor}.
+ */
+@Name("com.nagada.pulse.Systole")
+@Label("Systole")
+@Category({"Nagada Pulse", "Sync"})
+@Description("Appending one device's accepted events, or one sequencer group")
+@StackTrace(false)
+final class JfrSystoleEvent extends Event {
+
+    /** Null for a group of several devices. */
+    @Label("Device")
+    String deviceId;
+
+    @Label("Pending Events")
+    int pendingEvents;
+
+    @Label("Appended Events")
+    int appendedEvents;
+
+    @Label("Pending Payload Bytes")
+    @DataAmount
+    long payloadBytes;
+
+    static long payloadBytes(List<ClientEvent> events) {
+        long bytes = 0;
+        for (int i = 0; i < events.size(); i++) {
+            byte[] payload = events.get(i).getPayload();
+            bytes += payload == null ? 0 : payload.length;
+        }
+        return bytes;
+    }
+}
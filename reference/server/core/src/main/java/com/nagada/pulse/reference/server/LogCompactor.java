@@ -0,0 +1,108 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Key-based compaction of the sealed segments of a {@link SegmentedFileEventStore}.
+ * <p>
+ * An event is kept while it is the latest write to at least one of its manifest keys, or when
+ * it has no manifest at all; an event whose every key was written again later is removed.
+ * Surviving events keep their serverEventIds and order, so a device catching up receives the
+ * same final value for every key, and fewer events to get there.
+ * <p>
+ * Conflict checks are unaffected: a removed event is always followed by a later write to each
+ * of its keys, which every device that had not seen the removed event has not seen either.
+ * <p>
+ * The serverEventId of the latest write to each key is followed incrementally from the log,
+ * so each pass reads only the events appended since the previous one before rewriting.
+ */
+@Slf4j
+public class LogCompactor implements AutoCloseable {
+
+    private final SegmentedFileEventStore store;
+    private final Map<String, Long> latestWriteByKey = new HashMap<>();
+    private long scannedTo;
+    private ScheduledExecutorService scheduler;
+
+    public LogCompactor(SegmentedFileEventStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Run {@link #compact} every {@code intervalMillis} on a background thread.
+     */
+    public LogCompactor(SegmentedFileEventStore store, long intervalMillis) {
+        this(store);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nagada-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                log.warn("Log compaction failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One compaction pass over every sealed segment.
+     *
+     * @return number of events removed
+     */
+    public synchronized int compact() {
+        Iterator<ServerEvent> events = store.iterateAfter(scannedTo);
+        while (events.hasNext()) {
+            ServerEvent event = events.next();
+            if (event.getPayloadManifest() != null) {
+                for (String key : event.getPayloadManifest()) {
+                    latestWriteByKey.put(key, event.getServerEventId());
+                }
+            }
+            scannedTo = event.getServerEventId();
+        }
+        try {
+            int removed = store.compactSealedSegments(this::isLatestWrite);
+            if (removed > 0) {
+                log.info("Log compaction removed {} superseded events ({} manifest keys)", removed, latestWriteByKey.size());
+            }
+            return removed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Log compaction failed", e);
+        }
+    }
+
+    private boolean isLatestWrite(ServerEvent event) {
+        List<String> manifest = event.getPayloadManifest();
+        // A segment sealed after this pass read the log may hold events it has not indexed yet.
+        if (manifest == null || manifest.isEmpty() || event.getServerEventId() > scannedTo) {
+            return true;
+        }
+        for (String key : manifest) {
+            Long latest = latestWriteByKey.get(key);
+            if (latest == null || latest == event.getServerEventId()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
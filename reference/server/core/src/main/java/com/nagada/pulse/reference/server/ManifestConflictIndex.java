@@ -0,0 +1,268 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index from payload manifest key to the recent events that wrote it, so conflict detection
+ * costs a lookup per pending manifest key instead of a pass over the client's whole delta.
+ * <p>
+ * The index follows the log itself: each check first indexes whatever was appended since the
+ * previous one, so callers never list a delta for it. Only the writers among the last
+ * {@code window} events with a manifest are kept in full. Keys are bounded where events are not,
+ * so each key also keeps a summary of its writers that left the window, and a client whose
+ * lastKnownServerEventId is older than the window is answered from it without reading the store.
+ * That answer is conservative: an older unseen writer may be reported as a conflict the full
+ * delta would have let through, never the other way round. The index is rebuilt when the head
+ * moves backwards (a store reset).
+ * <p>
+ * Share one instance between everything that checks conflicts against the same store.
+ */
+@Slf4j
+public class ManifestConflictIndex implements HeadListener {
+
+    public static final int DEFAULT_WINDOW = 100_000;
+
+    /**
+     * serverEventId and manifest of an indexed event, kept to drop it again once it leaves the
+     * window.
+     */
+    private static final class Indexed {
+        final long serverEventId;
+        final List<String> manifest;
+
+        Indexed(long serverEventId, List<String> manifest) {
+            this.serverEventId = serverEventId;
+            this.manifest = manifest;
+        }
+    }
+
+    private final EventStore eventStore;
+    private final int window;
+    private final Map<String, Writers> writersByKey = new HashMap<>();
+    private final ArrayDeque<Indexed> indexed = new ArrayDeque<>();
+    /** Lowest lastKnownServerEventId the window answers for exactly. */
+    private long coveredFrom;
+    /** serverEventId of the newest indexed event. */
+    private volatile long indexedUpTo;
+    private volatile boolean reset;
+
+    public ManifestConflictIndex(EventStore eventStore) {
+        this(eventStore, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of most recent events with a manifest to keep
+     */
+    public ManifestConflictIndex(EventStore eventStore, int window) {
+        this.eventStore = eventStore;
+        this.window = window;
+        eventStore.addHeadListener(this);
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        if (headServerEventId < indexedUpTo) {
+            reset = true;
+        }
+    }
+
+    /**
+     * Same contract as {@link EventConflictResolver#resolveConflicts}, against every event in the
+     * store after {@code lastKnownServerEventId}.
+     */
+    public synchronized EventConflictResolver.ConflictResolutionResult resolveConflicts(
+            List<ClientEvent> pendingEvents, long lastKnownServerEventId, boolean newerWins) {
+        if (pendingEvents == null) {
+            return new EventConflictResolver.ConflictResolutionResult(new ArrayList<>(), new HashMap<>());
+        }
+        catchUp();
+        if (lastKnownServerEventId < coveredFrom) {
+            log.debug("Offset {} is before the indexed window ({}, {}]; answering from the writers that left it",
+                    lastKnownServerEventId, coveredFrom, indexedUpTo);
+        }
+
+        Set<String> pendingIds = new HashSet<>();
+        for (ClientEvent pendingEvent : pendingEvents) {
+            pendingIds.add(pendingEvent.getClientEventId());
+        }
+        List<String> successClientEventIds = new ArrayList<>();
+        Map<String, String> errorClientEventIds = new HashMap<>();
+        for (ClientEvent pendingEvent : pendingEvents) {
+            boolean isConflict = false;
+            if (pendingEvent.getPayloadManifest() != null) {
+                for (String manifest : pendingEvent.getPayloadManifest()) {
+                    if (conflicts(manifest, pendingEvent, pendingIds, lastKnownServerEventId, newerWins)) {
+                        errorClientEventIds.put(pendingEvent.getClientEventId(), newerWins
+                                ? EventConflictResolver.NEWER_WINS
+                                : EventConflictResolver.OVERLAP);
+                        isConflict = true;
+                        break;
+                    }
+                }
+            }
+            if (!isConflict) {
+                successClientEventIds.add(pendingEvent.getClientEventId());
+            }
+        }
+        return new EventConflictResolver.ConflictResolutionResult(successClientEventIds, errorClientEventIds);
+    }
+
+    /**
+     * Whether an unseen writer of {@code manifest}, other than the pending events being retried,
+     * conflicts with {@code pendingEvent}. Usually decided by the first writer looked at.
+     */
+    private boolean conflicts(String manifest, ClientEvent pendingEvent, Set<String> pendingIds,
+                              long lastKnownServerEventId, boolean newerWins) {
+        Writers writers = writersByKey.get(manifest);
+        if (writers == null) {
+            return false;
+        }
+        for (int i = writers.firstAfter(lastKnownServerEventId); i < writers.size; i++) {
+            if (pendingIds.contains(writers.origins[i])) {
+                continue;
+            }
+            if (!newerWins || pendingEvent.getCreatedAt() <= writers.createdAts[i]) {
+                return true;
+            }
+        }
+        if (writers.droppedId <= lastKnownServerEventId) {
+            return false;
+        }
+        // Unseen writers left the window; all that is known is the newest one.
+        boolean onlyRetried = pendingIds.contains(writers.droppedOrigin) && writers.droppedBeforeId <= lastKnownServerEventId;
+        return !onlyRetried && (!newerWins || pendingEvent.getCreatedAt() <= writers.droppedMaxCreatedAt);
+    }
+
+    /**
+     * Index the events appended since the last check, then drop those that left the window.
+     */
+    private void catchUp() {
+        if (reset) {
+            log.debug("Store was reset; rebuilding manifest index");
+            clear();
+        }
+        Iterator<ServerEvent> events = eventStore.iterateAfter(indexedUpTo);
+        long head = indexedUpTo;
+        while (events.hasNext()) {
+            ServerEvent event = events.next();
+            List<String> manifest = event.getPayloadManifest();
+            if (manifest != null && !manifest.isEmpty()) {
+                for (String key : manifest) {
+                    writersByKey.computeIfAbsent(key, k -> new Writers()).add(event);
+                }
+                indexed.addLast(new Indexed(event.getServerEventId(), manifest));
+            }
+            head = event.getServerEventId();
+        }
+        indexedUpTo = head;
+        while (indexed.size() > window) {
+            Indexed oldest = indexed.removeFirst();
+            for (String key : oldest.manifest) {
+                Writers writers = writersByKey.get(key);
+                if (writers != null) {
+                    writers.dropUpTo(oldest.serverEventId);
+                }
+            }
+            coveredFrom = oldest.serverEventId;
+        }
+        log.trace("Indexed manifests up to serverEventId: {} ({} keys)", head, writersByKey.size());
+    }
+
+    /**
+     * Number of manifest keys tracked, in or behind the window.
+     */
+    public synchronized int size() {
+        return writersByKey.size();
+    }
+
+    public synchronized void clear() {
+        writersByKey.clear();
+        indexed.clear();
+        coveredFrom = 0;
+        indexedUpTo = 0;
+        reset = false;
+    }
+
+    /**
+     * Writers of one key inside the window, ascending serverEventId, and a summary of those that
+     * left it.
+     */
+    private static final class Writers {
+        long[] ids = new long[1];
+        long[] createdAts = new long[1];
+        String[] origins = new String[1];
+        /** Index of the oldest writer still in the window. */
+        int from;
+        int size;
+        /** serverEventId of the newest writer that left the window, or 0. */
+        long droppedId;
+        /** serverEventId of the writer that left the window before it, or 0. */
+        long droppedBeforeId;
+        String droppedOrigin;
+        long droppedMaxCreatedAt = Long.MIN_VALUE;
+
+        void add(ServerEvent event) {
+            if (size > from && ids[size - 1] == event.getServerEventId()) {
+                return;
+            }
+            if (size == ids.length) {
+                int kept = size - from;
+                int capacity = kept * 2 > ids.length ? ids.length * 2 : ids.length;
+                ids = Arrays.copyOfRange(ids, from, from + capacity);
+                createdAts = Arrays.copyOfRange(createdAts, from, from + capacity);
+                origins = Arrays.copyOfRange(origins, from, from + capacity);
+                from = 0;
+                size = kept;
+            }
+            ids[size] = event.getServerEventId();
+            createdAts[size] = event.getCreatedAt();
+            origins[size] = event.getOriginClientEventId();
+            size++;
+        }
+
+        /**
+         * Move writers up to {@code serverEventId} into the summary.
+         */
+        void dropUpTo(long serverEventId) {
+            while (from < size && ids[from] <= serverEventId) {
+                droppedBeforeId = droppedId;
+                droppedId = ids[from];
+                droppedOrigin = origins[from];
+                droppedMaxCreatedAt = Math.max(droppedMaxCreatedAt, createdAts[from]);
+                origins[from++] = null;
+            }
+            if (from == size && ids.length > 1) {
+                ids = new long[1];
+                createdAts = new long[1];
+                origins = new String[1];
+                from = 0;
+                size = 0;
+            }
+        }
+
+        int firstAfter(long afterId) {
+            int low = from;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] > afterId) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+}
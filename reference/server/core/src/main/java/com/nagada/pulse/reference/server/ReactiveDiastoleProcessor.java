@@ -1,28 +1,54 @@
 package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ServerEvent;
+import java.util.concurrent.atomic.AtomicLong;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import java.util.List;
 
 /**
  * Reactive Diastole (downstroke) processor: fetches new server events since last known offset.
+ * Only the events of the page are read from the store.
  */
 public class ReactiveDiastoleProcessor {
 
     private final ReactiveEventStore eventStore;
     private final ReactiveOffsetStore offsetStore;
+    private final int maxEvents;
+    private final long maxBytes;
 
     public ReactiveDiastoleProcessor(ReactiveEventStore eventStore, ReactiveOffsetStore offsetStore) {
+        this(eventStore, offsetStore, 0, 0);
+    }
+
+    public ReactiveDiastoleProcessor(ReactiveEventStore eventStore, ReactiveOffsetStore offsetStore, int maxEvents, long maxBytes) {
         this.eventStore = eventStore;
         this.offsetStore = offsetStore;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
     }
 
     /**
-     * Process diastole: fetch new events since the given offset, update stored offset.
+     * Process diastole: fetch the next page of events since the given offset, update stored offset.
      */
-    public Mono<List<ServerEvent>> process(String deviceId, long lastKnownServerEventId) {
+    public Mono<DiastolePage> process(String deviceId, long lastKnownServerEventId) {
         return offsetStore.update(deviceId, lastKnownServerEventId)
-            .thenMany(eventStore.listAfter(lastKnownServerEventId))
-            .collectList();
+            .thenMany(page(eventStore.listAfter(lastKnownServerEventId)))
+            .collectList()
+            .map(newEvents -> DiastolePage.of(newEvents.iterator(), lastKnownServerEventId, maxEvents, maxBytes));
+    }
+
+    /**
+     * Cancel the read once the limits are passed, keeping one event past the page so
+     * {@link DiastolePage#of} can tell whether more remain.
+     */
+    private Flux<ServerEvent> page(Flux<ServerEvent> delta) {
+        Flux<ServerEvent> limited = maxEvents > 0 ? delta.take(maxEvents + 1L) : delta;
+        if (maxBytes <= 0) {
+            return limited;
+        }
+        return Flux.defer(() -> {
+            AtomicLong bytes = new AtomicLong();
+            return limited.takeUntil(event -> bytes.addAndGet(event.getPayload() == null ? 0 : event.getPayload().length) > maxBytes);
+        });
     }
 }
\ No newline at end of file
@@ -4,15 +4,48 @@ import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Reactive interface for persisting and querying server events.
  */
 public interface ReactiveEventStore {
     Mono<ServerEvent> append(String deviceId, ClientEvent clientEvent);
+
+    /**
+     * Append a batch from one device in a single operation, skipping events the device already
+     * stored and repeats within the batch. Emits the newly stored events in serverEventId order.
+     */
+    Flux<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents);
     Flux<ServerEvent> listAfter(long afterId);
     Mono<Boolean> exists(String deviceId, String clientEventId);
     Mono<Long> getEarliestServerEventId();
     Mono<Long> getLatestServerEventId();
 
+    /**
+     * Emits the current head serverEventId on subscribe, then every later head as events
+     * are appended. Heads may be coalesced; only the latest one matters.
+     */
+    default Flux<Long> headUpdates() {
+        return Flux.error(new UnsupportedOperationException(getClass().getSimpleName() + " does not publish head updates"));
+    }
+
+    /**
+     * Live tail of the log: every event after {@code afterId}, then each new event as it is
+     * appended, without end. Each head update triggers one {@link #listAfter} from the last
+     * event emitted, on the parallel scheduler so appenders are never made to do the reads.
+     */
+    default Flux<ServerEvent> tailAfter(long afterId) {
+        return Flux.defer(() -> {
+            AtomicLong cursor = new AtomicLong(afterId);
+            return headUpdates()
+                    .onBackpressureLatest()
+                    .publishOn(Schedulers.parallel(), 1)
+                    .concatMap(head -> head <= cursor.get()
+                            ? Flux.<ServerEvent>empty()
+                            : listAfter(cursor.get()).doOnNext(event -> cursor.set(event.getServerEventId())), 1);
+        });
+    }
 }
\ No newline at end of file
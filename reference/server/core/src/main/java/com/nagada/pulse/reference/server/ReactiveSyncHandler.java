@@ -1,6 +1,7 @@
 package com.nagada.pulse.reference.server;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -18,12 +19,18 @@ import reactor.core.publisher.Mono;
  */
 public class ReactiveSyncHandler {
 
+    private final ReactiveEventStore eventStore;
     private final ReactiveSystoleProcessor systole;
     private final ReactiveDiastoleProcessor diastole;
 
     public ReactiveSyncHandler(ReactiveEventStore eventStore, ReactiveOffsetStore offsetStore) {
+        this(eventStore, offsetStore, 0, 0);
+    }
+
+    public ReactiveSyncHandler(ReactiveEventStore eventStore, ReactiveOffsetStore offsetStore, int maxEventsPerResponse, long maxBytesPerResponse) {
+        this.eventStore = eventStore;
         this.systole = new ReactiveSystoleProcessor(eventStore, offsetStore);
-        this.diastole = new ReactiveDiastoleProcessor(eventStore, offsetStore);
+        this.diastole = new ReactiveDiastoleProcessor(eventStore, offsetStore, maxEventsPerResponse, maxBytesPerResponse);
     }
 
     /**
@@ -32,10 +39,13 @@ public class ReactiveSyncHandler {
     public Mono<SyncResponse> handle(SyncRequest request) {
         // Diastole first to fetch new events
         return diastole.process(request.getDeviceId(), request.getLastKnownServerEventId())
-            .flatMap(newEvents -> {
-                // Now, resolve conflicts before saving
+            .zipWith(unseenWriters(request))
+            .flatMap(pageAndWriters -> {
+                DiastolePage page = pageAndWriters.getT1();
+                List<ServerEvent> newEvents = page.events;
+                // Now, resolve conflicts before saving, against the whole delta rather than just this page
                 EventConflictResolver.ConflictResolutionResult resolutionResult =
-                    EventConflictResolver.resolveConflicts(request.getPendingEvents(), newEvents, false);
+                    EventConflictResolver.resolveConflicts(request.getPendingEvents(), pageAndWriters.getT2(), false);
 
                 // Filter for successful events to be persisted
                 List<ClientEvent> successfulClientEvents = request.getPendingEvents() == null ? new ArrayList<>() : request.getPendingEvents().stream()
@@ -45,19 +55,49 @@ public class ReactiveSyncHandler {
                 // Systole: process only the successful (non-conflicting) pending events
                 return systole.process(request.getDeviceId(), successfulClientEvents)
                     .map(appendedEvents -> {
-                        // Combine appended events and new events, ensuring uniqueness and preserving order
-                        Set<ServerEvent> uniqueEvents = new LinkedHashSet<>(appendedEvents);
+                        // Combine appended events and new events, ensuring uniqueness and preserving order.
+                        // While the client is still paging, its appended events arrive with a later page.
+                        Set<ServerEvent> uniqueEvents = new LinkedHashSet<>(page.hasMore ? List.of() : appendedEvents);
                         uniqueEvents.addAll(newEvents);
                         List<ServerEvent> newServerEvents = new ArrayList<>(uniqueEvents);
+                        long nextCursor = page.nextCursor;
+                        for (ServerEvent event : newServerEvents) {
+                            nextCursor = Math.max(nextCursor, event.getServerEventId());
+                        }
 
                         return new SyncResponse(
                                 resolutionResult.successClientEventIds,
                                 newServerEvents,
                                 15000,
-                                resolutionResult.errorClientEventIds
+                                resolutionResult.errorClientEventIds,
+                                page.hasMore,
+                                nextCursor
                         );
                     });
             });
         }
+
+    /**
+     * The unseen events that write a manifest key of a pending event. Conflicts depend on no
+     * others, so the delta is streamed past and only these are kept.
+     */
+    private Mono<List<ServerEvent>> unseenWriters(SyncRequest request) {
+        List<ClientEvent> pending = request.getPendingEvents();
+        if (pending == null || pending.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        Set<String> keys = new HashSet<>();
+        for (ClientEvent clientEvent : pending) {
+            if (clientEvent.getPayloadManifest() != null) {
+                keys.addAll(clientEvent.getPayloadManifest());
+            }
+        }
+        if (keys.isEmpty()) {
+            return Mono.just(List.of());
+        }
+        return eventStore.listAfter(request.getLastKnownServerEventId())
+            .filter(event -> event.getPayloadManifest() != null && event.getPayloadManifest().stream().anyMatch(keys::contains))
+            .collectList();
     }
+}
     
\ No newline at end of file
@@ -2,7 +2,6 @@ package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import java.util.Collections;
 import java.util.List;
@@ -21,28 +20,17 @@ public class ReactiveSystoleProcessor {
     }
 
     /**
-     * Process incoming client events: append new ones, return list of appended server events.
+     * Process incoming client events: append new ones in one batch, return list of appended server events.
      */
     public Mono<List<ServerEvent>> process(String deviceId, List<ClientEvent> pendingEvents) {
         if (pendingEvents == null || pendingEvents.isEmpty()) {
             return Mono.just(Collections.emptyList());
         }
 
-        return Flux.fromIterable(pendingEvents)
-            .concatMap(clientEvent ->
-                eventStore.exists(deviceId, clientEvent.getClientEventId())
-                    .flatMap(exists -> {
-                        if (!exists) {
-                            return eventStore.append(deviceId, clientEvent)
-                                .flatMap(storedEvent ->
-                                    offsetStore.update(deviceId, storedEvent.getServerEventId())
-                                        .thenReturn(storedEvent)
-                                );
-                        } else {
-                            return Mono.empty();
-                        }
-                    })
-            )
-            .collectList();
+        return eventStore.appendAll(deviceId, pendingEvents)
+            .collectList()
+            .flatMap(appended -> appended.isEmpty()
+                ? Mono.just(appended)
+                : offsetStore.update(deviceId, appended.get(appended.size() - 1).getServerEventId()).thenReturn(appended));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package com.nagada.pulse.reference.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloom filter that starts small and adds a filter of twice the capacity whenever the current
+ * one is full, so a quiet device costs a few dozen bytes while a busy one keeps a ~1% false
+ * positive rate per stage. Not thread-safe; callers synchronize.
+ */
+class ScalableBloomFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final List<Stage> stages = new ArrayList<>(2);
+
+    ScalableBloomFilter(int initialCapacity) {
+        stages.add(new Stage(Math.max(1, initialCapacity)));
+    }
+
+    void add(String value) {
+        long hash = hash(value);
+        Stage current = stages.get(stages.size() - 1);
+        if (current.count >= current.capacity) {
+            current = new Stage(current.capacity * 2);
+            stages.add(current);
+        }
+        current.add(hash);
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        Stage first = stages.get(0);
+        stages.clear();
+        stages.add(new Stage(first.capacity));
+    }
+
+    /**
+     * Heap used by the bit arrays.
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (Stage stage : stages) {
+            bytes += 16L + stage.bits.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with a murmur3 mix.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Stage {
+        final int capacity;
+        final int hashes;
+        final long[] bits;
+        final int bitCount;
+        int count;
+
+        Stage(int capacity) {
+            this.capacity = capacity;
+            double ln2 = Math.log(2);
+            int m = (int) Math.ceil(-capacity * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+            this.bits = new long[(m + 63) >>> 6];
+            this.bitCount = bits.length << 6;
+            this.hashes = Math.max(1, (int) Math.round((double) m / capacity * ln2));
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+            count++;
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashes; i++) {
+                int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
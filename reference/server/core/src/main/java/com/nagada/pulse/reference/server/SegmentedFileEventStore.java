@@ -0,0 +1,683 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durable EventStore backed by fixed-size, append-only segment files.
+ * <p>
+ * Each segment is named after the first serverEventId it holds and is memory-mapped in full.
+ * Records are framed as {@code int length, int crc32, body} (see {@link EventRecordCodec});
+ * a zero length marks the end of written data. Every segment keeps a sparse
+ * serverEventId → file position index with one entry per {@code indexInterval} records, so
+ * {@code listAfter} seeks to the nearest indexed record and decodes sequentially from there.
+ * <p>
+ * Appends are serialized; readers see a record once the segment's write position has been
+ * published and never take the append lock. On open, segments are scanned to rebuild the
+ * sparse index, the idempotency index and the next id; a torn or corrupt tail is ignored.
+ * Idempotency lookups the bounded {@link IdempotencyIndex} cannot settle scan the segments.
+ * <p>
+ * Sealed segments, every one but the active segment, can be rewritten without some of their
+ * events by {@link #compactSealedSegments}. The origin of each removed event is kept in a
+ * {@code .origins} file next to the segment, so a retried upload is still recognized.
+ * Reads skip the missing ids without noticing.
+ */
+@Slf4j
+public class SegmentedFileEventStore implements EventStore, Closeable {
+
+    static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    static final int DEFAULT_INDEX_INTERVAL = 64;
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String ORIGINS_SUFFIX = ".origins";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final int ITERATE_BATCH = 256;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int indexInterval;
+    private final Object appendLock = new Object();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final IdempotencyIndex seenClientEvents = new IdempotencyIndex(this::scanForOrigin, this::forEachOrigin);
+    private final HeadNotifier headNotifier = new HeadNotifier();
+    private volatile Segment active;
+    private long nextId = 1;
+
+    public SegmentedFileEventStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_INTERVAL);
+    }
+
+    public SegmentedFileEventStore(Path directory, int segmentBytes, int indexInterval) throws IOException {
+        if (indexInterval < 1) {
+            throw new IllegalArgumentException("indexInterval must be positive");
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public ServerEvent append(String deviceId, ClientEvent clientEvent) {
+        synchronized (appendLock) {
+            long id = nextId;
+            log.debug("Appending event from device: {} with clientEventId: {} as serverEventId: {}", deviceId, clientEvent.getClientEventId(), id);
+            ServerEvent event = toServerEvent(id, deviceId, clientEvent);
+            write(List.of(event), List.of(encode(event)));
+            markSeen(deviceId, clientEvent.getClientEventId());
+            headNotifier.publish(id);
+            return event;
+        }
+    }
+
+    /**
+     * Dedups and encodes the whole batch before writing any of it, so an oversized event
+     * rejects the batch without leaving a partial write behind.
+     */
+    @Override
+    public List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        seenClientEvents.prepare(deviceId, clientEvents);
+        synchronized (appendLock) {
+            List<ServerEvent> appended = appendLocked(deviceId, clientEvents);
+            if (!appended.isEmpty()) {
+                headNotifier.publish(nextId - 1);
+            }
+            return appended;
+        }
+    }
+
+    /**
+     * Writes every batch, forces the active segment once and only then publishes the head, so
+     * readers never see a group that is not on the storage device yet.
+     */
+    @Override
+    public List<List<ServerEvent>> appendGroup(List<String> deviceIds, List<List<ClientEvent>> batches) {
+        for (int i = 0; i < batches.size(); i++) {
+            seenClientEvents.prepare(deviceIds.get(i), batches.get(i));
+        }
+        synchronized (appendLock) {
+            long head = nextId - 1;
+            List<List<ServerEvent>> appended = new ArrayList<>(batches.size());
+            for (int i = 0; i < batches.size(); i++) {
+                appended.add(appendLocked(deviceIds.get(i), batches.get(i)));
+            }
+            if (nextId - 1 > head) {
+                flush();
+                headNotifier.publish(nextId - 1);
+            }
+            return appended;
+        }
+    }
+
+    private List<ServerEvent> appendLocked(String deviceId, List<ClientEvent> clientEvents) {
+        Set<String> batchIds = new HashSet<>();
+        List<ServerEvent> appended = new ArrayList<>(clientEvents.size());
+        List<byte[]> bodies = new ArrayList<>(clientEvents.size());
+        long id = nextId;
+        for (ClientEvent clientEvent : clientEvents) {
+            String clientEventId = clientEvent.getClientEventId();
+            if (seenClientEvents.exists(deviceId, clientEventId) || !batchIds.add(clientEventId)) {
+                log.trace("Ignoring duplicate event {} from device {}", clientEventId, deviceId);
+                continue;
+            }
+            ServerEvent event = toServerEvent(id++, deviceId, clientEvent);
+            appended.add(event);
+            bodies.add(encode(event));
+        }
+        if (!appended.isEmpty()) {
+            log.debug("Appending {} events from device: {} as serverEventIds {}..{}", appended.size(), deviceId, nextId, id - 1);
+            write(appended, bodies);
+            for (ServerEvent event : appended) {
+                markSeen(deviceId, event.getOriginClientEventId());
+            }
+        }
+        return appended;
+    }
+
+    private static ServerEvent toServerEvent(long id, String deviceId, ClientEvent clientEvent) {
+        return new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(), clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
+    }
+
+    private byte[] encode(ServerEvent event) {
+        byte[] body = EventRecordCodec.encode(event);
+        if (HEADER_BYTES + body.length + 4 > segmentBytes) {
+            throw new IllegalArgumentException("Event " + event.getOriginClientEventId() + " of " + body.length
+                    + " bytes does not fit in a segment of " + segmentBytes + " bytes");
+        }
+        return body;
+    }
+
+    private void write(List<ServerEvent> batch, List<byte[]> bodies) {
+        for (int i = 0; i < batch.size(); i++) {
+            long id = batch.get(i).getServerEventId();
+            byte[] body = bodies.get(i);
+            try {
+                if (!active.hasRoomFor(body.length)) {
+                    roll(id);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to roll segment at serverEventId " + id, e);
+            }
+            active.write(id, body);
+            nextId = id + 1;
+        }
+    }
+
+    private void markSeen(String deviceId, String clientEventId) {
+        seenClientEvents.record(deviceId, clientEventId);
+    }
+
+    /**
+     * Exact, newest-segment-first search for a stored event; only reached when the index misses.
+     */
+    private boolean scanForOrigin(String deviceId, String clientEventId) {
+        List<ServerEvent> records = new ArrayList<>();
+        for (Segment segment : segments.descendingMap().values()) {
+            records.clear();
+            segment.readAfter(segment.baseId - 1, records);
+            for (ServerEvent event : records) {
+                if (clientEventId.equals(event.getOriginClientEventId()) && deviceId.equals(event.getOriginClientDeviceId())) {
+                    return true;
+                }
+            }
+            if (segment.compactedOrigins.contains(originKey(deviceId, clientEventId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every clientEventId stored for the device, including those only kept as compacted origins.
+     */
+    private void forEachOrigin(String deviceId, Consumer<String> clientEventIds) {
+        List<ServerEvent> records = new ArrayList<>();
+        String prefix = originKey(deviceId, "");
+        for (Segment segment : segments.values()) {
+            records.clear();
+            segment.readAfter(segment.baseId - 1, records);
+            for (ServerEvent event : records) {
+                if (deviceId.equals(event.getOriginClientDeviceId())) {
+                    clientEventIds.accept(event.getOriginClientEventId());
+                }
+            }
+            for (String origin : segment.compactedOrigins) {
+                if (origin.startsWith(prefix)) {
+                    clientEventIds.accept(origin.substring(prefix.length()));
+                }
+            }
+        }
+    }
+
+    private static String originKey(String deviceId, String clientEventId) {
+        return deviceId + '\u0000' + clientEventId;
+    }
+
+    /**
+     * Rewrite each sealed segment with only the events {@code keep} accepts, in the same order.
+     * A segment is replaced by an atomic rename, so readers see either the old file or the new
+     * one. Readers already walking the old segment finish on its mapping. Removed events keep
+     * answering {@link #exists}. Not safe to call concurrently with itself.
+     *
+     * @return number of events removed
+     */
+    public int compactSealedSegments(Predicate<ServerEvent> keep) throws IOException {
+        int removed = 0;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active) {
+                continue;
+            }
+            List<ServerEvent> records = new ArrayList<>();
+            segment.readAfter(segment.baseId - 1, records);
+            List<ServerEvent> kept = new ArrayList<>(records.size());
+            List<ServerEvent> dropped = new ArrayList<>();
+            for (ServerEvent event : records) {
+                (keep.test(event) ? kept : dropped).add(event);
+            }
+            if (!dropped.isEmpty()) {
+                replace(segment, kept, dropped);
+                removed += dropped.size();
+            }
+        }
+        return removed;
+    }
+
+    private void replace(Segment segment, List<ServerEvent> kept, List<ServerEvent> dropped) throws IOException {
+        Set<String> origins = new HashSet<>(segment.compactedOrigins);
+        for (ServerEvent event : dropped) {
+            origins.add(originKey(event.getOriginClientDeviceId(), event.getOriginClientEventId()));
+        }
+        // Origins first: if we stop between the two renames they only repeat what the segment holds.
+        Path originsPath = originsPath(segment.baseId);
+        Path originsTemp = directory.resolve(originsPath.getFileName() + COMPACTING_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(originsTemp))) {
+            out.writeInt(origins.size());
+            for (String origin : origins) {
+                out.writeUTF(origin);
+            }
+        }
+        Files.move(originsTemp, originsPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        List<byte[]> bodies = new ArrayList<>(kept.size());
+        int size = 4;
+        for (ServerEvent event : kept) {
+            byte[] body = EventRecordCodec.encode(event);
+            bodies.add(body);
+            size += HEADER_BYTES + body.length;
+        }
+        Path segmentPath = segmentPath(segment.baseId);
+        Path segmentTemp = directory.resolve(segmentPath.getFileName() + COMPACTING_SUFFIX);
+        Segment compacted = Segment.open(segmentTemp, segment.baseId, size, indexInterval);
+        for (int i = 0; i < kept.size(); i++) {
+            compacted.write(kept.get(i).getServerEventId(), bodies.get(i));
+        }
+        compacted.buffer.putInt(compacted.writePosition, 0);
+        compacted.buffer.force();
+        compacted.compactedOrigins = origins;
+        Files.move(segmentTemp, segmentPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (appendLock) {
+            segments.put(segment.baseId, compacted);
+        }
+        segment.channel.close();
+        log.info("Compacted segment {}: kept {} events, removed {}", segment.baseId, kept.size(), dropped.size());
+    }
+
+    @Override
+    public List<ServerEvent> listAfter(long afterId) {
+        log.debug("Listing events after serverEventId: {}", afterId);
+        List<ServerEvent> result = new ArrayList<>();
+        Long startKey = segments.floorKey(afterId + 1);
+        NavigableMap<Long, Segment> tail = startKey == null ? segments : segments.tailMap(startKey, true);
+        for (Segment segment : tail.values()) {
+            segment.readAfter(afterId, result);
+        }
+        log.debug("Found {} events after serverEventId: {}", result.size(), afterId);
+        return result;
+    }
+
+    /**
+     * Decodes {@value #ITERATE_BATCH} records at a time, up to the head at the time of the call.
+     */
+    @Override
+    public Iterator<ServerEvent> iterateAfter(long afterId) {
+        long head = getLatestServerEventId();
+        return new Iterator<ServerEvent>() {
+            private final List<ServerEvent> batch = new ArrayList<>(ITERATE_BATCH);
+            private int next;
+            private long cursor = afterId;
+
+            @Override
+            public boolean hasNext() {
+                if (next < batch.size()) {
+                    return true;
+                }
+                batch.clear();
+                next = 0;
+                if (cursor >= head) {
+                    return false;
+                }
+                Long startKey = segments.floorKey(cursor + 1);
+                NavigableMap<Long, Segment> tail = startKey == null ? segments : segments.tailMap(startKey, true);
+                for (Segment segment : tail.values()) {
+                    segment.readAfter(cursor, batch, ITERATE_BATCH - batch.size());
+                    if (batch.size() >= ITERATE_BATCH) {
+                        break;
+                    }
+                }
+                while (!batch.isEmpty() && batch.get(batch.size() - 1).getServerEventId() > head) {
+                    batch.remove(batch.size() - 1);
+                }
+                if (batch.isEmpty()) {
+                    cursor = head;
+                    return false;
+                }
+                cursor = batch.get(batch.size() - 1).getServerEventId();
+                return true;
+            }
+
+            @Override
+            public ServerEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(next++);
+            }
+        };
+    }
+
+    /**
+     * Decodes one record: the segment that can hold the id is seeked through its sparse index.
+     */
+    @Override
+    public ServerEvent get(long serverEventId) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(serverEventId);
+        if (entry == null || serverEventId > getLatestServerEventId()) {
+            return null;
+        }
+        List<ServerEvent> found = new ArrayList<>(1);
+        entry.getValue().readAfter(serverEventId - 1, found, 1);
+        return !found.isEmpty() && found.get(0).getServerEventId() == serverEventId ? found.get(0) : null;
+    }
+
+    @Override
+    public boolean exists(String deviceId, String clientEventId) {
+        boolean exists = seenClientEvents.exists(deviceId, clientEventId);
+        log.trace("Checking existence of clientEventId: {} for device: {}. Exists: {}", clientEventId, deviceId, exists);
+        return exists;
+    }
+
+    @Override
+    public void addHeadListener(HeadListener listener) {
+        headNotifier.add(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+        headNotifier.remove(listener);
+    }
+
+    /**
+     * serverEventId of the oldest stored event, or 0 when the store is empty.
+     */
+    public long getEarliestServerEventId() {
+        for (Segment segment : segments.values()) {
+            if (segment.lastId() >= segment.baseId) {
+                // Compaction may have removed the segment's first ids
+                return EventRecordCodec.peekServerEventId(segment.buffer.duplicate(), HEADER_BYTES);
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * serverEventId of the newest stored event, or 0 when the store is empty.
+     */
+    public long getLatestServerEventId() {
+        long latest = 0L;
+        for (Segment segment : segments.descendingMap().values()) {
+            if (segment.lastId() >= segment.baseId) {
+                latest = segment.lastId();
+                break;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Force written records of the active segment to the storage device.
+     */
+    @Override
+    public void flush() {
+        Segment current = active;
+        if (current != null) {
+            current.buffer.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        }
+    }
+
+    private void roll(long baseId) throws IOException {
+        log.info("Rolling to new segment starting at serverEventId: {}", baseId);
+        active.buffer.force();
+        Segment segment = Segment.open(segmentPath(baseId), baseId, segmentBytes, indexInterval);
+        segments.put(baseId, segment);
+        active = segment;
+    }
+
+    private Path segmentPath(long baseId) {
+        return directory.resolve(String.format("%020d%s", baseId, SEGMENT_SUFFIX));
+    }
+
+    private Path originsPath(long baseId) {
+        return directory.resolve(String.format("%020d%s", baseId, ORIGINS_SUFFIX));
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        try (Stream<Path> listing = Files.list(directory)) {
+            // A compaction that stopped before its rename left the original in place.
+            for (Path leftover : listing.filter(p -> p.getFileName().toString().endsWith(COMPACTING_SUFFIX)).toList()) {
+                Files.delete(leftover);
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            long baseId = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            // Sealed segments are never written again; mapping only their length keeps compacted files small.
+            int capacity = i < files.size() - 1 ? (int) Math.min(Files.size(file), segmentBytes) : segmentBytes;
+            Segment segment = Segment.open(file, baseId, capacity, indexInterval);
+            segment.recover(event -> markSeen(event.getOriginClientDeviceId(), event.getOriginClientEventId()));
+            segment.compactedOrigins = readOrigins(originsPath(baseId));
+            for (String origin : segment.compactedOrigins) {
+                int separator = origin.indexOf('\u0000');
+                markSeen(origin.substring(0, separator), origin.substring(separator + 1));
+            }
+            segments.put(baseId, segment);
+            active = segment;
+            if (segment.lastId() >= nextId) {
+                nextId = segment.lastId() + 1;
+            }
+        }
+        if (active == null) {
+            active = Segment.open(segmentPath(1), 1, segmentBytes, indexInterval);
+            segments.put(1L, active);
+        }
+        log.info("Opened {} segment(s) in {}; next serverEventId: {}", segments.size(), directory, nextId);
+    }
+
+    private static Set<String> readOrigins(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Collections.emptySet();
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            int count = in.readInt();
+            Set<String> origins = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                origins.add(in.readUTF());
+            }
+            return origins;
+        }
+    }
+
+    /**
+     * One memory-mapped segment file and its sparse index.
+     */
+    static final class Segment {
+        final long baseId;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        private final int capacity;
+        private final int indexInterval;
+
+        // Published by the writer after the record bytes and index entries are in place.
+        private volatile int writePosition;
+        private volatile long lastId;
+
+        private volatile long[] indexIds = new long[16];
+        private volatile int[] indexPositions = new int[16];
+        private volatile int indexSize;
+        private int recordsSinceIndex;
+
+        // Origins of the events compaction removed from this segment, as deviceId NUL clientEventId.
+        volatile Set<String> compactedOrigins = Collections.emptySet();
+
+        private Segment(long baseId, FileChannel channel, MappedByteBuffer buffer, int capacity, int indexInterval) {
+            this.baseId = baseId;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.indexInterval = indexInterval;
+            this.lastId = baseId - 1;
+        }
+
+        static Segment open(Path path, long baseId, int capacity, int indexInterval) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(baseId, channel, buffer, capacity, indexInterval);
+        }
+
+        long lastId() {
+            return lastId;
+        }
+
+        boolean hasRoomFor(int bodyLength) {
+            // Keep room for a zero-length terminator after the last record.
+            return writePosition + HEADER_BYTES + bodyLength + 4 <= capacity;
+        }
+
+        void write(long id, byte[] body) {
+            int position = writePosition;
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ByteBuffer out = buffer.duplicate();
+            out.position(position + 4);
+            out.putInt((int) crc.getValue());
+            out.put(body);
+            // Length goes last so a torn write never looks like a complete record.
+            buffer.putInt(position, body.length);
+            index(id, position);
+            lastId = id;
+            writePosition = position + HEADER_BYTES + body.length;
+        }
+
+        void recover(Consumer<ServerEvent> visitor) {
+            int position = 0;
+            ByteBuffer in = buffer.duplicate();
+            while (position + HEADER_BYTES <= capacity) {
+                int length = in.getInt(position);
+                if (length <= 0 || position + HEADER_BYTES + length > capacity) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.get(position + HEADER_BYTES, body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != in.getInt(position + 4)) {
+                    log.warn("Ignoring corrupt record at position {} of segment {}", position, baseId);
+                    break;
+                }
+                ServerEvent event = EventRecordCodec.decode(ByteBuffer.wrap(body));
+                visitor.accept(event);
+                index(event.getServerEventId(), position);
+                lastId = event.getServerEventId();
+                position += HEADER_BYTES + length;
+            }
+            // Clear anything after the last valid record so new appends start from a clean tail.
+            if (position + 4 <= capacity) {
+                buffer.putInt(position, 0);
+            }
+            writePosition = position;
+        }
+
+        /**
+         * Decode every record with serverEventId > afterId that is visible right now.
+         */
+        void readAfter(long afterId, List<ServerEvent> out) {
+            readAfter(afterId, out, Integer.MAX_VALUE);
+        }
+
+        /**
+         * As {@link #readAfter(long, List)}, stopping after {@code max} records.
+         */
+        void readAfter(long afterId, List<ServerEvent> out, int max) {
+            int end = writePosition;
+            if (lastId <= afterId || end == 0) {
+                return;
+            }
+            ByteBuffer in = buffer.duplicate();
+            int position = seek(afterId);
+            // Walk forward by record headers until the first record past afterId.
+            while (position < end && EventRecordCodec.peekServerEventId(in, position + HEADER_BYTES) <= afterId) {
+                position += HEADER_BYTES + in.getInt(position);
+            }
+            for (int read = 0; position < end && read < max; read++) {
+                int length = in.getInt(position);
+                in.limit(position + HEADER_BYTES + length).position(position + HEADER_BYTES);
+                out.add(EventRecordCodec.decode(in));
+                in.limit(in.capacity());
+                position += HEADER_BYTES + length;
+            }
+        }
+
+        /**
+         * File position of the last indexed record with serverEventId <= afterId + 1, or 0.
+         */
+        private int seek(long afterId) {
+            int size = indexSize;
+            long[] ids = indexIds;
+            int[] positions = indexPositions;
+            int low = 0;
+            int high = size - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] <= afterId + 1) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found < 0 ? 0 : positions[found];
+        }
+
+        private void index(long id, int position) {
+            if (recordsSinceIndex++ % indexInterval != 0) {
+                return;
+            }
+            int size = indexSize;
+            long[] ids = indexIds;
+            int[] positions = indexPositions;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            ids[size] = id;
+            positions[size] = position;
+            indexIds = ids;
+            indexPositions = positions;
+            indexSize = size + 1;
+        }
+    }
+}
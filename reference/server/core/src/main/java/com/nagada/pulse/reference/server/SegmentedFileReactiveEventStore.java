@@ -0,0 +1,75 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * ReactiveEventStore over a {@link SegmentedFileEventStore}.
+ * File access may block on page faults, so every call runs on the bounded elastic scheduler.
+ */
+public class SegmentedFileReactiveEventStore implements ReactiveEventStore {
+
+    private final SegmentedFileEventStore delegate;
+    private final Scheduler scheduler;
+    private final Sinks.Many<Long> heads;
+
+    public SegmentedFileReactiveEventStore(SegmentedFileEventStore delegate) {
+        this(delegate, Schedulers.boundedElastic());
+    }
+
+    public SegmentedFileReactiveEventStore(SegmentedFileEventStore delegate, Scheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.heads = Sinks.many().replay().latestOrDefault(delegate.getLatestServerEventId());
+        // The delegate publishes under its append lock, so emissions are serialized.
+        delegate.addHeadListener(heads::tryEmitNext);
+    }
+
+    @Override
+    public Mono<ServerEvent> append(String deviceId, ClientEvent clientEvent) {
+        return Mono.fromCallable(() -> delegate.append(deviceId, clientEvent)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        return Mono.fromCallable(() -> delegate.appendAll(deviceId, clientEvents))
+                .subscribeOn(scheduler)
+                .flatMapIterable(appended -> appended);
+    }
+
+    /**
+     * Reads the segments in batches as the subscriber requests events, so a long tail is never
+     * held in memory at once.
+     */
+    @Override
+    public Flux<ServerEvent> listAfter(long afterId) {
+        return Flux.fromIterable(() -> delegate.iterateAfter(afterId)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Boolean> exists(String deviceId, String clientEventId) {
+        return Mono.fromCallable(() -> delegate.exists(deviceId, clientEventId)).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Flux<Long> headUpdates() {
+        return heads.asFlux();
+    }
+
+    @Override
+    public Mono<Long> getEarliestServerEventId() {
+        return Mono.fromCallable(delegate::getEarliestServerEventId).subscribeOn(scheduler);
+    }
+
+    @Override
+    public Mono<Long> getLatestServerEventId() {
+        return Mono.fromCallable(delegate::getLatestServerEventId).subscribeOn(scheduler);
+    }
+}
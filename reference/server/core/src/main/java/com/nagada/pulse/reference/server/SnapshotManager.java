@@ -0,0 +1,191 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps a {@link Snapshot} of the log for devices too far behind to replay it: for each manifest
+ * key the latest event that wrote it, plus every event without a manifest, as of a serverEventId.
+ * <p>
+ * The latest event per key is maintained incrementally from {@link EventStore#iterateAfter}, so
+ * each refresh reads only the events appended since the previous one. A refresh is started on a
+ * background thread once the head is {@code interval} events past the current snapshot; the
+ * appending thread only compares two numbers. When the store is reset the snapshot is dropped
+ * and rebuilt from the start.
+ * <p>
+ * Replaying a snapshot's events in order leaves every manifest key with the value it has at the
+ * snapshot's serverEventId, which is all a projection keyed by manifest needs.
+ */
+@Slf4j
+public class SnapshotManager implements HeadListener, AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL = 10_000;
+    public static final long DEFAULT_LAG_THRESHOLD = 10_000;
+
+    private final EventStore eventStore;
+    private final long interval;
+    private final long lagThreshold;
+    private final ExecutorService builder;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>();
+    private volatile long generation;
+    private volatile long lastHead;
+
+    // Materialized state, only touched by refresh()
+    private final Map<String, ServerEvent> latestByKey = new HashMap<>();
+    private final List<ServerEvent> keyless = new ArrayList<>();
+    private long materializedTo;
+    private long materializedGeneration;
+
+    public SnapshotManager(EventStore eventStore) {
+        this(eventStore, DEFAULT_INTERVAL, DEFAULT_LAG_THRESHOLD);
+    }
+
+    /**
+     * @param interval     events appended after a snapshot before the next one is built
+     * @param lagThreshold how far behind a snapshot a device must be before it gets the snapshot
+     *                     instead of the events
+     */
+    public SnapshotManager(EventStore eventStore, long interval, long lagThreshold) {
+        this.eventStore = eventStore;
+        this.interval = interval;
+        this.lagThreshold = lagThreshold;
+        this.builder = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nagada-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventStore.addHeadListener(this);
+    }
+
+    /**
+     * The snapshot a device at {@code lastKnownServerEventId} should install, or null when it is
+     * closer than the lag threshold or when replaying would send fewer events than the snapshot.
+     */
+    public Snapshot forClient(long lastKnownServerEventId) {
+        Snapshot snapshot = latest.get();
+        if (snapshot == null) {
+            return null;
+        }
+        long skipped = snapshot.getServerEventId() - lastKnownServerEventId;
+        if (skipped < lagThreshold || skipped <= snapshot.getEvents().size()) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * The most recent snapshot, or null if none has been built since startup or the last reset.
+     */
+    public Snapshot latest() {
+        return latest.get();
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        if (headServerEventId < lastHead) {
+            // The store was reset; nothing built so far describes it any more.
+            generation++;
+            latest.set(null);
+        }
+        lastHead = headServerEventId;
+        Snapshot snapshot = latest.get();
+        long snapshotId = snapshot == null ? 0 : snapshot.getServerEventId();
+        if (headServerEventId - snapshotId >= interval) {
+            refreshAsync();
+        }
+    }
+
+    /**
+     * Start a refresh on the background thread unless one is already queued.
+     */
+    public void refreshAsync() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            builder.execute(() -> {
+                scheduled.set(false);
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    log.warn("Snapshot refresh failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Bring the materialized state up to the head and publish it as the latest snapshot.
+     * Returns the snapshot, which is unchanged if nothing was appended since the last one.
+     */
+    public synchronized Snapshot refresh() {
+        long startGeneration = generation;
+        if (materializedGeneration != startGeneration) {
+            latestByKey.clear();
+            keyless.clear();
+            materializedTo = 0;
+            materializedGeneration = startGeneration;
+        }
+        Iterator<ServerEvent> events = eventStore.iterateAfter(materializedTo);
+        while (events.hasNext()) {
+            ServerEvent event = events.next();
+            List<String> manifest = event.getPayloadManifest();
+            if (manifest == null || manifest.isEmpty()) {
+                keyless.add(event);
+            } else {
+                for (String key : manifest) {
+                    latestByKey.put(key, event);
+                }
+            }
+            materializedTo = event.getServerEventId();
+        }
+        Snapshot current = latest.get();
+        if (materializedTo == 0 || (current != null && current.getServerEventId() == materializedTo)) {
+            return current;
+        }
+
+        // An event can be the latest write to several keys; it is sent once, in log order.
+        TreeMap<Long, ServerEvent> kept = new TreeMap<>();
+        for (ServerEvent event : latestByKey.values()) {
+            kept.put(event.getServerEventId(), event);
+        }
+        for (ServerEvent event : keyless) {
+            kept.put(event.getServerEventId(), event);
+        }
+        Snapshot snapshot = new Snapshot("snapshot-" + materializedTo, materializedTo, System.currentTimeMillis(),
+                new ArrayList<>(kept.values()));
+        if (generation != startGeneration) {
+            return null;
+        }
+        latest.set(snapshot);
+        if (generation != startGeneration) {
+            // Reset while publishing; the listener may have cleared the slot before we filled it.
+            latest.compareAndSet(snapshot, null);
+            return null;
+        }
+        log.debug("Snapshot at server event ID {}: {} events for {} manifest keys", materializedTo,
+                snapshot.getEvents().size(), latestByKey.size());
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+        builder.shutdownNow();
+    }
+}
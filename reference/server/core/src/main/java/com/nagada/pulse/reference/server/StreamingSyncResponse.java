@@ -0,0 +1,182 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sync response whose events are read from the store while the response is written.
+ * <p>
+ * {@link #writeEvents} walks {@link EventStore#iterateAfter} from the client's cursor and hands
+ * each event to the writer, cutting the page with the same limits as {@link DiastolePage}; only
+ * then are {@code hasMore} and {@code nextCursor} known. Encoders that need the whole list up
+ * front use the getters instead, which read the page into {@code newServerEvents} on first use.
+ * For a subscribed device the page walks the {@link SubscriptionIndex.Match} instead, and a
+ * last page moves the cursor to where the index had read even past events it did not match.
+ * Not thread-safe: a response is written once, by one thread.
+ */
+public class StreamingSyncResponse extends SyncResponse {
+
+    /**
+     * Receives the events of the page in order.
+     */
+    @FunctionalInterface
+    public interface EventWriter {
+        void write(ServerEvent event) throws IOException;
+    }
+
+    private final EventStore eventStore;
+    private final long afterId;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final SyncMetrics metrics;
+    private final SubscriptionIndex.Match subscribed;
+    private boolean read;
+
+    public StreamingSyncResponse(List<String> successClientEventIds, Map<String, String> errorClientEventIds,
+                                 int nextHeartbeatMs, EventStore eventStore, long afterId, int maxEvents, long maxBytes) {
+        this(successClientEventIds, errorClientEventIds, nextHeartbeatMs, eventStore, afterId, maxEvents, maxBytes, SyncMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics receives the diastole time, which here includes writing the events out,
+     *                and the size of the page once it has been written
+     */
+    public StreamingSyncResponse(List<String> successClientEventIds, Map<String, String> errorClientEventIds,
+                                 int nextHeartbeatMs, EventStore eventStore, long afterId, int maxEvents, long maxBytes,
+                                 SyncMetrics metrics) {
+        this(successClientEventIds, errorClientEventIds, nextHeartbeatMs, eventStore, afterId, maxEvents, maxBytes, metrics, null);
+    }
+
+    /**
+     * @param subscribed when set, the events after {@code afterId} that the device subscribes
+     *                   to; only these are written
+     */
+    public StreamingSyncResponse(List<String> successClientEventIds, Map<String, String> errorClientEventIds,
+                                 int nextHeartbeatMs, EventStore eventStore, long afterId, int maxEvents, long maxBytes,
+                                 SyncMetrics metrics, SubscriptionIndex.Match subscribed) {
+        super(successClientEventIds, null, nextHeartbeatMs, errorClientEventIds, false, afterId);
+        this.eventStore = eventStore;
+        this.afterId = afterId;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.metrics = metrics;
+        this.subscribed = subscribed;
+    }
+
+    /**
+     * Hand every event of the page to {@code writer}, then set {@code hasMore} and
+     * {@code nextCursor}. The page can be read once: afterwards {@code newServerEvents} stays null.
+     */
+    public void writeEvents(EventWriter writer) throws IOException {
+        if (read) {
+            throw new IllegalStateException("The events of this response were already read");
+        }
+        read = true;
+        JfrDiastoleEvent jfr = new JfrDiastoleEvent();
+        jfr.begin();
+        long start = System.nanoTime();
+        Iterator<ServerEvent> events = subscribed == null ? eventStore.iterateAfter(afterId) : subscribed.iterator();
+        int count = 0;
+        long bytes = 0;
+        long writtenBytes = 0;
+        long cursor = afterId;
+        while (events.hasNext()) {
+            if (maxEvents > 0 && count >= maxEvents) {
+                hasMore = true;
+                break;
+            }
+            ServerEvent event = events.next();
+            byte[] payload = event.getPayload();
+            bytes += payload == null ? 0 : payload.length;
+            if (maxBytes > 0 && bytes > maxBytes && count > 0) {
+                hasMore = true;
+                break;
+            }
+            writer.write(event);
+            writtenBytes = bytes;
+            cursor = event.getServerEventId();
+            count++;
+        }
+        nextCursor = subscribed == null || hasMore ? cursor : Math.max(cursor, subscribed.coveredTo);
+        metrics.diastole(System.nanoTime() - start);
+        metrics.response(count, writtenBytes);
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.afterId = afterId;
+            jfr.lag = hasMore ? -1 : count;
+            jfr.returnedEvents = count;
+            jfr.payloadBytes = writtenBytes;
+            jfr.hasMore = hasMore;
+            jfr.commit();
+        }
+    }
+
+    /**
+     * Cursor the page starts after.
+     */
+    public long afterId() {
+        return afterId;
+    }
+
+    /**
+     * The device's subscription, or null when the page holds every event.
+     */
+    public List<String> manifestPrefixes() {
+        return subscribed == null ? null : subscribed.manifestPrefixes;
+    }
+
+    /**
+     * Whether the page is cut at an event count or payload size, so it cannot grow with the log.
+     */
+    public boolean paged() {
+        return maxEvents > 0 || maxBytes > 0;
+    }
+
+    /**
+     * Record that the page was written from elsewhere, e.g. copied from the response to an
+     * identical request, and ended with {@code hasMore} and {@code nextCursor}. The store is not
+     * read; afterwards {@code newServerEvents} stays null as after {@link #writeEvents}.
+     */
+    public void markWritten(boolean hasMore, long nextCursor) {
+        read = true;
+        this.hasMore = hasMore;
+        this.nextCursor = nextCursor;
+    }
+
+    private void materialize() {
+        if (read) {
+            return;
+        }
+        List<ServerEvent> events = new ArrayList<>();
+        try {
+            writeEvents(events::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        newServerEvents = events;
+    }
+
+    @Override
+    public List<ServerEvent> getNewServerEvents() {
+        materialize();
+        return newServerEvents;
+    }
+
+    @Override
+    public boolean isHasMore() {
+        materialize();
+        return hasMore;
+    }
+
+    @Override
+    public long getNextCursor() {
+        materialize();
+        return nextCursor;
+    }
+}
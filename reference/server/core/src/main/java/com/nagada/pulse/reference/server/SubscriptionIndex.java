@@ -0,0 +1,288 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Inverted index from manifest key to the serverEventIds of the events that wrote it, so a
+ * device subscribed to a few manifest prefixes is answered from its postings instead of a pass
+ * over every event after its cursor.
+ * <p>
+ * Keys are kept sorted, so the keys under a prefix are one contiguous range. The index follows
+ * the log incrementally: each {@link #match} first indexes whatever was appended since the
+ * previous one. Only the last {@code window} events with a manifest are kept, at one id per
+ * manifest key each; a device whose cursor is older than that has the events up to the window
+ * filtered from the store as it reads them. The index is rebuilt when the head moves backwards
+ * (a store reset).
+ */
+@Slf4j
+public class SubscriptionIndex implements HeadListener {
+
+    public static final int DEFAULT_WINDOW = 100_000;
+
+    /**
+     * Events after a cursor that a subscription matches, and how far the index had read.
+     */
+    public final class Match implements Iterable<ServerEvent> {
+        /** The subscription matched. */
+        public final List<String> manifestPrefixes;
+        /** The cursor matched from. */
+        public final long afterId;
+        /**
+         * Events in (afterId, scanTo] were older than the window and are filtered from the store;
+         * equal to afterId when the window covered the cursor.
+         */
+        public final long scanTo;
+        /** Matching serverEventIds after scanTo, ascending and without duplicates. */
+        public final long[] ids;
+        /**
+         * serverEventId up to which the log was indexed. A device that receives every match has
+         * seen everything it subscribes to up to here.
+         */
+        public final long coveredTo;
+
+        Match(List<String> manifestPrefixes, long afterId, long scanTo, long[] ids, long coveredTo) {
+            this.manifestPrefixes = manifestPrefixes;
+            this.afterId = afterId;
+            this.scanTo = scanTo;
+            this.ids = ids;
+            this.coveredTo = coveredTo;
+        }
+
+        /**
+         * The matching events, read from the store one at a time. Events removed from the store
+         * since, e.g. by compaction, are skipped.
+         */
+        @Override
+        public Iterator<ServerEvent> iterator() {
+            return new Iterator<ServerEvent>() {
+                private Iterator<ServerEvent> scan = scanTo > afterId ? null : Collections.emptyIterator();
+                private int next;
+                private ServerEvent event;
+
+                @Override
+                public boolean hasNext() {
+                    if (scan == null) {
+                        scan = eventStore.iterateAfter(afterId);
+                    }
+                    while (event == null && scan.hasNext()) {
+                        ServerEvent candidate = scan.next();
+                        if (candidate.getServerEventId() > scanTo) {
+                            scan = Collections.emptyIterator();
+                        } else if (matches(candidate, manifestPrefixes)) {
+                            event = candidate;
+                        }
+                    }
+                    while (event == null && next < ids.length) {
+                        event = eventStore.get(ids[next++]);
+                    }
+                    return event != null;
+                }
+
+                @Override
+                public ServerEvent next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    ServerEvent current = event;
+                    event = null;
+                    return current;
+                }
+            };
+        }
+    }
+
+    /**
+     * serverEventId and manifest of an indexed event, kept to drop it again once it leaves the
+     * window.
+     */
+    private static final class Indexed {
+        final long serverEventId;
+        final List<String> manifest;
+
+        Indexed(long serverEventId, List<String> manifest) {
+            this.serverEventId = serverEventId;
+            this.manifest = manifest;
+        }
+    }
+
+    private final EventStore eventStore;
+    private final int window;
+    private final TreeMap<String, Postings> postingsByKey = new TreeMap<>();
+    private final ArrayDeque<Indexed> indexed = new ArrayDeque<>();
+    /** Lowest cursor the postings can answer for alone. */
+    private long coveredFrom;
+    private volatile long indexedUpTo;
+    private volatile boolean reset;
+
+    public SubscriptionIndex(EventStore eventStore) {
+        this(eventStore, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of most recent events with a manifest to keep postings for
+     */
+    public SubscriptionIndex(EventStore eventStore, int window) {
+        this.eventStore = eventStore;
+        this.window = window;
+        eventStore.addHeadListener(this);
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        if (headServerEventId < indexedUpTo) {
+            reset = true;
+        }
+    }
+
+    /**
+     * Events after {@code afterId} with at least one manifest key starting with one of the
+     * prefixes.
+     */
+    public synchronized Match match(List<String> manifestPrefixes, long afterId) {
+        catchUp();
+        long scanTo = Math.max(afterId, coveredFrom);
+        long[] ids = new long[16];
+        int size = 0;
+        for (String prefix : manifestPrefixes) {
+            for (Map.Entry<String, Postings> entry : postingsByKey.tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                Postings postings = entry.getValue();
+                int from = postings.firstAfter(scanTo);
+                int count = postings.size - from;
+                if (size + count > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + count));
+                }
+                System.arraycopy(postings.ids, from, ids, size, count);
+                size += count;
+            }
+        }
+        Arrays.sort(ids, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        if (scanTo > afterId) {
+            log.debug("Cursor {} is before the indexed window; filtering events up to {} from the store", afterId, scanTo);
+        }
+        return new Match(manifestPrefixes, afterId, scanTo, Arrays.copyOf(ids, unique), Math.max(afterId, indexedUpTo));
+    }
+
+    /**
+     * Number of manifest keys indexed.
+     */
+    public synchronized int size() {
+        return postingsByKey.size();
+    }
+
+    private static boolean matches(ServerEvent event, List<String> manifestPrefixes) {
+        if (event.getPayloadManifest() == null) {
+            return false;
+        }
+        for (String key : event.getPayloadManifest()) {
+            for (String prefix : manifestPrefixes) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index the events appended since the last match, then drop those that left the window.
+     */
+    private void catchUp() {
+        if (reset) {
+            log.debug("Store was reset; rebuilding subscription index");
+            postingsByKey.clear();
+            indexed.clear();
+            coveredFrom = 0;
+            indexedUpTo = 0;
+            reset = false;
+        }
+        Iterator<ServerEvent> events = eventStore.iterateAfter(indexedUpTo);
+        long head = indexedUpTo;
+        while (events.hasNext()) {
+            ServerEvent event = events.next();
+            List<String> manifest = event.getPayloadManifest();
+            if (manifest != null && !manifest.isEmpty()) {
+                for (String key : manifest) {
+                    postingsByKey.computeIfAbsent(key, k -> new Postings()).add(event.getServerEventId());
+                }
+                indexed.addLast(new Indexed(event.getServerEventId(), manifest));
+            }
+            head = event.getServerEventId();
+        }
+        indexedUpTo = head;
+        while (indexed.size() > window) {
+            Indexed oldest = indexed.removeFirst();
+            for (String key : oldest.manifest) {
+                Postings postings = postingsByKey.get(key);
+                if (postings != null && postings.dropUpTo(oldest.serverEventId)) {
+                    postingsByKey.remove(key);
+                }
+            }
+            coveredFrom = oldest.serverEventId;
+        }
+    }
+
+    /**
+     * serverEventIds of the writers of one key inside the window, ascending.
+     */
+    private static final class Postings {
+        long[] ids = new long[2];
+        /** Index of the oldest id still in the window. */
+        int from;
+        int size;
+
+        void add(long id) {
+            if (size > from && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                int kept = size - from;
+                ids = Arrays.copyOfRange(ids, from, from + (kept * 2 > ids.length ? ids.length * 2 : ids.length));
+                from = 0;
+                size = kept;
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Drop ids up to {@code serverEventId}; true if none are left.
+         */
+        boolean dropUpTo(long serverEventId) {
+            while (from < size && ids[from] <= serverEventId) {
+                from++;
+            }
+            return from == size;
+        }
+
+        int firstAfter(long afterId) {
+            int low = from;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] > afterId) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
 import com.nagada.pulse.protocol.SyncRequest;
 import com.nagada.pulse.protocol.SyncResponse;
 import com.nagada.pulse.reference.server.EventConflictResolver;
@@ -20,12 +21,114 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class SyncHandler {
 
+    private final EventStore eventStore;
+    private final OffsetStore offsetStore;
+    private final int maxEventsPerResponse;
+    private final long maxBytesPerResponse;
     private final SystoleProcessor systole;
     private final DiastoleProcessor diastole;
+    /** Checks conflicts when there is no sequencer to do it. */
+    private final ManifestConflictIndex conflictIndex;
+    private final SyncSequencer sequencer;
+    private final SyncMetrics metrics;
+    private final SnapshotManager snapshots;
+    private final SubscriptionIndex subscriptions;
 
     public SyncHandler(EventStore eventStore, OffsetStore offsetStore) {
-        this.systole = new SystoleProcessor(eventStore, offsetStore);
-        this.diastole = new DiastoleProcessor(eventStore, offsetStore);
+        this(builder(eventStore, offsetStore));
+    }
+
+    private SyncHandler(Builder builder) {
+        this.eventStore = builder.eventStore;
+        this.offsetStore = builder.offsetStore;
+        this.maxEventsPerResponse = builder.maxEventsPerResponse;
+        this.maxBytesPerResponse = builder.maxBytesPerResponse;
+        this.systole = new SystoleProcessor(eventStore, offsetStore, builder.metrics);
+        this.diastole = new DiastoleProcessor(eventStore, offsetStore, maxEventsPerResponse, maxBytesPerResponse, builder.metrics);
+        this.sequencer = builder.sequencer;
+        this.conflictIndex = sequencer == null ? new ManifestConflictIndex(eventStore) : null;
+        this.metrics = builder.metrics;
+        this.snapshots = builder.snapshots;
+        this.subscriptions = builder.subscriptions;
+    }
+
+    public static Builder builder(EventStore eventStore, OffsetStore offsetStore) {
+        return new Builder(eventStore, offsetStore);
+    }
+
+    /**
+     * Optional collaborators and limits of a {@link SyncHandler}; anything not set is off.
+     */
+    public static final class Builder {
+        private final EventStore eventStore;
+        private final OffsetStore offsetStore;
+        private int maxEventsPerResponse;
+        private long maxBytesPerResponse;
+        private SyncSequencer sequencer;
+        private SyncMetrics metrics = SyncMetrics.NOOP;
+        private SnapshotManager snapshots;
+        private SubscriptionIndex subscriptions;
+
+        private Builder(EventStore eventStore, OffsetStore offsetStore) {
+            this.eventStore = eventStore;
+            this.offsetStore = offsetStore;
+        }
+
+        /**
+         * Page size limit for diastole, 0 for unlimited.
+         */
+        public Builder maxEventsPerResponse(int maxEventsPerResponse) {
+            this.maxEventsPerResponse = maxEventsPerResponse;
+            return this;
+        }
+
+        /**
+         * Payload byte limit for diastole, 0 for unlimited.
+         */
+        public Builder maxBytesPerResponse(long maxBytesPerResponse) {
+            this.maxBytesPerResponse = maxBytesPerResponse;
+            return this;
+        }
+
+        /**
+         * When set, conflict checks and systole run on its single writer thread, against its
+         * conflict index, instead of the calling thread.
+         */
+        public Builder sequencer(SyncSequencer sequencer) {
+            this.sequencer = sequencer;
+            return this;
+        }
+
+        /**
+         * Receives per-phase measurements; give the sequencer the same instance.
+         */
+        public Builder metrics(SyncMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * When set, a device far enough behind gets the latest snapshot and the events after it
+         * instead of every event after its cursor.
+         */
+        public Builder snapshots(SnapshotManager snapshots) {
+            this.snapshots = snapshots;
+            return this;
+        }
+
+        /**
+         * When set, a device that sends {@code manifestPrefixes} gets only the events matching
+         * them, looked up in this index; without it the prefixes are ignored and the device gets
+         * every event.
+         */
+        public Builder subscriptions(SubscriptionIndex subscriptions) {
+            this.subscriptions = subscriptions;
+            return this;
+        }
+
+        public SyncHandler build() {
+            return new SyncHandler(this);
+        }
     }
 
     /**
@@ -33,39 +136,186 @@ public class SyncHandler {
      */
     public SyncResponse handle(SyncRequest request) {
         log.info("Handling sync request for device: {}", request.getDeviceId());
+        JfrSyncEvent jfr = new JfrSyncEvent();
+        jfr.begin();
+
+        // A device far behind starts from the snapshot rather than its own cursor; a subscribed one
+        // only reads its own events, so it is never sent a snapshot
+        List<String> prefixes = subscribedPrefixes(request.getManifestPrefixes());
+        Snapshot snapshot = prefixes == null ? snapshotFor(request.getLastKnownServerEventId()) : null;
+        long afterId = snapshot == null ? request.getLastKnownServerEventId() : snapshot.getServerEventId();
 
         // Diastole: fetch new events first
-        log.debug("Diastole phase: fetching new events since server event ID {}.", request.getLastKnownServerEventId());
-        List<ServerEvent> newEvents = diastole.process(request.getDeviceId(), request.getLastKnownServerEventId());
+        log.debug("Diastole phase: fetching new events since server event ID {}.", afterId);
+        DiastolePage page = diastole.process(request.getDeviceId(), afterId,
+                prefixes == null ? null : subscriptions.match(prefixes, afterId));
+        List<ServerEvent> newEvents = page.events;
         log.debug("Diastole phase: found {} new events.", newEvents.size());
 
-        // Resolve conflicts before processing systole
-        EventConflictResolver.ConflictResolutionResult resolutionResult =
-                EventConflictResolver.resolveConflicts(request.getPendingEvents(), newEvents, false);
-        log.debug("Conflict resolution: {} successful, {} failed.", resolutionResult.successClientEventIds.size(), resolutionResult.errorClientEventIds.size());
-
-        // Filter for successful events to be persisted
-        List<ClientEvent> successfulClientEvents = request.getPendingEvents() == null ? new ArrayList<>() : request.getPendingEvents().stream()
-                .filter(ce -> resolutionResult.successClientEventIds.contains(ce.getClientEventId()))
-                .collect(Collectors.toList());
-
-        // Systole: append only the successful pending events
-        log.debug("Systole phase: processing {} successful pending events.", successfulClientEvents.size());
-        List<ServerEvent> appendedEvents = systole.process(request.getDeviceId(), successfulClientEvents);
-        log.debug("Systole phase: appended {} events.", appendedEvents.size());
+        // Conflicts are still checked against everything the device has not seen, not just this page
+        SyncSequencer.Result committed;
+        if (!isEmpty(request.getPendingEvents())) {
+            committed = commit(request);
+        } else {
+            committed = new SyncSequencer.Result(
+                    new EventConflictResolver.ConflictResolutionResult(new ArrayList<>(), new HashMap<>()), new ArrayList<>());
+        }
+        EventConflictResolver.ConflictResolutionResult resolutionResult = committed.resolution;
+        List<ServerEvent> appendedEvents = committed.appendedEvents;
 
-        // Combine appended events and new events, ensuring uniqueness and preserving order
-        Set<ServerEvent> uniqueEvents = new LinkedHashSet<>(appendedEvents);
+        // Combine appended events and new events, ensuring uniqueness and preserving order.
+        // While the client is still paging, its appended events arrive with a later page instead,
+        // so the events it receives stay contiguous.
+        Set<ServerEvent> uniqueEvents = new LinkedHashSet<>(page.hasMore ? List.of() : appendedEvents);
         uniqueEvents.addAll(newEvents);
         List<ServerEvent> newServerEvents = new ArrayList<>(uniqueEvents);
+        long nextCursor = page.nextCursor;
+        long payloadBytes = 0;
+        for (int i = 0; i < newServerEvents.size(); i++) {
+            ServerEvent event = newServerEvents.get(i);
+            nextCursor = Math.max(nextCursor, event.getServerEventId());
+            payloadBytes += event.getPayload() == null ? 0 : event.getPayload().length;
+        }
+        metrics.response(newServerEvents.size(), payloadBytes);
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = request.getDeviceId();
+            jfr.lastKnownServerEventId = request.getLastKnownServerEventId();
+            jfr.lag = page.lag;
+            jfr.pendingEvents = request.getPendingEvents() == null ? 0 : request.getPendingEvents().size();
+            jfr.acceptedEvents = resolutionResult.successClientEventIds.size();
+            jfr.rejectedEvents = resolutionResult.errorClientEventIds.size();
+            jfr.returnedEvents = newServerEvents.size();
+            jfr.payloadBytes = payloadBytes;
+            jfr.commit();
+        }
 
         SyncResponse response = new SyncResponse(
                 resolutionResult.successClientEventIds,
                 newServerEvents,
                 -1,
-                resolutionResult.errorClientEventIds
+                resolutionResult.errorClientEventIds,
+                page.hasMore,
+                nextCursor
         );
-        log.info("Finished handling sync request for device: {}. Sending {} events.", request.getDeviceId(), newServerEvents.size());
+        response.snapshot = snapshot;
+        log.info("Finished handling sync request for device: {}. Sending {} events (hasMore: {}).", request.getDeviceId(), newServerEvents.size(), page.hasMore);
+        return response;
+    }
+
+    /**
+     * Streaming variant of {@link #handle}: pending events are resolved and committed now, but
+     * the events to return are only read from the store as the response is written, from
+     * {@code lastKnownServerEventId} (or the snapshot's serverEventId) onwards and within the same
+     * page limits. The client's own appended events come back in serverEventId order with
+     * everyone else's, unless the page ends before them. Manifest prefixes are honoured as in
+     * {@link #handle}.
+     */
+    public StreamingSyncResponse handleStreaming(SyncRequest request) {
+        log.info("Handling streaming sync request for device: {}", request.getDeviceId());
+        JfrSyncEvent jfr = new JfrSyncEvent();
+        jfr.begin();
+        long afterId = request.getLastKnownServerEventId();
+        offsetStore.update(request.getDeviceId(), afterId);
+        metrics.deviceOffset(request.getDeviceId(), afterId);
+
+        EventConflictResolver.ConflictResolutionResult resolution;
+        if (isEmpty(request.getPendingEvents())) {
+            resolution = new EventConflictResolver.ConflictResolutionResult(new ArrayList<>(), new HashMap<>());
+        } else {
+            resolution = commit(request).resolution;
+        }
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = request.getDeviceId();
+            jfr.lastKnownServerEventId = afterId;
+            jfr.lag = -1;
+            jfr.pendingEvents = request.getPendingEvents() == null ? 0 : request.getPendingEvents().size();
+            jfr.acceptedEvents = resolution.successClientEventIds.size();
+            jfr.rejectedEvents = resolution.errorClientEventIds.size();
+            jfr.returnedEvents = -1;
+            jfr.payloadBytes = -1;
+            jfr.commit();
+        }
+        List<String> prefixes = subscribedPrefixes(request.getManifestPrefixes());
+        Snapshot snapshot = prefixes == null ? snapshotFor(afterId) : null;
+        StreamingSyncResponse response = new StreamingSyncResponse(resolution.successClientEventIds, resolution.errorClientEventIds, -1,
+                eventStore, snapshot == null ? afterId : snapshot.getServerEventId(), maxEventsPerResponse, maxBytesPerResponse, metrics,
+                prefixes == null ? null : subscriptions.match(prefixes, afterId));
+        response.snapshot = snapshot;
         return response;
     }
+
+    /**
+     * Start a sync whose pending events will be offered one at a time as they are read;
+     * see {@link IncrementalSync}.
+     */
+    public IncrementalSync beginIncremental(String deviceId, long lastKnownServerEventId) {
+        return beginIncremental(deviceId, lastKnownServerEventId, IncrementalSync.DEFAULT_BATCH_SIZE);
+    }
+
+    public IncrementalSync beginIncremental(String deviceId, long lastKnownServerEventId, int batchSize) {
+        return beginIncremental(deviceId, lastKnownServerEventId, null, batchSize);
+    }
+
+    /**
+     * @param manifestPrefixes the device's subscription, null for every event
+     */
+    public IncrementalSync beginIncremental(String deviceId, long lastKnownServerEventId, List<String> manifestPrefixes, int batchSize) {
+        log.info("Handling incremental sync request for device: {}", deviceId);
+        offsetStore.update(deviceId, lastKnownServerEventId);
+        metrics.deviceOffset(deviceId, lastKnownServerEventId);
+        List<String> prefixes = subscribedPrefixes(manifestPrefixes);
+        return new IncrementalSync(eventStore, systole, sequencer, deviceId, lastKnownServerEventId, batchSize,
+                maxEventsPerResponse, maxBytesPerResponse, metrics, prefixes == null ? snapshotFor(lastKnownServerEventId) : null,
+                subscriptions, prefixes);
+    }
+
+    /**
+     * The prefixes to filter diastole by, or null when the device did not subscribe or this
+     * handler has no index to answer it from.
+     */
+    private List<String> subscribedPrefixes(List<String> manifestPrefixes) {
+        return subscriptions == null ? null : manifestPrefixes;
+    }
+
+    private Snapshot snapshotFor(long lastKnownServerEventId) {
+        return snapshots == null ? null : snapshots.forClient(lastKnownServerEventId);
+    }
+
+    private static boolean isEmpty(List<ClientEvent> pendingEvents) {
+        return pendingEvents == null || pendingEvents.isEmpty();
+    }
+
+    /**
+     * Conflict check against every event after the request's lastKnownServerEventId, and systole
+     * for the request's pending events.
+     */
+    private SyncSequencer.Result commit(SyncRequest request) {
+        if (sequencer != null) {
+            // Conflict check and systole run on the sequencer's writer thread, against the head at commit time
+            SyncSequencer.Result result = sequencer.submit(request.getDeviceId(), request.getPendingEvents(), request.getLastKnownServerEventId());
+            log.debug("Sequencer: {} successful, {} failed, appended {} events.", result.resolution.successClientEventIds.size(),
+                    result.resolution.errorClientEventIds.size(), result.appendedEvents.size());
+            return result;
+        }
+        // Resolve conflicts before processing systole
+        long start = System.nanoTime();
+        EventConflictResolver.ConflictResolutionResult resolution =
+                conflictIndex.resolveConflicts(request.getPendingEvents(), request.getLastKnownServerEventId(), false);
+        metrics.conflictResolution(System.nanoTime() - start);
+        metrics.conflictsRejected(resolution.errorClientEventIds);
+        log.debug("Conflict resolution: {} successful, {} failed.", resolution.successClientEventIds.size(), resolution.errorClientEventIds.size());
+
+        // Filter for successful events to be persisted
+        List<ClientEvent> successfulClientEvents = request.getPendingEvents() == null ? new ArrayList<>() : request.getPendingEvents().stream()
+                .filter(ce -> resolution.successClientEventIds.contains(ce.getClientEventId()))
+                .collect(Collectors.toList());
+
+        // Systole: append only the successful pending events
+        log.debug("Systole phase: processing {} successful pending events.", successfulClientEvents.size());
+        List<ServerEvent> appendedEvents = systole.process(request.getDeviceId(), successfulClientEvents);
+        log.debug("Systole phase: appended {} events.", appendedEvents.size());
+        return new SyncSequencer.Result(resolution, appendedEvents);
+    }
 }
@@ -0,0 +1,63 @@
+package com.nagada.pulse.reference.server;
+
+import java.util.Map;
+
+/**
+ * Hook for per-phase measurements of the sync pipeline. Every method does nothing by default,
+ * and {@link #NOOP} is what the pipeline uses unless given an implementation, so disabled
+ * metrics cost a few {@link System#nanoTime()} calls and no allocation. Implementations are
+ * called from request threads and the sequencer's writer thread concurrently.
+ */
+public interface SyncMetrics {
+
+    SyncMetrics NOOP = new SyncMetrics() {
+    };
+
+    /**
+     * Time spent reading the events a device has not seen yet.
+     */
+    default void diastole(long nanos) {
+    }
+
+    /**
+     * Time spent checking one device's pending events for conflicts.
+     */
+    default void conflictResolution(long nanos) {
+    }
+
+    /**
+     * One pending event rejected by the conflict check, with the reason sent to the client.
+     */
+    default void conflictRejected(String reason) {
+    }
+
+    /**
+     * All rejections of one conflict check, keyed by clientEventId; see {@link #conflictRejected}.
+     */
+    default void conflictsRejected(Map<String, String> errorClientEventIds) {
+    }
+
+    /**
+     * Time spent appending one device's accepted events, and how many were appended.
+     */
+    default void systole(long nanos, int appended) {
+    }
+
+    /**
+     * Pending events that were already stored and so were acknowledged without being appended.
+     */
+    default void duplicatesDropped(int count) {
+    }
+
+    /**
+     * Size of one response: its events and their payload bytes.
+     */
+    default void response(int events, long payloadBytes) {
+    }
+
+    /**
+     * A device synced from {@code offset}, the value just stored in its {@link OffsetStore}.
+     */
+    default void deviceOffset(String deviceId, long offset) {
+    }
+}
@@ -0,0 +1,263 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Single-writer stage for the write half of a sync: conflict check, systole and offset update.
+ * <p>
+ * Request threads hand their pending events to a bounded ring buffer and wait for the result.
+ * One writer thread drains the buffer in groups of up to {@code maxGroupSize} submissions and
+ * checks each against the store and against the submissions before it in the group. It then
+ * appends every accepted event of the group in arrival order with one
+ * {@link EventStore#appendGroup}, which stores that defer durability commit as one transaction
+ * and publish only once it is durable, before completing the waiting requests. Every
+ * serverEventId is therefore assigned by one thread in submission order, and the cost of making
+ * a write durable is shared by everything that arrived while the previous group was committing.
+ */
+@Slf4j
+public class SyncSequencer implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_GROUP_SIZE = 64;
+
+    /**
+     * Outcome of one submission.
+     */
+    public static class Result {
+        public final EventConflictResolver.ConflictResolutionResult resolution;
+        public final List<ServerEvent> appendedEvents;
+
+        public Result(EventConflictResolver.ConflictResolutionResult resolution, List<ServerEvent> appendedEvents) {
+            this.resolution = resolution;
+            this.appendedEvents = appendedEvents;
+        }
+    }
+
+    private static final class Submission {
+        final String deviceId;
+        final List<ClientEvent> pendingEvents;
+        final long lastKnownServerEventId;
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+
+        Submission(String deviceId, List<ClientEvent> pendingEvents, long lastKnownServerEventId) {
+            this.deviceId = deviceId;
+            this.pendingEvents = pendingEvents;
+            this.lastKnownServerEventId = lastKnownServerEventId;
+        }
+    }
+
+    private final SystoleProcessor systole;
+    private final ManifestConflictIndex conflictIndex;
+    private final SyncMetrics metrics;
+    private final BlockingQueue<Submission> ring;
+    private final int maxGroupSize;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public SyncSequencer(EventStore eventStore, OffsetStore offsetStore) {
+        this(eventStore, offsetStore, DEFAULT_CAPACITY, DEFAULT_MAX_GROUP_SIZE);
+    }
+
+    public SyncSequencer(EventStore eventStore, OffsetStore offsetStore, int capacity, int maxGroupSize) {
+        this(eventStore, offsetStore, capacity, maxGroupSize, SyncMetrics.NOOP);
+    }
+
+    public SyncSequencer(EventStore eventStore, OffsetStore offsetStore, int capacity, int maxGroupSize, SyncMetrics metrics) {
+        this(eventStore, offsetStore, capacity, maxGroupSize, metrics, new ManifestConflictIndex(eventStore));
+    }
+
+    /**
+     * @param conflictIndex checks each submission; a {@link SyncHandler} using this sequencer
+     *                      runs every conflict check here, so it needs no index of its own
+     */
+    public SyncSequencer(EventStore eventStore, OffsetStore offsetStore, int capacity, int maxGroupSize, SyncMetrics metrics,
+                         ManifestConflictIndex conflictIndex) {
+        this.conflictIndex = conflictIndex;
+        this.systole = new SystoleProcessor(eventStore, offsetStore, metrics);
+        this.metrics = metrics;
+        this.ring = new ArrayBlockingQueue<>(capacity);
+        this.maxGroupSize = maxGroupSize;
+        this.writer = new Thread(this::run, "nagada-sync-sequencer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a device's pending events and return once they are resolved against every event
+     * after {@code lastKnownServerEventId} and committed.
+     */
+    public Result submit(String deviceId, List<ClientEvent> pendingEvents, long lastKnownServerEventId) {
+        if (!running) {
+            throw new IllegalStateException("SyncSequencer is closed");
+        }
+        Submission submission = new Submission(deviceId, pendingEvents, lastKnownServerEventId);
+        try {
+            ring.put(submission);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing sync for device " + deviceId, e);
+        }
+        if (!running && ring.remove(submission)) {
+            throw new IllegalStateException("SyncSequencer is closed");
+        }
+        try {
+            return submission.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        List<Submission> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                group.add(ring.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            ring.drainTo(group, maxGroupSize - 1);
+            commit(group);
+            group.clear();
+        }
+        List<Submission> abandoned = new ArrayList<>();
+        ring.drainTo(abandoned);
+        for (Submission submission : abandoned) {
+            submission.result.completeExceptionally(new IllegalStateException("SyncSequencer is closed"));
+        }
+    }
+
+    private void commit(List<Submission> group) {
+        List<Submission> resolved = new ArrayList<>(group.size());
+        List<EventConflictResolver.ConflictResolutionResult> resolutions = new ArrayList<>(group.size());
+        List<String> deviceIds = new ArrayList<>(group.size());
+        List<List<ClientEvent>> accepted = new ArrayList<>(group.size());
+        Map<String, List<String>> groupWriters = new HashMap<>();
+        boolean anyAccepted = false;
+        for (Submission submission : group) {
+            try {
+                List<ClientEvent> batch = new ArrayList<>();
+                resolutions.add(resolve(submission, groupWriters, batch));
+                resolved.add(submission);
+                deviceIds.add(submission.deviceId);
+                accepted.add(batch);
+                anyAccepted |= !batch.isEmpty();
+            } catch (RuntimeException e) {
+                log.error("Sync for device {} failed in sequencer", submission.deviceId, e);
+                submission.result.completeExceptionally(e);
+            }
+        }
+        List<List<ServerEvent>> appended;
+        try {
+            appended = anyAccepted ? systole.processGroup(deviceIds, accepted) : emptyBatches(resolved.size());
+        } catch (RuntimeException e) {
+            log.error("Group commit of {} submissions failed", resolved.size(), e);
+            for (Submission submission : resolved) {
+                submission.result.completeExceptionally(e);
+            }
+            return;
+        }
+        log.debug("Committed group of {} submissions", resolved.size());
+        for (int i = 0; i < resolved.size(); i++) {
+            resolved.get(i).result.complete(new Result(resolutions.get(i), appended.get(i)));
+        }
+    }
+
+    /**
+     * Check a submission against the store and against the events accepted earlier in this
+     * group, which are not appended yet and which its client cannot have seen either. Adds the
+     * accepted events to {@code accepted} and their manifest keys to {@code groupWriters}.
+     */
+    private EventConflictResolver.ConflictResolutionResult resolve(Submission submission, Map<String, List<String>> groupWriters,
+                                                                   List<ClientEvent> accepted) {
+        long start = System.nanoTime();
+        EventConflictResolver.ConflictResolutionResult resolution =
+                conflictIndex.resolveConflicts(submission.pendingEvents, submission.lastKnownServerEventId, false);
+        if (submission.pendingEvents != null) {
+            Set<String> pendingIds = new HashSet<>();
+            for (ClientEvent clientEvent : submission.pendingEvents) {
+                pendingIds.add(clientEvent.getClientEventId());
+            }
+            Set<String> successIds = new HashSet<>(resolution.successClientEventIds);
+            List<String> successClientEventIds = new ArrayList<>();
+            Map<String, String> errorClientEventIds = new HashMap<>(resolution.errorClientEventIds);
+            for (ClientEvent clientEvent : submission.pendingEvents) {
+                if (!successIds.contains(clientEvent.getClientEventId())) {
+                    continue;
+                }
+                if (writtenInGroup(clientEvent, groupWriters, pendingIds)) {
+                    errorClientEventIds.put(clientEvent.getClientEventId(), EventConflictResolver.OVERLAP);
+                    continue;
+                }
+                successClientEventIds.add(clientEvent.getClientEventId());
+                accepted.add(clientEvent);
+            }
+            for (ClientEvent clientEvent : accepted) {
+                if (clientEvent.getPayloadManifest() != null) {
+                    for (String key : clientEvent.getPayloadManifest()) {
+                        groupWriters.computeIfAbsent(key, k -> new ArrayList<>()).add(clientEvent.getClientEventId());
+                    }
+                }
+            }
+            resolution = new EventConflictResolver.ConflictResolutionResult(successClientEventIds, errorClientEventIds);
+        }
+        metrics.conflictResolution(System.nanoTime() - start);
+        metrics.conflictsRejected(resolution.errorClientEventIds);
+        return resolution;
+    }
+
+    private static boolean writtenInGroup(ClientEvent clientEvent, Map<String, List<String>> groupWriters, Set<String> pendingIds) {
+        if (clientEvent.getPayloadManifest() == null) {
+            return false;
+        }
+        for (String key : clientEvent.getPayloadManifest()) {
+            List<String> writers = groupWriters.get(key);
+            if (writers == null) {
+                continue;
+            }
+            for (String writer : writers) {
+                if (!pendingIds.contains(writer)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<List<ServerEvent>> emptyBatches(int count) {
+        List<List<ServerEvent>> batches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            batches.add(new ArrayList<>());
+        }
+        return batches;
+    }
+
+    /**
+     * Stop accepting submissions, let the writer finish its current group and fail anything
+     * still queued.
+     */
+    @Override
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
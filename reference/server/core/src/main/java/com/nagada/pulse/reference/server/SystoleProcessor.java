@@ -15,40 +15,87 @@ public class SystoleProcessor {
 
     private final EventStore eventStore;
     private final OffsetStore offsetStore;
+    private final SyncMetrics metrics;
 
     public SystoleProcessor(EventStore eventStore, OffsetStore offsetStore) {
+        this(eventStore, offsetStore, SyncMetrics.NOOP);
+    }
+
+    public SystoleProcessor(EventStore eventStore, OffsetStore offsetStore, SyncMetrics metrics) {
         this.eventStore = eventStore;
         this.offsetStore = offsetStore;
+        this.metrics = metrics;
     }
 
     /**
-     * Process incoming client events: append new ones, return list of appended server events.
+     * Process incoming client events: append new ones in one batch, return list of appended server events.
+     * Duplicates are silently ignored (idempotent behavior); the device offset is advanced once, to the last appended id.
      */
     public List<ServerEvent> process(String deviceId, List<ClientEvent> pendingEvents) {
+        if (pendingEvents == null || pendingEvents.isEmpty()) {
+            return new ArrayList<>(); // nothing incoming, nothing appended
+        }
         log.debug("Processing {} pending events from device: {}", pendingEvents.size(), deviceId);
-        List<ServerEvent> appendedEvents = new ArrayList<>();
 
-        if (pendingEvents == null || pendingEvents.isEmpty()) {
-            return appendedEvents; // nothing incoming, nothing appended
+        JfrSystoleEvent jfr = new JfrSystoleEvent();
+        jfr.begin();
+        long start = System.nanoTime();
+        List<ServerEvent> appendedEvents = eventStore.appendAll(deviceId, pendingEvents);
+        if (!appendedEvents.isEmpty()) {
+            offsetStore.update(deviceId, appendedEvents.get(appendedEvents.size() - 1).getServerEventId());
+        }
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = deviceId;
+            jfr.pendingEvents = pendingEvents.size();
+            jfr.appendedEvents = appendedEvents.size();
+            jfr.payloadBytes = JfrSystoleEvent.payloadBytes(pendingEvents);
+            jfr.commit();
         }
+        metrics.systole(System.nanoTime() - start, appendedEvents.size());
+        if (appendedEvents.size() < pendingEvents.size()) {
+            metrics.duplicatesDropped(pendingEvents.size() - appendedEvents.size());
+        }
+        log.debug("Finished processing pending events for device: {}. Appended {} new events, ignored {} duplicates.",
+                deviceId, appendedEvents.size(), pendingEvents.size() - appendedEvents.size());
+        return appendedEvents;
+    }
 
-        for (ClientEvent clientEvent : pendingEvents) {
-            boolean exists = eventStore.exists(deviceId, clientEvent.getClientEventId());
-            log.trace("Event {} from device {} exists? {}", clientEvent.getClientEventId(), deviceId, exists);
-
-            if (!exists) {
-                // ID is new → Append to global event log
-                log.debug("Appending new event {} from device {}", clientEvent.getClientEventId(), deviceId);
-                ServerEvent storedEvent = eventStore.append(deviceId, clientEvent);
-                appendedEvents.add(storedEvent);
-                offsetStore.update(deviceId, storedEvent.getServerEventId());
-            } else {
-                log.trace("Ignoring duplicate event {} from device {}", clientEvent.getClientEventId(), deviceId);
+    /**
+     * Process several devices' events through one {@link EventStore#appendGroup}, then advance each
+     * device's offset. Returns the appended server events per device, in the order given.
+     */
+    public List<List<ServerEvent>> processGroup(List<String> deviceIds, List<List<ClientEvent>> pendingEvents) {
+        JfrSystoleEvent jfr = new JfrSystoleEvent();
+        jfr.begin();
+        long start = System.nanoTime();
+        List<List<ServerEvent>> appendedEvents = eventStore.appendGroup(deviceIds, pendingEvents);
+        int pending = 0;
+        int appended = 0;
+        for (int i = 0; i < appendedEvents.size(); i++) {
+            List<ServerEvent> events = appendedEvents.get(i);
+            if (!events.isEmpty()) {
+                offsetStore.update(deviceIds.get(i), events.get(events.size() - 1).getServerEventId());
             }
-
-            // if exists → silently ignore (idempotent behavior)
+            pending += pendingEvents.get(i).size();
+            appended += events.size();
+        }
+        jfr.end();
+        if (jfr.shouldCommit()) {
+            jfr.deviceId = deviceIds.size() == 1 ? deviceIds.get(0) : null;
+            jfr.pendingEvents = pending;
+            jfr.appendedEvents = appended;
+            for (List<ClientEvent> batch : pendingEvents) {
+                jfr.payloadBytes += JfrSystoleEvent.payloadBytes(batch);
+            }
+            jfr.commit();
+        }
+        metrics.systole(System.nanoTime() - start, appended);
+        if (appended < pending) {
+            metrics.duplicatesDropped(pending - appended);
         }
-        log.debug("Finished processing pending events for device: {}. Appended {} new events.", deviceId, appendedEvents.size());
+        log.debug("Finished processing a group of {} devices. Appended {} new events, ignored {} duplicates.",
+                deviceIds.size(), appended, pending - appended);
         return appendedEvents;
     }
 }
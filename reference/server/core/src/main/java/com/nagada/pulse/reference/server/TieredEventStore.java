@@ -0,0 +1,474 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EventStore keeping the newest events on heap and the rest compressed on disk.
+ * <p>
+ * The hot tier holds events in chunks of {@value #CHUNK_SIZE}, as {@link ChunkedEventLog} does.
+ * Once it holds more than {@code hotEvents} events or {@code hotBytes} payload bytes, its oldest
+ * full chunk is written to a {@link CompressedSegmentLog} as one block and dropped, so heap use
+ * stays bounded by the hot limits, the block index and the {@link IdempotencyIndex} budget,
+ * however long the history grows.
+ * <p>
+ * {@link #listAfter} and {@link #iterateAfter} read the cold blocks they need and then the hot
+ * tier. A chunk is published to the cold tier before it leaves the hot one, so a reader sees
+ * every event in at least one of them. A read that starts inside the hot tier is a hot hit and
+ * costs no more than {@link InMemoryEventStore}; one that starts before it is a hot miss.
+ * <p>
+ * Like {@link InMemoryEventStore} the store is not durable: the cold files are scratch space,
+ * cleared on open and deleted on close.
+ */
+@Slf4j
+public class TieredEventStore implements EventStore, Closeable {
+
+    public static final int DEFAULT_HOT_EVENTS = 64 * 1024;
+    public static final long DEFAULT_HOT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_COLD_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Immutable view of the hot tier: the first {@code size} slots of the chunk table.
+     */
+    private static final class HotWindow {
+        final ServerEvent[][] chunks;
+        final int size;
+
+        HotWindow(ServerEvent[][] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        ServerEvent get(int index) {
+            return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+        }
+
+        /** Position of the first event with serverEventId > afterId, or size. */
+        int indexAfter(long afterId) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (get(mid).getServerEventId() > afterId) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A cold block and its decoded events.
+     */
+    private static final class ColdBlock {
+        final CompressedSegmentLog.Block block;
+        final List<ServerEvent> events;
+
+        ColdBlock(CompressedSegmentLog.Block block, List<ServerEvent> events) {
+            this.block = block;
+            this.events = events;
+        }
+    }
+
+    private final Object appendLock = new Object();
+    private final int hotEvents;
+    private final long hotBytesLimit;
+    private final CompressedSegmentLog cold;
+    private final IdempotencyIndex seenClientEvents;
+    private final HeadNotifier headNotifier = new HeadNotifier();
+    private volatile HotWindow hot = new HotWindow(new ServerEvent[16][], 0);
+    private volatile ColdBlock lastColdBlock;
+    private long nextId = 1;
+    private long hotBytes;
+
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder hotMisses = new LongAdder();
+    private final LongAdder coldBlockReads = new LongAdder();
+
+    public TieredEventStore(Path coldDirectory) throws IOException {
+        this(coldDirectory, DEFAULT_HOT_EVENTS, DEFAULT_HOT_BYTES, DEFAULT_COLD_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param hotEvents      events kept on heap, at least one chunk of {@value #CHUNK_SIZE}
+     * @param hotBytes       payload bytes kept on heap; the chunk being filled always stays
+     * @param coldSegmentBytes size at which the cold tier starts a new file
+     */
+    public TieredEventStore(Path coldDirectory, int hotEvents, long hotBytes, long coldSegmentBytes) throws IOException {
+        if (hotEvents < CHUNK_SIZE) {
+            throw new IllegalArgumentException("hotEvents must be at least " + CHUNK_SIZE);
+        }
+        this.hotEvents = hotEvents;
+        this.hotBytesLimit = hotBytes;
+        this.cold = new CompressedSegmentLog(coldDirectory, coldSegmentBytes);
+        this.seenClientEvents = new IdempotencyIndex(this::scanForOrigin, this::forEachOrigin);
+    }
+
+    @Override
+    public ServerEvent append(String deviceId, ClientEvent clientEvent) {
+        ServerEvent event;
+        synchronized (appendLock) {
+            event = toServerEvent(nextId++, deviceId, clientEvent);
+            log.debug("Appending event from device: {} with clientEventId: {} as serverEventId: {}", deviceId, clientEvent.getClientEventId(), event.getServerEventId());
+            place(List.of(event));
+            seenClientEvents.record(deviceId, clientEvent.getClientEventId());
+            spill();
+        }
+        headNotifier.publish(event.getServerEventId());
+        return event;
+    }
+
+    @Override
+    public List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        List<ServerEvent> appended = new ArrayList<>(clientEvents.size());
+        seenClientEvents.prepare(deviceId, clientEvents);
+        synchronized (appendLock) {
+            Set<String> batchIds = new HashSet<>();
+            for (ClientEvent clientEvent : clientEvents) {
+                String clientEventId = clientEvent.getClientEventId();
+                if (seenClientEvents.exists(deviceId, clientEventId) || !batchIds.add(clientEventId)) {
+                    log.trace("Ignoring duplicate event {} from device {}", clientEventId, deviceId);
+                    continue;
+                }
+                appended.add(toServerEvent(nextId++, deviceId, clientEvent));
+            }
+            if (!appended.isEmpty()) {
+                place(appended);
+                for (ServerEvent event : appended) {
+                    seenClientEvents.record(deviceId, event.getOriginClientEventId());
+                }
+                spill();
+            }
+        }
+        if (!appended.isEmpty()) {
+            headNotifier.publish(appended.get(appended.size() - 1).getServerEventId());
+        }
+        return appended;
+    }
+
+    private static ServerEvent toServerEvent(long id, String deviceId, ClientEvent clientEvent) {
+        return new ServerEvent(id, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(), clientEvent.getPayloadManifest(), clientEvent.getCreatedAt());
+    }
+
+    private static long payloadBytes(ServerEvent event) {
+        return event.getPayload() == null ? 0 : event.getPayload().length;
+    }
+
+    /**
+     * Add events to the hot tier; readers see all of them or none.
+     */
+    private void place(List<ServerEvent> events) {
+        HotWindow window = hot;
+        ServerEvent[][] chunks = window.chunks;
+        int index = window.size;
+        for (ServerEvent event : events) {
+            int chunkIndex = index >>> CHUNK_SHIFT;
+            if (chunkIndex == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[chunkIndex] == null) {
+                chunks[chunkIndex] = new ServerEvent[CHUNK_SIZE];
+            }
+            chunks[chunkIndex][index & CHUNK_MASK] = event;
+            hotBytes += payloadBytes(event);
+            index++;
+        }
+        hot = new HotWindow(chunks, index);
+    }
+
+    /**
+     * Move full chunks from the hot tier to the cold one while the hot tier is over its limits.
+     */
+    private void spill() {
+        HotWindow window = hot;
+        while (window.size > CHUNK_SIZE && (window.size - CHUNK_SIZE >= hotEvents || hotBytes > hotBytesLimit)) {
+            List<ServerEvent> chunk = Arrays.asList(window.chunks[0]);
+            try {
+                cold.append(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to move events " + chunk.get(0).getServerEventId() + ".."
+                        + chunk.get(CHUNK_SIZE - 1).getServerEventId() + " to the cold tier", e);
+            }
+            for (ServerEvent event : chunk) {
+                hotBytes -= payloadBytes(event);
+            }
+            // A new table, so readers holding the old window keep the chunk until they are done.
+            window = new HotWindow(Arrays.copyOfRange(window.chunks, 1, window.chunks.length), window.size - CHUNK_SIZE);
+            hot = window;
+            log.debug("Moved events {}..{} to the cold tier", chunk.get(0).getServerEventId(), chunk.get(CHUNK_SIZE - 1).getServerEventId());
+        }
+    }
+
+    @Override
+    public List<ServerEvent> listAfter(long afterId) {
+        HotWindow window = hot;
+        if (servedByHot(window, afterId)) {
+            hotHits.increment();
+            int from = window.indexAfter(afterId);
+            return from == window.size ? Collections.emptyList() : new HotView(window, from);
+        }
+        hotMisses.increment();
+        List<ServerEvent> result = new ArrayList<>();
+        iterateAfter(window, afterId).forEachRemaining(result::add);
+        return result;
+    }
+
+    @Override
+    public Iterator<ServerEvent> iterateAfter(long afterId) {
+        HotWindow window = hot;
+        if (servedByHot(window, afterId)) {
+            hotHits.increment();
+            return new HotView(window, window.indexAfter(afterId)).iterator();
+        }
+        hotMisses.increment();
+        return iterateAfter(window, afterId);
+    }
+
+    /**
+     * True when no event after afterId is older than the window. Once the hot tier has spilled it
+     * always keeps at least one chunk, so an empty window means an empty store.
+     */
+    private static boolean servedByHot(HotWindow window, long afterId) {
+        return window.size == 0 || window.get(0).getServerEventId() <= afterId + 1;
+    }
+
+    /**
+     * Cold blocks after afterId one at a time, then the hot window read before them. Every event
+     * older than the window was in the cold tier before the window was published.
+     */
+    private Iterator<ServerEvent> iterateAfter(HotWindow window, long afterId) {
+        long hotFirstId = window.size == 0 ? Long.MAX_VALUE : window.get(0).getServerEventId();
+        return new Iterator<ServerEvent>() {
+            private int nextBlock = cold.blockAfter(afterId);
+            private List<ServerEvent> batch = Collections.emptyList();
+            private int next;
+            private int nextHot = -1;
+
+            @Override
+            public boolean hasNext() {
+                while (nextHot < 0) {
+                    if (next < batch.size()) {
+                        if (batch.get(next).getServerEventId() < hotFirstId) {
+                            return true;
+                        }
+                        // The rest was still hot when the window was read.
+                        nextHot = 0;
+                        break;
+                    }
+                    if (nextBlock < cold.blockCount() && cold.block(nextBlock).firstId < hotFirstId) {
+                        batch = cold.read(cold.block(nextBlock++));
+                        coldBlockReads.increment();
+                        next = 0;
+                        while (next < batch.size() && batch.get(next).getServerEventId() <= afterId) {
+                            next++;
+                        }
+                    } else {
+                        nextHot = 0;
+                    }
+                }
+                return nextHot < window.size;
+            }
+
+            @Override
+            public ServerEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (nextHot < 0) {
+                    return batch.get(next++);
+                }
+                return window.get(nextHot++);
+            }
+        };
+    }
+
+    /**
+     * Binary search of the hot window, or of the one cold block that can hold the id. The last
+     * cold block read is kept, so the ids of a subscription that fall in it decompress it once.
+     */
+    @Override
+    public ServerEvent get(long serverEventId) {
+        HotWindow window = hot;
+        if (window.size > 0 && window.get(0).getServerEventId() <= serverEventId) {
+            int index = window.indexAfter(serverEventId - 1);
+            return index < window.size && window.get(index).getServerEventId() == serverEventId ? window.get(index) : null;
+        }
+        int b = cold.blockAfter(serverEventId - 1);
+        if (b >= cold.blockCount() || cold.block(b).firstId > serverEventId) {
+            return null;
+        }
+        CompressedSegmentLog.Block block = cold.block(b);
+        ColdBlock cached = lastColdBlock;
+        if (cached == null || cached.block != block) {
+            coldBlockReads.increment();
+            cached = new ColdBlock(block, cold.read(block));
+            lastColdBlock = cached;
+        }
+        List<ServerEvent> events = cached.events;
+        int low = 0;
+        int high = events.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = events.get(mid).getServerEventId();
+            if (id < serverEventId) {
+                low = mid + 1;
+            } else if (id > serverEventId) {
+                high = mid - 1;
+            } else {
+                return events.get(mid);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean exists(String deviceId, String clientEventId) {
+        return seenClientEvents.exists(deviceId, clientEventId);
+    }
+
+    /**
+     * Exact, newest-first search of both tiers; only reached when the idempotency index misses.
+     */
+    private boolean scanForOrigin(String deviceId, String clientEventId) {
+        HotWindow window = hot;
+        for (int i = window.size - 1; i >= 0; i--) {
+            if (isOrigin(window.get(i), deviceId, clientEventId)) {
+                return true;
+            }
+        }
+        for (int b = cold.blockCount() - 1; b >= 0; b--) {
+            coldBlockReads.increment();
+            for (ServerEvent event : cold.read(cold.block(b))) {
+                if (isOrigin(event, deviceId, clientEventId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every clientEventId stored for the device in either tier.
+     */
+    private void forEachOrigin(String deviceId, Consumer<String> clientEventIds) {
+        for (int b = 0; b < cold.blockCount(); b++) {
+            coldBlockReads.increment();
+            for (ServerEvent event : cold.read(cold.block(b))) {
+                if (deviceId.equals(event.getOriginClientDeviceId())) {
+                    clientEventIds.accept(event.getOriginClientEventId());
+                }
+            }
+        }
+        HotWindow window = hot;
+        for (int i = 0; i < window.size; i++) {
+            ServerEvent event = window.get(i);
+            if (deviceId.equals(event.getOriginClientDeviceId())) {
+                clientEventIds.accept(event.getOriginClientEventId());
+            }
+        }
+    }
+
+    private static boolean isOrigin(ServerEvent event, String deviceId, String clientEventId) {
+        return clientEventId.equals(event.getOriginClientEventId()) && deviceId.equals(event.getOriginClientDeviceId());
+    }
+
+    @Override
+    public void addHeadListener(HeadListener listener) {
+        headNotifier.add(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+        headNotifier.remove(listener);
+    }
+
+    /** Reads served from the hot tier alone. */
+    public long hotHitCount() {
+        return hotHits.sum();
+    }
+
+    /** Reads that started before the hot tier and went to the cold one. */
+    public long hotMissCount() {
+        return hotMisses.sum();
+    }
+
+    /** Cold blocks read and decompressed, by reads and idempotency lookups. */
+    public long coldBlockReadCount() {
+        return coldBlockReads.sum();
+    }
+
+    public int hotEventCount() {
+        return hot.size;
+    }
+
+    /** Payload bytes of the events in the hot tier. */
+    public long hotPayloadBytes() {
+        synchronized (appendLock) {
+            return hotBytes;
+        }
+    }
+
+    public long coldEventCount() {
+        return cold.eventCount();
+    }
+
+    /** Size of the cold tier on disk. */
+    public long coldCompressedBytes() {
+        return cold.compressedBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            cold.close();
+        }
+    }
+
+    /**
+     * Read-only list over a hot window from position {@code from}; does not copy events.
+     */
+    private static final class HotView extends AbstractList<ServerEvent> {
+        private final HotWindow window;
+        private final int from;
+
+        HotView(HotWindow window, int from) {
+            this.window = window;
+            this.from = from;
+        }
+
+        @Override
+        public ServerEvent get(int index) {
+            if (index < 0 || index >= window.size - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (window.size - from));
+            }
+            return window.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return window.size - from;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkedEventLogTest {
+
+    private static ServerEvent event(long id) {
+        return new ServerEvent(id, "c" + id, "device-1", "p".getBytes(), List.of(), 0L);
+    }
+
+    @Test
+    void viewAfterShouldSeekAcrossChunkBoundaries() {
+        // Given more events than fit in a single chunk
+        ChunkedEventLog log = new ChunkedEventLog();
+        for (long id = 1; id <= 5000; id++) {
+            log.append(event(id));
+        }
+
+        // When
+        List<ServerEvent> tail = log.viewAfter(4090);
+
+        // Then
+        assertThat(log.size()).isEqualTo(5000);
+        assertThat(tail).hasSize(910);
+        assertThat(tail.get(0).getServerEventId()).isEqualTo(4091L);
+        assertThat(tail.get(909).getServerEventId()).isEqualTo(5000L);
+        assertThat(log.viewAfter(0)).hasSize(5000);
+        assertThat(log.viewAfter(5000)).isEmpty();
+    }
+
+    @Test
+    void viewAfterShouldHandleGapsInServerEventIds() {
+        ChunkedEventLog log = new ChunkedEventLog();
+        log.append(event(2));
+        log.append(event(5));
+        log.append(event(9));
+
+        assertThat(log.viewAfter(3)).extracting(ServerEvent::getServerEventId).containsExactly(5L, 9L);
+        assertThat(log.viewAfter(5)).extracting(ServerEvent::getServerEventId).containsExactly(9L);
+        assertThat(log.first().getServerEventId()).isEqualTo(2L);
+        assertThat(log.last().getServerEventId()).isEqualTo(9L);
+    }
+
+    @Test
+    void viewShouldNotSeeEventsAppendedAfterItWasTaken() {
+        ChunkedEventLog log = new ChunkedEventLog();
+        log.append(event(1));
+        List<ServerEvent> view = log.viewAfter(0);
+
+        log.append(event(2));
+
+        assertThat(view).hasSize(1);
+        assertThat(log.viewAfter(0)).hasSize(2);
+    }
+
+    @Test
+    void concurrentAppendsShouldProduceContiguousOrderedLog() throws Exception {
+        // Given several request threads appending to the same store
+        InMemoryEventStore store = new InMemoryEventStore();
+        int threads = 8;
+        int perThread = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            String deviceId = "device-" + t;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    store.append(deviceId, new ClientEvent(deviceId + "-" + i, "t", "p".getBytes(), List.of(), 0L));
+                    // Readers run alongside writers without blocking them
+                    store.listAfter(i);
+                }
+                return null;
+            });
+        }
+
+        // When
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        // Then every id is present exactly once and in ascending order
+        List<ServerEvent> events = store.listAfter(0);
+        assertThat(events).hasSize(threads * perThread);
+        for (int i = 0; i < events.size(); i++) {
+            assertThat(events.get(i).getServerEventId()).isEqualTo(i + 1L);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IdempotencyIndexTest {
+
+    private static String key(String deviceId, String clientEventId) {
+        return deviceId + "/" + clientEventId;
+    }
+
+    private static void history(Set<String> durable, String deviceId, Consumer<String> clientEventIds) {
+        for (String key : durable) {
+            if (key.startsWith(deviceId + "/")) {
+                clientEventIds.accept(key.substring(deviceId.length() + 1));
+            }
+        }
+    }
+
+    private static List<ClientEvent> events(String... clientEventIds) {
+        List<ClientEvent> events = new ArrayList<>();
+        for (String clientEventId : clientEventIds) {
+            events.add(new ClientEvent(clientEventId, "t", "p".getBytes(), List.of(), 0L));
+        }
+        return events;
+    }
+
+    @Test
+    void shouldAnswerRecentAndUnknownIdsWithoutDurableLookup() {
+        // Given
+        IdempotencyIndex index = new IdempotencyIndex((deviceId, clientEventId) -> {
+            throw new AssertionError("unexpected durable lookup");
+        }, (deviceId, clientEventIds) -> {
+            throw new AssertionError("unexpected rebuild");
+        });
+        index.record("device-1", "c1");
+
+        // When / Then
+        assertThat(index.exists("device-1", "c1")).isTrue();
+        assertThat(index.exists("device-2", "c1")).isFalse();
+        assertThat(index.durableLookupCount()).isZero();
+    }
+
+    @Test
+    void shouldStayExactForIdsOutsideTheRecentWindow() {
+        // Given a window of 4 ids and a durable store holding everything recorded
+        Set<String> durable = new HashSet<>();
+        IdempotencyIndex index = new IdempotencyIndex(4, Long.MAX_VALUE,
+                (deviceId, clientEventId) -> durable.contains(key(deviceId, clientEventId)),
+                (deviceId, clientEventIds) -> history(durable, deviceId, clientEventIds));
+        for (int i = 0; i < 1000; i++) {
+            durable.add(key("device-1", "c" + i));
+            index.record("device-1", "c" + i);
+        }
+
+        // When / Then every stored id is found, every other id is rejected
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.exists("device-1", "c" + i)).isTrue();
+        }
+        for (int i = 1000; i < 2000; i++) {
+            assertThat(index.exists("device-1", "c" + i)).isFalse();
+        }
+        // Most unknown ids are settled by the Bloom filter alone.
+        assertThat(index.durableLookupCount()).isLessThan(1000 + 100);
+    }
+
+    @Test
+    void shouldEvictDevicesToStayWithinBudgetAndFallBackForThem() {
+        // Given a budget far smaller than what 2000 devices need
+        Set<String> durable = new HashSet<>();
+        long budget = 64 * 1024;
+        IdempotencyIndex index = new IdempotencyIndex(16, budget,
+                (deviceId, clientEventId) -> durable.contains(key(deviceId, clientEventId)),
+                (deviceId, clientEventIds) -> history(durable, deviceId, clientEventIds));
+
+        // When
+        for (int d = 0; d < 2000; d++) {
+            for (int i = 0; i < 10; i++) {
+                durable.add(key("device-" + d, "c" + i));
+                index.record("device-" + d, "c" + i);
+            }
+        }
+
+        // Then memory stays bounded and evicted devices still dedup exactly
+        assertThat(index.estimatedBytes()).isLessThanOrEqualTo(budget);
+        assertThat(index.evictionCount()).isPositive();
+        assertThat(index.deviceCount()).isLessThan(2000);
+        assertThat(index.exists("device-0", "c3")).isTrue();
+        assertThat(index.exists("device-0", "c99")).isFalse();
+
+        // A new id recorded for an evicted device must not hide its older ids
+        durable.add(key("device-0", "c10"));
+        index.record("device-0", "c10");
+        assertThat(index.exists("device-0", "c10")).isTrue();
+        assertThat(index.exists("device-0", "c4")).isTrue();
+    }
+
+    @Test
+    void shouldRebuildAReturningDeviceSoNewIdsNeedNoDurableLookup() {
+        // Given a budget that evicts most of 2000 devices
+        Set<String> durable = new HashSet<>();
+        IdempotencyIndex index = new IdempotencyIndex(16, 64 * 1024,
+                (deviceId, clientEventId) -> durable.contains(key(deviceId, clientEventId)),
+                (deviceId, clientEventIds) -> history(durable, deviceId, clientEventIds));
+        for (int d = 0; d < 2000; d++) {
+            for (int i = 0; i < 10; i++) {
+                durable.add(key("device-" + d, "c" + i));
+                index.record("device-" + d, "c" + i);
+            }
+        }
+        assertThat(index.deviceCount()).isLessThan(2000);
+        long lookupsBefore = index.durableLookupCount();
+        long rebuildsBefore = index.rebuildCount();
+
+        // When the evicted device returns with a batch of new ids
+        List<ClientEvent> batch = events("n0", "n1", "n2", "n3", "n4", "n5", "n6", "n7");
+        index.prepare("device-0", batch);
+
+        // Then its filter is rebuilt once and the batch is settled in memory
+        assertThat(index.rebuildCount() - rebuildsBefore).isEqualTo(1);
+        long lookupsAfterPrepare = index.durableLookupCount();
+        assertThat(lookupsAfterPrepare - lookupsBefore).isLessThanOrEqualTo(1);
+        for (ClientEvent event : batch) {
+            assertThat(index.exists("device-0", event.getClientEventId())).isFalse();
+        }
+        assertThat(index.exists("device-0", "c3")).isTrue();
+        assertThat(index.durableLookupCount() - lookupsAfterPrepare).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    void aReturningDeviceThatIsNotPreparedShouldBeRebuiltOnItsFirstLookup() {
+        // Given a budget that evicts most of 2000 devices
+        Set<String> durable = new HashSet<>();
+        IdempotencyIndex index = new IdempotencyIndex(16, 64 * 1024,
+                (deviceId, clientEventId) -> durable.contains(key(deviceId, clientEventId)),
+                (deviceId, clientEventIds) -> history(durable, deviceId, clientEventIds));
+        for (int d = 0; d < 2000; d++) {
+            for (int i = 0; i < 10; i++) {
+                durable.add(key("device-" + d, "c" + i));
+                index.record("device-" + d, "c" + i);
+            }
+        }
+        long lookupsBefore = index.durableLookupCount();
+        long rebuildsBefore = index.rebuildCount();
+
+        // When the evicted device checks and records new ids one at a time, as append() does
+        for (int i = 0; i < 8; i++) {
+            assertThat(index.exists("device-0", "n" + i)).isFalse();
+            durable.add(key("device-0", "n" + i));
+            index.record("device-0", "n" + i);
+        }
+
+        // Then its filter was rebuilt once, and its stored and new ids are answered from memory
+        assertThat(index.rebuildCount() - rebuildsBefore).isEqualTo(1);
+        assertThat(index.exists("device-0", "c3")).isTrue();
+        assertThat(index.exists("device-0", "n3")).isTrue();
+        assertThat(index.durableLookupCount() - lookupsBefore).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void inMemoryStoreShouldDedupAfterIndexEviction() {
+        // Given a store whose index can only hold a handful of devices
+        InMemoryEventStore store = new InMemoryEventStore(2, 8 * 1024);
+        for (int d = 0; d < 200; d++) {
+            store.appendAll("device-" + d, List.of(
+                    new ClientEvent("c1", "t", "p".getBytes(), List.of(), 0L),
+                    new ClientEvent("c2", "t", "p".getBytes(), List.of(), 0L),
+                    new ClientEvent("c3", "t", "p".getBytes(), List.of(), 0L)));
+        }
+
+        // When the first device resends its whole batch
+        store.appendAll("device-0", List.of(
+                new ClientEvent("c1", "t", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c2", "t", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c4", "t", "p".getBytes(), List.of(), 0L)));
+
+        // Then only the new event is stored
+        assertThat(store.getIdempotencyIndex().evictionCount()).isPositive();
+        assertThat(store.listAfter(0)).hasSize(601);
+        assertThat(store.exists("device-0", "c1")).isTrue();
+        assertThat(store.exists("device-0", "c4")).isTrue();
+        assertThat(store.exists("device-0", "c5")).isFalse();
+    }
+}
@@ -1,6 +1,7 @@
 package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
 import com.nagada.pulse.protocol.SyncRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -38,4 +39,24 @@ public class IdempotencyTest {
         // Then the event store still has only one event
         assertThat(eventStore.listAfter(0)).hasSize(1);
     }
+
+    @Test
+    void appendAllShouldSkipStoredAndRepeatedEventsAndAssignContiguousIds() {
+        // Given one event already stored for the device
+        eventStore.append("device-1", new ClientEvent("c1", "test", "p".getBytes(), List.of(), 0L));
+        eventStore.append("device-2", new ClientEvent("other", "test", "p".getBytes(), List.of(), 0L));
+
+        // When a batch repeats it, and repeats an id within itself
+        List<ServerEvent> appended = eventStore.appendAll("device-1", List.of(
+                new ClientEvent("c1", "test", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c2", "test", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c2", "test", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c3", "test", "p".getBytes(), List.of(), 0L)));
+
+        // Then only the new events are stored, with a contiguous id range
+        assertThat(appended).extracting(ServerEvent::getOriginClientEventId).containsExactly("c2", "c3");
+        assertThat(appended).extracting(ServerEvent::getServerEventId).containsExactly(3L, 4L);
+        assertThat(eventStore.listAfter(0)).hasSize(4);
+        assertThat(eventStore.exists("device-1", "c3")).isTrue();
+    }
 }
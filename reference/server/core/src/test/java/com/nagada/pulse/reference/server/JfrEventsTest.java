@@ -0,0 +1,69 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JfrEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void syncPhasesAndStoreCallsAreRecorded() throws Exception {
+        // Given a handler over JFR-decorated stores and another device's event
+        InMemoryEventStore backing = new InMemoryEventStore();
+        backing.append("other-device", new ClientEvent("theirs", "type", "abcd".getBytes(), List.of("item-X"), 0L));
+        SyncHandler handler = new SyncHandler(new JfrEventStore(backing), new JfrOffsetStore(new InMemoryOffsetStore()));
+        Path file = tempDir.resolve("sync.jfr");
+
+        // When a sync runs while a recording enables the events
+        try (Recording recording = new Recording()) {
+            recording.enable("com.nagada.pulse.*");
+            recording.start();
+            handler.handle(new SyncRequest("device-1", List.of(
+                    new ClientEvent("mine", "type", "abc".getBytes(), List.of("item-A"), 0L)), 0L));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        // Then the sync, both phases and the store calls are in it with their fields
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent sync = only(events, "com.nagada.pulse.Sync");
+        assertThat(sync.getString("deviceId")).isEqualTo("device-1");
+        assertThat(sync.getLong("lag")).isEqualTo(1);
+        assertThat(sync.getInt("acceptedEvents")).isEqualTo(1);
+        assertThat(sync.getInt("returnedEvents")).isEqualTo(2);
+        assertThat(sync.getLong("payloadBytes")).isEqualTo(7);
+
+        RecordedEvent systole = only(events, "com.nagada.pulse.Systole");
+        assertThat(systole.getInt("appendedEvents")).isEqualTo(1);
+        assertThat(systole.getLong("payloadBytes")).isEqualTo(3);
+        assertThat(only(events, "com.nagada.pulse.Diastole").getLong("lag")).isEqualTo(1);
+
+        List<String> operations = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.nagada.pulse.StoreOperation"))
+                .map(e -> e.getString("store") + "." + e.getString("operation"))
+                .collect(Collectors.toList());
+        assertThat(operations).contains("InMemoryEventStore.iterateAfter", "InMemoryEventStore.appendAll",
+                "InMemoryOffsetStore.update");
+    }
+
+    private static RecordedEvent only(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        assertThat(matching).hasSize(1);
+        return matching.get(0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogCompactorTest {
+
+    @TempDir
+    Path directory;
+
+    private static ClientEvent write(int i) {
+        // Every tenth event has no manifest; the rest cycle over five keys
+        List<String> manifest = i % 10 == 0 ? List.of() : List.of("key-" + (i % 5));
+        return new ClientEvent("c" + i, "t", ("value-" + i).getBytes(), manifest, 42L);
+    }
+
+    private static Map<String, String> latestValuePerKey(List<ServerEvent> events) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (ServerEvent event : events) {
+            for (String key : event.getPayloadManifest()) {
+                values.put(key, new String(event.getPayload()));
+            }
+        }
+        return values;
+    }
+
+    private long diskBytes() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            long total = 0;
+            for (Path file : files.toList()) {
+                total += Files.size(file);
+            }
+            return total;
+        }
+    }
+
+    @Test
+    void compactionShouldKeepTheLatestWritePerKeyAndRememberRemovedEvents() throws Exception {
+        Map<String, String> before;
+        List<ServerEvent> compacted;
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            // Given 200 writes over five keys spread across many small segments
+            for (int i = 1; i <= 200; i++) {
+                store.append("device-1", write(i));
+            }
+            before = latestValuePerKey(store.listAfter(0));
+            long bytesBefore = diskBytes();
+
+            // When the sealed segments are compacted
+            int removed = new LogCompactor(store).compact();
+
+            // Then superseded events are gone, in order, without changing any key's final value
+            compacted = store.listAfter(0);
+            assertThat(removed).isGreaterThan(0);
+            assertThat(compacted).hasSize(200 - removed);
+            assertThat(compacted).extracting(ServerEvent::getServerEventId).isSorted().doesNotHaveDuplicates();
+            assertThat(latestValuePerKey(compacted)).isEqualTo(before);
+            assertThat(compacted).extracting(ServerEvent::getOriginClientEventId).contains("c10", "c100", "c200");
+            assertThat(store.listAfter(0)).extracting(ServerEvent::getOriginClientEventId).doesNotContain("c1");
+            assertThat(store.getEarliestServerEventId()).isEqualTo(compacted.get(0).getServerEventId());
+            assertThat(diskBytes()).isLessThan(bytesBefore);
+
+            // And a removed event is still known, so its retry is not appended again
+            assertThat(store.exists("device-1", "c1")).isTrue();
+            assertThat(store.appendAll("device-1", List.of(write(1)))).isEmpty();
+
+            // And a second pass finds nothing more to remove
+            assertThat(new LogCompactor(store).compact()).isZero();
+        }
+
+        // When the store is reopened
+        try (SegmentedFileEventStore reopened = new SegmentedFileEventStore(directory, 1024, 4)) {
+            // Then it serves the compacted log and still remembers removed events
+            assertThat(reopened.listAfter(0)).usingRecursiveFieldByFieldElementComparator().isEqualTo(compacted);
+            assertThat(reopened.listAfter(150)).extracting(ServerEvent::getServerEventId).allMatch(id -> id > 150);
+            assertThat(reopened.exists("device-1", "c1")).isTrue();
+            assertThat(reopened.append("device-1", write(201)).getServerEventId()).isEqualTo(201L);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ManifestConflictIndexTest {
+
+    private InMemoryEventStore eventStore;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new InMemoryEventStore();
+    }
+
+    private void write(String clientEventId, long createdAt, String... manifest) {
+        eventStore.append("device-2", clientEvent(clientEventId, createdAt, manifest));
+    }
+
+    private static ClientEvent clientEvent(String clientEventId, long createdAt, String... manifest) {
+        return new ClientEvent(clientEventId, "t", "p".getBytes(), List.of(manifest), createdAt);
+    }
+
+    @Test
+    void shouldOnlyConflictWithWritesTheClientHasNotSeen() {
+        // Given a log where item-A was written at 1 and item-B at 3
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore);
+        write("s1", 100, "item-A");
+        write("s2", 100, "item-C");
+        write("s3", 100, "item-B");
+
+        // When a client that has seen up to 2 pushes edits to A and B
+        EventConflictResolver.ConflictResolutionResult result = index.resolveConflicts(
+                List.of(clientEvent("c1", 200, "item-A"), clientEvent("c2", 200, "item-B")), 2, false);
+
+        // Then only the edit to B conflicts
+        assertThat(result.successClientEventIds).containsExactly("c1");
+        assertThat(result.errorClientEventIds).containsOnlyKeys("c2");
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    void newerWinsShouldUseTheNewestUnseenWriter() {
+        // Given item-A written with createdAt 500 and then again with an older clock of 300
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore);
+        write("s1", 500, "item-A");
+        write("s2", 300, "item-A");
+
+        // When
+        EventConflictResolver.ConflictResolutionResult fromStart = index.resolveConflicts(
+                List.of(clientEvent("c1", 400, "item-A")), 0, true);
+        EventConflictResolver.ConflictResolutionResult fromOne = index.resolveConflicts(
+                List.of(clientEvent("c1", 400, "item-A")), 1, true);
+
+        // Then
+        assertThat(fromStart.errorClientEventIds).containsEntry("c1", EventConflictResolver.NEWER_WINS);
+        assertThat(fromOne.successClientEventIds).containsExactly("c1");
+    }
+
+    @Test
+    void shouldIgnoreServerEventsThatArePendingRetries() {
+        // Given the client's own event already stored as the last writer of item-A
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore);
+        write("c1", 100, "item-A");
+
+        // When the client retries it
+        EventConflictResolver.ConflictResolutionResult result = index.resolveConflicts(
+                List.of(clientEvent("c1", 100, "item-A")), 0, false);
+
+        // Then it is not reported as conflicting with itself
+        assertThat(result.successClientEventIds).containsExactly("c1");
+    }
+
+    @Test
+    void shouldAnswerClientsBehindTheWindowWithoutReadingTheStore() {
+        // Given a window of two events, four writes to distinct keys, and a store recording its reads
+        List<Long> reads = new ArrayList<>();
+        eventStore = new InMemoryEventStore() {
+            @Override
+            public List<ServerEvent> listAfter(long afterId) {
+                reads.add(afterId);
+                return super.listAfter(afterId);
+            }
+        };
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore, 2);
+        write("s1", 100, "item-A");
+        write("s2", 100, "item-B");
+        write("s3", 100, "item-C");
+        write("s4", 100, "item-D");
+
+        // When a client inside the window and one behind it both edit item-A
+        EventConflictResolver.ConflictResolutionResult recent = index.resolveConflicts(
+                List.of(clientEvent("c1", 200, "item-A")), 2, false);
+        EventConflictResolver.ConflictResolutionResult behind = index.resolveConflicts(
+                List.of(clientEvent("c2", 200, "item-A"), clientEvent("c3", 200, "item-B")), 1, false);
+
+        // Then the client behind the window sees the unseen write to B but not the seen one to A
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(reads).containsExactly(0L, 4L);
+        assertThat(recent.successClientEventIds).containsExactly("c1");
+        assertThat(behind.successClientEventIds).containsExactly("c2");
+        assertThat(behind.errorClientEventIds).containsOnlyKeys("c3");
+    }
+
+    @Test
+    void shouldRebuildAfterTheStoreIsReset() {
+        // Given an indexed write to item-A
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore);
+        write("s1", 100, "item-A");
+        index.resolveConflicts(List.of(), 0, false);
+
+        // When the store is cleared and another key is written
+        eventStore.clear();
+        write("s2", 100, "item-B");
+
+        // Then only the new write conflicts
+        EventConflictResolver.ConflictResolutionResult result = index.resolveConflicts(
+                List.of(clientEvent("c1", 200, "item-A"), clientEvent("c2", 200, "item-B")), 0, false);
+        assertThat(result.successClientEventIds).containsExactly("c1");
+        assertThat(result.errorClientEventIds).containsOnlyKeys("c2");
+    }
+
+    @Test
+    void shouldMatchFullDeltaScanInsideTheWindowOnRandomHistories() {
+        Random random = new Random(42);
+        ManifestConflictIndex index = new ManifestConflictIndex(eventStore, 64);
+        int size = 0;
+        for (int round = 0; round < 500; round++) {
+            // Grow the log by a few events touching a small key space
+            int writes = random.nextInt(4);
+            for (int i = 0; i < writes; i++) {
+                size++;
+                write("s" + size, random.nextInt(1000), "k" + random.nextInt(20), "k" + random.nextInt(20));
+            }
+            // A client at a random offset, sometimes retrying an event that is already stored
+            int offset = size == 0 ? 0 : random.nextInt(size + 1);
+            List<ClientEvent> pending = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String clientEventId = random.nextInt(5) == 0 && size > 0
+                        ? "s" + (1 + random.nextInt(size))
+                        : "c" + round + "-" + i;
+                pending.add(clientEvent(clientEventId, random.nextInt(1000), "k" + random.nextInt(20)));
+            }
+            boolean newerWins = random.nextBoolean();
+
+            EventConflictResolver.ConflictResolutionResult expected =
+                    EventConflictResolver.resolveConflicts(pending, eventStore.listAfter(offset), newerWins);
+            EventConflictResolver.ConflictResolutionResult actual =
+                    index.resolveConflicts(pending, offset, newerWins);
+
+            // Exact inside the window, and behind it never letting a conflict through
+            if (offset >= size - 64) {
+                assertThat(actual.successClientEventIds).containsExactlyElementsOf(expected.successClientEventIds);
+                assertThat(actual.errorClientEventIds).isEqualTo(expected.errorClientEventIds);
+            } else {
+                assertThat(expected.successClientEventIds).containsAll(actual.successClientEventIds);
+                assertThat(actual.errorClientEventIds).containsAllEntriesOf(expected.errorClientEventIds);
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.nagada.pulse.protocol.ClientEvent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -47,4 +48,31 @@ public class OffsetTest {
         // Then
         assertThat(offsetStore.get(deviceId)).isEqualTo(10L);
     }
+
+    @Test
+    void shouldUpdateOffsetOnceForWholeBatch() {
+        // Given an offset store that counts writes
+        List<Long> updates = new ArrayList<>();
+        OffsetStore countingOffsetStore = new OffsetStore() {
+            @Override
+            public long get(String deviceId) {
+                return updates.isEmpty() ? -1L : updates.get(updates.size() - 1);
+            }
+
+            @Override
+            public void update(String deviceId, long offset) {
+                updates.add(offset);
+            }
+        };
+        SystoleProcessor processor = new SystoleProcessor(eventStore, countingOffsetStore);
+
+        // When a batch of three is processed
+        processor.process("device-1", List.of(
+                new ClientEvent("c1", "t", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c2", "t", "p".getBytes(), List.of(), 0L),
+                new ClientEvent("c3", "t", "p".getBytes(), List.of(), 0L)));
+
+        // Then the offset is written once, at the end of the batch
+        assertThat(updates).containsExactly(3L);
+    }
 }
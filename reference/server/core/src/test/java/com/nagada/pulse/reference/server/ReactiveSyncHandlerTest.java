@@ -8,6 +8,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -127,4 +128,34 @@ class ReactiveSyncHandlerTest {
                 })
                 .verifyComplete();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSystole_BatchAppendSkipsDuplicates() {
+        ClientEvent ce1 = new ClientEvent("ce-1", "type", "data".getBytes(), List.of(), 0L);
+        ClientEvent ce2 = new ClientEvent("ce-2", "type", "data".getBytes(), List.of(), 0L);
+        eventStore.append("dev-1", ce1).block();
+
+        StepVerifier.create(eventStore.appendAll("dev-1", List.of(ce1, ce2, ce2)))
+                .assertNext(se -> {
+                    assertThat(se.getOriginClientEventId()).isEqualTo("ce-2");
+                    assertThat(se.getServerEventId()).isEqualTo(2L);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void testTailAfter_EmitsBacklogThenLiveAppends() {
+        // Given one event already in the log
+        eventStore.append("dev-1", new ClientEvent("ce-1", "type", "data".getBytes(), List.of(), 0L)).block();
+
+        // When tailing from the start, then another device appends
+        StepVerifier.create(eventStore.tailAfter(0L).map(ServerEvent::getOriginClientEventId))
+                .expectNext("ce-1")
+                .then(() -> eventStore.append("dev-2", new ClientEvent("ce-2", "type", "data".getBytes(), List.of(), 0L)).block())
+                // Then the backlog and the live event arrive in order, and the tail stays open
+                .expectNext("ce-2")
+                .expectNoEvent(Duration.ofMillis(100))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+}
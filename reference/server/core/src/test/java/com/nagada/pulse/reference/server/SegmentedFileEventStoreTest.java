@@ -0,0 +1,187 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SegmentedFileEventStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static ClientEvent clientEvent(String id) {
+        return new ClientEvent(id, "t", ("payload-" + id).getBytes(), List.of("item-" + id), 42L);
+    }
+
+    @Test
+    void shouldRollSegmentsAndSeekAcrossThem() throws Exception {
+        // Given a store with tiny segments and a sparse index every 4 records
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            for (int i = 1; i <= 100; i++) {
+                store.append("device-1", clientEvent("c" + i));
+            }
+
+            // Then more than one segment file exists
+            try (Stream<Path> files = Files.list(directory)) {
+                assertThat(files.count()).isGreaterThan(1);
+            }
+
+            // And listAfter returns exactly the requested tail in order
+            List<ServerEvent> tail = store.listAfter(57);
+            assertThat(tail).extracting(ServerEvent::getServerEventId)
+                    .containsExactlyElementsOf(LongStream.rangeClosed(58, 100).boxed().toList());
+            assertThat(store.listAfter(0)).hasSize(100);
+            assertThat(store.listAfter(100)).isEmpty();
+            assertThat(store.getEarliestServerEventId()).isEqualTo(1L);
+            assertThat(store.getLatestServerEventId()).isEqualTo(100L);
+        }
+    }
+
+    @Test
+    void iterateAfterShouldReadLazilyAcrossSegmentsUpToTheHeadAtCallTime() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            for (int i = 1; i <= 700; i++) {
+                store.append("device-1", clientEvent("c" + i));
+            }
+
+            // When iterating from mid-log while more events are appended
+            Iterator<ServerEvent> events = store.iterateAfter(57);
+            store.append("device-1", clientEvent("late"));
+            List<Long> ids = new ArrayList<>();
+            events.forEachRemaining(event -> ids.add(event.getServerEventId()));
+
+            // Then it yields the same events as listAfter did at the time of the call
+            assertThat(ids).containsExactlyElementsOf(LongStream.rangeClosed(58, 700).boxed().toList());
+            assertThat(store.iterateAfter(701).hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    void getShouldFindEachIdAcrossSegments() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            for (int i = 1; i <= 100; i++) {
+                store.append("device-1", clientEvent("c" + i));
+            }
+
+            // Then every id is found in its segment, and ids past the head are not
+            for (long id = 1; id <= 100; id++) {
+                assertThat(store.get(id).getServerEventId()).isEqualTo(id);
+            }
+            assertThat(store.get(57).getOriginClientEventId()).isEqualTo("c57");
+            assertThat(store.get(0)).isNull();
+            assertThat(store.get(101)).isNull();
+        }
+    }
+
+    @Test
+    void shouldRoundTripEventFields() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory)) {
+            ServerEvent appended = store.append("device-1", new ClientEvent("c1", "t", null, null, 7L));
+            store.append("device-2", clientEvent("c2"));
+
+            List<ServerEvent> events = store.listAfter(0);
+            assertThat(events.get(0)).usingRecursiveComparison().isEqualTo(appended);
+            assertThat(events.get(1).getPayload()).isEqualTo("payload-c2".getBytes());
+            assertThat(events.get(1).getPayloadManifest()).containsExactly("item-c2");
+            assertThat(events.get(1).getOriginClientDeviceId()).isEqualTo("device-2");
+        }
+    }
+
+    @Test
+    void shouldRecoverEventsAndIdempotencyAfterRestart() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            for (int i = 1; i <= 30; i++) {
+                store.append("device-1", clientEvent("c" + i));
+            }
+        }
+
+        // When the store is reopened
+        try (SegmentedFileEventStore reopened = new SegmentedFileEventStore(directory, 1024, 4)) {
+            // Then history, dedup state and id sequence survive
+            assertThat(reopened.listAfter(0)).hasSize(30);
+            assertThat(reopened.exists("device-1", "c17")).isTrue();
+            assertThat(reopened.exists("device-2", "c17")).isFalse();
+            assertThat(reopened.append("device-1", clientEvent("c31")).getServerEventId()).isEqualTo(31L);
+        }
+    }
+
+    @Test
+    void appendAllShouldDedupAndRejectWholeBatchWhenOneEventIsTooLarge() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            store.append("device-1", clientEvent("c1"));
+
+            List<ServerEvent> appended = store.appendAll("device-1", List.of(clientEvent("c1"), clientEvent("c2"), clientEvent("c2")));
+            assertThat(appended).extracting(ServerEvent::getServerEventId).containsExactly(2L);
+
+            assertThatThrownBy(() -> store.appendAll("device-1", List.of(clientEvent("c3"), new ClientEvent("big", "t", new byte[2048], List.of(), 0L))))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThat(store.listAfter(0)).hasSize(2);
+            assertThat(store.exists("device-1", "c3")).isFalse();
+        }
+    }
+
+    @Test
+    void shouldRejectEventLargerThanSegment() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 256, 4)) {
+            assertThatThrownBy(() -> store.append("device-1", new ClientEvent("big", "t", new byte[512], List.of(), 0L)))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void reactiveStoreShouldDelegateToFileStore() throws Exception {
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory)) {
+            ReactiveSyncHandler handler = new ReactiveSyncHandler(new SegmentedFileReactiveEventStore(store), new InMemoryReactiveOffsetStore());
+
+            StepVerifier.create(handler.handle(new SyncRequest("dev-1", List.of(clientEvent("ce-1")), 0L)))
+                    .assertNext(response -> assertThat(response.getSuccessClientEventIds()).containsExactly("ce-1"))
+                    .verifyComplete();
+            assertThat(store.listAfter(0)).hasSize(1);
+        }
+    }
+
+    @Test
+    void reactiveStoreShouldReadOnItsSchedulerAndStreamTheTail() throws Exception {
+        Scheduler scheduler = Schedulers.newSingle("segment-reads");
+        try (SegmentedFileEventStore store = new SegmentedFileEventStore(directory, 1024, 4)) {
+            for (int i = 1; i <= 700; i++) {
+                store.append("device-1", clientEvent("c" + i));
+            }
+            SegmentedFileReactiveEventStore reactive = new SegmentedFileReactiveEventStore(store, scheduler);
+
+            // Then every read runs on the store's scheduler
+            StepVerifier.create(reactive.exists("device-1", "c1").map(exists -> Thread.currentThread().getName()))
+                    .assertNext(thread -> assertThat(thread).startsWith("segment-reads"))
+                    .verifyComplete();
+            StepVerifier.create(reactive.getLatestServerEventId().map(head -> Thread.currentThread().getName()))
+                    .assertNext(thread -> assertThat(thread).startsWith("segment-reads"))
+                    .verifyComplete();
+            StepVerifier.create(reactive.getEarliestServerEventId())
+                    .expectNext(1L)
+                    .verifyComplete();
+
+            // And the tail is streamed in order across segments
+            StepVerifier.create(reactive.listAfter(57).map(ServerEvent::getServerEventId))
+                    .expectNextSequence(LongStream.rangeClosed(58, 700).boxed().toList())
+                    .verifyComplete();
+        } finally {
+            scheduler.dispose();
+        }
+    }
+}
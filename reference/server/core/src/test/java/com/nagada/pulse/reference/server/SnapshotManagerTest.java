@@ -0,0 +1,101 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotManagerTest {
+
+    private InMemoryEventStore eventStore;
+    private SnapshotManager snapshots;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new InMemoryEventStore();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (snapshots != null) {
+            snapshots.close();
+        }
+    }
+
+    private void write(String clientEventId, List<String> manifest) {
+        eventStore.append("device-1", new ClientEvent(clientEventId, "type", clientEventId.getBytes(), manifest, 0L));
+    }
+
+    private static List<String> ids(Snapshot snapshot) {
+        return snapshot.getEvents().stream().map(ServerEvent::getOriginClientEventId).collect(Collectors.toList());
+    }
+
+    @Test
+    void refreshShouldKeepTheLatestWritePerManifestKeyInLogOrder() {
+        // Given repeated writes to two keys, an event writing both and an event without a manifest
+        snapshots = new SnapshotManager(eventStore, 1_000, 0);
+        write("a-1", List.of("a"));
+        write("b-1", List.of("b"));
+        write("ab", List.of("a", "b"));
+        write("keyless", List.of());
+        write("a-2", List.of("a"));
+
+        // When
+        Snapshot snapshot = snapshots.refresh();
+
+        // Then only the latest write to each key survives, with the keyless event, in id order
+        assertThat(snapshot.getServerEventId()).isEqualTo(5L);
+        assertThat(ids(snapshot)).containsExactly("ab", "keyless", "a-2");
+
+        // And a later refresh only reads what was appended since
+        write("b-2", List.of("b"));
+        assertThat(ids(snapshots.refresh())).containsExactly("keyless", "a-2", "b-2");
+    }
+
+    @Test
+    void forClientShouldOnlyOfferTheSnapshotToDevicesFarBehindIt() {
+        // Given 20 writes to two keys and a snapshot at 20
+        snapshots = new SnapshotManager(eventStore, 1_000, 10);
+        for (int i = 1; i <= 20; i++) {
+            write("e-" + i, List.of("key-" + (i % 2)));
+        }
+        Snapshot snapshot = snapshots.refresh();
+
+        // Then a device from zero gets it, and devices within the threshold do not
+        assertThat(snapshots.forClient(0)).isSameAs(snapshot);
+        assertThat(snapshots.forClient(10)).isSameAs(snapshot);
+        assertThat(snapshots.forClient(11)).isNull();
+        assertThat(snapshots.forClient(25)).isNull();
+    }
+
+    @Test
+    void snapshotShouldBeBuiltInTheBackgroundAndDroppedOnReset() throws Exception {
+        // Given a manager refreshing every 5 events
+        snapshots = new SnapshotManager(eventStore, 5, 0);
+        for (int i = 1; i <= 5; i++) {
+            write("e-" + i, List.of("key"));
+        }
+
+        // When the background refresh has run
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (snapshots.latest() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Then it covers the head
+        assertThat(snapshots.latest().getServerEventId()).isEqualTo(5L);
+
+        // And a store reset drops it, so a rebuilt snapshot describes only the new log
+        eventStore.clear();
+        assertThat(snapshots.latest()).isNull();
+        write("after-reset", List.of("key"));
+        assertThat(ids(snapshots.refresh())).containsExactly("after-reset");
+    }
+}
@@ -0,0 +1,160 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubscriptionIndexTest {
+
+    private InMemoryEventStore eventStore;
+    private InMemoryOffsetStore offsetStore;
+    private SubscriptionIndex index;
+    private SyncHandler syncHandler;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new InMemoryEventStore();
+        offsetStore = new InMemoryOffsetStore();
+        index = new SubscriptionIndex(eventStore);
+        syncHandler = handler(0);
+    }
+
+    private SyncHandler handler(int maxEvents) {
+        return SyncHandler.builder(eventStore, offsetStore).maxEventsPerResponse(maxEvents).subscriptions(index).build();
+    }
+
+    private static ClientEvent write(String clientEventId, String... manifest) {
+        return new ClientEvent(clientEventId, "type", clientEventId.getBytes(), List.of(manifest), 0L);
+    }
+
+    private static SyncRequest subscribed(String deviceId, List<ClientEvent> pending, long lastKnown, String... prefixes) {
+        SyncRequest request = new SyncRequest(deviceId, pending, lastKnown);
+        request.manifestPrefixes = List.of(prefixes);
+        return request;
+    }
+
+    @Test
+    void matchShouldReturnEachEventUnderAnyPrefixOnce() {
+        // Given events under two sites, one of them touching both
+        eventStore.append("device-1", write("a", "site/1/doc"));
+        eventStore.append("device-1", write("b", "site/2/doc"));
+        eventStore.append("device-1", write("c", "site/1/doc", "site/1/list"));
+        eventStore.append("device-1", write("d", "site/1/doc", "site/2/doc"));
+
+        // When matching one site, both sites, and one site after a cursor
+        SubscriptionIndex.Match site1 = index.match(List.of("site/1/"), 0);
+        SubscriptionIndex.Match both = index.match(List.of("site/1/", "site/2/"), 0);
+        SubscriptionIndex.Match after = index.match(List.of("site/1/"), 3);
+
+        // Then ids come back ascending without duplicates, covering the whole log
+        assertThat(site1.ids).containsExactly(1, 3, 4);
+        assertThat(both.ids).containsExactly(1, 2, 3, 4);
+        assertThat(after.ids).containsExactly(4);
+        assertThat(site1.coveredTo).isEqualTo(4);
+        assertThat(site1).extracting(ServerEvent::getOriginClientEventId).containsExactly("a", "c", "d");
+    }
+
+    @Test
+    void subscribedDeviceShouldReceiveOnlyMatchingEventsAndSkipToTheHead() {
+        // Given events for two users
+        eventStore.append("device-1", write("mine-1", "user/42/todo"));
+        eventStore.append("device-1", write("theirs-1", "user/7/todo"));
+        eventStore.append("device-1", write("theirs-2", "user/7/todo"));
+
+        // When a device subscribed to user 42 syncs
+        SyncResponse response = syncHandler.handle(subscribed("device-2", List.of(), 0L, "user/42/"));
+
+        // Then it receives only its user's event, and its cursor moves past the others
+        assertThat(response.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId).containsExactly("mine-1");
+        assertThat(response.isHasMore()).isFalse();
+        assertThat(response.getNextCursor()).isEqualTo(3);
+
+        // And the streaming path answers the same
+        StreamingSyncResponse streamed = syncHandler.handleStreaming(subscribed("device-2", List.of(), 0L, "user/42/"));
+        assertThat(streamed.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId).containsExactly("mine-1");
+        assertThat(streamed.getNextCursor()).isEqualTo(3);
+    }
+
+    @Test
+    void filteredPagesShouldEndAtTheIndexedHead() {
+        // Given five matching events among ten and pages of two events
+        SyncHandler paged = handler(2);
+        for (int i = 0; i < 5; i++) {
+            eventStore.append("device-1", write("in-" + i, "site/1/doc-" + i));
+            eventStore.append("device-1", write("out-" + i, "site/2/doc-" + i));
+        }
+
+        // When a subscribed device pages through them
+        List<String> received = new ArrayList<>();
+        long cursor = 0;
+        SyncResponse page;
+        do {
+            page = paged.handle(subscribed("device-2", List.of(), cursor, "site/1/"));
+            page.getNewServerEvents().forEach(event -> received.add(event.getOriginClientEventId()));
+            cursor = page.getNextCursor();
+        } while (page.isHasMore());
+
+        // Then every matching event arrives once and the last page ends at the head
+        assertThat(received).containsExactly("in-0", "in-1", "in-2", "in-3", "in-4");
+        assertThat(cursor).isEqualTo(10);
+    }
+
+    @Test
+    void conflictsShouldStillBeCheckedAgainstEventsOutsideTheSubscription() {
+        // Given another device wrote a key the subscribed device does not receive
+        eventStore.append("device-1", write("other", "shared/key"));
+
+        // When the subscribed device writes that key without having seen it
+        SyncResponse response = syncHandler.handle(subscribed("device-2", List.of(write("mine", "shared/key")), 0L, "user/42/"));
+
+        // Then the write is rejected though the conflicting event is not sent
+        assertThat(response.getErrorClientEventIds()).containsOnlyKeys("mine");
+        assertThat(response.getNewServerEvents()).isEmpty();
+        assertThat(response.getNextCursor()).isEqualTo(1);
+    }
+
+    @Test
+    void indexShouldRebuildAfterTheStoreIsReset() {
+        // Given an indexed event
+        eventStore.append("device-1", write("old", "site/1/doc"));
+        assertThat(index.match(List.of("site/1/"), 0).ids).containsExactly(1);
+
+        // When the store is cleared and refilled
+        eventStore.clear();
+        eventStore.append("device-1", write("new", "site/2/doc"));
+
+        // Then the index only knows the new log
+        assertThat(index.match(List.of("site/1/"), 0).ids).isEmpty();
+        assertThat(index.match(List.of("site/2/"), 0)).extracting(ServerEvent::getOriginClientEventId).containsExactly("new");
+    }
+
+    @Test
+    void cursorsBeforeTheWindowShouldHaveOlderEventsFilteredFromTheStore() {
+        // Given an index that keeps the last two events with a manifest
+        SubscriptionIndex windowed = new SubscriptionIndex(eventStore, 2);
+        eventStore.append("device-1", write("a", "site/1/doc"));
+        eventStore.append("device-1", write("b", "site/2/doc"));
+        eventStore.append("device-1", write("c", "site/1/doc"));
+        eventStore.append("device-1", write("d", "site/1/list"));
+
+        // When matching from the start and from inside the window
+        SubscriptionIndex.Match fromStart = windowed.match(List.of("site/1/"), 0);
+        SubscriptionIndex.Match recent = windowed.match(List.of("site/1/"), 2);
+
+        // Then only the window is held as postings, and the older events are still matched
+        assertThat(windowed.size()).isEqualTo(2);
+        assertThat(fromStart.scanTo).isEqualTo(2);
+        assertThat(fromStart.ids).containsExactly(3, 4);
+        assertThat(fromStart).extracting(ServerEvent::getOriginClientEventId).containsExactly("a", "c", "d");
+        assertThat(recent.scanTo).isEqualTo(2);
+        assertThat(recent).extracting(ServerEvent::getOriginClientEventId).containsExactly("c", "d");
+    }
+}
@@ -1,12 +1,16 @@
 package com.nagada.pulse.reference.server;
 
 import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
 import com.nagada.pulse.protocol.SyncRequest;
 import com.nagada.pulse.protocol.SyncResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -48,4 +52,219 @@ public class SyncHandlerTest {
         // And the conflicting event should not have been saved to the event store
         assertThat(eventStore.exists(request.getDeviceId(), conflictingEvent.getClientEventId())).isFalse();
     }
-}
\ No newline at end of file
+
+    @Test
+    void diastoleShouldPageLargeDeltasAndReportContinuationCursor() {
+        // Given a handler limited to 2 events per response and 5 events in the store
+        SyncHandler pagedHandler = SyncHandler.builder(eventStore, offsetStore).maxEventsPerResponse(2).build();
+        for (int i = 1; i <= 5; i++) {
+            eventStore.append("other-device", new ClientEvent("e" + i, "type", "data".getBytes(), List.of(), 0L));
+        }
+
+        // When the client syncs from the beginning
+        SyncResponse first = pagedHandler.handle(new SyncRequest("device-1", List.of(), 0L));
+
+        // Then it gets the first page and a cursor to continue from
+        assertThat(first.getNewServerEvents()).extracting(se -> se.getServerEventId()).containsExactly(1L, 2L);
+        assertThat(first.isHasMore()).isTrue();
+        assertThat(first.getNextCursor()).isEqualTo(2L);
+
+        // And paging from the cursor eventually catches up
+        SyncResponse second = pagedHandler.handle(new SyncRequest("device-1", List.of(), first.getNextCursor()));
+        SyncResponse third = pagedHandler.handle(new SyncRequest("device-1", List.of(), second.getNextCursor()));
+        assertThat(second.getNewServerEvents()).extracting(se -> se.getServerEventId()).containsExactly(3L, 4L);
+        assertThat(third.getNewServerEvents()).extracting(se -> se.getServerEventId()).containsExactly(5L);
+        assertThat(third.isHasMore()).isFalse();
+        assertThat(third.getNextCursor()).isEqualTo(5L);
+    }
+
+    @Test
+    void diastoleShouldLimitPageByPayloadBytesButAlwaysMakeProgress() {
+        // Given a handler limited to 10 payload bytes per response
+        SyncHandler pagedHandler = SyncHandler.builder(eventStore, offsetStore).maxBytesPerResponse(10).build();
+        eventStore.append("other-device", new ClientEvent("big", "type", new byte[64], List.of(), 0L));
+        eventStore.append("other-device", new ClientEvent("small", "type", new byte[4], List.of(), 0L));
+
+        // When / Then the oversized event is still delivered on its own
+        SyncResponse first = pagedHandler.handle(new SyncRequest("device-1", List.of(), 0L));
+        assertThat(first.getNewServerEvents()).hasSize(1);
+        assertThat(first.isHasMore()).isTrue();
+
+        SyncResponse second = pagedHandler.handle(new SyncRequest("device-1", List.of(), first.getNextCursor()));
+        assertThat(second.getNewServerEvents()).extracting(se -> se.getOriginClientEventId()).containsExactly("small");
+        assertThat(second.isHasMore()).isFalse();
+    }
+
+    @Test
+    void appendedEventsShouldWaitForLaterPageWhileClientIsBehind() {
+        // Given a lagging client and a page size of 1
+        SyncHandler pagedHandler = SyncHandler.builder(eventStore, offsetStore).maxEventsPerResponse(1).build();
+        eventStore.append("other-device", new ClientEvent("e1", "type", "data".getBytes(), List.of(), 0L));
+        eventStore.append("other-device", new ClientEvent("e2", "type", "data".getBytes(), List.of(), 0L));
+
+        // When it uploads an event
+        ClientEvent pending = new ClientEvent("mine", "type", "data".getBytes(), List.of(), 0L);
+        SyncResponse response = pagedHandler.handle(new SyncRequest("device-1", List.of(pending), 0L));
+
+        // Then the event is acked but only the contiguous first page is returned
+        assertThat(response.getSuccessClientEventIds()).containsExactly("mine");
+        assertThat(response.getNewServerEvents()).extracting(se -> se.getServerEventId()).containsExactly(1L);
+        assertThat(response.getNextCursor()).isEqualTo(1L);
+        assertThat(eventStore.exists("device-1", "mine")).isTrue();
+    }
+
+    @Test
+    void pagedDiastoleShouldReadOnlyThePageFromTheStore() {
+        // Given 100 events and a store that counts the events read through its iterator
+        AtomicInteger read = new AtomicInteger();
+        InMemoryEventStore countingStore = new InMemoryEventStore() {
+            @Override
+            public Iterator<ServerEvent> iterateAfter(long afterId) {
+                Iterator<ServerEvent> events = super.iterateAfter(afterId);
+                return new Iterator<ServerEvent>() {
+                    @Override
+                    public boolean hasNext() {
+                        return events.hasNext();
+                    }
+
+                    @Override
+                    public ServerEvent next() {
+                        read.incrementAndGet();
+                        return events.next();
+                    }
+                };
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            countingStore.append("other-device", new ClientEvent("e" + i, "type", "data".getBytes(), List.of(), 0L));
+        }
+        SyncHandler pagedHandler = SyncHandler.builder(countingStore, offsetStore).maxEventsPerResponse(10).build();
+
+        // When a client far behind syncs
+        SyncResponse response = pagedHandler.handle(new SyncRequest("device-1", null, 0L));
+
+        // Then it gets one page, and no more than one event past it was read
+        assertThat(response.getNewServerEvents()).hasSize(10);
+        assertThat(response.isHasMore()).isTrue();
+        assertThat(read.get()).isLessThanOrEqualTo(11);
+    }
+
+    @Test
+    void streamingResponseShouldPageLikeHandleAndReadEventsOnlyWhenWritten() throws Exception {
+        // Given a handler limited to 2 events per response and 3 events in the store
+        SyncHandler pagedHandler = SyncHandler.builder(eventStore, offsetStore).maxEventsPerResponse(2).build();
+        for (int i = 1; i <= 3; i++) {
+            eventStore.append("other-device", new ClientEvent("e" + i, "type", "data".getBytes(), List.of(), 0L));
+        }
+
+        // When the client uploads an event and its response is written after one more append
+        ClientEvent pending = new ClientEvent("mine", "type", "data".getBytes(), List.of(), 0L);
+        StreamingSyncResponse response = pagedHandler.handleStreaming(new SyncRequest("device-1", List.of(pending), 1L));
+        eventStore.append("other-device", new ClientEvent("e5", "type", "data".getBytes(), List.of(), 0L));
+        List<ServerEvent> written = new ArrayList<>();
+        response.writeEvents(written::add);
+
+        // Then the upload is acked and the page is cut from the log as it stands when written
+        assertThat(response.getSuccessClientEventIds()).containsExactly("mine");
+        assertThat(written).extracting(ServerEvent::getServerEventId).containsExactly(2L, 3L);
+        assertThat(response.isHasMore()).isTrue();
+        assertThat(response.getNextCursor()).isEqualTo(3L);
+
+        // And the next page carries the client's own event in id order
+        SyncResponse next = pagedHandler.handleStreaming(new SyncRequest("device-1", List.of(), 3L));
+        assertThat(next.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId).containsExactly("mine", "e5");
+        assertThat(next.isHasMore()).isFalse();
+        assertThat(next.getNextCursor()).isEqualTo(5L);
+        assertThat(offsetStore.get("device-1")).isEqualTo(3L);
+    }
+
+    @Test
+    void incrementalSyncShouldCommitEachBatchBeforeTheRequestEnds() {
+        // Given another device wrote item-X after the client's cursor
+        eventStore.append("other-device", new ClientEvent("theirs", "type", "data".getBytes(), List.of("item-X"), 0L));
+        IncrementalSync sync = syncHandler.beginIncremental("device-1", 0L, 2);
+
+        // When the client's events arrive one at a time, two of them touching the same item
+        sync.offer(new ClientEvent("a", "type", "data".getBytes(), List.of("item-A"), 0L));
+        sync.offer(new ClientEvent("b", "type", "data".getBytes(), List.of("item-X"), 0L));
+
+        // Then the first batch is committed as soon as it fills
+        assertThat(eventStore.exists("device-1", "a")).isTrue();
+        assertThat(sync.resolvedCount()).isEqualTo(2);
+
+        sync.offer(new ClientEvent("a2", "type", "data".getBytes(), List.of("item-A"), 0L));
+        sync.offer(new ClientEvent("a", "type", "data".getBytes(), List.of("item-A"), 0L));
+        sync.offer(new ClientEvent("c", "type", "data".getBytes(), List.of(), 0L));
+        assertThat(sync.openCount()).isEqualTo(1);
+        SyncResponse response = sync.finish();
+
+        // And only the event overlapping another device's write is rejected; the client's own
+        // earlier batch and its repeated upload do not conflict
+        assertThat(response.getErrorClientEventIds()).containsOnlyKeys("b");
+        assertThat(response.getSuccessClientEventIds()).containsExactlyInAnyOrder("a", "a2", "a", "c");
+        assertThat(response.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId)
+                .containsExactly("theirs", "a", "a2", "c");
+    }
+
+    @Test
+    void metricsShouldSeeEveryPhaseOfASync() {
+        // Given a handler reporting to a recording SyncMetrics, and another device's write
+        List<String> calls = new ArrayList<>();
+        SyncMetrics metrics = new SyncMetrics() {
+            @Override public void diastole(long nanos) { calls.add("diastole"); }
+            @Override public void conflictResolution(long nanos) { calls.add("conflictResolution"); }
+            @Override public void conflictsRejected(java.util.Map<String, String> errors) { calls.add("rejected=" + errors.size()); }
+            @Override public void systole(long nanos, int appended) { calls.add("appended=" + appended); }
+            @Override public void duplicatesDropped(int count) { calls.add("duplicates=" + count); }
+            @Override public void response(int events, long payloadBytes) { calls.add("response=" + events + "/" + payloadBytes); }
+            @Override public void deviceOffset(String deviceId, long offset) { calls.add("offset=" + offset); }
+        };
+        SyncHandler handler = SyncHandler.builder(eventStore, offsetStore).metrics(metrics).build();
+        eventStore.append("other-device", new ClientEvent("theirs", "type", "abcd".getBytes(), List.of("item-X"), 0L));
+        eventStore.append("device-1", new ClientEvent("stored", "type", "ab".getBytes(), List.of(), 0L));
+
+        // When the device uploads a new event, a conflicting one and one already stored
+        handler.handle(new SyncRequest("device-1", List.of(
+                new ClientEvent("new", "type", "abc".getBytes(), List.of("item-A"), 0L),
+                new ClientEvent("conflict", "type", "abc".getBytes(), List.of("item-X"), 0L),
+                new ClientEvent("stored", "type", "ab".getBytes(), List.of(), 0L)), 0L));
+
+        // Then each phase is reported once, in pipeline order
+        assertThat(calls).containsExactly("offset=0", "diastole", "conflictResolution", "rejected=1",
+                "appended=1", "duplicates=1", "response=3/9");
+    }
+
+    @Test
+    void farBehindDeviceShouldGetSnapshotThenTailAndStillSeeSkippedConflicts() throws Exception {
+        // Given 30 writes to three keys, a snapshot at 30 and two more writes
+        SnapshotManager snapshots = new SnapshotManager(eventStore, 1_000, 10);
+        SyncHandler handler = SyncHandler.builder(eventStore, offsetStore).snapshots(snapshots).build();
+        for (int i = 1; i <= 30; i++) {
+            eventStore.append("other-device", new ClientEvent("e" + i, "type", "data".getBytes(), List.of("key-" + (i % 3)), 0L));
+        }
+        snapshots.refresh();
+        eventStore.append("other-device", new ClientEvent("e31", "type", "data".getBytes(), List.of("key-1"), 0L));
+        eventStore.append("other-device", new ClientEvent("e32", "type", "data".getBytes(), List.of("key-2"), 0L));
+
+        // When a device from zero syncs an event touching a key written only before the snapshot
+        SyncResponse response = handler.handle(new SyncRequest("device-1", List.of(
+                new ClientEvent("mine", "type", "data".getBytes(), List.of("key-0"), 0L)), 0L));
+
+        // Then it gets the latest write per key up to 30 and the tail after it
+        assertThat(response.getSnapshot().getServerEventId()).isEqualTo(30L);
+        assertThat(response.getSnapshot().getEvents()).extracting(ServerEvent::getOriginClientEventId)
+                .containsExactly("e28", "e29", "e30");
+        assertThat(response.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId)
+                .containsExactly("e31", "e32");
+        // And the pending event is still rejected against the writes the snapshot compacted away
+        assertThat(response.getErrorClientEventIds()).containsOnlyKeys("mine");
+
+        // And the streaming path starts from the snapshot too, while a caught-up device gets none
+        StreamingSyncResponse streaming = handler.handleStreaming(new SyncRequest("device-2", List.of(), 0L));
+        assertThat(streaming.getSnapshot()).isSameAs(response.getSnapshot());
+        assertThat(streaming.getNewServerEvents()).extracting(ServerEvent::getOriginClientEventId)
+                .containsExactly("e31", "e32");
+        assertThat(handler.handle(new SyncRequest("device-3", List.of(), 25L)).getSnapshot()).isNull();
+        snapshots.close();
+    }
+}
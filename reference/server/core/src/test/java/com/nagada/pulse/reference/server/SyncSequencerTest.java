@@ -0,0 +1,134 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SyncSequencerTest {
+
+    /** Counts group commits. */
+    private static class FlushCountingStore extends InMemoryEventStore {
+        final AtomicInteger flushes = new AtomicInteger();
+        final AtomicInteger groups = new AtomicInteger();
+
+        @Override
+        public List<List<ServerEvent>> appendGroup(List<String> deviceIds, List<List<ClientEvent>> batches) {
+            groups.incrementAndGet();
+            return super.appendGroup(deviceIds, batches);
+        }
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+
+    private FlushCountingStore eventStore;
+    private InMemoryOffsetStore offsetStore;
+    private SyncSequencer sequencer;
+    private SyncHandler syncHandler;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new FlushCountingStore();
+        offsetStore = new InMemoryOffsetStore();
+        sequencer = new SyncSequencer(eventStore, offsetStore, 64, 16);
+        syncHandler = SyncHandler.builder(eventStore, offsetStore).sequencer(sequencer).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        sequencer.close();
+    }
+
+    @Test
+    void concurrentSyncsShouldGetStrictlyOrderedIdsAndShareCommits() throws Exception {
+        // Given 32 devices syncing 20 events each at the same time
+        int devices = 32;
+        int eventsPerDevice = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(devices);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SyncResponse>> responses = new ArrayList<>();
+        for (int d = 0; d < devices; d++) {
+            String deviceId = "device-" + d;
+            List<ClientEvent> pending = new ArrayList<>();
+            for (int i = 0; i < eventsPerDevice; i++) {
+                pending.add(new ClientEvent(deviceId + "-e" + i, "type", "data".getBytes(), List.of(deviceId + "/item-" + i), 0L));
+            }
+            responses.add(executor.submit(() -> {
+                start.await();
+                return syncHandler.handle(new SyncRequest(deviceId, pending, 0L));
+            }));
+        }
+
+        // When
+        start.countDown();
+        for (Future<SyncResponse> response : responses) {
+            assertThat(response.get(10, TimeUnit.SECONDS).getSuccessClientEventIds()).hasSize(eventsPerDevice);
+        }
+        executor.shutdown();
+
+        // Then ids are contiguous, each device's batch is contiguous, and commits were grouped
+        List<ServerEvent> stored = eventStore.listAfter(0);
+        assertThat(stored).hasSize(devices * eventsPerDevice);
+        for (int i = 0; i < stored.size(); i++) {
+            assertThat(stored.get(i).getServerEventId()).isEqualTo(i + 1L);
+            if (i % eventsPerDevice != 0) {
+                assertThat(stored.get(i).getOriginClientDeviceId()).isEqualTo(stored.get(i - 1).getOriginClientDeviceId());
+            }
+        }
+        assertThat(eventStore.groups.get()).isBetween(1, devices);
+        assertThat(eventStore.flushes.get()).isEqualTo(eventStore.groups.get());
+    }
+
+    @Test
+    void concurrentWritersOfTheSameItemShouldNotBothWin() throws Exception {
+        // Given two devices that both last saw an empty log
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SyncResponse>> responses = new ArrayList<>();
+        for (String deviceId : List.of("device-1", "device-2")) {
+            ClientEvent edit = new ClientEvent(deviceId + "-edit", "type", "data".getBytes(), List.of("shared-item"), 0L);
+            responses.add(executor.submit(() -> {
+                start.await();
+                return syncHandler.handle(new SyncRequest(deviceId, List.of(edit), 0L));
+            }));
+        }
+
+        // When they sync at once
+        start.countDown();
+        int winners = 0;
+        for (Future<SyncResponse> response : responses) {
+            winners += response.get(10, TimeUnit.SECONDS).getSuccessClientEventIds().size();
+        }
+        executor.shutdown();
+
+        // Then the second one in sequence sees the first as a conflict
+        assertThat(winners).isEqualTo(1);
+        assertThat(eventStore.listAfter(0)).hasSize(1);
+    }
+
+    @Test
+    void submitAfterCloseShouldFail() {
+        sequencer.close();
+
+        assertThatThrownBy(() -> sequencer.submit("device-1", List.of(), 0L))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package com.nagada.pulse.reference.server;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredEventStoreTest {
+
+    private static final int HOT_EVENTS = 2 * TieredEventStore.CHUNK_SIZE;
+
+    @TempDir
+    Path directory;
+
+    private TieredEventStore store;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new TieredEventStore(directory, HOT_EVENTS, Long.MAX_VALUE, 64 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+    }
+
+    private static ClientEvent event(int i) {
+        return new ClientEvent("c" + i, "t", ("payload-" + i).getBytes(), List.of("key-" + (i % 7)), 42L);
+    }
+
+    private void appendEvents(int count) {
+        for (int i = 1; i <= count; i++) {
+            store.append("device-1", event(i));
+        }
+    }
+
+    @Test
+    void listAfterShouldStitchColdAndHotTiersInOrder() {
+        // Given five chunks of events with room for two on heap
+        appendEvents(5 * TieredEventStore.CHUNK_SIZE);
+
+        // Then the oldest chunks were moved to the cold tier
+        assertThat(store.hotEventCount()).isLessThan(HOT_EVENTS + TieredEventStore.CHUNK_SIZE);
+        assertThat(store.coldEventCount() + store.hotEventCount()).isEqualTo(5L * TieredEventStore.CHUNK_SIZE);
+        assertThat(store.coldCompressedBytes()).isPositive();
+
+        // When reading from the start and from the middle of a cold block
+        List<ServerEvent> all = store.listAfter(0);
+        List<ServerEvent> tail = store.listAfter(1500);
+
+        // Then both tiers are returned as one gapless, ordered log with payloads intact
+        assertThat(all).hasSize(5 * TieredEventStore.CHUNK_SIZE);
+        for (int i = 0; i < all.size(); i++) {
+            assertThat(all.get(i).getServerEventId()).isEqualTo(i + 1L);
+        }
+        assertThat(new String(all.get(0).getPayload())).isEqualTo("payload-1");
+        assertThat(all.get(0).getPayloadManifest()).containsExactly("key-1");
+        assertThat(tail.get(0).getServerEventId()).isEqualTo(1501L);
+        assertThat(tail).hasSize(5 * TieredEventStore.CHUNK_SIZE - 1500);
+        assertThat(store.hotMissCount()).isEqualTo(2);
+        assertThat(store.coldBlockReadCount()).isPositive();
+    }
+
+    @Test
+    void readsWithinTheHotTierShouldNotTouchTheColdTier() {
+        // Given events spread over both tiers
+        appendEvents(4 * TieredEventStore.CHUNK_SIZE);
+        long head = 4L * TieredEventStore.CHUNK_SIZE;
+
+        // When devices near the head sync
+        List<ServerEvent> recent = store.listAfter(head - 10);
+        List<ServerEvent> none = store.listAfter(head);
+
+        // Then they are served from memory
+        assertThat(recent).extracting(ServerEvent::getServerEventId).first().isEqualTo(head - 9);
+        assertThat(none).isEmpty();
+        assertThat(store.hotHitCount()).isEqualTo(2);
+        assertThat(store.hotMissCount()).isZero();
+        assertThat(store.coldBlockReadCount()).isZero();
+    }
+
+    @Test
+    void iterateAfterShouldReadColdBlocksOnlyAsItAdvances() {
+        // Given several cold blocks
+        appendEvents(6 * TieredEventStore.CHUNK_SIZE);
+
+        // When the iterator has returned just the first event
+        Iterator<ServerEvent> events = store.iterateAfter(0);
+        assertThat(events.next().getServerEventId()).isEqualTo(1L);
+
+        // Then only one block was decompressed
+        assertThat(store.coldBlockReadCount()).isEqualTo(1);
+
+        // And draining it yields the whole log
+        List<ServerEvent> rest = new ArrayList<>();
+        events.forEachRemaining(rest::add);
+        assertThat(rest).hasSize(6 * TieredEventStore.CHUNK_SIZE - 1);
+        assertThat(rest.get(rest.size() - 1).getServerEventId()).isEqualTo(6L * TieredEventStore.CHUNK_SIZE);
+    }
+
+    @Test
+    void getShouldDecompressOnlyTheBlockHoldingTheId() {
+        // Given several cold blocks
+        appendEvents(6 * TieredEventStore.CHUNK_SIZE);
+        long head = 6L * TieredEventStore.CHUNK_SIZE;
+
+        // When looking up ids in one cold block, then in the hot tier
+        ServerEvent first = store.get(1500);
+        ServerEvent second = store.get(1700);
+        ServerEvent recent = store.get(head);
+
+        // Then one block was read for both cold ids and none for the hot one
+        assertThat(first.getServerEventId()).isEqualTo(1500L);
+        assertThat(new String(second.getPayload())).isEqualTo("payload-1700");
+        assertThat(recent.getServerEventId()).isEqualTo(head);
+        assertThat(store.get(head + 1)).isNull();
+        assertThat(store.coldBlockReadCount()).isEqualTo(1);
+    }
+
+    @Test
+    void payloadByteLimitShouldAlsoMoveEventsToTheColdTier() throws Exception {
+        // Given a tier that may hold many events but only a few kilobytes of payload
+        store.close();
+        store = new TieredEventStore(directory, 64 * TieredEventStore.CHUNK_SIZE, 4 * 1024, 64 * 1024);
+
+        // When
+        appendEvents(3 * TieredEventStore.CHUNK_SIZE);
+
+        // Then only the chunk being filled stays on heap
+        assertThat(store.hotEventCount()).isEqualTo(TieredEventStore.CHUNK_SIZE);
+        assertThat(store.listAfter(0)).hasSize(3 * TieredEventStore.CHUNK_SIZE);
+    }
+
+    @Test
+    void duplicatesOfColdEventsShouldStillBeRecognised() throws Exception {
+        // Given events old enough to live in the cold tier only
+        appendEvents(4 * TieredEventStore.CHUNK_SIZE);
+
+        // Then they are still known, and a retried batch is not appended again
+        assertThat(store.exists("device-1", "c1")).isTrue();
+        assertThat(store.exists("device-2", "c1")).isFalse();
+        assertThat(store.appendAll("device-1", List.of(event(1), event(2)))).isEmpty();
+
+        // And closing the store removes its scratch files
+        store.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).isEmpty();
+        }
+        store = new TieredEventStore(directory, HOT_EVENTS, Long.MAX_VALUE, 64 * 1024);
+    }
+}
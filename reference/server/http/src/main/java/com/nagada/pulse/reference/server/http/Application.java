@@ -1,28 +1,195 @@
 package com.nagada.pulse.reference.server.http;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nagada.pulse.reference.server.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 
 @SpringBootApplication
 public class Application {
+
+    /** Qualifies the configured store beans, which the JFR decorators wrap. */
+    static final String BACKING_STORE = "backingStore";
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
 
     @Bean
+    @Qualifier(BACKING_STORE)
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "memory", matchIfMissing = true)
     public EventStore eventStore() {
         return new InMemoryEventStore();
     }
 
+    /**
+     * Recent events on heap, older ones compressed in scratch files; as volatile as "memory".
+     */
+    @Bean
+    @Qualifier(BACKING_STORE)
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "tiered")
+    public TieredEventStore tieredEventStore(@Value("${nagada.store.tiered.directory:data/cold}") String directory,
+                                             @Value("${nagada.store.tiered.hot-events:65536}") int hotEvents,
+                                             @Value("${nagada.store.tiered.hot-bytes:67108864}") long hotBytes,
+                                             @Value("${nagada.store.tiered.segment-bytes:67108864}") long segmentBytes) throws IOException {
+        return new TieredEventStore(Path.of(directory), hotEvents, hotBytes, segmentBytes);
+    }
+
     @Bean
+    @Qualifier(BACKING_STORE)
+    @ConditionalOnExpression("'${nagada.store.type:memory}' == 'memory' or '${nagada.store.type:memory}' == 'tiered'")
     public OffsetStore offsetStore() {
         return new InMemoryOffsetStore();
     }
 
     @Bean
-    public SyncHandler syncHandler(EventStore eventStore, OffsetStore offsetStore) {
-        return new SyncHandler(eventStore, offsetStore);
+    @Qualifier(BACKING_STORE)
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "sqlite")
+    public EventStore jdbcEventStore(DataSource dataSource) {
+        return new JdbcEventStore(dataSource);
+    }
+
+    @Bean
+    @Qualifier(BACKING_STORE)
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "sqlite")
+    public OffsetStore jdbcOffsetStore(DataSource dataSource) {
+        return new JdbcOffsetStore(dataSource);
+    }
+
+    /**
+     * Every store call as a JFR event; costs next to nothing unless a recording enables it.
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "nagada.jfr.enabled", havingValue = "true", matchIfMissing = true)
+    public JfrEventStore jfrEventStore(@Qualifier(BACKING_STORE) EventStore eventStore) {
+        return new JfrEventStore(eventStore);
+    }
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "nagada.jfr.enabled", havingValue = "true", matchIfMissing = true)
+    public JfrOffsetStore jfrOffsetStore(@Qualifier(BACKING_STORE) OffsetStore offsetStore) {
+        return new JfrOffsetStore(offsetStore);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "nagada.metrics.enabled", havingValue = "true", matchIfMissing = true)
+    public MicrometerSyncMetrics syncMetrics(EventStore eventStore, MeterRegistry meterRegistry) {
+        return new MicrometerSyncMetrics(eventStore, meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${nagada.store.type:memory}' == 'tiered' and ${nagada.metrics.enabled:true}")
+    public TieredStoreMetrics tieredStoreMetrics(TieredEventStore tieredEventStore, MeterRegistry meterRegistry) {
+        return new TieredStoreMetrics(tieredEventStore, meterRegistry);
+    }
+
+    /**
+     * Manifest keys of the most recent events, for conflict checks; follows the store on use.
+     */
+    @Bean
+    public ManifestConflictIndex manifestConflictIndex(EventStore eventStore,
+                                                       @Value("${nagada.sync.conflict-index.window:100000}") int window) {
+        return new ManifestConflictIndex(eventStore, window);
+    }
+
+    @Bean(destroyMethod = "close")
+    public SyncSequencer syncSequencer(EventStore eventStore, OffsetStore offsetStore, ObjectProvider<SyncMetrics> syncMetrics,
+                                       ManifestConflictIndex manifestConflictIndex,
+                                       @Value("${nagada.sync.sequencer.capacity:1024}") int capacity,
+                                       @Value("${nagada.sync.sequencer.max-group-size:64}") int maxGroupSize) {
+        return new SyncSequencer(eventStore, offsetStore, capacity, maxGroupSize, syncMetrics.getIfAvailable(() -> SyncMetrics.NOOP),
+                manifestConflictIndex);
+    }
+
+    /**
+     * Snapshots for far-behind devices; the first one covers whatever the store already holds.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "nagada.sync.snapshot.enabled", havingValue = "true")
+    public SnapshotManager snapshotManager(EventStore eventStore,
+                                           @Value("${nagada.sync.snapshot.interval:10000}") long interval,
+                                           @Value("${nagada.sync.snapshot.lag-threshold:10000}") long lagThreshold) {
+        SnapshotManager snapshotManager = new SnapshotManager(eventStore, interval, lagThreshold);
+        snapshotManager.refreshAsync();
+        return snapshotManager;
+    }
+
+    /**
+     * Manifest key postings for devices that sync with {@code manifestPrefixes}; filled on first use.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "nagada.sync.subscriptions.enabled", havingValue = "true", matchIfMissing = true)
+    public SubscriptionIndex subscriptionIndex(EventStore eventStore,
+                                               @Value("${nagada.sync.subscriptions.window:100000}") int window) {
+        return new SubscriptionIndex(eventStore, window);
+    }
+
+    @Bean
+    public SyncHandler syncHandler(EventStore eventStore, OffsetStore offsetStore, SyncSequencer syncSequencer,
+                                   ObjectProvider<SyncMetrics> syncMetrics, ObjectProvider<SnapshotManager> snapshotManager,
+                                   ObjectProvider<SubscriptionIndex> subscriptionIndex,
+                                   @Value("${nagada.sync.diastole.max-events:1000}") int maxEvents,
+                                   @Value("${nagada.sync.diastole.max-bytes:4194304}") long maxBytes) {
+        return SyncHandler.builder(eventStore, offsetStore)
+                .maxEventsPerResponse(maxEvents)
+                .maxBytesPerResponse(maxBytes)
+                .sequencer(syncSequencer)
+                .metrics(syncMetrics.getIfAvailable(() -> SyncMetrics.NOOP))
+                .snapshots(snapshotManager.getIfAvailable())
+                .subscriptions(subscriptionIndex.getIfAvailable())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public EncodedEventCache encodedEventCache(EventStore eventStore, ObjectMapper objectMapper,
+                                               @Value("${nagada.sync.encoded-cache.max-bytes:67108864}") long maxBytes) {
+        return new EncodedEventCache(eventStore, objectMapper, maxBytes);
+    }
+
+    /**
+     * Encoded pages shared by devices syncing from the same cursor while the head stands still.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "nagada.sync.response-cache.enabled", havingValue = "true", matchIfMissing = true)
+    public DiastoleResponseCache diastoleResponseCache(EventStore eventStore,
+                                                       @Value("${nagada.sync.response-cache.max-bytes:16777216}") long maxBytes,
+                                                       @Value("${nagada.sync.response-cache.ttl-ms:1000}") long ttlMillis) {
+        return new DiastoleResponseCache(eventStore, maxBytes, ttlMillis);
+    }
+
+    @Bean
+    public StreamingSyncRequestReader streamingSyncRequestReader(SyncHandler syncHandler, ObjectMapper objectMapper,
+                                                                 @Value("${nagada.sync.request.max-bytes:16777216}") long maxRequestBytes,
+                                                                 @Value("${nagada.sync.request.max-events:10000}") int maxEvents,
+                                                                 @Value("${nagada.sync.request.batch-size:256}") int batchSize) {
+        return new StreamingSyncRequestReader(syncHandler, objectMapper, maxRequestBytes, maxEvents, batchSize);
+    }
+
+    @Bean(destroyMethod = "close")
+    public LongPollRegistry longPollRegistry(EventStore eventStore, SyncHandler syncHandler,
+                                             @Value("${nagada.sync.long-poll.max-wait-ms:30000}") long maxWaitMillis,
+                                             @Value("${nagada.sync.long-poll.worker-threads:4}") int workerThreads) {
+        return new LongPollRegistry(eventStore, syncHandler, maxWaitMillis, workerThreads);
+    }
+
+    @Bean(destroyMethod = "close")
+    public SyncWebSocketHandler syncWebSocketHandler(SyncHandler syncHandler, EventStore eventStore,
+                                                     ObjectProvider<SubscriptionIndex> subscriptionIndex, ObjectMapper objectMapper,
+                                                     @Value("${nagada.sync.diastole.max-events:1000}") int maxEvents,
+                                                     @Value("${nagada.sync.diastole.max-bytes:4194304}") long maxBytes) {
+        return new SyncWebSocketHandler(syncHandler, eventStore, subscriptionIndex.getIfAvailable(), objectMapper, maxEvents, maxBytes);
     }
 }
@@ -0,0 +1,50 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.BinaryCodec;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.protocol.ValidationException;
+import java.io.IOException;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/**
+ * Reads and writes {@link SyncRequest} and {@link SyncResponse} in the {@link BinaryCodec}
+ * format. Chosen by {@code Content-Type} for requests and by {@code Accept} for responses;
+ * JSON stays the default for clients that ask for neither.
+ */
+public class BinarySyncMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(BinaryCodec.MEDIA_TYPE);
+
+    public BinarySyncMessageConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SyncRequest.class == clazz || SyncResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        byte[] body = inputMessage.getBody().readAllBytes();
+        try {
+            return clazz == SyncRequest.class ? BinaryCodec.decodeRequest(body) : BinaryCodec.decodeResponse(body);
+        } catch (ValidationException e) {
+            throw new HttpMessageNotReadableException("Malformed binary sync message: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object message, HttpOutputMessage outputMessage) throws IOException {
+        byte[] body = message instanceof SyncRequest
+                ? BinaryCodec.encode((SyncRequest) message)
+                : BinaryCodec.encode((SyncResponse) message);
+        outputMessage.getHeaders().setContentLength(body.length);
+        outputMessage.getBody().write(body);
+    }
+}
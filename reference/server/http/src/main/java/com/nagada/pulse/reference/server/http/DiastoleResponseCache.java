@@ -0,0 +1,223 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Encoded event pages shared by devices that sync from the same cursor at the same head.
+ * <p>
+ * Right after a popular event is committed, many devices ask for the page after the same
+ * serverEventId within a few milliseconds. The first one reads and encodes it; devices asking
+ * for the same page meanwhile wait for that result instead of repeating the work, and later ones
+ * copy its bytes. Pages are keyed by (afterId, head, manifest prefixes), so a page is never
+ * served once the head has moved: every held page is then dropped. Otherwise pages live at most
+ * {@code ttlMillis} and hold at most {@code maxBytes} together, oldest dropped first.
+ */
+public class DiastoleResponseCache implements HeadListener, AutoCloseable {
+
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_TTL_MILLIS = 1000;
+
+    /**
+     * An encoded events array and where its page ended.
+     */
+    public static final class Page {
+        public final byte[] events;
+        public final boolean hasMore;
+        public final long nextCursor;
+
+        public Page(byte[] events, boolean hasMore, long nextCursor) {
+            this.events = events;
+            this.hasMore = hasMore;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /**
+     * Reads and encodes a page on a miss.
+     */
+    @FunctionalInterface
+    public interface PageEncoder {
+        Page encode() throws IOException;
+    }
+
+    private static final class Key {
+        final long afterId;
+        final long headId;
+        final List<String> manifestPrefixes;
+
+        Key(long afterId, long headId, List<String> manifestPrefixes) {
+            this.afterId = afterId;
+            this.headId = headId;
+            this.manifestPrefixes = manifestPrefixes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return afterId == other.afterId && headId == other.headId && Objects.equals(manifestPrefixes, other.manifestPrefixes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(afterId, headId, manifestPrefixes);
+        }
+    }
+
+    /**
+     * A page being encoded or already encoded.
+     */
+    private static final class Flight {
+        final CompletableFuture<Page> page = new CompletableFuture<>();
+        final long createdAt;
+        long bytes;
+
+        Flight(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final EventStore eventStore;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Flight> flights = new LinkedHashMap<>();
+    private long bytes;
+    private volatile long head;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder encodes = new LongAdder();
+
+    public DiastoleResponseCache(EventStore eventStore, long maxBytes, long ttlMillis) {
+        this.eventStore = eventStore;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        eventStore.addHeadListener(this);
+    }
+
+    /**
+     * The page after {@code afterId} for {@code manifestPrefixes} (null for every event) at the
+     * current head: shared with an identical request if there is one, else from {@code encoder}.
+     */
+    public Page get(long afterId, List<String> manifestPrefixes, PageEncoder encoder) throws IOException {
+        Key key = new Key(afterId, head, manifestPrefixes);
+        Flight flight;
+        boolean leader = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now);
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight(now);
+                flights.put(key, flight);
+                leader = true;
+            }
+        }
+        if (!leader) {
+            try {
+                Page page = flight.page.join();
+                hits.increment();
+                return page;
+            } catch (CompletionException e) {
+                // The leader failed, e.g. on a store error; try once more for this request alone
+                encodes.increment();
+                return encoder.encode();
+            }
+        }
+
+        encodes.increment();
+        Page page;
+        try {
+            page = encoder.encode();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                flights.remove(key, flight);
+            }
+            flight.page.completeExceptionally(e);
+            throw e;
+        }
+        flight.page.complete(page);
+        synchronized (this) {
+            // Gone if the head moved or it expired while encoding
+            if (flights.get(key) == flight) {
+                if (page.events.length > maxBytes) {
+                    flights.remove(key);
+                } else {
+                    flight.bytes = page.events.length;
+                    bytes += flight.bytes;
+                    evict();
+                }
+            }
+        }
+        return page;
+    }
+
+    private void expire(long now) {
+        Iterator<Flight> oldestFirst = flights.values().iterator();
+        while (oldestFirst.hasNext()) {
+            Flight flight = oldestFirst.next();
+            if (now - flight.createdAt < ttlNanos) {
+                return;
+            }
+            bytes -= flight.bytes;
+            oldestFirst.remove();
+        }
+    }
+
+    private void evict() {
+        Iterator<Flight> oldestFirst = flights.values().iterator();
+        while (bytes > maxBytes && oldestFirst.hasNext()) {
+            bytes -= oldestFirst.next().bytes;
+            oldestFirst.remove();
+        }
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        if (head != headServerEventId) {
+            head = headServerEventId;
+            clear();
+        }
+    }
+
+    public synchronized void clear() {
+        flights.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Bytes currently held.
+     */
+    public synchronized long sizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of pages served from another request's encoding.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of pages read from the store and encoded.
+     */
+    public long encodeCount() {
+        return encodes.sum();
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+    }
+}
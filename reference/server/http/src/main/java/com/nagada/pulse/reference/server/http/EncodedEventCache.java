@@ -0,0 +1,119 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Committed events encoded once as JSON and shared by every response that carries them.
+ * <p>
+ * Events are immutable once committed, so the JSON for a serverEventId never changes. The first
+ * response to carry an event encodes it; later responses, for any device, splice the cached
+ * bytes. Entries are bounded by {@code maxBytes} and evicted lowest serverEventId first: readers
+ * concentrate on the tail, and a far-behind catch-up read does not push the tail out.
+ * <p>
+ * The store announcing a lower head than before means it was reset and ids will be reused, so
+ * the cache is dropped.
+ */
+@Slf4j
+public class EncodedEventCache implements HeadListener, AutoCloseable {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private final EventStore eventStore;
+    private final ObjectMapper objectMapper;
+    private final long maxBytes;
+    private final ConcurrentSkipListMap<Long, byte[]> fragments = new ConcurrentSkipListMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder encodes = new LongAdder();
+
+    public EncodedEventCache(EventStore eventStore, ObjectMapper objectMapper, long maxBytes) {
+        this.eventStore = eventStore;
+        this.objectMapper = objectMapper;
+        this.maxBytes = maxBytes;
+        eventStore.addHeadListener(this);
+    }
+
+    /**
+     * The JSON encoding of {@code event}, from the cache when another response already built it.
+     */
+    public byte[] fragment(ServerEvent event) {
+        byte[] fragment = fragments.get(event.getServerEventId());
+        if (fragment != null) {
+            hits.increment();
+            return fragment;
+        }
+        try {
+            fragment = objectMapper.writeValueAsBytes(event);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        encodes.increment();
+        if (fragment.length <= maxBytes && fragments.putIfAbsent(event.getServerEventId(), fragment) == null) {
+            bytes.addAndGet(fragment.length);
+            evict();
+        }
+        return fragment;
+    }
+
+    private void evict() {
+        while (bytes.get() > maxBytes) {
+            Map.Entry<Long, byte[]> oldest = fragments.pollFirstEntry();
+            if (oldest == null) {
+                return;
+            }
+            bytes.addAndGet(-oldest.getValue().length);
+        }
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        if (head.getAndSet(headServerEventId) > headServerEventId) {
+            log.info("Event store head moved back to {}; dropping encoded event cache", headServerEventId);
+            clear();
+        }
+    }
+
+    public void clear() {
+        Map.Entry<Long, byte[]> entry;
+        while ((entry = fragments.pollFirstEntry()) != null) {
+            bytes.addAndGet(-entry.getValue().length);
+        }
+    }
+
+    /**
+     * Bytes currently held.
+     */
+    public long sizeInBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Number of times an event was served from the cache.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of times an event had to be encoded.
+     */
+    public long encodeCount() {
+        return encodes.sum();
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+    }
+}
@@ -0,0 +1,293 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import com.nagada.pulse.reference.server.HeadNotifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * SQLite-backed EventStore.
+ * <p>
+ * The database runs in WAL mode so diastole reads proceed while a systole writes.
+ * serverEventId is the table's INTEGER PRIMARY KEY (the SQLite rowid), making
+ * {@code listAfter} a range scan on the primary key; a unique index on
+ * (origin_client_device_id, origin_client_event_id) backs {@code exists}.
+ * Ids are assigned in-process under a lock, which lets {@link #appendAll} dedup and write a
+ * whole batch, and {@link #appendGroup} a whole sequencer group, with one prepared statement
+ * in one transaction.
+ */
+@Slf4j
+public class JdbcEventStore implements EventStore {
+
+    private static final String INSERT_EVENT =
+            "INSERT INTO server_events (server_event_id, origin_client_event_id, origin_client_device_id, payload_manifest, payload, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_AFTER =
+            "SELECT server_event_id, origin_client_event_id, origin_client_device_id, payload_manifest, payload, created_at "
+            + "FROM server_events WHERE server_event_id > ? ORDER BY server_event_id";
+    private static final String SELECT_PAGE =
+            "SELECT server_event_id, origin_client_event_id, origin_client_device_id, payload_manifest, payload, created_at "
+            + "FROM server_events WHERE server_event_id > ? AND server_event_id <= ? ORDER BY server_event_id LIMIT ?";
+    private static final String SELECT_BY_ID =
+            "SELECT server_event_id, origin_client_event_id, origin_client_device_id, payload_manifest, payload, created_at "
+            + "FROM server_events WHERE server_event_id = ?";
+    private static final String SELECT_BY_ORIGIN =
+            "SELECT server_event_id, origin_client_event_id, origin_client_device_id, payload_manifest, payload, created_at "
+            + "FROM server_events WHERE origin_client_device_id = ? AND origin_client_event_id = ?";
+    private static final String SELECT_EXISTS =
+            "SELECT EXISTS (SELECT 1 FROM server_events WHERE origin_client_device_id = ? AND origin_client_event_id = ?)";
+
+    /** Rows read per query by {@link #iterateAfter}. */
+    private static final int ITERATE_PAGE = 500;
+
+    /** Keeps IN lists well below SQLite's bound-parameter limit. */
+    private static final int EXISTS_CHUNK = 500;
+
+    private static final TypeReference<List<String>> MANIFEST_TYPE = new TypeReference<List<String>>() {
+    };
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transactions;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RowMapper<ServerEvent> rowMapper = (rs, rowNum) -> new ServerEvent(
+            rs.getLong("server_event_id"),
+            rs.getString("origin_client_event_id"),
+            rs.getString("origin_client_device_id"),
+            rs.getBytes("payload"),
+            readManifest(rs.getString("payload_manifest")),
+            rs.getLong("created_at"));
+
+    private final HeadNotifier headNotifier = new HeadNotifier();
+    private final Object appendLock = new Object();
+    /** Written under appendLock once a transaction has committed. */
+    private volatile long nextId;
+
+    public JdbcEventStore(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        this.transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        initializeSchema();
+        this.nextId = jdbc.queryForObject("SELECT COALESCE(MAX(server_event_id), 0) + 1 FROM server_events", Long.class);
+        log.info("JdbcEventStore ready; next serverEventId: {}", nextId);
+    }
+
+    private void initializeSchema() {
+        String journalMode = jdbc.queryForObject("PRAGMA journal_mode=WAL", String.class);
+        log.debug("SQLite journal mode: {}", journalMode);
+        jdbc.execute("CREATE TABLE IF NOT EXISTS server_events ("
+                + "server_event_id INTEGER PRIMARY KEY, "
+                + "origin_client_event_id TEXT NOT NULL, "
+                + "origin_client_device_id TEXT NOT NULL, "
+                + "payload_manifest TEXT, "
+                + "payload BLOB, "
+                + "created_at INTEGER NOT NULL)");
+        jdbc.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_server_events_device_client "
+                + "ON server_events (origin_client_device_id, origin_client_event_id)");
+    }
+
+    /**
+     * Appends the event, or returns the row already stored for its (device, clientEventId).
+     */
+    @Override
+    public ServerEvent append(String deviceId, ClientEvent clientEvent) {
+        List<ServerEvent> appended = appendAll(deviceId, List.of(clientEvent));
+        if (!appended.isEmpty()) {
+            return appended.get(0);
+        }
+        return jdbc.queryForObject(SELECT_BY_ORIGIN, rowMapper, deviceId, clientEvent.getClientEventId());
+    }
+
+    /**
+     * Dedups against the unique (device, clientEventId) index and inserts the remaining events with
+     * one batched prepared statement, all in one transaction.
+     */
+    @Override
+    public List<ServerEvent> appendAll(String deviceId, List<ClientEvent> clientEvents) {
+        if (clientEvents.isEmpty()) {
+            return List.of();
+        }
+        return appendGroup(List.of(deviceId), List.of(clientEvents)).get(0);
+    }
+
+    /**
+     * Dedups and inserts every batch of the group in one transaction, and publishes the head once
+     * that transaction has committed.
+     */
+    @Override
+    public List<List<ServerEvent>> appendGroup(List<String> deviceIds, List<List<ClientEvent>> batches) {
+        synchronized (appendLock) {
+            List<ServerEvent> rows = new ArrayList<>();
+            List<List<ServerEvent>> appended = transactions.execute(status -> {
+                Map<String, Set<String>> seenByDevice = new HashMap<>();
+                List<List<ServerEvent>> result = new ArrayList<>(batches.size());
+                long id = nextId;
+                for (int i = 0; i < batches.size(); i++) {
+                    String deviceId = deviceIds.get(i);
+                    List<ClientEvent> clientEvents = batches.get(i);
+                    Set<String> seen = seenByDevice.computeIfAbsent(deviceId, device -> new HashSet<>());
+                    seen.addAll(storedClientEventIds(deviceId, clientEvents));
+                    List<ServerEvent> batch = new ArrayList<>(clientEvents.size());
+                    for (ClientEvent clientEvent : clientEvents) {
+                        if (!seen.add(clientEvent.getClientEventId())) {
+                            log.trace("Ignoring duplicate event {} from device {}", clientEvent.getClientEventId(), deviceId);
+                            continue;
+                        }
+                        batch.add(new ServerEvent(id++, clientEvent.getClientEventId(), deviceId, clientEvent.getPayload(),
+                                clientEvent.getPayloadManifest(), clientEvent.getCreatedAt()));
+                    }
+                    rows.addAll(batch);
+                    result.add(batch);
+                }
+                if (rows.isEmpty()) {
+                    return result;
+                }
+                log.debug("Appending {} events from {} batches as serverEventIds {}..{}", rows.size(), batches.size(), nextId, id - 1);
+                jdbc.batchUpdate(INSERT_EVENT, rows, rows.size(), (ps, event) -> {
+                    ps.setLong(1, event.getServerEventId());
+                    ps.setString(2, event.getOriginClientEventId());
+                    ps.setString(3, event.getOriginClientDeviceId());
+                    ps.setString(4, writeManifest(event.getPayloadManifest()));
+                    ps.setBytes(5, event.getPayload());
+                    ps.setLong(6, event.getCreatedAt());
+                });
+                return result;
+            });
+            if (!rows.isEmpty()) {
+                nextId = rows.get(rows.size() - 1).getServerEventId() + 1;
+                // Committed by now, so readers on other connections can see the group.
+                headNotifier.publish(nextId - 1);
+            }
+            return appended;
+        }
+    }
+
+    /**
+     * clientEventIds from the batch that are already stored for the device.
+     */
+    private Set<String> storedClientEventIds(String deviceId, List<ClientEvent> clientEvents) {
+        Set<String> stored = new HashSet<>();
+        for (int from = 0; from < clientEvents.size(); from += EXISTS_CHUNK) {
+            List<ClientEvent> chunk = clientEvents.subList(from, Math.min(from + EXISTS_CHUNK, clientEvents.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            Object[] args = new Object[chunk.size() + 1];
+            args[0] = deviceId;
+            for (int i = 0; i < chunk.size(); i++) {
+                args[i + 1] = chunk.get(i).getClientEventId();
+            }
+            stored.addAll(jdbc.queryForList("SELECT origin_client_event_id FROM server_events "
+                    + "WHERE origin_client_device_id = ? AND origin_client_event_id IN (" + placeholders + ")", String.class, args));
+        }
+        return stored;
+    }
+
+    @Override
+    public List<ServerEvent> listAfter(long afterId) {
+        log.debug("Listing events after serverEventId: {}", afterId);
+        List<ServerEvent> result = jdbc.query(SELECT_AFTER, rowMapper, afterId);
+        log.debug("Found {} events after serverEventId: {}", result.size(), afterId);
+        return result;
+    }
+
+    /**
+     * Reads {@value #ITERATE_PAGE} rows per keyset query on the primary key, up to the head at the
+     * time of the call, so a long tail is never held in memory at once.
+     */
+    @Override
+    public Iterator<ServerEvent> iterateAfter(long afterId) {
+        long head = nextId - 1;
+        return new Iterator<ServerEvent>() {
+            private List<ServerEvent> page = Collections.emptyList();
+            private int next;
+            private long cursor = afterId;
+
+            @Override
+            public boolean hasNext() {
+                if (next < page.size()) {
+                    return true;
+                }
+                if (cursor >= head) {
+                    return false;
+                }
+                page = jdbc.query(SELECT_PAGE, rowMapper, cursor, head, ITERATE_PAGE);
+                next = 0;
+                if (page.isEmpty()) {
+                    cursor = head;
+                    return false;
+                }
+                cursor = page.get(page.size() - 1).getServerEventId();
+                return true;
+            }
+
+            @Override
+            public ServerEvent next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(next++);
+            }
+        };
+    }
+
+    @Override
+    public ServerEvent get(long serverEventId) {
+        List<ServerEvent> result = jdbc.query(SELECT_BY_ID, rowMapper, serverEventId);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public boolean exists(String deviceId, String clientEventId) {
+        Boolean exists = jdbc.queryForObject(SELECT_EXISTS, Boolean.class, deviceId, clientEventId);
+        log.trace("Checking existence of clientEventId: {} for device: {}. Exists: {}", clientEventId, deviceId, exists);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    @Override
+    public void addHeadListener(HeadListener listener) {
+        headNotifier.add(listener);
+    }
+
+    @Override
+    public void removeHeadListener(HeadListener listener) {
+        headNotifier.remove(listener);
+    }
+
+    private String writeManifest(List<String> manifest) {
+        if (manifest == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(manifest);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot encode payload manifest", e);
+        }
+    }
+
+    private List<String> readManifest(String manifest) {
+        if (manifest == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(manifest, MANIFEST_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt payload manifest: " + manifest, e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.reference.server.OffsetStore;
+import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * SQLite-backed OffsetStore: one row per device, upserted on every update.
+ */
+public class JdbcOffsetStore implements OffsetStore {
+
+    private static final String UPSERT_OFFSET =
+            "INSERT INTO device_offsets (device_id, offset_value) VALUES (?, ?) "
+            + "ON CONFLICT (device_id) DO UPDATE SET offset_value = excluded.offset_value";
+
+    private final JdbcTemplate jdbc;
+
+    public JdbcOffsetStore(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE IF NOT EXISTS device_offsets ("
+                + "device_id TEXT PRIMARY KEY, "
+                + "offset_value INTEGER NOT NULL)");
+    }
+
+    @Override
+    public long get(String deviceId) {
+        List<Long> offsets = jdbc.queryForList("SELECT offset_value FROM device_offsets WHERE device_id = ?", Long.class, deviceId);
+        return offsets.isEmpty() ? -1L : offsets.get(0);
+    }
+
+    @Override
+    public void update(String deviceId, long offset) {
+        jdbc.update(UPSERT_OFFSET, deviceId, offset);
+    }
+}
@@ -0,0 +1,144 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import com.nagada.pulse.reference.server.SyncHandler;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Parks idle long-poll syncs until the event store's head moves past them.
+ * <p>
+ * A parked request holds no servlet thread: it is a {@link DeferredResult} in {@link #waiters}.
+ * When the store announces a new head, a scan of the waiters is handed to a small worker pool,
+ * since the announcing thread is an appender, possibly inside the store's append lock, and must
+ * not block. Heads announced while a scan is pending are folded into it. Every waiter behind the
+ * head is removed and its sync is run again on the pool.
+ * A waiter nobody wakes is answered with its original empty response when the wait runs out.
+ */
+@Slf4j
+public class LongPollRegistry implements HeadListener, AutoCloseable {
+
+    private static final class Waiter {
+        final SyncRequest request;
+        final DeferredResult<SyncResponse> result;
+
+        Waiter(SyncRequest request, DeferredResult<SyncResponse> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    private final EventStore eventStore;
+    private final SyncHandler syncHandler;
+    private final long maxWaitMillis;
+    private final ExecutorService workers;
+    private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicBoolean scanPending = new AtomicBoolean();
+
+    public LongPollRegistry(EventStore eventStore, SyncHandler syncHandler, long maxWaitMillis, int workerThreads) {
+        this.eventStore = eventStore;
+        this.syncHandler = syncHandler;
+        this.maxWaitMillis = maxWaitMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nagada-long-poll-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventStore.addHeadListener(this);
+    }
+
+    /**
+     * Run the sync now; if it has nothing to push or return, wait up to {@code waitMillis}
+     * (capped by the configured maximum) for new events before answering.
+     */
+    public DeferredResult<SyncResponse> poll(SyncRequest request, long waitMillis) {
+        SyncResponse first = syncHandler.handle(request);
+        long timeout = Math.min(waitMillis, maxWaitMillis);
+        DeferredResult<SyncResponse> result = new DeferredResult<>(timeout, () -> first);
+        if (timeout <= 0 || !isIdle(request, first)) {
+            result.setResult(first);
+            return result;
+        }
+        Waiter waiter = new Waiter(request, result);
+        result.onCompletion(() -> waiters.remove(waiter));
+        waiters.add(waiter);
+        log.debug("Parking long-poll for device: {} after serverEventId: {} for up to {} ms",
+                request.getDeviceId(), request.getLastKnownServerEventId(), timeout);
+        // An append between the first sync and registering the waiter published no head we saw.
+        if (eventStore.iterateAfter(request.getLastKnownServerEventId()).hasNext()) {
+            wake(waiter);
+        }
+        return result;
+    }
+
+    private static boolean isIdle(SyncRequest request, SyncResponse response) {
+        return (request.getPendingEvents() == null || request.getPendingEvents().isEmpty())
+                && response.getNewServerEvents().isEmpty()
+                && !response.hasMore;
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        head.set(headServerEventId);
+        if (scanPending.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::wakeBehindHead);
+            } catch (RejectedExecutionException e) {
+                scanPending.set(false);
+                log.debug("Long-poll workers are shut down; not waking waiters for serverEventId: {}", headServerEventId);
+            }
+        }
+    }
+
+    private void wakeBehindHead() {
+        // Cleared before reading the head, so a head published during the scan schedules another
+        scanPending.set(false);
+        long headServerEventId = head.get();
+        for (Waiter waiter : waiters) {
+            if (waiter.request.getLastKnownServerEventId() < headServerEventId) {
+                wake(waiter);
+            }
+        }
+    }
+
+    private void wake(Waiter waiter) {
+        // Whoever removes the waiter answers it, so it is answered at most once.
+        if (!waiters.remove(waiter)) {
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                waiter.result.setResult(syncHandler.handle(waiter.request));
+            } catch (RuntimeException e) {
+                log.error("Long-poll sync failed for device: {}", waiter.request.getDeviceId(), e);
+                waiter.result.setErrorResult(e);
+            }
+        });
+    }
+
+    /**
+     * Number of requests currently parked.
+     */
+    public int waiting() {
+        return waiters.size();
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+        workers.shutdownNow();
+    }
+}
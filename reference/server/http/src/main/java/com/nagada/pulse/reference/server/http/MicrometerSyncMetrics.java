@@ -0,0 +1,149 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.reference.server.EventConflictResolver;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import com.nagada.pulse.reference.server.SyncMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SyncMetrics} recorded into a Micrometer registry, scraped at {@code /actuator/prometheus}.
+ * <p>
+ * The store head is followed through {@link HeadListener}, so it reads 0 until the first append
+ * after startup. Device lag, {@code head - offset} at each sync, is a distribution across all
+ * devices rather than a gauge per device, which would give every device its own time series;
+ * its max is the device furthest behind.
+ * Conflict reasons are tagged as {@code overlap}, {@code newer_wins} or {@code other}.
+ */
+public class MicrometerSyncMetrics implements SyncMetrics, HeadListener, AutoCloseable {
+
+    private final EventStore eventStore;
+    private final MeterRegistry registry;
+    private final Timer diastole;
+    private final Timer conflictResolution;
+    private final Timer systole;
+    private final Counter appended;
+    private final Counter duplicates;
+    private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+    private final DistributionSummary responseEvents;
+    private final DistributionSummary responseBytes;
+    private final DistributionSummary deviceLag;
+    private final AtomicLong head = new AtomicLong();
+
+    public MicrometerSyncMetrics(EventStore eventStore, MeterRegistry registry) {
+        this.eventStore = eventStore;
+        this.registry = registry;
+        this.diastole = Timer.builder("nagada.sync.diastole")
+                .description("Reading the events a device has not seen yet")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.conflictResolution = Timer.builder("nagada.sync.conflict.resolution")
+                .description("Checking one device's pending events for conflicts")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.systole = Timer.builder("nagada.sync.systole")
+                .description("Appending one device's accepted events")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.appended = Counter.builder("nagada.sync.events.appended")
+                .description("Pending events appended to the log")
+                .register(registry);
+        this.duplicates = Counter.builder("nagada.sync.events.duplicates")
+                .description("Pending events already stored, acknowledged without appending")
+                .register(registry);
+        this.responseEvents = DistributionSummary.builder("nagada.sync.response.events")
+                .description("Events per sync response")
+                .baseUnit("events")
+                .register(registry);
+        this.responseBytes = DistributionSummary.builder("nagada.sync.response.payload")
+                .description("Payload bytes per sync response")
+                .baseUnit("bytes")
+                .register(registry);
+        this.deviceLag = DistributionSummary.builder("nagada.sync.device.lag")
+                .description("Events between the store head and a syncing device's offset")
+                .baseUnit("events")
+                .register(registry);
+        Gauge.builder("nagada.store.head", head, AtomicLong::get)
+                .description("Highest serverEventId in the store")
+                .register(registry);
+        for (String reason : new String[]{"overlap", "newer_wins", "other"}) {
+            rejected.put(reason, rejectedCounter(reason));
+        }
+        eventStore.addHeadListener(this);
+    }
+
+    private Counter rejectedCounter(String reason) {
+        return Counter.builder("nagada.sync.conflicts.rejected")
+                .description("Pending events rejected by the conflict check")
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        head.set(headServerEventId);
+    }
+
+    @Override
+    public void diastole(long nanos) {
+        diastole.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void conflictResolution(long nanos) {
+        conflictResolution.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void conflictRejected(String reason) {
+        rejected.get(EventConflictResolver.OVERLAP.equals(reason) ? "overlap" : EventConflictResolver.NEWER_WINS.equals(reason) ? "newer_wins" : "other").increment();
+    }
+
+    @Override
+    public void conflictsRejected(Map<String, String> errorClientEventIds) {
+        if (errorClientEventIds == null || errorClientEventIds.isEmpty()) {
+            return;
+        }
+        for (String reason : errorClientEventIds.values()) {
+            conflictRejected(reason);
+        }
+    }
+
+    @Override
+    public void systole(long nanos, int appended) {
+        systole.record(nanos, TimeUnit.NANOSECONDS);
+        this.appended.increment(appended);
+    }
+
+    @Override
+    public void duplicatesDropped(int count) {
+        duplicates.increment(count);
+    }
+
+    @Override
+    public void response(int events, long payloadBytes) {
+        responseEvents.record(events);
+        responseBytes.record(payloadBytes);
+    }
+
+    @Override
+    public void deviceOffset(String deviceId, long offset) {
+        long current = head.get();
+        if (current > 0) {
+            deviceLag.record(Math.max(0, current - offset));
+        }
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+    }
+}
@@ -0,0 +1,148 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.StreamingSyncResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+
+/**
+ * Writes a {@link SyncResponse} as JSON by splicing each event's bytes from
+ * {@link EncodedEventCache} between a hand-written envelope, so serialization cost follows new
+ * events rather than events times readers. The document is equivalent to Jackson's output.
+ * A {@link StreamingSyncResponse} is written while its events are read from the store, or,
+ * when its page is bounded and a {@link DiastoleResponseCache} is set, copied from the page
+ * encoded for an identical request.
+ * Only writes; requests are still read by the Jackson converter.
+ */
+public class PreEncodedSyncResponseConverter extends AbstractHttpMessageConverter<SyncResponse> {
+
+    private static final byte[] SUCCESS_IDS = "{\"successClientEventIds\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_EVENTS = ",\"newServerEvents\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SNAPSHOT = ",\"snapshot\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final EncodedEventCache cache;
+    private final DiastoleResponseCache pages;
+    private final ObjectMapper objectMapper;
+
+    public PreEncodedSyncResponseConverter(EncodedEventCache cache, ObjectMapper objectMapper) {
+        this(cache, null, objectMapper);
+    }
+
+    /**
+     * @param pages when set, bounded pages are encoded once per cursor and head and shared
+     */
+    public PreEncodedSyncResponseConverter(EncodedEventCache cache, DiastoleResponseCache pages, ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON);
+        this.cache = cache;
+        this.pages = pages;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SyncResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected SyncResponse readInternal(Class<? extends SyncResponse> clazz, HttpInputMessage inputMessage) {
+        throw new UnsupportedOperationException("PreEncodedSyncResponseConverter only writes");
+    }
+
+    @Override
+    protected void writeInternal(SyncResponse response, HttpOutputMessage outputMessage) throws IOException {
+        write(response, outputMessage.getBody());
+    }
+
+    void write(SyncResponse response, OutputStream out) throws IOException {
+        out.write(SUCCESS_IDS);
+        out.write(objectMapper.writeValueAsBytes(response.getSuccessClientEventIds()));
+        out.write(NEW_EVENTS);
+        if (response instanceof StreamingSyncResponse) {
+            writeStreaming((StreamingSyncResponse) response, out);
+        } else {
+            writeEvents(response.getNewServerEvents(), out);
+        }
+        String tail = ",\"nextHeartbeatMs\":" + response.getNextHeartbeatMs()
+                + ",\"errorClientEventIds\":" + objectMapper.writeValueAsString(response.getErrorClientEventIds())
+                + ",\"hasMore\":" + response.isHasMore()
+                + ",\"nextCursor\":" + response.getNextCursor();
+        out.write(tail.getBytes(StandardCharsets.UTF_8));
+        out.write(SNAPSHOT);
+        Snapshot snapshot = response.getSnapshot();
+        if (snapshot == null) {
+            out.write(NULL);
+        } else {
+            String head = "{\"snapshotId\":" + objectMapper.writeValueAsString(snapshot.getSnapshotId())
+                    + ",\"serverEventId\":" + snapshot.getServerEventId()
+                    + ",\"createdAt\":" + snapshot.getCreatedAt()
+                    + ",\"events\":";
+            out.write(head.getBytes(StandardCharsets.UTF_8));
+            writeEvents(snapshot.getEvents(), out);
+            out.write('}');
+        }
+        out.write('}');
+    }
+
+    /**
+     * Events go to the output stream as they are read from the store; a slow client blocks the
+     * read in {@code write}, so no more than one event and the servlet buffer are in memory.
+     */
+    private void writeStreaming(StreamingSyncResponse response, OutputStream out) throws IOException {
+        if (pages == null || !response.paged()) {
+            streamEvents(response, out);
+            return;
+        }
+        // Encoded into memory first, so devices sharing the page never wait on another's socket
+        DiastoleResponseCache.Page page = pages.get(response.afterId(), response.manifestPrefixes(), () -> {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            streamEvents(response, buffer);
+            return new DiastoleResponseCache.Page(buffer.toByteArray(), response.isHasMore(), response.getNextCursor());
+        });
+        response.markWritten(page.hasMore, page.nextCursor);
+        out.write(page.events);
+    }
+
+    private void streamEvents(StreamingSyncResponse response, OutputStream out) throws IOException {
+        out.write('[');
+        boolean[] first = {true};
+        response.writeEvents(event -> {
+            if (!first[0]) {
+                out.write(',');
+            }
+            first[0] = false;
+            out.write(cache.fragment(event));
+        });
+        out.write(']');
+    }
+
+    private void writeEvents(List<ServerEvent> events, OutputStream out) throws IOException {
+        if (events == null) {
+            out.write(NULL);
+        } else {
+            out.write('[');
+            for (int i = 0; i < events.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(cache.fragment(events.get(i)));
+            }
+            out.write(']');
+        }
+    }
+}
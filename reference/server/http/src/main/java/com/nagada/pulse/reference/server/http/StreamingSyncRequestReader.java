@@ -0,0 +1,176 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.reference.server.IncrementalSync;
+import com.nagada.pulse.reference.server.StreamingSyncResponse;
+import com.nagada.pulse.reference.server.SyncHandler;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Reads a JSON {@code SyncRequest} body token by token and feeds its pending events to an
+ * {@link IncrementalSync} as each one is parsed, so heap use does not grow with the upload and
+ * the first batches are committed while the rest is still on the wire.
+ * <p>
+ * {@code deviceId}, {@code lastKnownServerEventId} and {@code manifestPrefixes}, if any, must precede {@code pendingEvents} for
+ * events to be committed while reading, which is how {@code SyncRequest} serializes; otherwise
+ * the events are held until the end of the body.
+ * <p>
+ * A request over {@code maxRequestBytes} or {@code maxEvents} is partially accepted: every event
+ * parsed before the limit is resolved and answered as usual, and the rest are left unacknowledged
+ * for the client to send again. If not a single event fits, the request fails with 413.
+ */
+@Slf4j
+public class StreamingSyncRequestReader {
+
+    private final SyncHandler syncHandler;
+    private final ObjectMapper objectMapper;
+    private final long maxRequestBytes;
+    private final int maxEvents;
+    private final int batchSize;
+
+    public StreamingSyncRequestReader(SyncHandler syncHandler, ObjectMapper objectMapper,
+                                      long maxRequestBytes, int maxEvents, int batchSize) {
+        this.syncHandler = syncHandler;
+        this.objectMapper = objectMapper;
+        this.maxRequestBytes = maxRequestBytes;
+        this.maxEvents = maxEvents;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Thrown by the body stream once more than the allowed bytes have been read.
+     */
+    static final class RequestTooLargeException extends IOException {
+        RequestTooLargeException(long limit) {
+            super("Sync request exceeds " + limit + " bytes");
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        private int counted(int read) throws RequestTooLargeException {
+            if (read > 0) {
+                count += read;
+                if (count > limit) {
+                    throw new RequestTooLargeException(limit);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return counted(super.read(buffer, offset, length));
+        }
+    }
+
+    /**
+     * Parse, resolve and commit the request in {@code body}.
+     */
+    public StreamingSyncResponse read(InputStream body) throws IOException {
+        InputStream in = maxRequestBytes > 0 ? new LimitedInputStream(body, maxRequestBytes) : body;
+        String deviceId = null;
+        Long lastKnownServerEventId = null;
+        List<String> manifestPrefixes = null;
+        IncrementalSync sync = null;
+        List<ClientEvent> held = new ArrayList<>();
+        int parsed = 0;
+        boolean truncated = false;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Sync request must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("deviceId".equals(field)) {
+                    deviceId = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                } else if ("lastKnownServerEventId".equals(field)) {
+                    lastKnownServerEventId = parser.getLongValue();
+                } else if ("manifestPrefixes".equals(field)) {
+                    manifestPrefixes = value == JsonToken.VALUE_NULL ? null
+                            : objectMapper.readValue(parser, objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+                } else if ("pendingEvents".equals(field) && value == JsonToken.START_ARRAY) {
+                    if (deviceId != null && lastKnownServerEventId != null) {
+                        sync = syncHandler.beginIncremental(deviceId, lastKnownServerEventId, manifestPrefixes, batchSize);
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        if (maxEvents > 0 && parsed >= maxEvents) {
+                            truncated = true;
+                            break;
+                        }
+                        ClientEvent event = objectMapper.readValue(parser, ClientEvent.class);
+                        parsed++;
+                        if (sync != null) {
+                            sync.offer(event);
+                        } else {
+                            held.add(event);
+                        }
+                    }
+                    if (truncated) {
+                        break;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (RequestTooLargeException e) {
+            truncated = true;
+        } catch (JsonProcessingException e) {
+            if (parsed == 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed sync request: " + e.getOriginalMessage(), e);
+            }
+            // Events already committed stay committed; answer for them like a truncated request.
+            log.warn("Malformed sync request from device {} after {} events", deviceId, parsed, e);
+            truncated = true;
+        }
+
+        if (truncated) {
+            if (parsed == 0) {
+                // Nothing fit, so nothing was committed.
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Sync request exceeds the limit of " + maxRequestBytes + " bytes before its first event");
+            }
+            log.warn("Sync request from device {} was cut short; answering for its first {} events", deviceId, parsed);
+        }
+        if (deviceId == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Sync request is missing deviceId");
+        }
+        if (sync == null) {
+            sync = syncHandler.beginIncremental(deviceId, lastKnownServerEventId == null ? 0 : lastKnownServerEventId,
+                    manifestPrefixes, batchSize);
+            for (ClientEvent event : held) {
+                sync.offer(event);
+            }
+        }
+        return sync.finish();
+    }
+}
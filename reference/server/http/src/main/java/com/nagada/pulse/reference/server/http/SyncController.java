@@ -2,10 +2,15 @@ package com.nagada.pulse.reference.server.http;
 
 import com.nagada.pulse.protocol.SyncRequest;
 import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.StreamingSyncResponse;
 import com.nagada.pulse.reference.server.SyncHandler;
+import java.io.IOException;
+import java.io.InputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * REST controller that exposes the sync protocol over HTTP.
@@ -18,10 +23,15 @@ import org.springframework.web.bind.annotation.*;
 public class SyncController {
 
     private final SyncHandler syncHandler;
+    private final LongPollRegistry longPollRegistry;
+    private final StreamingSyncRequestReader streamingRequestReader;
 
     @Autowired
-    public SyncController(SyncHandler syncHandler) {
+    public SyncController(SyncHandler syncHandler, LongPollRegistry longPollRegistry,
+                          StreamingSyncRequestReader streamingRequestReader) {
         this.syncHandler = syncHandler;
+        this.longPollRegistry = longPollRegistry;
+        this.streamingRequestReader = streamingRequestReader;
     }
 
     /**
@@ -42,16 +52,45 @@ public class SyncController {
      *     <li><b>4. Commit + Tail:</b> The response confirms which client events were committed and may include those newly committed events from other clients (the "tail").</li>
      * </ul>
      *
-     * @param request The sync request from the client.
+     * A JSON body is read by {@link StreamingSyncRequestReader}: pending events are committed in
+     * batches while the body is still being read, and a request over the configured size limit
+     * is partially accepted.
+     * <p>
+     * The response is a {@link StreamingSyncResponse}: as JSON, its events are written to the
+     * servlet output stream as they are read from the store, so a large catch-up never sits in
+     * memory. Other encodings read the page into a list first.
+     *
+     * @param body The JSON sync request from the client.
      * @return The sync response from the server.
      */
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public SyncResponse sync(InputStream body) throws IOException {
+        return streamingRequestReader.read(body);
+    }
+
+    /**
+     * {@link #sync} for request bodies in other encodings, which are decoded whole first.
+     */
     @PostMapping
-    public SyncResponse sync(@RequestBody SyncRequest request) {
+    public SyncResponse syncDecoded(@RequestBody SyncRequest request) {
         log.info("Received sync request from device: {}", request.getDeviceId());
         log.debug("Sync request details: {}", request);
-        SyncResponse response = syncHandler.handle(request);
-        log.info("Sending sync response to device: {}. {} new events.", request.getDeviceId(), response.getNewServerEvents().size());
-        log.debug("Sync response details: {}", response);
+        StreamingSyncResponse response = syncHandler.handleStreaming(request);
+        log.info("Streaming sync response to device: {} after serverEventId: {}.", request.getDeviceId(), request.getLastKnownServerEventId());
         return response;
     }
+
+    /**
+     * Long-poll variant of {@link #sync}: {@code POST /sync?waitMillis=N}.
+     * <p>
+     * When the request carries no pending events and the server has nothing after
+     * {@code lastKnownServerEventId}, the response is held (without occupying a servlet thread)
+     * until another client's events are appended or {@code waitMillis} elapses, whichever is
+     * first. Otherwise it answers immediately, exactly like {@link #sync}.
+     */
+    @PostMapping(params = "waitMillis")
+    public DeferredResult<SyncResponse> longPoll(@RequestBody SyncRequest request, @RequestParam("waitMillis") long waitMillis) {
+        log.info("Received long-poll sync request from device: {} (wait {} ms)", request.getDeviceId(), waitMillis);
+        return longPollRegistry.poll(request, waitMillis);
+    }
 }
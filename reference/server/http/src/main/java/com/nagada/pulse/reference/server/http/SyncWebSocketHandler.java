@@ -0,0 +1,245 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.DiastolePage;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.HeadListener;
+import com.nagada.pulse.reference.server.SubscriptionIndex;
+import com.nagada.pulse.reference.server.SyncHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+/**
+ * WebSocket transport for the sync protocol (see {@code extensions/websocket-transport.md}).
+ * <p>
+ * A client sends {@code {"type":"sync-request","id":...,"payload":SyncRequest}} and gets back
+ * {@code {"type":"sync-response","id":...,"payload":SyncResponse}}, echoing the request's id,
+ * with exactly the acks, errors and events {@link SyncHandler} would return over HTTP. Once a session has synced and is caught
+ * up, every later append is pushed to it as {@code {"type":"push","payload":SyncResponse}}
+ * carrying only {@code newServerEvents}, so the device sees other clients' events without
+ * waiting for its next heartbeat. A session whose last sync listed {@code manifestPrefixes} is
+ * only pushed the events matching them, looked up in the {@link SubscriptionIndex}, as over HTTP.
+ * <p>
+ * Pushes are built on one thread: sessions at the same cursor and with the same prefixes share a
+ * single read and a single serialized message.
+ */
+@Slf4j
+public class SyncWebSocketHandler extends TextWebSocketHandler implements HeadListener, AutoCloseable {
+
+    static final String SYNC_REQUEST = "sync-request";
+    static final String SYNC_RESPONSE = "sync-response";
+    static final String PUSH = "push";
+
+    private static final int SEND_TIME_LIMIT_MS = 5000;
+    private static final int SEND_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Per-session state. Cursor and paging change only while holding the subscription's lock.
+     */
+    private static final class Subscription {
+        final WebSocketSession session;
+        String deviceId;
+        /** Highest serverEventId this session has been sent, or -1 before its first sync. */
+        long cursor = -1;
+        /** True while the client is still paging through a large delta. */
+        boolean paging;
+        /** Prefixes of the session's last sync, or null for every event. */
+        List<String> manifestPrefixes;
+
+        Subscription(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    private final SyncHandler syncHandler;
+    private final EventStore eventStore;
+    private final SubscriptionIndex subscriptionIndex;
+    private final ObjectMapper objectMapper;
+    private final int maxPushEvents;
+    private final long maxPushBytes;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final ExecutorService pusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nagada-ws-push");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean pushScheduled = new AtomicBoolean();
+
+    /**
+     * @param subscriptionIndex the index the {@link SyncHandler} filters subscribed syncs with, or
+     *                          null if it ignores {@code manifestPrefixes}
+     */
+    public SyncWebSocketHandler(SyncHandler syncHandler, EventStore eventStore, SubscriptionIndex subscriptionIndex,
+                                ObjectMapper objectMapper, int maxPushEvents, long maxPushBytes) {
+        this.syncHandler = syncHandler;
+        this.eventStore = eventStore;
+        this.subscriptionIndex = subscriptionIndex;
+        this.objectMapper = objectMapper;
+        this.maxPushEvents = maxPushEvents;
+        this.maxPushBytes = maxPushBytes;
+        eventStore.addHeadListener(this);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        log.info("WebSocket session opened: {}", session.getId());
+        subscriptions.put(session.getId(),
+                new Subscription(new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_BYTES)));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Subscription subscription = subscriptions.remove(session.getId());
+        log.info("WebSocket session closed: {} (device: {}, status: {})", session.getId(),
+                subscription == null ? null : subscription.deviceId, status);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        Subscription subscription = subscriptions.get(session.getId());
+        if (subscription == null) {
+            return;
+        }
+        SyncRequest request;
+        JsonNode id;
+        try {
+            JsonNode envelope = objectMapper.readTree(message.getPayload());
+            if (!SYNC_REQUEST.equals(envelope.path("type").asText())) {
+                session.close(CloseStatus.POLICY_VIOLATION.withReason("Unsupported message type"));
+                return;
+            }
+            id = envelope.get("id");
+            request = objectMapper.treeToValue(envelope.get("payload"), SyncRequest.class);
+        } catch (IOException e) {
+            log.warn("Malformed sync message on session {}", session.getId(), e);
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Malformed sync-request"));
+            return;
+        }
+        log.info("Received WebSocket sync request from device: {}", request.getDeviceId());
+
+        synchronized (subscription) {
+            SyncResponse response = syncHandler.handle(request);
+            if (subscription.cursor > request.getLastKnownServerEventId()) {
+                // Events pushed on this session were delivered ahead of this response; don't repeat them.
+                List<ServerEvent> unseen = new ArrayList<>();
+                for (ServerEvent event : response.getNewServerEvents()) {
+                    if (event.getServerEventId() > subscription.cursor) {
+                        unseen.add(event);
+                    }
+                }
+                response.newServerEvents = unseen;
+            }
+            subscription.deviceId = request.getDeviceId();
+            subscription.cursor = Math.max(subscription.cursor, response.getNextCursor());
+            subscription.paging = response.hasMore;
+            subscription.manifestPrefixes = subscriptionIndex == null ? null : request.getManifestPrefixes();
+            subscription.session.sendMessage(envelope(SYNC_RESPONSE, id, response));
+        }
+        // Anything appended while this sync ran was not pushed to a session that had no cursor yet.
+        schedulePush();
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+        log.warn("WebSocket transport error on session {}", session.getId(), exception);
+        session.close(CloseStatus.SERVER_ERROR);
+    }
+
+    @Override
+    public void onHeadAdvanced(long headServerEventId) {
+        schedulePush();
+    }
+
+    private void schedulePush() {
+        if (pushScheduled.compareAndSet(false, true)) {
+            pusher.execute(this::pushAll);
+        }
+    }
+
+    /**
+     * Send every caught-up session the events past its cursor that it subscribes to, one page at
+     * a time.
+     */
+    private void pushAll() {
+        pushScheduled.set(false);
+        Map<List<Object>, DiastolePage> pages = new HashMap<>();
+        Map<List<Object>, TextMessage> messages = new HashMap<>();
+        boolean more = false;
+        for (Subscription subscription : subscriptions.values()) {
+            synchronized (subscription) {
+                if (subscription.cursor < 0 || subscription.paging || !subscription.session.isOpen()) {
+                    continue;
+                }
+                long cursor = subscription.cursor;
+                List<String> prefixes = subscription.manifestPrefixes;
+                List<Object> key = Arrays.asList(cursor, prefixes);
+                DiastolePage page = pages.computeIfAbsent(key, k -> prefixes == null
+                        ? DiastolePage.of(eventStore.iterateAfter(cursor), cursor, maxPushEvents, maxPushBytes)
+                        : DiastolePage.of(subscriptionIndex.match(prefixes, cursor), cursor, maxPushEvents, maxPushBytes));
+                if (page.events.isEmpty()) {
+                    // Nothing it subscribes to; skip what was appended without telling the device
+                    subscription.cursor = page.nextCursor;
+                    continue;
+                }
+                try {
+                    TextMessage message = messages.get(key);
+                    if (message == null) {
+                        SyncResponse push = new SyncResponse(List.of(), page.events, -1, Map.of(), page.hasMore, page.nextCursor);
+                        message = envelope(PUSH, null, push);
+                        messages.put(key, message);
+                    }
+                    subscription.session.sendMessage(message);
+                    subscription.cursor = page.nextCursor;
+                    more |= page.hasMore;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Push to device {} on session {} failed", subscription.deviceId, subscription.session.getId(), e);
+                }
+            }
+        }
+        if (more) {
+            schedulePush();
+        }
+    }
+
+    private TextMessage envelope(String type, JsonNode id, SyncResponse response) throws IOException {
+        ObjectNode envelope = objectMapper.createObjectNode();
+        envelope.put("type", type);
+        if (id != null && !id.isNull()) {
+            envelope.set("id", id);
+        }
+        envelope.set("payload", objectMapper.valueToTree(response));
+        return new TextMessage(objectMapper.writeValueAsString(envelope));
+    }
+
+    /**
+     * Number of open sessions.
+     */
+    public int sessionCount() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public void close() {
+        eventStore.removeHeadListener(this);
+        pusher.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.reference.server.TieredEventStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Hit and miss counts and sizes of each {@link TieredEventStore} tier, read from the store at
+ * scrape time.
+ * <p>
+ * A read is a hot {@code hit} when it starts inside the in-memory tail and a {@code miss} when it
+ * needs cold blocks; {@code nagada.store.tier.blocks.read} counts the blocks decompressed.
+ */
+public class TieredStoreMetrics {
+
+    public TieredStoreMetrics(TieredEventStore store, MeterRegistry registry) {
+        FunctionCounter.builder("nagada.store.tier.reads", store, TieredEventStore::hotHitCount)
+                .description("Store reads by whether the hot tier alone could serve them")
+                .tags("tier", "hot", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("nagada.store.tier.reads", store, TieredEventStore::hotMissCount)
+                .description("Store reads by whether the hot tier alone could serve them")
+                .tags("tier", "hot", "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("nagada.store.tier.blocks.read", store, TieredEventStore::coldBlockReadCount)
+                .description("Compressed blocks read from the cold tier")
+                .tags("tier", "cold")
+                .register(registry);
+        Gauge.builder("nagada.store.tier.events", store, TieredEventStore::hotEventCount)
+                .description("Events held by each tier")
+                .tags("tier", "hot")
+                .register(registry);
+        Gauge.builder("nagada.store.tier.events", store, TieredEventStore::coldEventCount)
+                .description("Events held by each tier")
+                .tags("tier", "cold")
+                .register(registry);
+        Gauge.builder("nagada.store.tier.bytes", store, TieredEventStore::hotPayloadBytes)
+                .description("Payload bytes on heap in the hot tier, compressed bytes on disk in the cold tier")
+                .baseUnit("bytes")
+                .tags("tier", "hot")
+                .register(registry);
+        Gauge.builder("nagada.store.tier.bytes", store, TieredEventStore::coldCompressedBytes)
+                .description("Payload bytes on heap in the hot tier, compressed bytes on disk in the cold tier")
+                .baseUnit("bytes")
+                .tags("tier", "cold")
+                .register(registry);
+    }
+}
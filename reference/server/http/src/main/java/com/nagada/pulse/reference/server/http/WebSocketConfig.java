@@ -0,0 +1,48 @@
+package com.nagada.pulse.reference.server.http;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+/**
+ * Exposes {@link SyncWebSocketHandler} at {@code /sync/ws}, next to the REST endpoint.
+ * Browsers may only connect from the server's own origin unless
+ * {@code nagada.sync.ws.allowed-origins} lists others; {@code *} allows any.
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final SyncWebSocketHandler syncWebSocketHandler;
+    private final String[] allowedOrigins;
+
+    public WebSocketConfig(SyncWebSocketHandler syncWebSocketHandler,
+                           @Value("${nagada.sync.ws.allowed-origins:}") String[] allowedOrigins) {
+        this.syncWebSocketHandler = syncWebSocketHandler;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        WebSocketHandlerRegistration registration = registry.addHandler(syncWebSocketHandler, "/sync/ws");
+        if (allowedOrigins.length > 0) {
+            registration.setAllowedOrigins(allowedOrigins);
+        }
+    }
+
+    /**
+     * Larger sync-requests than this are closed with 1009 (message too big).
+     */
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer(
+            @Value("${nagada.sync.ws.max-message-bytes:4194304}") int maxMessageBytes) {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxMessageBytes);
+        return container;
+    }
+}
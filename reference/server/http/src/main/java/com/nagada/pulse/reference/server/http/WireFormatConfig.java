@@ -0,0 +1,34 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Response encoding for Spring MVC. JSON sync responses go through
+ * {@link PreEncodedSyncResponseConverter}, ahead of Jackson. The binary sync format is appended
+ * after the JSON converters, so a client that accepts any media type still gets JSON.
+ */
+@Configuration
+public class WireFormatConfig implements WebMvcConfigurer {
+
+    private final EncodedEventCache encodedEventCache;
+    private final DiastoleResponseCache diastoleResponseCache;
+    private final ObjectMapper objectMapper;
+
+    public WireFormatConfig(EncodedEventCache encodedEventCache, ObjectProvider<DiastoleResponseCache> diastoleResponseCache,
+                            ObjectMapper objectMapper) {
+        this.encodedEventCache = encodedEventCache;
+        this.diastoleResponseCache = diastoleResponseCache.getIfAvailable();
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new PreEncodedSyncResponseConverter(encodedEventCache, diastoleResponseCache, objectMapper));
+        converters.add(new BinarySyncMessageConverter());
+    }
+}
@@ -0,0 +1,113 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.BinaryCodec;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.client.HttpSyncTransport;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests Content-Type/Accept negotiation between JSON and the binary sync format.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
+public class BinaryWireFormatTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+    }
+
+    private static ClientEvent event(String id) {
+        return new ClientEvent(id, "msg.sent", new byte[]{0, 1, 2, (byte) 0xFF}, List.of("item-1"), 0L);
+    }
+
+    @Test
+    void binaryClientSyncsEndToEnd() throws Exception {
+        HttpSyncTransport binary = new HttpSyncTransport(URI.create("http://localhost:" + port + "/sync"),
+                HttpSyncTransport.WireFormat.BINARY, 5000);
+
+        // 1. Client A pushes an event in the binary format.
+        SyncResponse response = binary.sync(new SyncRequest("client-A", List.of(event("client-a-ce-1")), 0L));
+        assertEquals(List.of("client-a-ce-1"), response.getSuccessClientEventIds());
+        assertArrayEquals(new byte[]{0, 1, 2, (byte) 0xFF}, response.getNewServerEvents().get(0).getPayload());
+
+        // 2. A JSON client sees the same event.
+        HttpSyncTransport json = new HttpSyncTransport(URI.create("http://localhost:" + port + "/sync"),
+                HttpSyncTransport.WireFormat.JSON, 5000);
+        SyncResponse fromJson = json.sync(new SyncRequest("client-B", List.of(), 0L));
+        assertEquals(1, fromJson.getNewServerEvents().size());
+        assertArrayEquals(new byte[]{0, 1, 2, (byte) 0xFF}, fromJson.getNewServerEvents().get(0).getPayload());
+    }
+
+    @Test
+    void responseFormatFollowsAcceptHeader() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(List.of(BinarySyncMessageConverter.MEDIA_TYPE));
+        String body = "{\"deviceId\":\"client-A\",\"pendingEvents\":[],\"lastKnownServerEventId\":0}";
+
+        // A JSON request that accepts only binary gets a binary response.
+        ResponseEntity<byte[]> response = restTemplate.postForEntity("/sync", new HttpEntity<>(body, headers), byte[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(BinarySyncMessageConverter.MEDIA_TYPE.isCompatibleWith(response.getHeaders().getContentType()));
+        assertTrue(BinaryCodec.decodeResponse(response.getBody()).getNewServerEvents().isEmpty());
+    }
+
+    @Test
+    void anyAcceptDefaultsToJson() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(BinarySyncMessageConverter.MEDIA_TYPE);
+        headers.setAccept(List.of(MediaType.ALL));
+        byte[] body = BinaryCodec.encode(new SyncRequest("client-A", List.of(event("client-a-ce-1")), 0L));
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/sync", new HttpEntity<>(body, headers), String.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(MediaType.APPLICATION_JSON.isCompatibleWith(response.getHeaders().getContentType()));
+        assertTrue(response.getBody().contains("client-a-ce-1"));
+    }
+
+    @Test
+    void malformedBinaryBodyIsBadRequest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(BinarySyncMessageConverter.MEDIA_TYPE);
+        byte[] body = "not binary".getBytes(StandardCharsets.UTF_8);
+
+        ResponseEntity<String> response = restTemplate.postForEntity("/sync", new HttpEntity<>(body, headers), String.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+}
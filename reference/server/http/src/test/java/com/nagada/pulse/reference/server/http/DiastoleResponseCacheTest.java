@@ -0,0 +1,146 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.StreamingSyncResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that devices at the same cursor and head share one encoding of their page.
+ */
+public class DiastoleResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private InMemoryEventStore eventStore;
+    private DiastoleResponseCache pages;
+    private PreEncodedSyncResponseConverter converter;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new InMemoryEventStore();
+        pages = new DiastoleResponseCache(eventStore, DiastoleResponseCache.DEFAULT_MAX_BYTES, DiastoleResponseCache.DEFAULT_TTL_MILLIS);
+        converter = new PreEncodedSyncResponseConverter(
+                new EncodedEventCache(eventStore, objectMapper, EncodedEventCache.DEFAULT_MAX_BYTES), pages, objectMapper);
+    }
+
+    private void append(String clientEventId) {
+        eventStore.append("device-1", new ClientEvent(clientEventId, "msg.sent",
+                ("payload-" + clientEventId).getBytes(StandardCharsets.UTF_8), List.of("item-1"), 0L));
+    }
+
+    private StreamingSyncResponse page(long afterId) {
+        return new StreamingSyncResponse(List.of(), Map.of(), -1, eventStore, afterId, 2, 0);
+    }
+
+    private byte[] write(SyncResponse response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converter.write(response, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void devicesAtTheSameCursorShareOnePage() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            append("ce-" + i);
+        }
+
+        // Given two devices syncing from the same cursor
+        StreamingSyncResponse first = page(0);
+        byte[] firstBody = write(first);
+        StreamingSyncResponse second = page(0);
+        byte[] secondBody = write(second);
+
+        // Then the second copies the first's page, with the same continuation
+        assertEquals(1, pages.encodeCount());
+        assertEquals(1, pages.hitCount());
+        assertArrayEquals(firstBody, secondBody);
+        assertTrue(second.isHasMore());
+        assertEquals(2, second.getNextCursor());
+        assertEquals(objectMapper.readTree(firstBody).get("newServerEvents"),
+                objectMapper.readTree(objectMapper.writeValueAsBytes(page(0))).get("newServerEvents"));
+
+        // And another cursor is a page of its own
+        write(page(2));
+        assertEquals(2, pages.encodeCount());
+    }
+
+    @Test
+    void aNewHeadDropsEveryPage() throws Exception {
+        append("ce-1");
+        write(page(0));
+
+        // When another event is committed
+        append("ce-2");
+
+        // Then the next device at the same cursor reads the new event too
+        SyncResponse response = objectMapper.readValue(write(page(0)), SyncResponse.class);
+        assertEquals(2, response.getNewServerEvents().size());
+        assertEquals(2, pages.encodeCount());
+        assertEquals(0, pages.hitCount());
+    }
+
+    @Test
+    void concurrentIdenticalMissesAreEncodedOnce() throws Exception {
+        // Given an encoding that holds until every device has asked for the page
+        int devices = 8;
+        CountDownLatch started = new CountDownLatch(devices);
+        AtomicInteger encoded = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(devices);
+        List<Future<DiastoleResponseCache.Page>> results = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            results.add(pool.submit(() -> {
+                started.countDown();
+                return pages.get(0, List.of("user/1/"), () -> {
+                    encoded.incrementAndGet();
+                    try {
+                        started.await();
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new DiastoleResponseCache.Page("[]".getBytes(StandardCharsets.UTF_8), false, 5);
+                });
+            }));
+        }
+
+        // When all have their answer
+        for (Future<DiastoleResponseCache.Page> result : results) {
+            assertEquals(5, result.get().nextCursor);
+        }
+        pool.shutdown();
+
+        // Then the page was built once and the others waited for it
+        assertEquals(1, encoded.get());
+        assertEquals(devices - 1, pages.hitCount());
+    }
+
+    @Test
+    void pagesOverTheBudgetAreSharedOnlyWhileInFlight() throws Exception {
+        pages = new DiastoleResponseCache(eventStore, 1, DiastoleResponseCache.DEFAULT_TTL_MILLIS);
+        DiastoleResponseCache.Page page = new DiastoleResponseCache.Page(new byte[2], false, 0);
+
+        // When a page larger than the whole budget is built twice in a row
+        pages.get(0, null, () -> page);
+        pages.get(0, null, () -> page);
+
+        // Then neither is kept
+        assertEquals(2, pages.encodeCount());
+        assertEquals(0, pages.sizeInBytes());
+    }
+}
@@ -0,0 +1,122 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.Snapshot;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that committed events are encoded once and spliced into equivalent JSON responses.
+ */
+public class EncodedEventCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private InMemoryEventStore eventStore;
+
+    @BeforeEach
+    void setUp() {
+        eventStore = new InMemoryEventStore();
+    }
+
+    private ServerEvent append(String clientEventId) {
+        return eventStore.append("device-1", new ClientEvent(clientEventId, "msg.sent",
+                ("payload-" + clientEventId).getBytes(StandardCharsets.UTF_8), List.of("item-1"), 0L));
+    }
+
+    @Test
+    void eventIsEncodedOnceForAllReaders() throws Exception {
+        EncodedEventCache cache = new EncodedEventCache(eventStore, objectMapper, EncodedEventCache.DEFAULT_MAX_BYTES);
+        ServerEvent event = append("ce-1");
+
+        // Given the same event read by many devices
+        for (int reader = 0; reader < 100; reader++) {
+            assertArrayEquals(objectMapper.writeValueAsBytes(event), cache.fragment(eventStore.listAfter(0).get(0)));
+        }
+
+        // Then it was serialized once
+        assertEquals(1, cache.encodeCount());
+        assertEquals(99, cache.hitCount());
+    }
+
+    @Test
+    void laterResponsesSpliceEventsEncodedForEarlierOnes() throws Exception {
+        EncodedEventCache cache = new EncodedEventCache(eventStore, objectMapper, EncodedEventCache.DEFAULT_MAX_BYTES);
+        PreEncodedSyncResponseConverter converter = new PreEncodedSyncResponseConverter(cache, objectMapper);
+        ServerEvent first = append("ce-1");
+
+        // Given a response to one device carrying the event
+        converter.write(new SyncResponse(List.of("ce-1"), List.of(first), 0, Map.of(), false, 1L), new ByteArrayOutputStream());
+
+        // When another device's response carries it along with a new one
+        converter.write(new SyncResponse(List.of(), List.of(first, append("ce-2")), 0, Map.of(), false, 2L), new ByteArrayOutputStream());
+
+        // Then only the new event was encoded for the second response
+        assertEquals(2, cache.encodeCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    void evictsLowestIdsFirstWithinBudget() {
+        ServerEvent first = append("ce-1");
+        int fragmentBytes = new EncodedEventCache(eventStore, objectMapper, 0).fragment(first).length;
+        EncodedEventCache cache = new EncodedEventCache(eventStore, objectMapper, fragmentBytes * 2L);
+        List<ServerEvent> events = List.of(first, append("ce-2"), append("ce-3"));
+
+        // When three similar events are encoded into room for two
+        events.forEach(cache::fragment);
+
+        // Then the tail is still cached and the oldest one is not
+        assertTrue(cache.sizeInBytes() <= fragmentBytes * 2L);
+        cache.fragment(events.get(2));
+        assertEquals(1, cache.hitCount());
+        cache.fragment(events.get(0));
+        assertEquals(4, cache.encodeCount());
+    }
+
+    @Test
+    void storeResetDropsCachedFragments() {
+        EncodedEventCache cache = new EncodedEventCache(eventStore, objectMapper, EncodedEventCache.DEFAULT_MAX_BYTES);
+        cache.fragment(append("ce-1"));
+
+        // When the store is reset and id 1 is handed out again
+        eventStore.clear();
+        ServerEvent reused = append("other-ce-1");
+
+        // Then the new event is encoded rather than served from the stale entry
+        assertTrue(new String(cache.fragment(reused), StandardCharsets.UTF_8).contains("other-ce-1"));
+        assertEquals(2, cache.encodeCount());
+    }
+
+    @Test
+    void splicedResponseMatchesJackson() throws Exception {
+        EncodedEventCache cache = new EncodedEventCache(eventStore, objectMapper, EncodedEventCache.DEFAULT_MAX_BYTES);
+        PreEncodedSyncResponseConverter converter = new PreEncodedSyncResponseConverter(cache, objectMapper);
+        SyncResponse response = new SyncResponse(List.of("ce-1"), List.of(append("ce-1"), append("ce-2")), 15000,
+                Map.of("ce-9", "Conflict"), true, 2L);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        converter.write(response, out);
+
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(response)), objectMapper.readTree(out.toByteArray()));
+        SyncResponse empty = new SyncResponse(null, null, 0, null);
+        out.reset();
+        converter.write(empty, out);
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(empty)), objectMapper.readTree(out.toByteArray()));
+        SyncResponse withSnapshot = new SyncResponse(List.of(), List.of(append("ce-4")), 0, Map.of(), false, 4L);
+        withSnapshot.snapshot = new Snapshot("snapshot-3", 3L, 1_700_000_000_000L, List.of(append("ce-3")));
+        out.reset();
+        converter.write(withSnapshot, out);
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(withSnapshot)), objectMapper.readTree(out.toByteArray()));
+    }
+}
@@ -0,0 +1,84 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.reference.server.EventStore;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rough throughput comparison of the SQLite and in-memory event stores.
+ * Skipped by default; run with:
+ * <pre>
+ * mvn test -pl server/http -am -Dtest=EventStoreBenchmarkTest -Dbenchmark=true -Dsurefire.failIfNoSpecifiedTests=false
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+public class EventStoreBenchmarkTest {
+
+    private static final int EVENTS = 20_000;
+    private static final int BATCH = 250;
+    private static final int READS = 1_000;
+    private static final int TAIL = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compareStores() {
+        run("in-memory (per-event)", new InMemoryEventStore(), false);
+        run("in-memory (batched)", new InMemoryEventStore(), true);
+        run("sqlite (per-event)", new JdbcEventStore(dataSourceFor("per-event.db")), false);
+        run("sqlite (batched)", new JdbcEventStore(dataSourceFor("batched.db")), true);
+    }
+
+    private HikariDataSource dataSourceFor(String file) {
+        // Pooled like the Spring Boot DataSource, so connection setup is not measured.
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:sqlite:" + directory.resolve(file) + "?journal_mode=WAL&synchronous=NORMAL");
+        return dataSource;
+    }
+
+    private void run(String name, EventStore store, boolean batched) {
+        long start = System.nanoTime();
+        for (int b = 0; b < EVENTS / BATCH; b++) {
+            List<ClientEvent> batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                batch.add(new ClientEvent("c-" + b + "-" + i, "t", new byte[256], List.of("key-" + (i % 50)), i));
+            }
+            String deviceId = "device-" + b;
+            if (batched) {
+                store.appendAll(deviceId, batch);
+            } else {
+                batch.forEach(e -> store.append(deviceId, e));
+            }
+        }
+        long appendNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            store.listAfter(EVENTS - TAIL);
+        }
+        long listNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            int b = i % (EVENTS / BATCH);
+            store.exists("device-" + b, "c-" + b + "-7");
+        }
+        long existsNanos = System.nanoTime() - start;
+
+        System.out.printf("%-22s append: %8.0f events/s   listAfter(tail %d): %8.1f us/op   exists: %6.1f us/op%n",
+                name,
+                EVENTS / (appendNanos / 1e9),
+                TAIL,
+                listNanos / 1e3 / READS,
+                existsNanos / 1e3 / READS);
+    }
+}
@@ -4,6 +4,9 @@ package com.nagada.pulse.reference.server.http;
 import com.nagada.pulse.protocol.ClientEvent;
 import com.nagada.pulse.protocol.SyncRequest;
 import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -19,12 +22,24 @@ import static org.junit.jupiter.api.Assertions.*;
 /**
  * Tests that replaying the same sync request does not result in duplicate events.
  */
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
 public class IdempotencyTest {
 
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+    }
+
     @Test
     void replayingSyncRequestDoesNotDuplicateEvents() {
         // 1. Send a request with a pending event.
@@ -0,0 +1,155 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.SyncHandler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the SQLite-backed event and offset stores against a throwaway database file.
+ */
+public class JdbcEventStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SQLiteDataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + directory.resolve("events.db"));
+    }
+
+    @Test
+    void batchAppendAssignsContiguousIdsAndSurvivesReopen() {
+        JdbcEventStore store = new JdbcEventStore(dataSource);
+        List<ServerEvent> appended = store.appendAll("device-1", List.of(
+                new ClientEvent("c1", "t", "one".getBytes(), List.of("a", "b"), 10L),
+                new ClientEvent("c2", "t", null, null, 20L)));
+
+        assertEquals(1L, appended.get(0).getServerEventId());
+        assertEquals(2L, appended.get(1).getServerEventId());
+
+        // A new store over the same file sees the committed rows and continues the sequence
+        JdbcEventStore reopened = new JdbcEventStore(dataSource);
+        List<ServerEvent> events = reopened.listAfter(0);
+        assertEquals(2, events.size());
+        assertArrayEquals("one".getBytes(), events.get(0).getPayload());
+        assertEquals(List.of("a", "b"), events.get(0).getPayloadManifest());
+        assertNull(events.get(1).getPayloadManifest());
+        assertTrue(reopened.exists("device-1", "c2"));
+        assertFalse(reopened.exists("device-2", "c2"));
+        assertEquals(3L, reopened.append("device-2", new ClientEvent("c3", "t", new byte[0], List.of(), 0L)).getServerEventId());
+        assertEquals(1, reopened.listAfter(2).size());
+    }
+
+    @Test
+    void appendingTheSameEventTwiceReturnsTheStoredRow() {
+        JdbcEventStore store = new JdbcEventStore(dataSource);
+        ServerEvent first = store.append("device-1", new ClientEvent("c1", "t", "one".getBytes(), List.of("a"), 10L));
+
+        // A retry of the same clientEventId is not stored again
+        ServerEvent retry = store.append("device-1", new ClientEvent("c1", "t", "other".getBytes(), List.of("b"), 20L));
+
+        assertEquals(first.getServerEventId(), retry.getServerEventId());
+        assertArrayEquals("one".getBytes(), retry.getPayload());
+        assertEquals(1, store.listAfter(0).size());
+    }
+
+    @Test
+    void batchAppendSkipsStoredAndRepeatedEvents() {
+        JdbcEventStore store = new JdbcEventStore(dataSource);
+        store.append("device-1", new ClientEvent("c1", "t", new byte[0], List.of(), 0L));
+
+        List<ServerEvent> appended = store.appendAll("device-1", List.of(
+                new ClientEvent("c1", "t", new byte[0], List.of(), 0L),
+                new ClientEvent("c2", "t", new byte[0], List.of(), 0L),
+                new ClientEvent("c2", "t", new byte[0], List.of(), 0L)));
+
+        assertEquals(1, appended.size());
+        assertEquals(2L, appended.get(0).getServerEventId());
+        assertEquals(2, store.listAfter(0).size());
+    }
+
+    @Test
+    void appendGroupCommitsEveryBatchTogetherAndPublishesOnce() {
+        JdbcEventStore store = new JdbcEventStore(dataSource);
+        List<Long> heads = new ArrayList<>();
+        store.addHeadListener(heads::add);
+
+        // A batch that violates the schema rolls back the whole group, and nothing is published
+        assertThrows(RuntimeException.class, () -> store.appendGroup(List.of("device-1", "device-2"), List.of(
+                List.of(new ClientEvent("c1", "t", new byte[0], List.of(), 0L)),
+                List.of(new ClientEvent(null, "t", new byte[0], List.of(), 0L)))));
+        assertEquals(0, store.listAfter(0).size());
+        assertTrue(heads.isEmpty());
+
+        // A valid group gets contiguous ids across its batches and one head publication
+        List<List<ServerEvent>> appended = store.appendGroup(List.of("device-1", "device-2", "device-1"), List.of(
+                List.of(new ClientEvent("c1", "t", new byte[0], List.of(), 0L)),
+                List.of(new ClientEvent("c1", "t", new byte[0], List.of(), 0L)),
+                List.of(new ClientEvent("c1", "t", new byte[0], List.of(), 0L), new ClientEvent("c2", "t", new byte[0], List.of(), 0L))));
+
+        assertEquals(1L, appended.get(0).get(0).getServerEventId());
+        assertEquals(2L, appended.get(1).get(0).getServerEventId());
+        assertEquals(1, appended.get(2).size());
+        assertEquals(3L, appended.get(2).get(0).getServerEventId());
+        assertEquals(List.of(3L), heads);
+    }
+
+    @Test
+    void iterateAfterPagesThroughTheTailUpToTheHeadAtTheCall() {
+        JdbcEventStore store = new JdbcEventStore(dataSource);
+        List<ClientEvent> batch = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            batch.add(new ClientEvent("c" + i, "t", new byte[0], List.of(), 0L));
+        }
+        store.appendAll("device-1", batch);
+
+        Iterator<ServerEvent> events = store.iterateAfter(100);
+        store.append("device-1", new ClientEvent("late", "t", new byte[0], List.of(), 0L));
+
+        // Spans several pages, in order, and stops at the head the iterator started from
+        long expected = 101;
+        while (events.hasNext()) {
+            assertEquals(expected++, events.next().getServerEventId());
+        }
+        assertEquals(1201L, expected);
+        assertFalse(store.iterateAfter(1201).hasNext());
+    }
+
+    @Test
+    void offsetStoreUpsertsPerDevice() {
+        JdbcOffsetStore offsets = new JdbcOffsetStore(dataSource);
+
+        assertEquals(-1L, offsets.get("device-1"));
+        offsets.update("device-1", 5L);
+        offsets.update("device-1", 7L);
+        assertEquals(7L, offsets.get("device-1"));
+    }
+
+    @Test
+    void syncHandlerRunsOnJdbcStores() {
+        SyncHandler handler = new SyncHandler(new JdbcEventStore(dataSource), new JdbcOffsetStore(dataSource));
+        ClientEvent event = new ClientEvent("ce-1", "item.created", "{}".getBytes(), List.of(), 0L);
+
+        SyncResponse first = handler.handle(new SyncRequest("client-1", List.of(event), 0L));
+        SyncResponse replay = handler.handle(new SyncRequest("client-1", List.of(event), 0L));
+
+        assertEquals(1, first.getNewServerEvents().size());
+        assertEquals(1, replay.getNewServerEvents().size(), "Replayed event must not be stored twice");
+    }
+}
@@ -0,0 +1,91 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that an idle long-poll sync is held until another client's event arrives.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
+public class LongPollTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    @Autowired
+    private LongPollRegistry longPollRegistry;
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+    }
+
+    @Test
+    void parkedPollIsAnsweredWhenAnotherClientAppends() throws Exception {
+        // 1. Client A long-polls with nothing to push and nothing to fetch.
+        CompletableFuture<ResponseEntity<SyncResponse>> poll = CompletableFuture.supplyAsync(() ->
+                restTemplate.postForEntity("/sync?waitMillis=10000", new SyncRequest("client-A", List.of(), 0L), SyncResponse.class));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (longPollRegistry.waiting() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, longPollRegistry.waiting());
+        assertFalse(poll.isDone());
+
+        // 2. Client B pushes an event.
+        ClientEvent event = new ClientEvent("client-b-ce-1", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of(), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(event), 0L), SyncResponse.class);
+
+        // 3. Client A's poll returns with B's event long before its wait runs out.
+        ResponseEntity<SyncResponse> response = poll.get(5, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, response.getBody().getNewServerEvents().size());
+        assertEquals("client-b-ce-1", response.getBody().getNewServerEvents().get(0).getOriginClientEventId());
+        assertEquals(0, longPollRegistry.waiting());
+    }
+
+    @Test
+    void idlePollTimesOutWithEmptyResponse() {
+        long start = System.currentTimeMillis();
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync?waitMillis=300",
+                new SyncRequest("client-A", List.of(), 0L), SyncResponse.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().getNewServerEvents().isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= 250);
+    }
+
+    @Test
+    void pollWithPendingEventsAnswersImmediately() {
+        ClientEvent event = new ClientEvent("client-a-ce-1", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of(), 0L);
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync?waitMillis=10000",
+                new SyncRequest("client-A", List.of(event), 0L), SyncResponse.class);
+
+        assertEquals(1, response.getBody().getNewServerEvents().size());
+        assertTrue(response.getBody().getSuccessClientEventIds().contains("client-a-ce-1"));
+    }
+}
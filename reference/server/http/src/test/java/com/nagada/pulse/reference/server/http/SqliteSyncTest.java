@@ -0,0 +1,72 @@
+package com.nagada.pulse.reference.server.http;
+
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the default sqlite store end to end, against a database file in a temporary directory.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=sqlite")
+public class SqliteSyncTest {
+
+    @TempDir
+    static Path directory;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url",
+                () -> "jdbc:sqlite:" + directory.resolve("sync.db") + "?journal_mode=WAL&synchronous=FULL&busy_timeout=5000");
+    }
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void clientsShouldSyncThroughTheDatabaseAndRetriesShouldNotAddRows() {
+        // 1. Client A and then client B each send an event.
+        ClientEvent eventA = new ClientEvent("sqlite-a-1", "msg.sent", "{\"text\":\"A\"}".getBytes(StandardCharsets.UTF_8), List.of("chat/1"), 0L);
+        ResponseEntity<SyncResponse> responseA = restTemplate.postForEntity("/sync",
+                new SyncRequest("sqlite-A", List.of(eventA), 0L), SyncResponse.class);
+        ClientEvent eventB = new ClientEvent("sqlite-b-1", "msg.sent", "{\"text\":\"B\"}".getBytes(StandardCharsets.UTF_8), List.of("chat/2"), 0L);
+        ResponseEntity<SyncResponse> responseB = restTemplate.postForEntity("/sync",
+                new SyncRequest("sqlite-B", List.of(eventB), 0L), SyncResponse.class);
+
+        // 2. Client B receives A's event and its own, in commit order.
+        assertEquals(List.of("sqlite-a-1"), responseA.getBody().getSuccessClientEventIds());
+        assertEquals(2, responseB.getBody().getNewServerEvents().size());
+        assertEquals("sqlite-a-1", responseB.getBody().getNewServerEvents().get(0).getOriginClientEventId());
+        assertEquals("sqlite-b-1", responseB.getBody().getNewServerEvents().get(1).getOriginClientEventId());
+        long head = responseB.getBody().getNewServerEvents().get(1).getServerEventId();
+
+        // 3. Client A retries its event; it is acknowledged again without a new row.
+        ResponseEntity<SyncResponse> retry = restTemplate.postForEntity("/sync",
+                new SyncRequest("sqlite-A", List.of(eventA), head), SyncResponse.class);
+        assertTrue(retry.getBody().getSuccessClientEventIds().contains("sqlite-a-1"));
+        assertTrue(retry.getBody().getNewServerEvents().isEmpty());
+
+        // 4. Both events are rows in the database file.
+        Integer rows = new JdbcTemplate(dataSource).queryForObject("SELECT COUNT(*) FROM server_events", Integer.class);
+        assertEquals(2, rows);
+    }
+}
@@ -0,0 +1,159 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests incremental parsing of large uploads and partial acceptance past the request limits.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "nagada.store.type=memory",
+        "nagada.sync.request.max-events=500",
+        "nagada.sync.request.max-bytes=65536",
+        "nagada.sync.request.batch-size=64",
+        "nagada.sync.diastole.max-events=0"})
+public class StreamingSyncRequestTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+    }
+
+    private static List<ClientEvent> backlog(int count, int payloadBytes) {
+        List<ClientEvent> events = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            events.add(new ClientEvent("offline-" + i, "msg.sent", new byte[payloadBytes], List.of("item-" + i), 0L));
+        }
+        return events;
+    }
+
+    private ResponseEntity<SyncResponse> post(String json) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return restTemplate.postForEntity("/sync", new HttpEntity<>(json, headers), SyncResponse.class);
+    }
+
+    @Test
+    void requestSerializesPendingEventsLast() throws Exception {
+        String json = objectMapper.writeValueAsString(new SyncRequest("client-A", backlog(1, 1), 0L));
+
+        assertTrue(json.indexOf("\"lastKnownServerEventId\"") < json.indexOf("\"pendingEvents\""));
+    }
+
+    @Test
+    void uploadWithinLimitsIsFullyAccepted() {
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync",
+                new SyncRequest("client-A", backlog(300, 16), 0L), SyncResponse.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(300, response.getBody().getSuccessClientEventIds().size());
+        assertEquals(300, response.getBody().getNewServerEvents().size());
+    }
+
+    @Test
+    void uploadOverEventLimitIsPartiallyAccepted() {
+        // 1. Client A comes back online with more events than one request may carry.
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync",
+                new SyncRequest("client-A", backlog(800, 1), 0L), SyncResponse.class);
+
+        // 2. The first 500 are committed and acknowledged; the rest are left for the next sync.
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(500, response.getBody().getSuccessClientEventIds().size());
+        assertEquals("offline-500", response.getBody().getSuccessClientEventIds().get(499));
+        assertFalse(eventStore.exists("client-A", "offline-501"));
+    }
+
+    @Test
+    void uploadOverByteLimitIsPartiallyAccepted() {
+        // Each event is ~1.4 KB of JSON, so 64 KB holds fewer than 50 of them.
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync",
+                new SyncRequest("client-A", backlog(100, 1024), 0L), SyncResponse.class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        int accepted = response.getBody().getSuccessClientEventIds().size();
+        assertTrue(accepted > 0 && accepted < 50, "accepted " + accepted);
+        assertEquals(accepted, response.getBody().getNewServerEvents().size());
+    }
+
+    @Test
+    void firstEventOverByteLimitIsRejected() throws Exception {
+        String json = objectMapper.writeValueAsString(new SyncRequest("client-A", backlog(1, 64 * 1024), 0L));
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, post(json).getStatusCode());
+        assertFalse(eventStore.exists("client-A", "offline-1"));
+    }
+
+    @Test
+    void eventsBeforeDeviceIdAreHeldUntilTheEnd() {
+        String json = "{\"pendingEvents\":[{\"clientEventId\":\"late-1\",\"type\":\"t\",\"payload\":\"\",\"payloadManifest\":[],\"createdAt\":0}],"
+                + "\"lastKnownServerEventId\":0,\"deviceId\":\"client-A\"}";
+
+        ResponseEntity<SyncResponse> response = post(json);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of("late-1"), response.getBody().getSuccessClientEventIds());
+    }
+
+    @Test
+    void subscribedDeviceReceivesOnlyEventsUnderItsPrefixes() throws Exception {
+        // 1. Client A writes for two users.
+        restTemplate.postForEntity("/sync", new SyncRequest("client-A", List.of(
+                new ClientEvent("a-1", "todo.created", new byte[1], List.of("user/1/todo"), 0L),
+                new ClientEvent("a-2", "todo.created", new byte[1], List.of("user/2/todo"), 0L)), 0L), SyncResponse.class);
+
+        // 2. Client B subscribes to user 2 and uploads in the same request.
+        SyncRequest request = new SyncRequest("client-B", List.of(
+                new ClientEvent("b-1", "todo.created", new byte[1], List.of("user/2/other"), 0L)), 0L);
+        request.manifestPrefixes = List.of("user/2/");
+        String json = objectMapper.writeValueAsString(request);
+        assertTrue(json.indexOf("\"manifestPrefixes\"") < json.indexOf("\"pendingEvents\""));
+        ResponseEntity<SyncResponse> response = post(json);
+
+        // 3. B receives user 2's events only, its own included, and its cursor reaches the head.
+        assertEquals(List.of("b-1"), response.getBody().getSuccessClientEventIds());
+        assertEquals(List.of("a-2", "b-1"), response.getBody().getNewServerEvents().stream()
+                .map(ServerEvent::getOriginClientEventId).collect(Collectors.toList()));
+        assertEquals(3, response.getBody().getNextCursor());
+    }
+
+    @Test
+    void malformedBodyIsBadRequest() {
+        assertEquals(HttpStatus.BAD_REQUEST, post("{\"deviceId\":").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, post("{\"pendingEvents\":[]}").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, post(new String("[]".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)).getStatusCode());
+    }
+}
@@ -0,0 +1,83 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the sync pipeline is measured and scraped at /actuator/prometheus.
+ */
+@AutoConfigureObservability
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
+public class SyncMetricsTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+    }
+
+    private double count(String name, String... tags) {
+        return meterRegistry.get(name).tags(tags).counter().count();
+    }
+
+    @Test
+    void syncPhasesAreCountedAndScraped() {
+        double appendedBefore = count("nagada.sync.events.appended");
+        double rejectedBefore = count("nagada.sync.conflicts.rejected", "reason", "overlap");
+        double duplicatesBefore = count("nagada.sync.events.duplicates");
+
+        // 1. Client A writes item-1.
+        ClientEvent eventA = new ClientEvent("a-1", "todo.edited", "A".getBytes(), List.of("item-1"), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-A", List.of(eventA), 0L), SyncResponse.class);
+
+        // 2. Client B, not having seen it, writes item-1 too and is rejected.
+        ClientEvent eventB = new ClientEvent("b-1", "todo.edited", "B".getBytes(), List.of("item-1"), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(eventB), 0L), SyncResponse.class);
+
+        // 3. Client A retries its event.
+        restTemplate.postForEntity("/sync", new SyncRequest("client-A", List.of(eventA), 0L), SyncResponse.class);
+
+        assertEquals(1, count("nagada.sync.events.appended") - appendedBefore);
+        assertEquals(1, count("nagada.sync.conflicts.rejected", "reason", "overlap") - rejectedBefore);
+        assertEquals(1, count("nagada.sync.events.duplicates") - duplicatesBefore);
+        assertEquals(1, meterRegistry.get("nagada.store.head").gauge().value());
+        assertTrue(meterRegistry.get("nagada.sync.systole").timer().count() > 0);
+        assertTrue(meterRegistry.get("nagada.sync.diastole").timer().count() > 0);
+
+        // 4. The meters are exposed in the Prometheus text format.
+        ResponseEntity<String> scrape = restTemplate.getForEntity("/actuator/prometheus", String.class);
+        assertEquals(HttpStatus.OK, scrape.getStatusCode());
+        assertTrue(scrape.getBody().contains("nagada_sync_conflicts_rejected_total{reason=\"overlap\""));
+        assertTrue(scrape.getBody().contains("nagada_sync_systole_seconds_bucket"));
+        assertTrue(scrape.getBody().contains("nagada_sync_device_lag_events_max"));
+        assertTrue(scrape.getBody().contains("nagada_store_head"));
+    }
+}
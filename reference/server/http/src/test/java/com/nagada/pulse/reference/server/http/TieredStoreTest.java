@@ -0,0 +1,66 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.TieredEventStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the tiered store serves syncs across both tiers and reports per-tier metrics.
+ */
+@AutoConfigureObservability
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "nagada.store.type=tiered",
+        "nagada.store.tiered.directory=target/tiered-store-test",
+        "nagada.store.tiered.hot-events=1024",
+        "nagada.sync.diastole.max-events=0"
+})
+public class TieredStoreTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private TieredEventStore eventStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void devicesFarBehindAreServedFromTheColdTier() {
+        // 1. Client A writes enough events to push the oldest ones to the cold tier.
+        List<ClientEvent> events = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            events.add(new ClientEvent("a-" + i, "todo.created", ("item " + i).getBytes(), List.of("item-" + i), 0L));
+        }
+        restTemplate.postForEntity("/sync", new SyncRequest("client-A", events, 0L), SyncResponse.class);
+        assertTrue(eventStore.coldEventCount() > 0);
+
+        // 2. Client B syncs from zero and receives every event in order.
+        ResponseEntity<SyncResponse> response = restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(), 0L), SyncResponse.class);
+        List<ServerEvent> received = response.getBody().getNewServerEvents();
+        assertEquals(3000, received.size());
+        assertEquals("a-0", received.get(0).getOriginClientEventId());
+        assertEquals("a-2999", received.get(2999).getOriginClientEventId());
+
+        // 3. The cold read is counted as a hot-tier miss and exposed with the tier sizes.
+        assertTrue(meterRegistry.get("nagada.store.tier.reads").tags("tier", "hot", "result", "miss").functionCounter().count() > 0);
+        assertTrue(meterRegistry.get("nagada.store.tier.blocks.read").functionCounter().count() > 0);
+        assertTrue(meterRegistry.get("nagada.store.tier.events").tags("tier", "cold").gauge().value() > 0);
+        String scrape = restTemplate.getForObject("/actuator/prometheus", String.class);
+        assertTrue(scrape.contains("nagada_store_tier_reads_total{result=\"hit\",tier=\"hot\""));
+    }
+}
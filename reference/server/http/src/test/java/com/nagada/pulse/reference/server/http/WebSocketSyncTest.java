@@ -0,0 +1,185 @@
+package com.nagada.pulse.reference.server.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.client.InMemoryOutbox;
+import com.nagada.pulse.reference.client.InMemoryProjectionStore;
+import com.nagada.pulse.reference.client.SyncEngine;
+import com.nagada.pulse.reference.client.WebSocketSyncTransport;
+import com.nagada.pulse.reference.server.InMemoryEventStore;
+import com.nagada.pulse.reference.server.InMemoryOffsetStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.net.http.WebSocketHandshakeException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the WebSocket transport: request/response sync and server push to a connected device.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
+public class WebSocketSyncTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private InMemoryEventStore eventStore;
+
+    @Autowired
+    private InMemoryOffsetStore offsetStore;
+
+    private WebSocketSyncTransport transport;
+
+    @BeforeEach
+    void setUp() {
+        eventStore.clear();
+        offsetStore.clear();
+        transport = new WebSocketSyncTransport(URI.create("ws://localhost:" + port + "/sync/ws"), 5000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transport.close();
+    }
+
+    @Test
+    void syncOverWebSocketAcksLikeHttp() throws Exception {
+        // 1. Client A pushes one event over the WebSocket.
+        ClientEvent event = new ClientEvent("client-a-ce-1", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of("item-1"), 0L);
+        SyncResponse response = transport.sync(new SyncRequest("client-A", List.of(event), 0L));
+
+        // 2. It is acknowledged and echoed back as a server event.
+        assertTrue(response.getSuccessClientEventIds().contains("client-a-ce-1"));
+        assertEquals(1, response.getNewServerEvents().size());
+        assertEquals(1L, response.getNewServerEvents().get(0).getServerEventId());
+
+        // 3. A conflicting event from a client that has not seen item-1 is rejected.
+        ClientEvent stale = new ClientEvent("client-a-ce-2", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of("item-1"), 0L);
+        SyncResponse conflict = transport.sync(new SyncRequest("client-C", List.of(stale), 0L));
+        assertTrue(conflict.getErrorClientEventIds().containsKey("client-a-ce-2"));
+    }
+
+    @Test
+    void appendedEventsArePushedToConnectedDevice() throws Exception {
+        // 1. Client A connects and syncs once through the engine.
+        InMemoryProjectionStore projection = new InMemoryProjectionStore();
+        SyncEngine engine = new SyncEngine("client-A", new InMemoryOutbox(), projection, transport);
+        transport.setPushListener(engine::recordResponse);
+        engine.sync();
+        assertEquals(0, projection.getEventCount());
+
+        // 2. Client B syncs an event over HTTP.
+        ClientEvent event = new ClientEvent("client-b-ce-1", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of(), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(event), 0L), SyncResponse.class);
+
+        // 3. Client A receives it without syncing again.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (projection.getEventCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, projection.getEventCount());
+        assertEquals("client-b-ce-1", projection.getReceivedEvents().get(0).getOriginClientEventId());
+
+        // 4. A later heartbeat does not deliver it a second time.
+        engine.sync();
+        assertEquals(1, projection.getEventCount());
+    }
+
+    @Test
+    void pushesToSubscribedDeviceHoldOnlyMatchingEvents() throws Exception {
+        // 1. Client A subscribes to user 42 and syncs once.
+        InMemoryProjectionStore projection = new InMemoryProjectionStore();
+        SyncEngine engine = new SyncEngine("client-A", new InMemoryOutbox(), projection, transport);
+        engine.setManifestPrefixes(List.of("user/42/"));
+        transport.setPushListener(engine::recordResponse);
+        engine.sync();
+
+        // 2. Client B syncs an event for user 7, then one for user 42.
+        ClientEvent other = new ClientEvent("client-b-ce-1", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of("user/7/todo"), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(other), 0L), SyncResponse.class);
+        ClientEvent mine = new ClientEvent("client-b-ce-2", "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of("user/42/todo"), 0L);
+        restTemplate.postForEntity("/sync", new SyncRequest("client-B", List.of(mine), 1L), SyncResponse.class);
+
+        // 3. Client A is pushed only user 42's event.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (projection.getEventCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        assertEquals(1, projection.getEventCount());
+        assertEquals("client-b-ce-2", projection.getReceivedEvents().get(0).getOriginClientEventId());
+
+        // 4. Its next heartbeat resumes at the head and receives nothing more.
+        assertEquals(2L, engine.buildSyncRequest().getLastKnownServerEventId());
+        engine.sync();
+        assertEquals(1, projection.getEventCount());
+    }
+
+    @Test
+    void responsesEchoTheIdOfTheRequestTheyAnswer() throws Exception {
+        // 1. A raw client sends two sync requests back to back, tagged 7 and 8.
+        BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        WebSocket raw = HttpClient.newHttpClient().newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/sync/ws"), new WebSocket.Listener() {
+                    @Override
+                    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+                        replies.add(data.toString());
+                        webSocket.request(1);
+                        return null;
+                    }
+                })
+                .join();
+        raw.sendText("{\"type\":\"sync-request\",\"id\":7,\"payload\":{\"deviceId\":\"client-A\",\"pendingEvents\":[],\"lastKnownServerEventId\":0}}", true).join();
+        raw.sendText("{\"type\":\"sync-request\",\"id\":8,\"payload\":{\"deviceId\":\"client-A\",\"pendingEvents\":[],\"lastKnownServerEventId\":0}}", true).join();
+
+        // 2. Each response carries the id of its request, in order.
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode first = objectMapper.readTree(replies.poll(5, TimeUnit.SECONDS));
+        JsonNode second = objectMapper.readTree(replies.poll(5, TimeUnit.SECONDS));
+        assertEquals("sync-response", first.get("type").asText());
+        assertEquals(7, first.get("id").asLong());
+        assertEquals(8, second.get("id").asLong());
+        raw.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+
+    @Test
+    void handshakesFromAnotherOriginAreRejectedByDefault() {
+        // 1. A browser page on another site tries to open the WebSocket.
+        CompletionException refused = assertThrows(CompletionException.class, () -> HttpClient.newHttpClient().newWebSocketBuilder()
+                .header("Origin", "https://elsewhere.example")
+                .buildAsync(URI.create("ws://localhost:" + port + "/sync/ws"), new WebSocket.Listener() { })
+                .join());
+
+        // 2. The handshake is refused, while a client on the server's own origin still connects.
+        assertInstanceOf(WebSocketHandshakeException.class, refused.getCause());
+        assertEquals(403, ((WebSocketHandshakeException) refused.getCause()).getResponse().statusCode());
+        WebSocket sameOrigin = HttpClient.newHttpClient().newWebSocketBuilder()
+                .header("Origin", "http://localhost:" + port)
+                .buildAsync(URI.create("ws://localhost:" + port + "/sync/ws"), new WebSocket.Listener() { })
+                .join();
+        sameOrigin.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+    }
+}
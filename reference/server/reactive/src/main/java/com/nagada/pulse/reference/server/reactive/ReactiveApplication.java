@@ -0,0 +1,58 @@
+package com.nagada.pulse.reference.server.reactive;
+
+import com.nagada.pulse.reference.server.*;
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Non-blocking reference server: {@link ReactiveSyncHandler} on WebFlux and Reactor Netty.
+ */
+@SpringBootApplication
+public class ReactiveApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(ReactiveApplication.class, args);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "memory", matchIfMissing = true)
+    public ReactiveEventStore eventStore() {
+        return new InMemoryReactiveEventStore();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "file")
+    public SegmentedFileEventStore segmentedFileEventStore(@Value("${nagada.store.directory:data/events}") String directory) throws IOException {
+        return new SegmentedFileEventStore(Paths.get(directory));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "nagada.store.type", havingValue = "file")
+    public ReactiveEventStore fileEventStore(SegmentedFileEventStore segmentedFileEventStore) {
+        return new SegmentedFileReactiveEventStore(segmentedFileEventStore);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression("'${nagada.store.type:memory}' == 'file' and ${nagada.store.compaction.enabled:false}")
+    public LogCompactor logCompactor(SegmentedFileEventStore segmentedFileEventStore,
+                                     @Value("${nagada.store.compaction.interval-ms:600000}") long intervalMillis) {
+        return new LogCompactor(segmentedFileEventStore, intervalMillis);
+    }
+
+    @Bean
+    public ReactiveOffsetStore offsetStore() {
+        return new InMemoryReactiveOffsetStore();
+    }
+
+    @Bean
+    public ReactiveSyncHandler syncHandler(ReactiveEventStore eventStore, ReactiveOffsetStore offsetStore,
+                                           @Value("${nagada.sync.diastole.max-events:1000}") int maxEvents,
+                                           @Value("${nagada.sync.diastole.max-bytes:4194304}") long maxBytes) {
+        return new ReactiveSyncHandler(eventStore, offsetStore, maxEvents, maxBytes);
+    }
+}
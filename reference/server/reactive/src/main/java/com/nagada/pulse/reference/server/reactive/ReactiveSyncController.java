@@ -0,0 +1,63 @@
+package com.nagada.pulse.reference.server.reactive;
+
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.ReactiveEventStore;
+import com.nagada.pulse.reference.server.ReactiveSyncHandler;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sync endpoints on the event loop.
+ * <p>
+ * {@code POST /sync} is the same heartbeat as the servlet server's, answered by
+ * {@link ReactiveSyncHandler} without holding a thread. {@code GET /sync/stream} is a
+ * Server-Sent Events tail of the log: every event after {@code after} (or the
+ * {@code Last-Event-ID} a reconnecting browser sends), then each new event as it is appended.
+ * An idle stream costs a subscription on the store's head updates and nothing else; a comment
+ * line is sent every {@code heartbeat-ms} so proxies don't drop it.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/sync")
+public class ReactiveSyncController {
+
+    private final ReactiveSyncHandler syncHandler;
+    private final ReactiveEventStore eventStore;
+    private final Duration heartbeat;
+
+    public ReactiveSyncController(ReactiveSyncHandler syncHandler, ReactiveEventStore eventStore,
+                                  @Value("${nagada.sync.stream.heartbeat-ms:15000}") long heartbeatMillis) {
+        this.syncHandler = syncHandler;
+        this.eventStore = eventStore;
+        this.heartbeat = Duration.ofMillis(heartbeatMillis);
+    }
+
+    @PostMapping
+    public Mono<SyncResponse> sync(@RequestBody SyncRequest request) {
+        log.info("Received sync request from device: {}", request.getDeviceId());
+        return syncHandler.handle(request);
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ServerEvent>> stream(@RequestParam(name = "after", defaultValue = "0") long after,
+                                                     @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+        long cursor = lastEventId != null ? Math.max(after, lastEventId) : after;
+        log.debug("Opening event stream after serverEventId: {}", cursor);
+        Flux<ServerSentEvent<ServerEvent>> events = eventStore.tailAfter(cursor)
+                .map(event -> ServerSentEvent.<ServerEvent>builder(event)
+                        .id(Long.toString(event.getServerEventId()))
+                        .event("server-event")
+                        .build());
+        Flux<ServerSentEvent<ServerEvent>> heartbeats = Flux.interval(heartbeat)
+                .map(tick -> ServerSentEvent.<ServerEvent>builder().comment("heartbeat").build());
+        return Flux.merge(events, heartbeats);
+    }
+}
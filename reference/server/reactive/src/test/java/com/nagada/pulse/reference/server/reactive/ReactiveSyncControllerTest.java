@@ -0,0 +1,110 @@
+package com.nagada.pulse.reference.server.reactive;
+
+import com.nagada.pulse.protocol.ClientEvent;
+import com.nagada.pulse.protocol.ServerEvent;
+import com.nagada.pulse.protocol.SyncRequest;
+import com.nagada.pulse.protocol.SyncResponse;
+import com.nagada.pulse.reference.server.ReactiveEventStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end tests for the WebFlux sync endpoints on Reactor Netty.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "nagada.store.type=memory")
+public class ReactiveSyncControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveEventStore eventStore;
+
+    private static ClientEvent event(String id) {
+        return new ClientEvent(id, "msg.sent", "{}".getBytes(StandardCharsets.UTF_8), List.of(), 0L);
+    }
+
+    private SyncResponse sync(SyncRequest request) {
+        return webTestClient.post().uri("/sync")
+                .bodyValue(request)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(SyncResponse.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Test
+    void syncAppendsAndReturnsEvents() {
+        long head = eventStore.getLatestServerEventId().block();
+
+        // Given a device pushing one event
+        SyncResponse response = sync(new SyncRequest("client-A", List.of(event("sync-ce-1")), head));
+
+        // Then it is acked and echoed back with the next serverEventId
+        assertEquals(List.of("sync-ce-1"), response.getSuccessClientEventIds());
+        assertEquals(1, response.getNewServerEvents().size());
+        assertEquals(head + 1, response.getNewServerEvents().get(0).getServerEventId());
+    }
+
+    @Test
+    void streamTailsBacklogAndLiveAppends() {
+        long head = eventStore.getLatestServerEventId().block();
+        sync(new SyncRequest("client-A", List.of(event("stream-ce-1")), head));
+
+        // Given a subscriber tailing from before client A's event
+        Flux<ServerSentEvent<ServerEvent>> stream = webTestClient.get().uri("/sync/stream?after=" + head)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ServerEvent>>() { })
+                .getResponseBody()
+                .filter(sse -> sse.data() != null);
+
+        // When client B pushes while the stream is open
+        StepVerifier.create(stream)
+                .assertNext(sse -> {
+                    assertEquals("stream-ce-1", sse.data().getOriginClientEventId());
+                    assertEquals(Long.toString(head + 1), sse.id());
+                })
+                .then(() -> sync(new SyncRequest("client-B", List.of(event("stream-ce-2")), head + 1)))
+                // Then B's event is streamed without the subscriber asking again
+                .assertNext(sse -> assertEquals("stream-ce-2", sse.data().getOriginClientEventId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void streamResumesFromLastEventId() {
+        long head = eventStore.getLatestServerEventId().block();
+        sync(new SyncRequest("client-A", List.of(event("resume-ce-1"), event("resume-ce-2")), head));
+
+        // Given a reconnecting browser that already saw the first event
+        Flux<ServerSentEvent<ServerEvent>> stream = webTestClient.get().uri("/sync/stream")
+                .header("Last-Event-ID", Long.toString(head + 1))
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ServerEvent>>() { })
+                .getResponseBody()
+                .filter(sse -> sse.data() != null);
+
+        // Then only the second one is sent again
+        StepVerifier.create(stream)
+                .assertNext(sse -> assertEquals("resume-ce-2", sse.data().getOriginClientEventId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+}